@@ -29,11 +29,17 @@
  */
 package net.ripe.rpki.commons.crypto.cms;
 
+import com.google.common.io.ByteStreams;
+import net.ripe.rpki.commons.crypto.util.Asn1Util;
 import net.ripe.rpki.commons.crypto.util.BouncyCastleUtil;
+import net.ripe.rpki.commons.crypto.util.ByteBufferInputStream;
+import net.ripe.rpki.commons.crypto.util.SizeLimitedInputStream;
 import net.ripe.rpki.commons.crypto.x509cert.AbstractX509CertificateWrapperException;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateParser;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
 import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.ValidationOptions;
 import net.ripe.rpki.commons.validation.ValidationResult;
 
 import org.bouncycastle.asn1.*;
@@ -50,6 +56,7 @@ import org.joda.time.DateTime;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
@@ -72,6 +79,8 @@ public abstract class RpkiSignedObjectParser {
 
     private ValidationResult validationResult;
 
+    private ValidationOptions options = new ValidationOptions();
+
     public final void parse(String location, byte[] encoded) {
         parse(ValidationResult.withLocation(location), encoded);
     }
@@ -82,6 +91,65 @@ public abstract class RpkiSignedObjectParser {
         parseCms();
     }
 
+    /**
+     * Parses <code>encoded</code> within the object size and ASN.1 nesting limits of <code>options</code>.
+     */
+    public final void parse(ValidationResult result, byte[] encoded, ValidationOptions options) {
+        this.options = options;
+        parse(result, encoded);
+    }
+
+    /**
+     * Parses the remaining bytes of <code>encoded</code>, which may be a direct or memory mapped buffer. A
+     * buffer wrapping exactly its backing array is used without copying; other buffers are checked against the
+     * size limit first and then copied once, into the array returned by the parsed object's
+     * <code>getEncoded()</code>.
+     */
+    public final void parse(ValidationResult result, ByteBuffer encoded, ValidationOptions options) {
+        this.validationResult = result;
+        this.options = options;
+        int maxSize = options.getMaxObjectSize(getObjectType());
+        if (encoded.remaining() > maxSize) {
+            result.error(OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return;
+        }
+        parse(result, ByteBufferInputStream.toByteArray(encoded));
+    }
+
+    /**
+     * Reads <code>input</code> up to its end and parses it. Reading stops with a size limit failure as soon as
+     * more bytes than the object size limit of <code>options</code> are read, so oversized objects are never
+     * buffered completely. The stream is not closed.
+     */
+    public final void parse(ValidationResult result, InputStream input, ValidationOptions options) {
+        this.validationResult = result;
+        this.options = options;
+        int maxSize = options.getMaxObjectSize(getObjectType());
+        byte[] bytes;
+        try {
+            bytes = SizeLimitedInputStream.toByteArray(input, maxSize);
+        } catch (SizeLimitedInputStream.SizeLimitExceededException e) {
+            result.error(OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return;
+        } catch (IOException e) {
+            result.error(CMS_DATA_PARSING);
+            return;
+        }
+        parse(result, bytes);
+    }
+
+    protected ValidationOptions getValidationOptions() {
+        return options;
+    }
+
+    /**
+     * @return the type of object parsed, which selects the size limit. Defaults to the type of the validation
+     * location.
+     */
+    protected RepositoryObjectType getObjectType() {
+        return RepositoryObjectType.parse(validationResult.getCurrentLocation().getName());
+    }
+
     protected byte[] getEncoded() {
         return encoded;
     }
@@ -107,7 +175,21 @@ public abstract class RpkiSignedObjectParser {
     }
 
     public void decodeRawContent(InputStream content) throws IOException {
-        try (ASN1InputStream asn1InputStream = new ASN1InputStream(content)) {
+        byte[] bytes;
+        try {
+            bytes = ByteStreams.toByteArray(content);
+        } catch (SizeLimitedInputStream.SizeLimitExceededException e) {
+            throw e;
+        } catch (IOException e) {
+            validationResult.error(CMS_CONTENT_PARSING);
+            return;
+        }
+        int maxDepth = options.getMaxAsn1NestingDepth();
+        if (!Asn1Util.isNestingDepthWithin(bytes, maxDepth)) {
+            validationResult.error(OBJECTS_NESTING_LIMIT, String.valueOf(maxDepth));
+            return;
+        }
+        try (ASN1InputStream asn1InputStream = new ASN1InputStream(bytes)) {
             decodeAsn1Content(asn1InputStream.readObject());
 
             validationResult.rejectIfFalse(asn1InputStream.readObject() == null, ONLY_ONE_SIGNED_OBJECT);
@@ -121,6 +203,11 @@ public abstract class RpkiSignedObjectParser {
     }
 
     private void parseCms() {
+        int maxSize = options.getMaxObjectSize(getObjectType());
+        if (encoded.length > maxSize) {
+            validationResult.error(OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return;
+        }
         CMSSignedDataParser sp;
         try {
             sp = new CMSSignedDataParser(BouncyCastleUtil.DIGEST_CALCULATOR_PROVIDER, encoded);
@@ -146,9 +233,12 @@ public abstract class RpkiSignedObjectParser {
         contentType = signedContent.getContentType();
 
 
-        try (InputStream signedContentStream = signedContent.getContentStream()) {
+        int maxSize = options.getMaxObjectSize(getObjectType());
+        try (InputStream signedContentStream = new SizeLimitedInputStream(signedContent.getContentStream(), maxSize)) {
             decodeRawContent(signedContentStream);
             validationResult.pass(DECODE_CONTENT);
+        } catch (SizeLimitedInputStream.SizeLimitExceededException e) {
+            validationResult.error(OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
         } catch (IOException e) {
             validationResult.error(DECODE_CONTENT);
             return;
@@ -181,7 +271,7 @@ public abstract class RpkiSignedObjectParser {
         try {
             X509Certificate x509certificate = (X509Certificate) certificate;
             X509ResourceCertificateParser parser = new X509ResourceCertificateParser();
-            parser.parse(validationResult, x509certificate.getEncoded());
+            parser.parse(validationResult, x509certificate.getEncoded(), options);
             return parser.isSuccess() ? parser.getCertificate() : null;
         } catch (CertificateEncodingException e) {
             throw new AbstractX509CertificateWrapperException("cannot parse already decoded X509 certificate: " + e, e);
@@ -32,6 +32,7 @@ package net.ripe.rpki.commons.crypto.cms.ghostbuster;
 import com.google.common.io.CharStreams;
 import net.ripe.rpki.commons.crypto.cms.RpkiSignedObjectInfo;
 import net.ripe.rpki.commons.crypto.cms.RpkiSignedObjectParser;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.commons.validation.ValidationString;
 import org.apache.commons.lang.StringUtils;
@@ -51,6 +52,14 @@ public class GhostbustersCmsParser extends RpkiSignedObjectParser {
         validateGhostbusters();
     }
 
+    @Override
+    protected RepositoryObjectType getObjectType() {
+        return RepositoryObjectType.Gbr;
+    }
+
+    /**
+     * Reads the vCard from <code>content</code>, which is bounded by the size limit for Ghostbusters records.
+     */
     @Override
     public void decodeRawContent(InputStream content) throws IOException {
         vCardPayload = CharStreams.toString(new InputStreamReader(content, StandardCharsets.UTF_8));
@@ -31,6 +31,7 @@ package net.ripe.rpki.commons.crypto.cms.manifest;
 
 import net.ripe.rpki.commons.crypto.cms.RpkiSignedObjectInfo;
 import net.ripe.rpki.commons.crypto.cms.RpkiSignedObjectParser;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
 import net.ripe.rpki.commons.util.UTC;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import org.apache.commons.lang.Validate;
@@ -77,6 +78,11 @@ public class ManifestCmsParser extends RpkiSignedObjectParser {
         }
     }
 
+    @Override
+    protected RepositoryObjectType getObjectType() {
+        return RepositoryObjectType.Manifest;
+    }
+
     public boolean isSuccess() {
         return !getValidationResult().hasFailures();
     }
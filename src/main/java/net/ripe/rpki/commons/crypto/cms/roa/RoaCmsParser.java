@@ -37,6 +37,7 @@ import net.ripe.rpki.commons.crypto.cms.RpkiSignedObjectInfo;
 import net.ripe.rpki.commons.crypto.cms.RpkiSignedObjectParser;
 import net.ripe.rpki.commons.crypto.rfc3779.AddressFamily;
 import net.ripe.rpki.commons.crypto.util.Asn1Util;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -64,6 +65,11 @@ public class RoaCmsParser extends RpkiSignedObjectParser {
         validateRoa();
     }
 
+    @Override
+    protected RepositoryObjectType getObjectType() {
+        return RepositoryObjectType.Roa;
+    }
+
     public boolean isSuccess() {
         return !getValidationResult().hasFailureForCurrentLocation();
     }
@@ -0,0 +1,209 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.crypto.crl;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.ValidationCheck;
+import net.ripe.rpki.commons.validation.ValidationOptions;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.ValidationString;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import org.apache.commons.lang.Validate;
+import org.bouncycastle.util.encoders.Hex;
+import org.joda.time.DateTime;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe {@link CrlLocator} caching parsed CRLs by URI and SHA-256 hash of their content, so a CRL
+ * shared by all objects of a publication point is parsed and signature checked once instead of once per
+ * object. The CRL content is still loaded for every request to detect changes; concurrent requests for
+ * the same content wait for a single parse.
+ * <p>
+ * Every request validates the CRL against the issuer in the validation context and records the checks in
+ * the validation result, preceded by the size and parse checks that were recorded once for the cached
+ * entry. {@link X509Crl#verify} remembers the key it was verified with, so repeated validation against the
+ * same issuer does not check the signature again. Entries are evicted when a CRL with different content is
+ * loaded from the same URI, and when their next update time has passed.
+ */
+public class CachingCrlLocator implements CrlLocator {
+
+    private static final long EVICTION_INTERVAL_MILLIS = 60 * 1000L;
+
+    /**
+     * Loads the encoded CRL for a URI, for example from a local rsync mirror.
+     */
+    public interface Loader {
+        /**
+         * @return the encoded CRL, or <code>null</code> when there is no CRL at this URI.
+         */
+        byte[] load(URI uri);
+    }
+
+    private final Loader loader;
+    private final ValidationOptions options;
+    private final ConcurrentMap<String, CompletableFuture<CachedCrl>> entries = new ConcurrentHashMap<String, CompletableFuture<CachedCrl>>();
+    private final ConcurrentMap<URI, String> latestKeyByUri = new ConcurrentHashMap<URI, String>();
+    private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+    public CachingCrlLocator(Loader loader, ValidationOptions options) {
+        Validate.notNull(loader, "loader is required");
+        Validate.notNull(options, "options are required");
+        this.loader = loader;
+        this.options = options;
+    }
+
+    @Override
+    public X509Crl getCrl(URI uri, CertificateRepositoryObjectValidationContext context, ValidationResult result) {
+        byte[] encoded = loader.load(uri);
+        if (encoded == null) {
+            return null;
+        }
+        CachedCrl cached = lookup(uri, encoded);
+        cached.copyParseChecksTo(result);
+        if (cached.crl == null) {
+            return null;
+        }
+        cached.crl.validate(uri.toString(), context, this, options, result);
+        return cached.crl;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all CRLs whose next update time has passed.
+     */
+    public void evictExpired() {
+        DateTime now = UTC.dateTime();
+        for (Iterator<Map.Entry<String, CompletableFuture<CachedCrl>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            CompletableFuture<CachedCrl> future = it.next().getValue();
+            CachedCrl cached = future.getNow(null);
+            if (cached != null && cached.isExpired(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    private CachedCrl lookup(URI uri, byte[] encoded) {
+        String key = uri + "#" + Hex.toHexString(ManifestCms.hashContents(encoded));
+        CompletableFuture<CachedCrl> future = entries.get(key);
+        if (future == null) {
+            CompletableFuture<CachedCrl> created = new CompletableFuture<CachedCrl>();
+            future = entries.putIfAbsent(key, created);
+            if (future == null) {
+                future = created;
+                load(uri, key, encoded, created);
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void load(URI uri, String key, byte[] encoded, CompletableFuture<CachedCrl> future) {
+        try {
+            ValidationResult parseResult = ValidationResult.withLocation(uri);
+            X509Crl crl = parse(encoded, parseResult);
+            if (crl != null) {
+                // parse the CRL now, not while other threads use it
+                crl.getCrl();
+            }
+            future.complete(new CachedCrl(crl, parseResult.getAllValidationChecksForCurrentLocation()));
+        } catch (RuntimeException e) {
+            entries.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        String previous = latestKeyByUri.put(uri, key);
+        if (previous != null && !previous.equals(key)) {
+            entries.remove(previous);
+        }
+        long last = lastEviction.get();
+        long now = System.currentTimeMillis();
+        if (now - last > EVICTION_INTERVAL_MILLIS && lastEviction.compareAndSet(last, now)) {
+            evictExpired();
+        }
+    }
+
+    private X509Crl parse(byte[] encoded, ValidationResult result) {
+        int maxSize = options.getMaxObjectSize(RepositoryObjectType.Crl);
+        if (encoded.length > maxSize) {
+            result.error(ValidationString.OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return null;
+        }
+        return X509Crl.parseDerEncoded(encoded, result);
+    }
+
+    private static final class CachedCrl {
+        private final X509Crl crl;
+        private final List<ValidationCheck> parseChecks;
+        private final DateTime nextUpdateTime;
+
+        private CachedCrl(X509Crl crl, List<ValidationCheck> parseChecks) {
+            this.crl = crl;
+            this.parseChecks = parseChecks;
+            this.nextUpdateTime = crl == null || crl.getCrl().getNextUpdate() == null ? null : crl.getNextUpdateTime();
+        }
+
+        private void copyParseChecksTo(ValidationResult result) {
+            for (ValidationCheck check : parseChecks) {
+                switch (check.getStatus()) {
+                    case ERROR:
+                        result.error(check.getKey(), check.getParams());
+                        break;
+                    case WARNING:
+                        result.warn(check.getKey(), check.getParams());
+                        break;
+                    default:
+                        result.pass(check.getKey(), check.getParams());
+                }
+            }
+        }
+
+        private boolean isExpired(DateTime now) {
+            return nextUpdateTime == null || nextUpdateTime.isBefore(now);
+        }
+    }
+}
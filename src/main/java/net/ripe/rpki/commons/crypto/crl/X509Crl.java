@@ -29,8 +29,9 @@
  */
 package net.ripe.rpki.commons.crypto.crl;
 
-import com.google.common.io.Closer;
 import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.util.ByteBufferInputStream;
+import net.ripe.rpki.commons.crypto.util.SizeLimitedInputStream;
 import net.ripe.rpki.commons.crypto.x509cert.X509CertificateUtil;
 import net.ripe.rpki.commons.util.EqualsSupport;
 import net.ripe.rpki.commons.util.UTC;
@@ -47,9 +48,11 @@ import org.joda.time.DateTime;
 import javax.security.auth.x500.X500Principal;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -77,6 +80,8 @@ public class X509Crl implements CertificateRepositoryObject {
 
     private transient X509CRL crl;
 
+    private transient volatile PublicKey verifiedKey;
+
     public X509Crl(byte[] encoded) { //NOPMD - ArrayIsStoredDirectly
         Validate.notNull(encoded);
         this.encoded = encoded;
@@ -116,30 +121,47 @@ public class X509Crl implements CertificateRepositoryObject {
         }
     }
 
-    private static X509CRL makeX509CRLFromEncoded(byte[] encoded) {
-        final X509CRL crl;
-        if (null != encoded) {
-            try {
-                final Closer closer = Closer.create();
-                try {
-                    final ByteArrayInputStream in = new ByteArrayInputStream(encoded);
-                    final CertificateFactory factory = CertificateFactory.getInstance("X.509");
-                    crl = (X509CRL) factory.generateCRL(in);
-                } catch (final CertificateException | CRLException e) {
-                    throw closer.rethrow(new IllegalArgumentException(e));
-                } catch (final Throwable t) {
-                    throw closer.rethrow(t);
-                } finally {
-                    closer.close();
-                }
-            } catch (final IOException e) {
-                throw new RuntimeException("Error managing CRL I/O stream", e);
+    /**
+     * Parses the remaining bytes of <code>encoded</code>, which may be a direct or memory mapped buffer. The
+     * buffer is read as a bounded stream, so the caller does not need to copy it to an array first. This is not
+     * zero-copy: the JCA certificate factory reads the CRL into its own array, and the parsed CRL keeps a copy
+     * of its encoding.
+     */
+    public static X509Crl parseDerEncoded(ByteBuffer encoded, ValidationResult validationResult) {
+        return parseDerEncoded(new ByteBufferInputStream(encoded), encoded.remaining(), validationResult);
+    }
+
+    /**
+     * Parses a single CRL read from <code>input</code>. Reading stops with a size limit failure as soon as more
+     * than <code>maxLength</code> bytes are read. The stream is not closed.
+     */
+    public static X509Crl parseDerEncoded(InputStream input, int maxLength, ValidationResult validationResult) {
+        SizeLimitedInputStream bounded = new SizeLimitedInputStream(input, maxLength);
+        try {
+            X509Crl crl = new X509Crl(makeX509CRL(bounded));
+            validationResult.pass(ValidationString.CRL_PARSED);
+            return crl;
+        } catch (IllegalArgumentException e) {
+            if (bounded.isLimitExceeded()) {
+                validationResult.error(ValidationString.OBJECTS_SIZE_LIMIT, String.valueOf(maxLength));
+            } else {
+                validationResult.error(ValidationString.CRL_PARSED);
             }
-        } else {
-            crl = null;
+            return null;
         }
-        return crl;
+    }
+
+    private static X509CRL makeX509CRLFromEncoded(byte[] encoded) {
+        return encoded == null ? null : makeX509CRL(new ByteArrayInputStream(encoded));
+    }
 
+    private static X509CRL makeX509CRL(InputStream in) {
+        try {
+            final CertificateFactory factory = CertificateFactory.getInstance("X.509");
+            return (X509CRL) factory.generateCRL(in);
+        } catch (final CertificateException | CRLException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
     @Override
@@ -261,9 +283,17 @@ public class X509Crl implements CertificateRepositoryObject {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Verifies the signature of this CRL. The last key that successfully verified the signature is
+     * remembered, so verifying a shared instance again with the same key is cheap.
+     */
     public void verify(PublicKey publicKey) throws SignatureException {
+        if (publicKey.equals(verifiedKey)) {
+            return;
+        }
         try {
             getCrl().verify(publicKey, DEFAULT_SIGNATURE_PROVIDER);
+            verifiedKey = publicKey;
         } catch (InvalidKeyException e) {
             throw new IllegalArgumentException(e);
         } catch (CRLException e) {
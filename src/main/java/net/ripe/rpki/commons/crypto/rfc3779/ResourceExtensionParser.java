@@ -35,6 +35,8 @@ import net.ripe.ipresource.IpResource;
 import net.ripe.ipresource.IpResourceRange;
 import net.ripe.ipresource.IpResourceSet;
 import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.crypto.util.Asn1Util;
+import net.ripe.rpki.commons.validation.ValidationOptions;
 import org.apache.commons.lang.Validate;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -61,6 +63,18 @@ public class ResourceExtensionParser {
 
     private static final AddressFamily[] SUPPORTED_ADDRESS_FAMILIES = new AddressFamily[]{AddressFamily.IPV4, AddressFamily.IPV6};
 
+    private final int maxNestingDepth;
+
+    public ResourceExtensionParser() {
+        this(ValidationOptions.DEFAULT_MAX_ASN1_NESTING_DEPTH);
+    }
+
+    /**
+     * @param maxNestingDepth extensions nesting more constructed ASN.1 values are rejected before they are decoded.
+     */
+    public ResourceExtensionParser(int maxNestingDepth) {
+        this.maxNestingDepth = maxNestingDepth;
+    }
 
     /**
      * Parses the IP address blocks extension and merges all address families
@@ -73,7 +87,7 @@ public class ResourceExtensionParser {
         ASN1Primitive octetString = decode(extension);
         expect(octetString, ASN1OctetString.class);
         ASN1OctetString o = (ASN1OctetString) octetString;
-        SortedMap<AddressFamily, IpResourceSet> map = derToIpAddressBlocks(decode(o.getOctets()));
+        SortedMap<AddressFamily, IpResourceSet> map = derToIpAddressBlocks(decodeWithinNestingDepth(o.getOctets()));
 
         for (AddressFamily family : SUPPORTED_ADDRESS_FAMILIES) {
             if (!map.containsKey(family)) {
@@ -97,12 +111,17 @@ public class ResourceExtensionParser {
         ASN1Primitive octetString = decode(extension);
         expect(octetString, ASN1OctetString.class);
         ASN1OctetString o = (ASN1OctetString) octetString;
-        IpResourceSet[] resources = derToAsIdentifiers(decode(o.getOctets()));
+        IpResourceSet[] resources = derToAsIdentifiers(decodeWithinNestingDepth(o.getOctets()));
         Validate.notNull(resources[1], "inheritance of resources has not been implemented yet");
         Validate.isTrue(resources[1].isEmpty(), "routing domain identifiers (RDI) not supported");
         return resources[0];
     }
 
+    private ASN1Primitive decodeWithinNestingDepth(byte[] encoded) {
+        Validate.isTrue(Asn1Util.isNestingDepthWithin(encoded, maxNestingDepth), "resource extension exceeds the maximum nesting depth of " + maxNestingDepth);
+        return decode(encoded);
+    }
+
     /**
      * IPAddrBlocks ::= SEQUENCE OF IPAddressFamily
      */
@@ -170,4 +170,63 @@ public final class Asn1Util {
         Validate.isTrue(prefix.isLegalPrefix(), "not a legal prefix: " + prefix);
         return resourceToBitString(prefix.getStart(), prefix.getPrefixLength());
     }
+
+    /**
+     * Checks that <code>encoded</code> nests at most <code>maxDepth</code> constructed values, by walking the
+     * tag and length headers without decoding any values. Use this before decoding untrusted content, as
+     * decoding recurses for every nesting level. Malformed encodings pass this check and are left to the decoder
+     * to reject.
+     */
+    public static boolean isNestingDepthWithin(byte[] encoded, int maxDepth) {
+        // End offset of every open constructed value, -1 for indefinite length.
+        int[] ends = new int[maxDepth];
+        int depth = 0;
+        int pos = 0;
+        while (pos < encoded.length) {
+            if (depth > 0 && ends[depth - 1] >= 0 && pos >= ends[depth - 1]) {
+                depth--;
+                continue;
+            }
+            if (depth > 0 && ends[depth - 1] < 0 && encoded[pos] == 0 && pos + 1 < encoded.length && encoded[pos + 1] == 0) {
+                pos += 2;
+                depth--;
+                continue;
+            }
+            int tag = encoded[pos++] & 0xff;
+            if ((tag & 0x1f) == 0x1f) {
+                while (pos < encoded.length && (encoded[pos++] & 0x80) != 0) {
+                    // Skip high tag number.
+                }
+            }
+            if (pos >= encoded.length) {
+                return true;
+            }
+            int first = encoded[pos++] & 0xff;
+            long length = -1;
+            if (first < 0x80) {
+                length = first;
+            } else if (first > 0x80) {
+                int count = first & 0x7f;
+                if (count > 4 || pos + count > encoded.length) {
+                    return true;
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    length = (length << 8) | (encoded[pos++] & 0xff);
+                }
+            }
+            if ((tag & 0x20) != 0) {
+                if (depth == maxDepth) {
+                    return false;
+                }
+                ends[depth++] = length < 0 ? -1 : (int) Math.min(pos + length, encoded.length);
+            } else {
+                if (length < 0) {
+                    return true;
+                }
+                pos = (int) Math.min(pos + length, encoded.length);
+            }
+        }
+        return true;
+    }
 }
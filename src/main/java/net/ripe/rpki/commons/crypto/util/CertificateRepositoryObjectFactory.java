@@ -44,7 +44,9 @@ import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateParser;
 import net.ripe.rpki.commons.util.RepositoryObjectType;
 import net.ripe.rpki.commons.validation.ValidationChecks;
+import net.ripe.rpki.commons.validation.ValidationOptions;
 import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.ValidationString;
 
 public final class CertificateRepositoryObjectFactory {
 
@@ -59,22 +61,39 @@ public final class CertificateRepositoryObjectFactory {
      * but its contents can not be parsed.
      */
     public static CertificateRepositoryObject createCertificateRepositoryObject(byte[] encoded, ValidationResult validationResult) {
+        return createCertificateRepositoryObject(encoded, validationResult, new ValidationOptions());
+    }
+
+    /**
+     * @param encoded the DER encoded object.
+     * @param options the object size and ASN.1 nesting limits to parse with.
+     *
+     * @return a parsed {@link CertificateRepositoryObject} or {@code null} in case the encoded object has a valid location
+     * but its contents can not be parsed or exceed the limits.
+     */
+    public static CertificateRepositoryObject createCertificateRepositoryObject(byte[] encoded, ValidationResult validationResult, ValidationOptions options) {
 
         RepositoryObjectType objectType = RepositoryObjectType.parse(validationResult.getCurrentLocation().getName());
 
         ValidationChecks.knownObjectType(objectType, validationResult);
 
+        int maxSize = options.getMaxObjectSize(objectType);
+        if (encoded.length > maxSize) {
+            validationResult.error(ValidationString.OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return null;
+        }
+
         switch (objectType) {
             case Manifest:
-                return parseManifest(encoded, validationResult);
+                return parseManifest(encoded, validationResult, options);
             case Roa:
-                return parseRoa(encoded, validationResult);
+                return parseRoa(encoded, validationResult, options);
             case Certificate:
-                return parseX509Certificate(encoded, validationResult);
+                return parseX509Certificate(encoded, validationResult, options);
             case Crl:
                 return parseCrl(encoded, validationResult);
             case Gbr:
-                return parseGbr(encoded, validationResult);
+                return parseGbr(encoded, validationResult, options);
             case Unknown:
                 return new UnknownCertificateRepositoryObject(encoded);
             default:
@@ -86,17 +105,17 @@ public final class CertificateRepositoryObjectFactory {
         return X509Crl.parseDerEncoded(encoded, validationResult);
     }
 
-    private static X509GenericCertificate parseX509Certificate(byte[] encoded, ValidationResult validationResult) {
+    private static X509GenericCertificate parseX509Certificate(byte[] encoded, ValidationResult validationResult, ValidationOptions options) {
         final ValidationResult temp = ValidationResult.withLocation(validationResult.getCurrentLocation());
-        X509GenericCertificate cert = X509ResourceCertificateParser.parseCertificate(temp, encoded);
+        X509GenericCertificate cert = X509ResourceCertificateParser.parseCertificate(temp, encoded, options);
         validationResult.addAll(temp);
         return cert;
     }
 
-    private static RoaCms parseRoa(byte[] encoded, ValidationResult validationResult) {
+    private static RoaCms parseRoa(byte[] encoded, ValidationResult validationResult, ValidationOptions options) {
         final RoaCmsParser parser = new RoaCmsParser();
         final ValidationResult temp = ValidationResult.withLocation(validationResult.getCurrentLocation());
-        parser.parse(temp, encoded);
+        parser.parse(temp, encoded, options);
         validationResult.addAll(temp);
         if (parser.isSuccess()) {
             return parser.getRoaCms();
@@ -105,10 +124,10 @@ public final class CertificateRepositoryObjectFactory {
         }
     }
 
-    private static ManifestCms parseManifest(byte[] encoded, ValidationResult validationResult) {
+    private static ManifestCms parseManifest(byte[] encoded, ValidationResult validationResult, ValidationOptions options) {
         final ManifestCmsParser parser = new ManifestCmsParser();
         final ValidationResult temp = ValidationResult.withLocation(validationResult.getCurrentLocation());
-        parser.parse(temp, encoded);
+        parser.parse(temp, encoded, options);
         if (parser.isSuccess()) {
             validationResult.addAll(temp);
             return parser.getManifestCms();
@@ -118,10 +137,10 @@ public final class CertificateRepositoryObjectFactory {
         }
     }
 
-    private static GhostbustersCms parseGbr(byte[] encoded, ValidationResult validationResult) {
+    private static GhostbustersCms parseGbr(byte[] encoded, ValidationResult validationResult, ValidationOptions options) {
         final GhostbustersCmsParser parser = new GhostbustersCmsParser();
         final ValidationResult temp = ValidationResult.withLocation(validationResult.getCurrentLocation());
-        parser.parse(temp, encoded);
+        parser.parse(temp, encoded, options);
         if (parser.isSuccess()) {
             validationResult.addAll(temp);
             return parser.getGhostbustersCms();
@@ -0,0 +1,144 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.crypto.util;
+
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import org.joda.time.DateTime;
+
+import java.math.BigInteger;
+import java.net.URI;
+
+/**
+ * The fields of a repository object needed to build certificate graphs and fetch plans, as extracted by
+ * {@link RepositoryObjectHeaderParser} without validating the object. For signed objects the key
+ * identifiers and URIs are those of the embedded EE certificate.
+ * <p>
+ * Fields that are absent from the object, or do not apply to its type, are <code>null</code>. Only
+ * rsync URIs are reported for the AIA, CRL distribution point and SIA repository, manifest and signed
+ * object locations, and only HTTP(S) URIs for the RRDP notification location, consistent with {@link net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate}.
+ */
+public final class RepositoryObjectHeader {
+
+    private final RepositoryObjectType type;
+    private final byte[] subjectKeyIdentifier;
+    private final byte[] authorityKeyIdentifier;
+    private final String parentCertificateUri;
+    private final String crlUri;
+    private final String repositoryUri;
+    private final String manifestUri;
+    private final String signedObjectUri;
+    private final String rrdpNotifyUri;
+    private final BigInteger number;
+    private final DateTime thisUpdateTime;
+    private final DateTime nextUpdateTime;
+
+    RepositoryObjectHeader(RepositoryObjectType type, byte[] subjectKeyIdentifier, byte[] authorityKeyIdentifier,
+                           String parentCertificateUri, String crlUri, String repositoryUri, String manifestUri,
+                           String signedObjectUri, String rrdpNotifyUri, BigInteger number, DateTime thisUpdateTime, DateTime nextUpdateTime) {
+        this.type = type;
+        this.subjectKeyIdentifier = subjectKeyIdentifier;
+        this.authorityKeyIdentifier = authorityKeyIdentifier;
+        this.parentCertificateUri = parentCertificateUri;
+        this.crlUri = crlUri;
+        this.repositoryUri = repositoryUri;
+        this.manifestUri = manifestUri;
+        this.signedObjectUri = signedObjectUri;
+        this.rrdpNotifyUri = rrdpNotifyUri;
+        this.number = number;
+        this.thisUpdateTime = thisUpdateTime;
+        this.nextUpdateTime = nextUpdateTime;
+    }
+
+    /**
+     * @return {@link RepositoryObjectType#Certificate}, {@link RepositoryObjectType#Crl}, or the type of a
+     * signed object by its content type. Signed objects with other content types are
+     * {@link RepositoryObjectType#Unknown}.
+     */
+    public RepositoryObjectType getType() {
+        return type;
+    }
+
+    public byte[] getSubjectKeyIdentifier() {
+        return subjectKeyIdentifier == null ? null : subjectKeyIdentifier.clone();
+    }
+
+    public byte[] getAuthorityKeyIdentifier() {
+        return authorityKeyIdentifier == null ? null : authorityKeyIdentifier.clone();
+    }
+
+    public URI getParentCertificateUri() {
+        return toUri(parentCertificateUri);
+    }
+
+    public URI getCrlUri() {
+        return toUri(crlUri);
+    }
+
+    public URI getRepositoryUri() {
+        return toUri(repositoryUri);
+    }
+
+    public URI getManifestUri() {
+        return toUri(manifestUri);
+    }
+
+    public URI getSignedObjectUri() {
+        return toUri(signedObjectUri);
+    }
+
+    public URI getRrdpNotifyUri() {
+        return toUri(rrdpNotifyUri);
+    }
+
+    /**
+     * @return the CRL number of a CRL or the manifest number of a manifest.
+     */
+    public BigInteger getNumber() {
+        return number;
+    }
+
+    /**
+     * @return this update time of a CRL or manifest.
+     */
+    public DateTime getThisUpdateTime() {
+        return thisUpdateTime;
+    }
+
+    /**
+     * @return next update time of a CRL or manifest.
+     */
+    public DateTime getNextUpdateTime() {
+        return nextUpdateTime;
+    }
+
+    private static URI toUri(String uri) {
+        return uri == null ? null : URI.create(uri);
+    }
+}
@@ -0,0 +1,522 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.crypto.util;
+
+import net.ripe.rpki.commons.crypto.cms.ghostbuster.GhostbustersCms;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
+import net.ripe.rpki.commons.crypto.x509cert.X509CertificateInformationAccessDescriptor;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Extracts a {@link RepositoryObjectHeader} from DER encoded certificates, CRLs and RPKI signed objects by
+ * walking the encoding directly, without building ASN.1 object trees, parsing public keys or resource
+ * extensions, or verifying signatures. Only the structure leading to the extracted fields is checked,
+ * so a successfully peeked object may still be invalid and must be fully parsed and validated before
+ * it is used.
+ */
+public final class RepositoryObjectHeaderParser {
+
+    private static final int BOOLEAN = 0x01;
+    private static final int INTEGER = 0x02;
+    private static final int OCTET_STRING = 0x04;
+    private static final int OBJECT_IDENTIFIER = 0x06;
+    private static final int UTC_TIME = 0x17;
+    private static final int GENERALIZED_TIME = 0x18;
+    private static final int SEQUENCE = 0x30;
+    private static final int SET = 0x31;
+    private static final int CONTEXT_0 = 0x80;
+    private static final int CONTEXT_1 = 0x81;
+    private static final int CONTEXT_2 = 0x82;
+    private static final int URI_NAME = 0x86;
+    private static final int CONTEXT_CONSTRUCTED_0 = 0xa0;
+    private static final int CONTEXT_CONSTRUCTED_3 = 0xa3;
+
+    private static final byte[] SUBJECT_KEY_IDENTIFIER = oid(Extension.subjectKeyIdentifier);
+    private static final byte[] AUTHORITY_KEY_IDENTIFIER = oid(Extension.authorityKeyIdentifier);
+    private static final byte[] AUTHORITY_INFO_ACCESS = oid(Extension.authorityInfoAccess);
+    private static final byte[] SUBJECT_INFO_ACCESS = oid(Extension.subjectInfoAccess);
+    private static final byte[] CRL_DISTRIBUTION_POINTS = oid(Extension.cRLDistributionPoints);
+    private static final byte[] CRL_NUMBER = oid(Extension.cRLNumber);
+    private static final byte[] CA_ISSUERS = oid(X509CertificateInformationAccessDescriptor.ID_CA_CA_ISSUERS);
+    private static final byte[] CA_REPOSITORY = oid(X509CertificateInformationAccessDescriptor.ID_AD_CA_REPOSITORY);
+    private static final byte[] RPKI_MANIFEST = oid(X509CertificateInformationAccessDescriptor.ID_AD_RPKI_MANIFEST);
+    private static final byte[] SIGNED_OBJECT = oid(X509CertificateInformationAccessDescriptor.ID_AD_SIGNED_OBJECT);
+    private static final byte[] RPKI_NOTIFY = oid(X509CertificateInformationAccessDescriptor.ID_AD_RPKI_NOTIFY);
+    private static final byte[] SIGNED_DATA = oid(CMSObjectIdentifiers.signedData);
+    private static final byte[] MANIFEST = oid(new ASN1ObjectIdentifier(ManifestCms.CONTENT_TYPE_OID));
+    private static final byte[] ROA = oid(RoaCms.CONTENT_TYPE);
+    private static final byte[] GHOSTBUSTERS = oid(GhostbustersCms.CONTENT_TYPE);
+
+    private RepositoryObjectHeaderParser() {
+    }
+
+    /**
+     * @throws RepositoryObjectHeaderException if the encoding is not a certificate, CRL or signed object.
+     */
+    public static RepositoryObjectHeader parse(byte[] encoded) {
+        return parse(encoded, 0, encoded.length);
+    }
+
+    public static RepositoryObjectHeader parse(byte[] encoded, int offset, int length) {
+        try {
+            Fields fields = new Fields();
+            Der outer = new Der(encoded, offset, offset + length);
+            outer.next(SEQUENCE);
+            Der object = outer.enter();
+            int first = object.peekTag();
+            if (first == OBJECT_IDENTIFIER) {
+                signedObject(object, fields);
+            } else if (first == SEQUENCE && isCrl(object.copy())) {
+                fields.type = RepositoryObjectType.Crl;
+                crl(object, fields);
+            } else {
+                fields.type = RepositoryObjectType.Certificate;
+                certificate(object, fields);
+            }
+            return fields.toHeader();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new RepositoryObjectHeaderException("truncated DER encoding", e);
+        }
+    }
+
+    private static boolean isCrl(Der object) {
+        object.next(SEQUENCE);
+        Der tbs = object.enter();
+        if (tbs.peekTag() == CONTEXT_CONSTRUCTED_0) {
+            return false;
+        }
+        tbs.nextIf(INTEGER);
+        tbs.next(SEQUENCE);
+        tbs.next(SEQUENCE);
+        return tbs.hasNext() && isTime(tbs.peekTag());
+    }
+
+    /**
+     * @param certificate positioned at the TBSCertificate.
+     */
+    private static void certificate(Der certificate, Fields fields) {
+        certificate.next(SEQUENCE);
+        Der tbs = certificate.enter();
+        tbs.nextIf(CONTEXT_CONSTRUCTED_0);
+        tbs.next(INTEGER);
+        tbs.next(SEQUENCE);
+        tbs.next(SEQUENCE);
+        tbs.next(SEQUENCE);
+        tbs.next(SEQUENCE);
+        tbs.next(SEQUENCE);
+        tbs.nextIf(CONTEXT_1);
+        tbs.nextIf(CONTEXT_2);
+        if (tbs.nextIf(CONTEXT_CONSTRUCTED_3)) {
+            Der wrapper = tbs.enter();
+            wrapper.next(SEQUENCE);
+            extensions(wrapper.enter(), fields);
+        }
+    }
+
+    /**
+     * @param crl positioned at the TBSCertList.
+     */
+    private static void crl(Der crl, Fields fields) {
+        crl.next(SEQUENCE);
+        Der tbs = crl.enter();
+        tbs.nextIf(INTEGER);
+        tbs.next(SEQUENCE);
+        tbs.next(SEQUENCE);
+        tbs.next();
+        fields.thisUpdateTime = tbs.time();
+        if (tbs.hasNext() && isTime(tbs.peekTag())) {
+            tbs.next();
+            fields.nextUpdateTime = tbs.time();
+        }
+        tbs.nextIf(SEQUENCE);
+        if (tbs.nextIf(CONTEXT_CONSTRUCTED_0)) {
+            Der wrapper = tbs.enter();
+            wrapper.next(SEQUENCE);
+            extensions(wrapper.enter(), fields);
+        }
+    }
+
+    /**
+     * @param contentInfo positioned at the content type of the CMS ContentInfo.
+     */
+    private static void signedObject(Der contentInfo, Fields fields) {
+        contentInfo.next(OBJECT_IDENTIFIER);
+        if (!contentInfo.valueEquals(SIGNED_DATA)) {
+            throw new RepositoryObjectHeaderException("CMS content type is not signed data");
+        }
+        contentInfo.next(CONTEXT_CONSTRUCTED_0);
+        Der explicit = contentInfo.enter();
+        explicit.next(SEQUENCE);
+        Der signedData = explicit.enter();
+        signedData.next(INTEGER);
+        signedData.next(SET);
+        signedData.next(SEQUENCE);
+        Der encapsulated = signedData.enter();
+        encapsulated.next(OBJECT_IDENTIFIER);
+        if (encapsulated.valueEquals(MANIFEST)) {
+            fields.type = RepositoryObjectType.Manifest;
+        } else if (encapsulated.valueEquals(ROA)) {
+            fields.type = RepositoryObjectType.Roa;
+        } else if (encapsulated.valueEquals(GHOSTBUSTERS)) {
+            fields.type = RepositoryObjectType.Gbr;
+        } else {
+            fields.type = RepositoryObjectType.Unknown;
+        }
+        if (fields.type == RepositoryObjectType.Manifest && encapsulated.nextIf(CONTEXT_CONSTRUCTED_0)) {
+            Der content = encapsulated.enter();
+            content.next(OCTET_STRING);
+            manifest(content.enter(), fields);
+        }
+        if (signedData.nextIf(CONTEXT_CONSTRUCTED_0)) {
+            Der certificates = signedData.enter();
+            certificates.next(SEQUENCE);
+            certificate(certificates.enter(), fields);
+        }
+    }
+
+    private static void manifest(Der content, Fields fields) {
+        content.next(SEQUENCE);
+        Der manifest = content.enter();
+        manifest.nextIf(CONTEXT_CONSTRUCTED_0);
+        manifest.next(INTEGER);
+        fields.number = manifest.integer();
+        manifest.next(GENERALIZED_TIME);
+        fields.thisUpdateTime = manifest.time();
+        manifest.next(GENERALIZED_TIME);
+        fields.nextUpdateTime = manifest.time();
+    }
+
+    private static void extensions(Der extensions, Fields fields) {
+        while (extensions.hasNext()) {
+            extensions.next(SEQUENCE);
+            Der extension = extensions.enter();
+            extension.next(OBJECT_IDENTIFIER);
+            Der id = extension.copyCurrent();
+            extension.nextIf(BOOLEAN);
+            extension.next(OCTET_STRING);
+            Der value = extension.enter();
+            if (id.valueEquals(SUBJECT_KEY_IDENTIFIER)) {
+                value.next(OCTET_STRING);
+                fields.subjectKeyIdentifier = value.bytes();
+            } else if (id.valueEquals(AUTHORITY_KEY_IDENTIFIER)) {
+                value.next(SEQUENCE);
+                Der authorityKeyIdentifier = value.enter();
+                if (authorityKeyIdentifier.nextIf(CONTEXT_0)) {
+                    fields.authorityKeyIdentifier = authorityKeyIdentifier.bytes();
+                }
+            } else if (id.valueEquals(AUTHORITY_INFO_ACCESS) || id.valueEquals(SUBJECT_INFO_ACCESS)) {
+                value.next(SEQUENCE);
+                accessDescriptions(value.enter(), fields);
+            } else if (id.valueEquals(CRL_DISTRIBUTION_POINTS)) {
+                value.next(SEQUENCE);
+                distributionPoints(value.enter(), fields);
+            } else if (id.valueEquals(CRL_NUMBER)) {
+                value.next(INTEGER);
+                fields.number = value.positiveInteger();
+            }
+        }
+    }
+
+    private static void accessDescriptions(Der descriptions, Fields fields) {
+        while (descriptions.hasNext()) {
+            descriptions.next(SEQUENCE);
+            Der description = descriptions.enter();
+            description.next(OBJECT_IDENTIFIER);
+            Der method = description.copyCurrent();
+            description.next();
+            if (description.tag() != URI_NAME) {
+                continue;
+            }
+            String location = description.ascii();
+            boolean rsync = location.startsWith("rsync:");
+            if (method.valueEquals(CA_ISSUERS) && rsync && fields.parentCertificateUri == null) {
+                fields.parentCertificateUri = location;
+            } else if (method.valueEquals(CA_REPOSITORY) && rsync && fields.repositoryUri == null) {
+                fields.repositoryUri = location;
+            } else if (method.valueEquals(RPKI_MANIFEST) && rsync && fields.manifestUri == null) {
+                fields.manifestUri = location;
+            } else if (method.valueEquals(SIGNED_OBJECT) && rsync && fields.signedObjectUri == null) {
+                fields.signedObjectUri = location;
+            } else if (method.valueEquals(RPKI_NOTIFY) && (location.startsWith("http:") || location.startsWith("https:")) && fields.rrdpNotifyUri == null) {
+                fields.rrdpNotifyUri = location;
+            }
+        }
+    }
+
+    private static void distributionPoints(Der points, Fields fields) {
+        while (points.hasNext()) {
+            points.next(SEQUENCE);
+            Der point = points.enter();
+            if (!point.nextIf(CONTEXT_CONSTRUCTED_0)) {
+                continue;
+            }
+            Der name = point.enter();
+            if (!name.nextIf(CONTEXT_CONSTRUCTED_0)) {
+                continue;
+            }
+            Der fullName = name.enter();
+            while (fullName.hasNext()) {
+                fullName.next();
+                if (fullName.tag() == URI_NAME && fields.crlUri == null) {
+                    String location = fullName.ascii();
+                    if (location.startsWith("rsync:")) {
+                        fields.crlUri = location;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isTime(int tag) {
+        return tag == UTC_TIME || tag == GENERALIZED_TIME;
+    }
+
+    private static byte[] oid(ASN1ObjectIdentifier oid) {
+        try {
+            byte[] encoded = oid.getEncoded();
+            return Arrays.copyOfRange(encoded, 2, encoded.length);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Fields {
+        private RepositoryObjectType type;
+        private byte[] subjectKeyIdentifier;
+        private byte[] authorityKeyIdentifier;
+        private String parentCertificateUri;
+        private String crlUri;
+        private String repositoryUri;
+        private String manifestUri;
+        private String signedObjectUri;
+        private String rrdpNotifyUri;
+        private BigInteger number;
+        private DateTime thisUpdateTime;
+        private DateTime nextUpdateTime;
+
+        private RepositoryObjectHeader toHeader() {
+            return new RepositoryObjectHeader(type, subjectKeyIdentifier, authorityKeyIdentifier, parentCertificateUri, crlUri,
+                    repositoryUri, manifestUri, signedObjectUri, rrdpNotifyUri, number, thisUpdateTime, nextUpdateTime);
+        }
+    }
+
+    /**
+     * Cursor over the DER elements in <code>[position, end)</code> of an encoding. After {@link #next()} the
+     * tag and value bounds of the element read are available; {@link #enter()} returns a cursor over its
+     * contents. Only definite lengths and low tag numbers are supported, as required for DER.
+     */
+    private static final class Der {
+        private final byte[] data;
+        private final int end;
+        private int position;
+        private int tag;
+        private int valueStart;
+        private int valueEnd;
+
+        private Der(byte[] data, int position, int end) {
+            if (position < 0 || end > data.length || position > end) {
+                throw new RepositoryObjectHeaderException("invalid DER bounds");
+            }
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        int peekTag() {
+            if (!hasNext()) {
+                throw new RepositoryObjectHeaderException("unexpected end of DER element");
+            }
+            return data[position] & 0xff;
+        }
+
+        void next() {
+            int tag = peekTag();
+            if ((tag & 0x1f) == 0x1f) {
+                throw new RepositoryObjectHeaderException("high tag numbers are not supported");
+            }
+            if (position + 2 > end) {
+                throw new RepositoryObjectHeaderException("truncated DER element");
+            }
+            int i = position + 1;
+            int length = data[i++] & 0xff;
+            if (length == 0x80) {
+                throw new RepositoryObjectHeaderException("indefinite length is not allowed in DER");
+            } else if (length > 0x80) {
+                int octets = length & 0x7f;
+                if (octets > 4) {
+                    throw new RepositoryObjectHeaderException("DER length too large");
+                }
+                if (i + octets > end) {
+                    throw new RepositoryObjectHeaderException("truncated DER element");
+                }
+                length = 0;
+                for (int k = 0; k < octets; k++) {
+                    length = (length << 8) | (data[i++] & 0xff);
+                }
+                if (length < 0) {
+                    throw new RepositoryObjectHeaderException("DER length too large");
+                }
+            }
+            if (i + length > end || i + length < i) {
+                throw new RepositoryObjectHeaderException("DER element exceeds its parent");
+            }
+            this.tag = tag;
+            this.valueStart = i;
+            this.valueEnd = i + length;
+            this.position = valueEnd;
+        }
+
+        void next(int expectedTag) {
+            next();
+            if (tag != expectedTag) {
+                throw new RepositoryObjectHeaderException(String.format("expected DER tag 0x%02x but found 0x%02x", expectedTag, tag));
+            }
+        }
+
+        boolean nextIf(int expectedTag) {
+            if (hasNext() && peekTag() == expectedTag) {
+                next();
+                return true;
+            }
+            return false;
+        }
+
+        int tag() {
+            return tag;
+        }
+
+        Der enter() {
+            return new Der(data, valueStart, valueEnd);
+        }
+
+        Der copy() {
+            return new Der(data, position, end);
+        }
+
+        /**
+         * @return a cursor whose current element is the current element of this cursor.
+         */
+        Der copyCurrent() {
+            Der result = new Der(data, valueEnd, valueEnd);
+            result.tag = tag;
+            result.valueStart = valueStart;
+            result.valueEnd = valueEnd;
+            return result;
+        }
+
+        boolean valueEquals(byte[] expected) {
+            if (valueEnd - valueStart != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (data[valueStart + i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        byte[] bytes() {
+            return Arrays.copyOfRange(data, valueStart, valueEnd);
+        }
+
+        String ascii() {
+            return new String(data, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII);
+        }
+
+        BigInteger integer() {
+            if (valueEnd == valueStart) {
+                throw new RepositoryObjectHeaderException("empty DER integer");
+            }
+            return new BigInteger(bytes());
+        }
+
+        /**
+         * @return the integer value, interpreting the encoding as unsigned like
+         * {@link org.bouncycastle.asn1.ASN1Integer#getPositiveValue()}.
+         */
+        BigInteger positiveInteger() {
+            if (valueEnd == valueStart) {
+                throw new RepositoryObjectHeaderException("empty DER integer");
+            }
+            return new BigInteger(1, bytes());
+        }
+
+        DateTime time() {
+            int i = valueStart;
+            int year;
+            if (tag == UTC_TIME) {
+                year = digits(i, 2);
+                year += year < 50 ? 2000 : 1900;
+                i += 2;
+            } else if (tag == GENERALIZED_TIME) {
+                year = digits(i, 4);
+                i += 4;
+            } else {
+                throw new RepositoryObjectHeaderException(String.format("expected DER time but found tag 0x%02x", tag));
+            }
+            if (valueEnd - i != 11 || data[valueEnd - 1] != 'Z') {
+                throw new RepositoryObjectHeaderException("DER time must be YYMMDDHHMMSSZ or YYYYMMDDHHMMSSZ");
+            }
+            try {
+                return new DateTime(year, digits(i, 2), digits(i + 2, 2), digits(i + 4, 2), digits(i + 6, 2), digits(i + 8, 2), DateTimeZone.UTC);
+            } catch (IllegalArgumentException e) {
+                throw new RepositoryObjectHeaderException("invalid DER time", e);
+            }
+        }
+
+        private int digits(int from, int count) {
+            int result = 0;
+            for (int i = from; i < from + count; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new RepositoryObjectHeaderException("invalid digit in DER time");
+                }
+                result = result * 10 + digit;
+            }
+            return result;
+        }
+    }
+}
@@ -29,16 +29,19 @@
  */
 package net.ripe.rpki.commons.crypto.x509cert;
 
-import com.google.common.io.Closer;
 import net.ripe.rpki.commons.crypto.rfc3779.ResourceExtensionEncoder;
+import net.ripe.rpki.commons.crypto.util.ByteBufferInputStream;
+import net.ripe.rpki.commons.crypto.util.SizeLimitedInputStream;
 import net.ripe.rpki.commons.crypto.rfc8209.RouterExtensionEncoder;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import net.ripe.rpki.commons.validation.ValidationOptions;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import org.apache.commons.lang.ArrayUtils;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
@@ -50,6 +53,7 @@ import java.util.List;
 
 import static net.ripe.rpki.commons.validation.ValidationString.CERTIFICATE_PARSED;
 import static net.ripe.rpki.commons.validation.ValidationString.CERTIFICATE_SIGNATURE_ALGORITHM;
+import static net.ripe.rpki.commons.validation.ValidationString.OBJECTS_SIZE_LIMIT;
 import static net.ripe.rpki.commons.validation.ValidationString.PUBLIC_KEY_CERT_ALGORITHM;
 import static net.ripe.rpki.commons.validation.ValidationString.PUBLIC_KEY_CERT_SIZE;
 
@@ -63,16 +67,63 @@ public abstract class X509CertificateParser<T extends AbstractX509CertificateWra
 
     protected ValidationResult result;
 
+    protected ValidationOptions options = new ValidationOptions();
+
     public void parse(String location, byte[] encoded) {
         parse(ValidationResult.withLocation(location), encoded);
     }
 
     public void parse(ValidationResult validationResult, byte[] encoded) {
         this.result = validationResult;
+        if (!isWithinSizeLimit(encoded, options, result)) {
+            return;
+        }
         final X509Certificate certificate = parseEncoded(encoded, result);
         validateX509Certificate(validationResult, certificate);
     }
 
+    /**
+     * Parses <code>encoded</code> within the certificate size and ASN.1 nesting limits of <code>options</code>.
+     */
+    public void parse(ValidationResult validationResult, byte[] encoded, ValidationOptions options) {
+        this.options = options;
+        parse(validationResult, encoded);
+    }
+
+    /**
+     * Parses the remaining bytes of <code>encoded</code>, which may be a direct or memory mapped buffer. The
+     * buffer is read as a bounded stream, so the caller does not need to copy it to an array first. This is not
+     * zero-copy: the JCA certificate factory reads the certificate into its own array.
+     */
+    public void parse(ValidationResult validationResult, ByteBuffer encoded, ValidationOptions options) {
+        this.options = options;
+        this.result = validationResult;
+        if (!isWithinSizeLimit(encoded.remaining(), options, result)) {
+            return;
+        }
+        final X509Certificate certificate = parseX509Certificate(new ByteBufferInputStream(encoded));
+        result.rejectIfNull(certificate, CERTIFICATE_PARSED);
+        validateX509Certificate(validationResult, certificate);
+    }
+
+    /**
+     * Parses a single certificate read from <code>input</code>. Reading stops with a size limit failure as soon
+     * as more bytes than the certificate size limit of <code>options</code> are read.
+     */
+    public void parse(ValidationResult validationResult, InputStream input, ValidationOptions options) {
+        this.options = options;
+        this.result = validationResult;
+        int maxSize = options.getMaxObjectSize(RepositoryObjectType.Certificate);
+        SizeLimitedInputStream bounded = new SizeLimitedInputStream(input, maxSize);
+        final X509Certificate certificate = parseX509Certificate(bounded);
+        if (bounded.isLimitExceeded()) {
+            result.error(OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return;
+        }
+        result.rejectIfNull(certificate, CERTIFICATE_PARSED);
+        validateX509Certificate(validationResult, certificate);
+    }
+
     public void validateX509Certificate(ValidationResult validationResult, X509Certificate certificate) {
         this.certificate = certificate;
         this.result = validationResult;
@@ -84,10 +135,18 @@ public abstract class X509CertificateParser<T extends AbstractX509CertificateWra
     }
 
     public static X509GenericCertificate parseCertificate(ValidationResult result, byte[] encoded) {
+        return parseCertificate(result, encoded, new ValidationOptions());
+    }
+
+    public static X509GenericCertificate parseCertificate(ValidationResult result, byte[] encoded, ValidationOptions options) {
+        if (!isWithinSizeLimit(encoded, options, result)) {
+            return null;
+        }
         final X509Certificate certificate = parseEncoded(encoded, result);
         if (!result.hasFailureForCurrentLocation()) {
             if (X509CertificateUtil.isRouter(certificate)) {
                 X509RouterCertificateParser parser = new X509RouterCertificateParser();
+                parser.options = options;
                 parser.validateX509Certificate(result, certificate);
                 return parser.getCertificate();
             } else if (X509CertificateUtil.isCa(certificate) ||
@@ -95,6 +154,7 @@ public abstract class X509CertificateParser<T extends AbstractX509CertificateWra
                     X509CertificateUtil.isRoot(certificate) ||
                     X509CertificateUtil.isObjectIssuer(certificate)) {
                 final X509ResourceCertificateParser parser = new X509ResourceCertificateParser();
+                parser.options = options;
                 parser.validateX509Certificate(result, certificate);
                 return parser.getCertificate();
             }
@@ -146,6 +206,19 @@ public abstract class X509CertificateParser<T extends AbstractX509CertificateWra
         return certificate;
     }
 
+    private static boolean isWithinSizeLimit(byte[] encoded, ValidationOptions options, ValidationResult result) {
+        return isWithinSizeLimit(encoded.length, options, result);
+    }
+
+    private static boolean isWithinSizeLimit(int size, ValidationOptions options, ValidationResult result) {
+        int maxSize = options.getMaxObjectSize(RepositoryObjectType.Certificate);
+        if (size > maxSize) {
+            result.error(OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return false;
+        }
+        return true;
+    }
+
     private static X509Certificate parseEncoded(byte[] encoded, ValidationResult result) {
         final X509Certificate certificate = parseX509Certificate(encoded);
         result.rejectIfNull(certificate, CERTIFICATE_PARSED);
@@ -153,18 +226,18 @@ public abstract class X509CertificateParser<T extends AbstractX509CertificateWra
     }
 
     public static X509Certificate parseX509Certificate(byte[] encoded) {
+        return parseX509Certificate(new ByteArrayInputStream(encoded));
+    }
+
+    /**
+     * @return the first certificate read from <code>input</code>, or null when it cannot be decoded. The stream
+     * is not closed.
+     */
+    public static X509Certificate parseX509Certificate(InputStream input) {
         try {
-            final Closer closer = Closer.create();
-            try {
-                final InputStream input = closer.register(new ByteArrayInputStream(encoded));
-                final CertificateFactory factory = CertificateFactory.getInstance("X.509");
-                return (X509Certificate) factory.generateCertificate(input);
-            } catch (final CertificateException e) {
-                return null;
-            } catch (final Throwable t) {
-                throw closer.rethrow(t);
-            }
-        } catch (final IOException e) {
+            final CertificateFactory factory = CertificateFactory.getInstance("X.509");
+            return (X509Certificate) factory.generateCertificate(input);
+        } catch (final CertificateException e) {
             return null;
         }
     }
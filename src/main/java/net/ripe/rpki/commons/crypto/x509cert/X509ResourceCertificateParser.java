@@ -29,7 +29,11 @@
  */
 package net.ripe.rpki.commons.crypto.x509cert;
 
+import net.ripe.rpki.commons.crypto.rfc3779.ResourceExtensionEncoder;
+import net.ripe.rpki.commons.crypto.util.Asn1Util;
 import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DERIA5String;
 import org.bouncycastle.asn1.DERPrintableString;
@@ -148,6 +152,19 @@ public class X509ResourceCertificateParser extends X509CertificateParser<X509Res
     private void validateResourceExtensions() {
         if (result.rejectIfFalse(isResourceExtensionPresent(), RESOURCE_EXT_PRESENT)) {
             result.rejectIfTrue(false, AS_OR_IP_RESOURCE_PRESENT);
+            validateResourceExtensionNesting(ResourceExtensionEncoder.OID_IP_ADDRESS_BLOCKS);
+            validateResourceExtensionNesting(ResourceExtensionEncoder.OID_AUTONOMOUS_SYS_IDS);
+        }
+    }
+
+    private void validateResourceExtensionNesting(ASN1ObjectIdentifier oid) {
+        byte[] extensionValue = certificate.getExtensionValue(oid.getId());
+        if (extensionValue != null) {
+            int maxDepth = options.getMaxAsn1NestingDepth();
+            byte[] octets = ASN1OctetString.getInstance(extensionValue).getOctets();
+            if (!Asn1Util.isNestingDepthWithin(octets, maxDepth)) {
+                result.error(OBJECTS_NESTING_LIMIT, String.valueOf(maxDepth));
+            }
         }
     }
 
@@ -31,6 +31,7 @@ package net.ripe.rpki.commons.provisioning.cms;
 
 import com.google.common.io.ByteSource;
 import net.ripe.rpki.commons.crypto.util.BouncyCastleUtil;
+import net.ripe.rpki.commons.crypto.util.ByteBufferInputStream;
 import net.ripe.rpki.commons.crypto.x509cert.AbstractX509CertificateWrapperException;
 import net.ripe.rpki.commons.crypto.x509cert.X509CertificateUtil;
 import net.ripe.rpki.commons.provisioning.payload.AbstractProvisioningPayload;
@@ -67,6 +68,7 @@ import org.bouncycastle.x509.extension.X509ExtensionUtil;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.CRL;
 import java.security.cert.CRLException;
@@ -120,6 +122,15 @@ public class ProvisioningCmsObjectParser {
         return validationResult;
     }
 
+    /**
+     * Parses the remaining bytes of <code>encoded</code>. A buffer wrapping exactly its backing array is used
+     * without copying; other (direct or memory mapped) buffers are copied once, into the array returned by
+     * {@link ProvisioningCmsObject#getEncoded()}.
+     */
+    public void parseCms(String location, ByteBuffer encoded) {
+        parseCms(location, ByteBufferInputStream.toByteArray(encoded));
+    }
+
     public void parseCms(String location, byte[] encoded) {
         this.location = location;
         this.encoded = encoded;
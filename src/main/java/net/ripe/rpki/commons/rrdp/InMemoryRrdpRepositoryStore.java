@@ -0,0 +1,103 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link RrdpRepositoryStore} keeping all objects in memory.
+ */
+public class InMemoryRrdpRepositoryStore implements RrdpRepositoryStore {
+
+    private final Map<URI, byte[]> objects = new ConcurrentHashMap<URI, byte[]>();
+
+    private final Map<URI, byte[]> hashes = new ConcurrentHashMap<URI, byte[]>();
+
+    private volatile String sessionId;
+
+    private volatile BigInteger serial;
+
+    @Override
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public BigInteger getSerial() {
+        return serial;
+    }
+
+    @Override
+    public synchronized void setSessionState(String sessionId, BigInteger serial) {
+        this.sessionId = sessionId;
+        this.serial = serial;
+    }
+
+    @Override
+    public byte[] getHash(URI uri) {
+        return hashes.get(uri);
+    }
+
+    @Override
+    public Set<URI> getUris() {
+        return Collections.unmodifiableSet(new HashSet<URI>(objects.keySet()));
+    }
+
+    @Override
+    public void put(URI uri, byte[] content) {
+        hashes.put(uri, ManifestCms.hashContents(content));
+        objects.put(uri, content);
+    }
+
+    @Override
+    public void remove(URI uri) {
+        objects.remove(uri);
+        hashes.remove(uri);
+    }
+
+    /**
+     * @return the content stored for <code>uri</code>, or null when there is none.
+     */
+    public byte[] get(URI uri) {
+        return objects.get(uri);
+    }
+
+    public int size() {
+        return objects.size();
+    }
+}
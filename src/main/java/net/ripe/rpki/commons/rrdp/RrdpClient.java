@@ -0,0 +1,191 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import net.ripe.rpki.commons.rrdp.RrdpNotification.DeltaReference;
+import net.ripe.rpki.commons.rrdp.RrdpNotification.FileReference;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps an {@link RrdpRepositoryStore} up to date with an RRDP (RFC 8182) repository.
+ * <p>
+ * When the store is in the session of the notification file and all deltas since its serial are listed,
+ * only the deltas are applied, touching just the changed objects. Otherwise, or when applying a delta
+ * fails, the snapshot is loaded and stored objects that are not in the snapshot are removed.
+ * <p>
+ * Files are processed while they are downloaded and their SHA-256 hash is checked once they are complete.
+ * The changes of a file are staged in a temporary file and only applied to the store, followed by its session
+ * state, after the hash was checked, so the store never holds objects from a file that does not match the
+ * notification file. Only objects that differ from the store are staged. A store left behind by an update
+ * that failed halfway through a series of deltas holds the deltas applied so far and their serial.
+ */
+public class RrdpClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RrdpClient.class);
+
+    private final RrdpHttpClient httpClient;
+
+    private final File stagingDirectory;
+
+    public RrdpClient() {
+        this(new UrlConnectionRrdpHttpClient());
+    }
+
+    public RrdpClient(RrdpHttpClient httpClient) {
+        this(httpClient, null);
+    }
+
+    /**
+     * @param stagingDirectory the directory for staging the objects of a file until its hash is checked, or
+     *                         null for the default temporary directory.
+     */
+    public RrdpClient(RrdpHttpClient httpClient, File stagingDirectory) {
+        Validate.notNull(httpClient, "HTTP client is required");
+        this.httpClient = httpClient;
+        this.stagingDirectory = stagingDirectory;
+    }
+
+    public RrdpNotification fetchNotification(URI notificationUri) {
+        try (InputStream in = httpClient.open(notificationUri)) {
+            return RrdpParser.parseNotification(in);
+        } catch (IOException e) {
+            throw new RrdpException("could not fetch notification file " + notificationUri, e);
+        }
+    }
+
+    public RrdpUpdate update(URI notificationUri, RrdpRepositoryStore store) {
+        RrdpNotification notification = fetchNotification(notificationUri);
+
+        if (notification.getSessionId().equals(store.getSessionId()) && store.getSerial() != null) {
+            if (notification.getSerial().equals(store.getSerial())) {
+                return new RrdpUpdate(RrdpUpdate.Type.UP_TO_DATE, notification.getSessionId(), notification.getSerial(), 0, 0);
+            }
+            List<DeltaReference> deltas = notification.getDeltasSince(store.getSerial());
+            if (deltas != null) {
+                try {
+                    return applyDeltas(notification, deltas, store);
+                } catch (RrdpException e) {
+                    LOG.warn("could not apply deltas of " + notificationUri + ", loading snapshot instead", e);
+                }
+            }
+        }
+        return loadSnapshot(notification, store);
+    }
+
+    private RrdpUpdate applyDeltas(RrdpNotification notification, List<DeltaReference> deltas, RrdpRepositoryStore store) {
+        int changed = 0;
+        for (DeltaReference delta : deltas) {
+            try (RrdpStagingArea staged = new RrdpStagingArea(store, stagingDirectory)) {
+                try (HashingInputStream in = open(delta)) {
+                    changed += RrdpParser.parseDelta(in, notification.getSessionId(), delta.getSerial(), staged);
+                    in.verify();
+                } catch (IOException e) {
+                    throw new RrdpException("could not fetch delta file " + delta.getUri(), e);
+                }
+                staged.commit();
+            }
+            store.setSessionState(notification.getSessionId(), delta.getSerial());
+        }
+        return new RrdpUpdate(RrdpUpdate.Type.DELTAS, notification.getSessionId(), notification.getSerial(), changed, 0);
+    }
+
+    private RrdpUpdate loadSnapshot(RrdpNotification notification, RrdpRepositoryStore store) {
+        FileReference snapshot = notification.getSnapshot();
+        Set<URI> published = new HashSet<URI>();
+        int changed;
+        try (RrdpStagingArea staged = new RrdpStagingArea(store, stagingDirectory)) {
+            try (HashingInputStream in = open(snapshot)) {
+                changed = RrdpParser.parseSnapshot(in, notification.getSessionId(), notification.getSerial(), staged, published);
+                in.verify();
+            } catch (IOException e) {
+                throw new RrdpException("could not fetch snapshot file " + snapshot.getUri(), e);
+            }
+            staged.commit();
+        }
+
+        int removed = 0;
+        for (URI uri : store.getUris()) {
+            if (!published.contains(uri)) {
+                store.remove(uri);
+                removed++;
+            }
+        }
+        store.setSessionState(notification.getSessionId(), notification.getSerial());
+        return new RrdpUpdate(RrdpUpdate.Type.SNAPSHOT, notification.getSessionId(), notification.getSerial(), changed, removed);
+    }
+
+    private HashingInputStream open(FileReference file) throws IOException {
+        return new HashingInputStream(httpClient.open(file.getUri()), file);
+    }
+
+    private static final class HashingInputStream extends DigestInputStream {
+        private final FileReference file;
+
+        private HashingInputStream(InputStream in, FileReference file) {
+            super(in, sha256());
+            this.file = file;
+        }
+
+        private static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Reads any remaining content and compares the hash of the complete file with the expected hash.
+         */
+        private void verify() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer) >= 0) {
+                // Trailing whitespace or comments after the root element.
+            }
+            if (!MessageDigest.isEqual(getMessageDigest().digest(), file.getHash())) {
+                throw new RrdpException("hash of " + file.getUri() + " does not match the notification file");
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import org.apache.commons.lang.Validate;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Contents of an RRDP update notification file (RFC 8182, section 3.5.1).
+ */
+public class RrdpNotification {
+
+    private final String sessionId;
+    private final BigInteger serial;
+    private final FileReference snapshot;
+    private final List<DeltaReference> deltas;
+
+    public RrdpNotification(String sessionId, BigInteger serial, FileReference snapshot, List<DeltaReference> deltas) {
+        Validate.notNull(sessionId, "session id is required");
+        Validate.notNull(serial, "serial is required");
+        Validate.notNull(snapshot, "snapshot is required");
+        this.sessionId = sessionId;
+        this.serial = serial;
+        this.snapshot = snapshot;
+        List<DeltaReference> sorted = new ArrayList<DeltaReference>(deltas);
+        sorted.sort(Comparator.comparing(DeltaReference::getSerial));
+        this.deltas = Collections.unmodifiableList(sorted);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public BigInteger getSerial() {
+        return serial;
+    }
+
+    public FileReference getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the deltas, ordered by serial.
+     */
+    public List<DeltaReference> getDeltas() {
+        return deltas;
+    }
+
+    /**
+     * @return the deltas that bring a repository at <code>serial</code> up to the serial of this notification,
+     * or null when they are not all available.
+     */
+    public List<DeltaReference> getDeltasSince(BigInteger serial) {
+        List<DeltaReference> result = new ArrayList<DeltaReference>();
+        BigInteger expected = serial.add(BigInteger.ONE);
+        for (DeltaReference delta : deltas) {
+            if (delta.getSerial().compareTo(expected) < 0) {
+                continue;
+            }
+            if (!delta.getSerial().equals(expected)) {
+                return null;
+            }
+            result.add(delta);
+            expected = expected.add(BigInteger.ONE);
+        }
+        return expected.subtract(BigInteger.ONE).equals(this.serial) ? result : null;
+    }
+
+    /**
+     * Reference to a snapshot or delta file.
+     */
+    public static class FileReference {
+        private final URI uri;
+        private final byte[] hash;
+
+        public FileReference(URI uri, byte[] hash) {
+            Validate.notNull(uri, "uri is required");
+            Validate.notNull(hash, "hash is required");
+            this.uri = uri;
+            this.hash = hash.clone();
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        /**
+         * @return the SHA-256 hash of the file.
+         */
+        public byte[] getHash() {
+            return hash.clone();
+        }
+    }
+
+    public static class DeltaReference extends FileReference {
+        private final BigInteger serial;
+
+        public DeltaReference(BigInteger serial, URI uri, byte[] hash) {
+            super(uri, hash);
+            Validate.notNull(serial, "serial is required");
+            this.serial = serial;
+        }
+
+        public BigInteger getSerial() {
+            return serial;
+        }
+    }
+}
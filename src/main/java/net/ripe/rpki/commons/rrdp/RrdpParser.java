@@ -0,0 +1,282 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import net.ripe.rpki.commons.rrdp.RrdpNotification.DeltaReference;
+import net.ripe.rpki.commons.rrdp.RrdpNotification.FileReference;
+import org.bouncycastle.util.encoders.DecoderException;
+import org.bouncycastle.util.encoders.Hex;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streaming parser for RRDP (RFC 8182) notification, snapshot and delta files.
+ * <p>
+ * Snapshot and delta files are read with StAX and every published object is decoded and handed to the
+ * {@link RrdpObjectSink} as soon as its element ends, so memory use is bounded by the largest object
+ * rather than by the size of the file. DTDs and external entities are not supported.
+ */
+public final class RrdpParser {
+
+    public static final String NAMESPACE = "http://www.ripe.net/rpki/rrdp";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private RrdpParser() {
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    public static RrdpNotification parseNotification(InputStream in) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                startDocument(reader, "notification");
+                String sessionId = requiredAttribute(reader, "session_id");
+                BigInteger serial = serialAttribute(reader);
+                FileReference snapshot = null;
+                List<DeltaReference> deltas = new ArrayList<DeltaReference>();
+                while (nextElement(reader)) {
+                    if ("snapshot".equals(reader.getLocalName()) && snapshot == null) {
+                        snapshot = new FileReference(uriAttribute(reader), hashAttribute(reader, true));
+                    } else if ("delta".equals(reader.getLocalName())) {
+                        deltas.add(new DeltaReference(serialAttribute(reader), uriAttribute(reader), hashAttribute(reader, true)));
+                    } else {
+                        throw new RrdpException("unexpected element " + reader.getLocalName() + " in notification file");
+                    }
+                    skipElement(reader);
+                }
+                if (snapshot == null) {
+                    throw new RrdpException("notification file without snapshot");
+                }
+                return new RrdpNotification(sessionId, serial, snapshot, deltas);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RrdpException("could not parse notification file", e);
+        }
+    }
+
+    /**
+     * Hands all objects of a snapshot file to <code>sink</code>.
+     *
+     * @param published receives the URIs of the published objects.
+     * @return the number of published objects.
+     */
+    public static int parseSnapshot(InputStream in, String sessionId, BigInteger serial, RrdpObjectSink sink, Set<URI> published) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                startDocument(reader, "snapshot");
+                checkSessionAndSerial(reader, sessionId, serial);
+                int count = 0;
+                while (nextElement(reader)) {
+                    if (!"publish".equals(reader.getLocalName())) {
+                        throw new RrdpException("unexpected element " + reader.getLocalName() + " in snapshot file");
+                    }
+                    URI uri = uriAttribute(reader);
+                    sink.put(uri, content(reader));
+                    published.add(uri);
+                    count++;
+                }
+                return count;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RrdpException("could not parse snapshot file", e);
+        }
+    }
+
+    /**
+     * Applies the publish and withdraw elements of a delta file to <code>sink</code>. The hashes in the delta
+     * must match the objects held by the sink.
+     *
+     * @return the number of published and withdrawn objects.
+     */
+    public static int parseDelta(InputStream in, String sessionId, BigInteger serial, RrdpObjectSink sink) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                startDocument(reader, "delta");
+                checkSessionAndSerial(reader, sessionId, serial);
+                int count = 0;
+                while (nextElement(reader)) {
+                    URI uri = uriAttribute(reader);
+                    if ("publish".equals(reader.getLocalName())) {
+                        checkHash(uri, hashAttribute(reader, false), sink.getHash(uri));
+                        sink.put(uri, content(reader));
+                    } else if ("withdraw".equals(reader.getLocalName())) {
+                        checkHash(uri, hashAttribute(reader, true), sink.getHash(uri));
+                        sink.remove(uri);
+                        skipElement(reader);
+                    } else {
+                        throw new RrdpException("unexpected element " + reader.getLocalName() + " in delta file");
+                    }
+                    count++;
+                }
+                return count;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RrdpException("could not parse delta file", e);
+        }
+    }
+
+    private static void checkHash(URI uri, byte[] expected, byte[] actual) {
+        if (expected == null && actual != null) {
+            throw new RrdpException("delta publishes " + uri + " without hash, but the object already exists");
+        }
+        if (expected != null && !Arrays.equals(expected, actual)) {
+            throw new RrdpException("hash of " + uri + " in delta does not match the stored object");
+        }
+    }
+
+    private static void startDocument(XMLStreamReader reader, String element) throws XMLStreamException {
+        if (!nextElement(reader) || !element.equals(reader.getLocalName()) || !NAMESPACE.equals(reader.getNamespaceURI())) {
+            throw new RrdpException("expected RRDP " + element + " element");
+        }
+        if (!"1".equals(reader.getAttributeValue(null, "version"))) {
+            throw new RrdpException("unsupported RRDP version " + reader.getAttributeValue(null, "version"));
+        }
+    }
+
+    private static void checkSessionAndSerial(XMLStreamReader reader, String sessionId, BigInteger serial) {
+        String actualSessionId = requiredAttribute(reader, "session_id");
+        BigInteger actualSerial = serialAttribute(reader);
+        if (!sessionId.equals(actualSessionId) || !serial.equals(actualSerial)) {
+            throw new RrdpException("expected session " + sessionId + " serial " + serial + ", but file has session "
+                    + actualSessionId + " serial " + actualSerial);
+        }
+    }
+
+    /**
+     * Advances to the next start element at the current level.
+     *
+     * @return false when the end of the enclosing element or document is reached first.
+     */
+    private static boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static byte[] content(XMLStreamReader reader) throws XMLStreamException {
+        try {
+            return Base64.getMimeDecoder().decode(reader.getElementText());
+        } catch (IllegalArgumentException e) {
+            throw new RrdpException("invalid base64 content at line " + reader.getLocation().getLineNumber(), e);
+        }
+    }
+
+    private static String requiredAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            throw new RrdpException("missing attribute " + name + " on " + reader.getLocalName());
+        }
+        return value;
+    }
+
+    private static BigInteger serialAttribute(XMLStreamReader reader) {
+        String value = requiredAttribute(reader, "serial");
+        try {
+            BigInteger serial = new BigInteger(value);
+            if (serial.signum() < 0) {
+                throw new RrdpException("negative serial " + value);
+            }
+            return serial;
+        } catch (NumberFormatException e) {
+            throw new RrdpException("invalid serial " + value, e);
+        }
+    }
+
+    private static URI uriAttribute(XMLStreamReader reader) {
+        String value = requiredAttribute(reader, "uri");
+        try {
+            return URI.create(value);
+        } catch (IllegalArgumentException e) {
+            throw new RrdpException("invalid uri " + value, e);
+        }
+    }
+
+    private static byte[] hashAttribute(XMLStreamReader reader, boolean required) {
+        String value = required ? requiredAttribute(reader, "hash") : reader.getAttributeValue(null, "hash");
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] hash = Hex.decode(value);
+            if (hash.length != 32) {
+                throw new RrdpException("invalid SHA-256 hash " + value);
+            }
+            return hash;
+        } catch (DecoderException e) {
+            throw new RrdpException("invalid hash " + value, e);
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.rrdp.RrdpNotification.DeltaReference;
+import net.ripe.rpki.commons.rrdp.RrdpNotification.FileReference;
+import org.apache.commons.lang.Validate;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Publication side of RRDP (RFC 8182): keeps the published objects of a repository and writes notification,
+ * snapshot and delta files to a directory that is served over HTTPS.
+ * <p>
+ * Objects are staged with {@link #publish(URI, byte[])} and {@link #withdraw(URI)}, and {@link #flush()}
+ * writes all staged changes as a single new serial: one delta file, a new snapshot and the notification
+ * file. Callers flush periodically rather than after every change, so the cost of the snapshot is shared by
+ * all changes in a batch.
+ * <p>
+ * The snapshot is not regenerated from scratch. The writer only remembers the hash and the location of each
+ * object in the previous snapshot file, and copies unchanged runs of objects from that file with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}. Only objects changed since
+ * the last flush are base64 encoded and kept in memory, so memory use per published object is small and
+ * independent of its size. All files are written to a temporary file first and then atomically moved into
+ * place, the notification file last.
+ * <p>
+ * Deltas are kept while there are at most <code>maxDeltas</code> of them and their combined size does not
+ * exceed the size of the snapshot (RFC 8182, section 3.3.2). Files of the previous serial are kept so relying
+ * parties that just read the previous notification file can still retrieve them; older files are deleted.
+ * A new writer always starts a new session.
+ */
+public class RrdpRepositoryWriter {
+
+    public static final String NOTIFICATION_FILE = "notification.xml";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] PUBLISH_END = ascii("</publish>\n");
+
+    private final File directory;
+
+    private final URI baseUri;
+
+    private final int maxDeltas;
+
+    private final String sessionId = UUID.randomUUID().toString();
+
+    private BigInteger serial = BigInteger.ZERO;
+
+    private final TreeMap<URI, PublishedObject> objects = new TreeMap<URI, PublishedObject>();
+
+    /**
+     * The hashes of the changed objects before the first staged change, null for objects that did not exist.
+     */
+    private final Map<URI, byte[]> staged = new TreeMap<URI, byte[]>();
+
+    private final Deque<DeltaFile> deltas = new ArrayDeque<DeltaFile>();
+
+    private File snapshotFile;
+
+    private FileReference snapshot;
+
+    private long snapshotSize;
+
+    private BigInteger previousSerial;
+
+    /**
+     * @param directory the directory the files are written to.
+     * @param baseUri   the URI the directory is served at, used for the references in the notification file.
+     * @param maxDeltas the maximum number of deltas listed in the notification file.
+     */
+    public RrdpRepositoryWriter(File directory, URI baseUri, int maxDeltas) {
+        Validate.notNull(directory, "directory is required");
+        Validate.notNull(baseUri, "base URI is required");
+        Validate.isTrue(maxDeltas >= 0, "maximum number of deltas must be non-negative");
+        this.directory = directory;
+        this.baseUri = baseUri.toString().endsWith("/") ? baseUri : URI.create(baseUri + "/");
+        this.maxDeltas = maxDeltas;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return the serial of the last flush, zero before the first one.
+     */
+    public synchronized BigInteger getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return the number of published objects, including staged changes.
+     */
+    public synchronized int size() {
+        return objects.size();
+    }
+
+    public synchronized boolean hasStagedChanges() {
+        return !staged.isEmpty();
+    }
+
+    /**
+     * Stages adding or replacing the object at <code>uri</code>.
+     */
+    public synchronized void publish(URI uri, byte[] content) {
+        Validate.notNull(uri, "uri is required");
+        Validate.notNull(content, "content is required");
+        PublishedObject previous = objects.put(uri, new PublishedObject(ManifestCms.hashContents(content), Base64.getEncoder().encode(content)));
+        stage(uri, previous);
+    }
+
+    /**
+     * Stages removing the object at <code>uri</code>. Withdrawing an object that is not published has no effect.
+     */
+    public synchronized void withdraw(URI uri) {
+        PublishedObject previous = objects.remove(uri);
+        if (previous != null) {
+            stage(uri, previous);
+        }
+    }
+
+    private void stage(URI uri, PublishedObject previous) {
+        if (!staged.containsKey(uri)) {
+            staged.put(uri, previous == null ? null : previous.hash);
+        }
+    }
+
+    /**
+     * Writes the staged changes as a new serial. Without staged changes nothing is written, except for the
+     * initial empty snapshot.
+     *
+     * @return the contents of the current notification file.
+     */
+    public synchronized RrdpNotification flush() {
+        if (staged.isEmpty() && serial.signum() > 0) {
+            return notification();
+        }
+        BigInteger newSerial = serial.add(BigInteger.ONE);
+        File serialDirectory = new File(new File(directory, sessionId), newSerial.toString());
+        if (!serialDirectory.isDirectory() && !serialDirectory.mkdirs()) {
+            throw new RrdpException("could not create " + serialDirectory);
+        }
+
+        DeltaFile delta = null;
+        if (serial.signum() > 0) {
+            File deltaFile = new File(serialDirectory, "delta.xml");
+            long size = writeDelta(deltaFile, newSerial);
+            delta = new DeltaFile(newSerial, deltaFile, uriOf(newSerial, deltaFile), hash(deltaFile), size);
+        }
+        File newSnapshotFile = new File(serialDirectory, "snapshot.xml");
+        long newSnapshotSize = writeSnapshot(newSnapshotFile, newSerial);
+        snapshot = new FileReference(uriOf(newSerial, newSnapshotFile), hash(newSnapshotFile));
+        snapshotFile = newSnapshotFile;
+        snapshotSize = newSnapshotSize;
+        if (delta != null) {
+            deltas.addFirst(delta);
+        }
+        staged.clear();
+
+        previousSerial = serial;
+        serial = newSerial;
+        List<DeltaFile> pruned = pruneDeltas();
+        RrdpNotification notification = notification();
+        writeNotification(notification);
+        deleteObsoleteFiles(pruned);
+        return notification;
+    }
+
+    private long writeDelta(File file, BigInteger newSerial) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter out = new ChannelWriter(channel);
+            out.write(ascii("<delta xmlns=\"" + RrdpParser.NAMESPACE + "\" version=\"1\" session_id=\"" + sessionId + "\" serial=\"" + newSerial + "\">\n"));
+            for (Map.Entry<URI, byte[]> change : staged.entrySet()) {
+                PublishedObject current = objects.get(change.getKey());
+                byte[] previousHash = change.getValue();
+                if (current == null) {
+                    if (previousHash != null) {
+                        out.write(ascii("<withdraw uri=\"" + escape(change.getKey()) + "\" hash=\"" + Hex.toHexString(previousHash) + "\"/>\n"));
+                    }
+                } else if (previousHash == null || !Arrays.equals(previousHash, current.hash)) {
+                    out.write(ascii("<publish uri=\"" + escape(change.getKey()) + "\""
+                            + (previousHash == null ? "" : " hash=\"" + Hex.toHexString(previousHash) + "\"") + ">"));
+                    out.write(current.base64);
+                    out.write(PUBLISH_END);
+                }
+            }
+            out.write(ascii("</delta>\n"));
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new RrdpException("could not write delta file " + temp, e);
+        }
+        move(temp, file);
+        return file.length();
+    }
+
+    private long writeSnapshot(File file, BigInteger newSerial) {
+        File temp = new File(file.getPath() + ".tmp");
+        // Locations in the new file, only applied once it is in place.
+        long[] offsets = new long[objects.size()];
+        int[] lengths = new int[objects.size()];
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel previous = snapshotFile == null ? null : FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            ChannelWriter out = new ChannelWriter(channel);
+            out.write(ascii("<snapshot xmlns=\"" + RrdpParser.NAMESPACE + "\" version=\"1\" session_id=\"" + sessionId + "\" serial=\"" + newSerial + "\">\n"));
+            long runStart = -1;
+            long runEnd = -1;
+            int i = 0;
+            for (Map.Entry<URI, PublishedObject> entry : objects.entrySet()) {
+                PublishedObject object = entry.getValue();
+                if (object.base64 == null) {
+                    // Unchanged object, extend the run of bytes copied from the previous snapshot when possible.
+                    if (object.offset != runEnd) {
+                        out.transferFrom(previous, runStart, runEnd - runStart);
+                        runStart = object.offset;
+                    }
+                    runEnd = object.offset + object.length;
+                    offsets[i] = out.position() + (runEnd - runStart) - object.length;
+                    lengths[i] = object.length;
+                } else {
+                    out.transferFrom(previous, runStart, runEnd - runStart);
+                    runStart = runEnd = -1;
+                    long start = out.position();
+                    out.write(ascii("<publish uri=\"" + escape(entry.getKey()) + "\">"));
+                    out.write(object.base64);
+                    out.write(PUBLISH_END);
+                    offsets[i] = start;
+                    lengths[i] = (int) (out.position() - start);
+                }
+                i++;
+            }
+            out.transferFrom(previous, runStart, runEnd - runStart);
+            out.write(ascii("</snapshot>\n"));
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new RrdpException("could not write snapshot file " + temp, e);
+        }
+        move(temp, file);
+        int i = 0;
+        for (PublishedObject object : objects.values()) {
+            object.offset = offsets[i];
+            object.length = lengths[i];
+            object.base64 = null;
+            i++;
+        }
+        return file.length();
+    }
+
+    private List<DeltaFile> pruneDeltas() {
+        List<DeltaFile> pruned = new ArrayList<DeltaFile>();
+        long total = 0;
+        int count = 0;
+        for (Iterator<DeltaFile> it = deltas.iterator(); it.hasNext(); ) {
+            DeltaFile delta = it.next();
+            total += delta.size;
+            count++;
+            if (count > maxDeltas || total > snapshotSize) {
+                it.remove();
+                pruned.add(delta);
+            }
+        }
+        return pruned;
+    }
+
+    private RrdpNotification notification() {
+        List<DeltaReference> references = new ArrayList<DeltaReference>();
+        for (DeltaFile delta : deltas) {
+            references.add(new DeltaReference(delta.serial, delta.uri, delta.hash));
+        }
+        return new RrdpNotification(sessionId, serial, snapshot, references);
+    }
+
+    private void writeNotification(RrdpNotification notification) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<notification xmlns=\"").append(RrdpParser.NAMESPACE).append("\" version=\"1\" session_id=\"").append(sessionId)
+                .append("\" serial=\"").append(serial).append("\">\n");
+        xml.append("  <snapshot uri=\"").append(escape(snapshot.getUri())).append("\" hash=\"").append(Hex.toHexString(snapshot.getHash())).append("\"/>\n");
+        for (DeltaReference delta : notification.getDeltas()) {
+            xml.append("  <delta serial=\"").append(delta.getSerial()).append("\" uri=\"").append(escape(delta.getUri()))
+                    .append("\" hash=\"").append(Hex.toHexString(delta.getHash())).append("\"/>\n");
+        }
+        xml.append("</notification>\n");
+
+        File file = new File(directory, NOTIFICATION_FILE);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), xml.toString().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new RrdpException("could not write notification file " + temp, e);
+        }
+        move(temp, file);
+    }
+
+    /**
+     * Deletes the pruned delta files and the snapshots older than the previous serial.
+     */
+    private void deleteObsoleteFiles(List<DeltaFile> pruned) {
+        for (DeltaFile delta : pruned) {
+            delete(delta.file);
+        }
+        File[] serialDirectories = new File(directory, sessionId).listFiles();
+        if (serialDirectories == null) {
+            return;
+        }
+        Map<BigInteger, File> bySerial = new HashMap<BigInteger, File>();
+        for (File serialDirectory : serialDirectories) {
+            if (serialDirectory.getName().matches("\\d+")) {
+                bySerial.put(new BigInteger(serialDirectory.getName()), serialDirectory);
+            }
+        }
+        for (Map.Entry<BigInteger, File> entry : bySerial.entrySet()) {
+            if (entry.getKey().compareTo(previousSerial) < 0) {
+                delete(new File(entry.getValue(), "snapshot.xml"));
+            }
+            String[] remaining = entry.getValue().list();
+            if (remaining != null && remaining.length == 0) {
+                delete(entry.getValue());
+            }
+        }
+    }
+
+    private URI uriOf(BigInteger fileSerial, File file) {
+        return baseUri.resolve(sessionId + "/" + fileSerial + "/" + file.getName());
+    }
+
+    private static byte[] hash(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size = channel.size();
+            for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size - position));
+                digest.update(buffer);
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            throw new RrdpException("could not hash " + file, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void move(File source, File target) {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RrdpException("could not move " + source + " to " + target, e);
+        }
+    }
+
+    private static void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            throw new RrdpException("could not delete " + file, e);
+        }
+    }
+
+    private static String escape(URI uri) {
+        return uri.toString().replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class PublishedObject {
+        private final byte[] hash;
+        /**
+         * The base64 encoded content while the object is not part of the snapshot file yet, otherwise null.
+         */
+        private byte[] base64;
+        /**
+         * The location of the publish element in the snapshot file.
+         */
+        private long offset = -1;
+        private int length;
+
+        private PublishedObject(byte[] hash, byte[] base64) {
+            this.hash = hash;
+            this.base64 = base64;
+        }
+    }
+
+    private static final class DeltaFile {
+        private final BigInteger serial;
+        private final File file;
+        private final URI uri;
+        private final byte[] hash;
+        private final long size;
+
+        private DeltaFile(BigInteger serial, File file, URI uri, byte[] hash, long size) {
+            this.serial = serial;
+            this.file = file;
+            this.uri = uri;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Buffered writer on a file channel that keeps track of the position and copies ranges of other files
+     * without going through the buffer.
+     */
+    private static final class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long position;
+
+        private ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private long position() {
+            return position;
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+            position += bytes.length;
+        }
+
+        private void transferFrom(FileChannel source, long start, long count) throws IOException {
+            if (count <= 0) {
+                return;
+            }
+            flush();
+            long transferred = 0;
+            while (transferred < count) {
+                long n = source.transferTo(start + transferred, count - transferred, channel);
+                if (n <= 0) {
+                    throw new IOException("could not copy from previous snapshot");
+                }
+                transferred += n;
+            }
+            position += count;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
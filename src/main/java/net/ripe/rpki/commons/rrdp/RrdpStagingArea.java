@@ -0,0 +1,158 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the changes of a single RRDP file on top of a target store, so they can be applied once the hash of
+ * the complete file was checked.
+ * <p>
+ * The content of staged objects is spooled to a temporary file and only the URI, hash and file position of each
+ * object are kept in memory, so a snapshot is never held in memory as a whole. Objects published with the
+ * content the target already holds are not staged. The temporary file is deleted on {@link #close()}.
+ */
+final class RrdpStagingArea implements RrdpObjectSink, Closeable {
+
+    private final RrdpRepositoryStore target;
+
+    private final File file;
+
+    private final OutputStream out;
+
+    private long size;
+
+    /**
+     * Staged objects by URI, null for a withdrawn object.
+     */
+    private final Map<URI, StagedObject> changes = new LinkedHashMap<URI, StagedObject>();
+
+    /**
+     * @param directory the directory of the temporary file, or null for the default temporary directory.
+     */
+    RrdpStagingArea(RrdpRepositoryStore target, File directory) {
+        this.target = target;
+        try {
+            this.file = File.createTempFile("rrdp-", ".staged", directory);
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not create staging file", e);
+        }
+    }
+
+    @Override
+    public byte[] getHash(URI uri) {
+        if (!changes.containsKey(uri)) {
+            return target.getHash(uri);
+        }
+        StagedObject staged = changes.get(uri);
+        return staged == null ? null : staged.hash;
+    }
+
+    @Override
+    public void put(URI uri, byte[] content) {
+        byte[] hash = ManifestCms.hashContents(content);
+        if (!changes.containsKey(uri) && Arrays.equals(hash, target.getHash(uri))) {
+            return;
+        }
+        try {
+            out.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write " + file, e);
+        }
+        changes.put(uri, new StagedObject(hash, size, content.length));
+        size += content.length;
+    }
+
+    @Override
+    public void remove(URI uri) {
+        changes.put(uri, null);
+    }
+
+    /**
+     * Applies the staged changes to the target store.
+     */
+    void commit() {
+        try {
+            out.flush();
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                for (Map.Entry<URI, StagedObject> change : changes.entrySet()) {
+                    StagedObject staged = change.getValue();
+                    if (staged == null) {
+                        target.remove(change.getKey());
+                    } else {
+                        byte[] content = new byte[staged.length];
+                        in.seek(staged.offset);
+                        in.readFully(content);
+                        target.put(change.getKey(), content);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read " + file, e);
+        }
+        changes.clear();
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        file.delete();
+    }
+
+    private static final class StagedObject {
+        private final byte[] hash;
+        private final long offset;
+        private final int length;
+
+        private StagedObject(byte[] hash, long offset, int length) {
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import java.math.BigInteger;
+
+/**
+ * Outcome of {@link RrdpClient#update(java.net.URI, RrdpRepositoryStore)}.
+ */
+public class RrdpUpdate {
+
+    public enum Type {
+        /**
+         * The store already was at the serial of the notification file.
+         */
+        UP_TO_DATE,
+        /**
+         * Deltas were applied.
+         */
+        DELTAS,
+        /**
+         * The snapshot was loaded.
+         */
+        SNAPSHOT
+    }
+
+    private final Type type;
+    private final String sessionId;
+    private final BigInteger serial;
+    private final int changedObjects;
+    private final int removedObjects;
+
+    RrdpUpdate(Type type, String sessionId, BigInteger serial, int changedObjects, int removedObjects) {
+        this.type = type;
+        this.sessionId = sessionId;
+        this.serial = serial;
+        this.changedObjects = changedObjects;
+        this.removedObjects = removedObjects;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public BigInteger getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return the number of objects published by the deltas or the snapshot.
+     */
+    public int getChangedObjects() {
+        return changedObjects;
+    }
+
+    /**
+     * @return the number of stored objects that were not part of a loaded snapshot and were removed.
+     */
+    public int getRemovedObjects() {
+        return removedObjects;
+    }
+
+    @Override
+    public String toString() {
+        return "RrdpUpdate[type=" + type + ", session=" + sessionId + ", serial=" + serial + ", changed=" + changedObjects + "]";
+    }
+}
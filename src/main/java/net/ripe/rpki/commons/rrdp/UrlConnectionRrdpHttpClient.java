@@ -0,0 +1,86 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import org.apache.commons.lang.Validate;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+
+/**
+ * {@link RrdpHttpClient} based on {@link java.net.HttpURLConnection}. Only <code>http</code> and
+ * <code>https</code> URIs are opened, so a notification file can not make the client read local files or
+ * use other protocols.
+ */
+public class UrlConnectionRrdpHttpClient implements RrdpHttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 300 * 1000;
+
+    private final int connectTimeoutMillis;
+
+    private final int readTimeoutMillis;
+
+    public UrlConnectionRrdpHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public UrlConnectionRrdpHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        Validate.isTrue(connectTimeoutMillis >= 0, "connect timeout must be non-negative");
+        Validate.isTrue(readTimeoutMillis >= 0, "read timeout must be non-negative");
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public InputStream open(URI uri) throws IOException {
+        if (!"https".equalsIgnoreCase(uri.getScheme()) && !"http".equalsIgnoreCase(uri.getScheme())) {
+            throw new IOException("unsupported URI scheme for " + uri);
+        }
+        URLConnection connection = uri.toURL().openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setInstanceFollowRedirects(true);
+            int status = http.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw new IOException("unexpected HTTP status " + status + " for " + uri);
+            }
+        }
+        return new BufferedInputStream(connection.getInputStream());
+    }
+}
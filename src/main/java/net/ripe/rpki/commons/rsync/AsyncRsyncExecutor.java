@@ -0,0 +1,435 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs rsync processes asynchronously with a global and a per host concurrency limit.
+ * <p>
+ * Submitted fetches are queued per host, and hosts with queued fetches take turns when a slot becomes free,
+ * so a single repository with many publication points cannot starve the others. Process output goes to
+ * temporary files instead of reader threads, and a single background thread polls for finished processes,
+ * so a running fetch does not occupy a thread. Processes running longer than the timeout are killed.
+ * At most the configured number of bytes of stdout and stderr are kept.
+ * <p>
+ * Futures are completed on the completion executor (the common fork join pool by default), never on the
+ * polling thread. When the completion executor rejects a completion, the future of that fetch is completed
+ * exceptionally with the rejection.
+ * <p>
+ * With a {@link RsyncHostMonitor}, fetches from a host whose circuit is open are not started but completed
+ * with exit status {@link Command#NOT_EXECUTED}, the timeout of each fetch is the adaptive timeout of its
+ * host (bounded by the timeout of the executor), and the outcome of each fetch is recorded; a fetch that fails
+ * without a result counts as failed, and a fetch cancelled by {@link #close()} is reported as cancelled. Transfer
+ * statistics are only recorded for fetches that run with {@link Rsync#setCollectStatistics(boolean)}.
+ */
+public class AsyncRsyncExecutor implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncRsyncExecutor.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 20;
+
+    static final String LOCAL_HOST = "";
+
+    private final int maxConcurrency;
+
+    private final int maxConcurrencyPerHost;
+
+    private final long timeoutMillis;
+
+    private final int maxOutputBytes;
+
+    private final Executor completionExecutor;
+
+    private final RsyncHostMonitor hostMonitor;
+
+    private final ScheduledExecutorService poller;
+
+    private final Map<String, Queue<Task>> queued = new LinkedHashMap<String, Queue<Task>>();
+
+    private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+
+    private final List<Task> running = new ArrayList<Task>();
+
+    private boolean closed;
+
+    /**
+     * @param maxConcurrency        the maximum number of rsync processes running at the same time.
+     * @param maxConcurrencyPerHost the maximum number of rsync processes for a single host.
+     * @param timeoutMillis         processes running longer than this are killed.
+     * @param maxOutputBytes        the maximum number of bytes kept from stdout and from stderr of each process.
+     */
+    public AsyncRsyncExecutor(int maxConcurrency, int maxConcurrencyPerHost, long timeoutMillis, int maxOutputBytes) {
+        this(maxConcurrency, maxConcurrencyPerHost, timeoutMillis, maxOutputBytes, ForkJoinPool.commonPool());
+    }
+
+    public AsyncRsyncExecutor(int maxConcurrency, int maxConcurrencyPerHost, long timeoutMillis, int maxOutputBytes, Executor completionExecutor) {
+        this(maxConcurrency, maxConcurrencyPerHost, timeoutMillis, maxOutputBytes, completionExecutor, null);
+    }
+
+    /**
+     * @param hostMonitor the monitor providing per host timeouts and circuit breaking, or null.
+     */
+    public AsyncRsyncExecutor(int maxConcurrency, int maxConcurrencyPerHost, long timeoutMillis, int maxOutputBytes, Executor completionExecutor,
+                              RsyncHostMonitor hostMonitor) {
+        Validate.isTrue(maxConcurrency > 0, "maximum concurrency must be positive");
+        Validate.isTrue(maxConcurrencyPerHost > 0, "maximum concurrency per host must be positive");
+        Validate.isTrue(timeoutMillis > 0, "timeout must be positive");
+        Validate.isTrue(maxOutputBytes >= 0, "maximum output size must be non-negative");
+        Validate.notNull(completionExecutor, "completion executor is required");
+        this.maxConcurrency = maxConcurrency;
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+        this.timeoutMillis = timeoutMillis;
+        this.maxOutputBytes = maxOutputBytes;
+        this.completionExecutor = completionExecutor;
+        this.hostMonitor = hostMonitor;
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "async-rsync-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller.scheduleWithFixedDelay(this::poll, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues <code>rsync</code> for execution. The command line is taken from <code>rsync</code> at the time
+     * of submission; the <code>Rsync</code> object itself is not updated.
+     */
+    public CompletableFuture<RsyncResult> submit(Rsync rsync) {
+        return submit(rsync.getSource(), rsync.getCommandLine(), rsync.getEnvironment(), rsync.isItemizeChanges());
+    }
+
+    CompletableFuture<RsyncResult> submit(String source, List<String> commandLine, Map<String, String> environment, boolean itemizeChanges) {
+        Task task = new Task(source, hostOf(source), new ArrayList<String>(commandLine), environment, itemizeChanges);
+        synchronized (this) {
+            if (closed) {
+                task.future.completeExceptionally(new IllegalStateException("executor is closed"));
+                return task.future;
+            }
+            queued.computeIfAbsent(task.host, k -> new ArrayDeque<Task>()).add(task);
+            dispatch();
+        }
+        return task.future;
+    }
+
+    public synchronized int getRunningCount() {
+        return running.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (Queue<Task> queue : queued.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * Kills all running processes and fails all queued fetches.
+     */
+    @Override
+    public void close() {
+        List<Task> cancelled = new ArrayList<Task>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Queue<Task> queue : queued.values()) {
+                cancelled.addAll(queue);
+            }
+            queued.clear();
+            for (Task task : running) {
+                task.process.destroyForcibly();
+                task.deleteFiles();
+                if (hostMonitor != null) {
+                    hostMonitor.cancelFetch(task.host);
+                }
+                cancelled.add(task);
+            }
+            running.clear();
+            runningPerHost.clear();
+        }
+        poller.shutdownNow();
+        for (Task task : cancelled) {
+            task.future.completeExceptionally(new CancellationException("executor is closed"));
+        }
+    }
+
+    static String hostOf(String source) {
+        if (source != null && source.startsWith("rsync://")) {
+            try {
+                String host = URI.create(source).getHost();
+                return host == null ? LOCAL_HOST : host.toLowerCase();
+            } catch (IllegalArgumentException e) {
+                return LOCAL_HOST;
+            }
+        }
+        if (source != null && source.matches("^[^/:]+::?.*")) {
+            String host = source.substring(0, source.indexOf(':'));
+            return host.substring(host.indexOf('@') + 1).toLowerCase();
+        }
+        return LOCAL_HOST;
+    }
+
+    /**
+     * Starts queued fetches while there are free slots, letting hosts with queued fetches take turns.
+     */
+    private void dispatch() {
+        boolean started = true;
+        while (started && running.size() < maxConcurrency) {
+            started = false;
+            Iterator<Map.Entry<String, Queue<Task>>> hosts = queued.entrySet().iterator();
+            while (hosts.hasNext()) {
+                Map.Entry<String, Queue<Task>> entry = hosts.next();
+                if (runningPerHost.getOrDefault(entry.getKey(), 0) >= maxConcurrencyPerHost) {
+                    continue;
+                }
+                Task task = entry.getValue().poll();
+                hosts.remove();
+                if (!entry.getValue().isEmpty()) {
+                    // Move the host to the back of the line.
+                    queued.put(entry.getKey(), entry.getValue());
+                }
+                start(task);
+                started = true;
+                break;
+            }
+        }
+    }
+
+    private void start(Task task) {
+        if (hostMonitor != null && !hostMonitor.allowFetch(task.host)) {
+            LOG.warn("skipping rsync of " + task.source + ", host is failing");
+            RsyncResult result = new RsyncResult(task.source, Command.NOT_EXECUTED, new ArrayList<String>(), new ArrayList<String>(), false, false, 0, null, null, null);
+            completeLater(task, () -> task.future.complete(result));
+            return;
+        }
+        task.timeoutMillis = hostMonitor == null ? timeoutMillis : Math.min(timeoutMillis, hostMonitor.getTimeoutMillis(task.host));
+        try {
+            task.outputFile = File.createTempFile("rsync-", ".out");
+            task.errorFile = File.createTempFile("rsync-", ".err");
+            ProcessBuilder builder = new ProcessBuilder(task.commandLine)
+                    .redirectOutput(task.outputFile)
+                    .redirectError(task.errorFile);
+            if (task.environment != null) {
+                builder.environment().putAll(task.environment);
+            }
+            task.startedAt = DateTimeUtils.currentTimeMillis();
+            task.process = builder.start();
+        } catch (IOException e) {
+            task.deleteFiles();
+            LOG.error("could not start rsync for " + task.source, e);
+            RsyncResult result = new RsyncResult(task.source, Command.COMMAND_FAILED, new ArrayList<String>(), new ArrayList<String>(), false, false, 0, e, null, null);
+            if (hostMonitor != null) {
+                hostMonitor.record(result);
+            }
+            completeLater(task, () -> task.future.complete(result));
+            return;
+        }
+        running.add(task);
+        runningPerHost.merge(task.host, 1, Integer::sum);
+    }
+
+    /**
+     * Checks the running processes. Exceptions are logged rather than thrown, since an exception would cancel
+     * the scheduled polling and leave all running and queued fetches incomplete.
+     */
+    private void poll() {
+        try {
+            checkProcesses();
+        } catch (RuntimeException e) {
+            LOG.error("could not check rsync processes", e);
+        }
+    }
+
+    private void checkProcesses() {
+        List<Task> finished = new ArrayList<Task>();
+        synchronized (this) {
+            long now = DateTimeUtils.currentTimeMillis();
+            for (Iterator<Task> it = running.iterator(); it.hasNext(); ) {
+                Task task = it.next();
+                if (!task.process.isAlive()) {
+                    task.finishedAt = now;
+                    it.remove();
+                    runningPerHost.merge(task.host, -1, Integer::sum);
+                    finished.add(task);
+                } else if (!task.timedOut && now - task.startedAt > task.timeoutMillis) {
+                    LOG.warn("killing rsync for " + task.source + " after " + (now - task.startedAt) + "ms");
+                    task.timedOut = true;
+                    task.process.destroyForcibly();
+                }
+            }
+            if (!finished.isEmpty()) {
+                dispatch();
+            }
+        }
+        for (Task task : finished) {
+            completeLater(task, () -> complete(task));
+        }
+    }
+
+    /**
+     * Hands <code>completion</code> of <code>task</code> to the completion executor, or fails the task when the
+     * executor does not accept it.
+     */
+    private void completeLater(Task task, Runnable completion) {
+        try {
+            completionExecutor.execute(completion);
+        } catch (RuntimeException e) {
+            LOG.error("could not complete rsync of " + task.source, e);
+            if (task.process != null) {
+                recordFailure(task);
+            }
+            task.deleteFiles();
+            task.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Records a fetch that ran but has no result as failed, so a trial fetch does not keep its host out.
+     */
+    private void recordFailure(Task task) {
+        if (hostMonitor != null) {
+            hostMonitor.recordFailure(task.host, task.finishedAt - task.startedAt, task.timedOut);
+        }
+    }
+
+    private void complete(Task task) {
+        boolean recorded = false;
+        try {
+            boolean[] truncated = new boolean[1];
+            List<String> output = readLines(task.outputFile, truncated);
+            List<String> errors = readLines(task.errorFile, truncated);
+            int exitStatus = task.timedOut ? Command.COMMAND_FAILED : task.process.exitValue();
+            RsyncChangeSet changeSet = task.itemizeChanges && exitStatus == 0 && !truncated[0] ? RsyncChangeSet.parse(output) : null;
+            RsyncStatistics statistics = exitStatus == 0 ? RsyncStatistics.parse(output) : null;
+            RsyncResult result = new RsyncResult(task.source, exitStatus, output, errors, truncated[0], task.timedOut,
+                    task.finishedAt - task.startedAt, null, changeSet, statistics);
+            if (hostMonitor != null) {
+                recorded = true;
+                hostMonitor.record(result);
+            }
+            task.future.complete(result);
+        } catch (IOException | RuntimeException e) {
+            if (!recorded) {
+                recordFailure(task);
+            }
+            task.future.completeExceptionally(e);
+        } finally {
+            task.deleteFiles();
+        }
+    }
+
+    private List<String> readLines(File file, boolean[] truncated) throws IOException {
+        byte[] content;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            content = new byte[(int) Math.min(file.length(), maxOutputBytes)];
+            int read = 0;
+            while (read < content.length) {
+                int n = in.read(content, read, content.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        }
+        if (file.length() > maxOutputBytes) {
+            truncated[0] = true;
+        }
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), Charset.defaultCharset()));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static final class Task {
+        private final String source;
+        private final String host;
+        private final List<String> commandLine;
+        private final Map<String, String> environment;
+        private final boolean itemizeChanges;
+        private final CompletableFuture<RsyncResult> future = new CompletableFuture<RsyncResult>();
+        private Process process;
+        private File outputFile;
+        private File errorFile;
+        private long startedAt;
+        private long finishedAt;
+        private long timeoutMillis;
+        private boolean timedOut;
+
+        private Task(String source, String host, List<String> commandLine, Map<String, String> environment, boolean itemizeChanges) {
+            this.source = source;
+            this.host = host;
+            this.commandLine = commandLine;
+            this.environment = environment;
+            this.itemizeChanges = itemizeChanges;
+        }
+
+        private void deleteFiles() {
+            for (File file : new File[]{outputFile, errorFile}) {
+                if (file != null && !file.delete() && file.exists()) {
+                    LOG.warn("could not delete " + file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import org.apache.commons.lang.Validate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of {@link FetchPlanner}: the file names of a publication point that must be fetched because
+ * they are missing or differ from the manifest, can be kept because they match the manifest, or should be
+ * deleted because the manifest no longer lists them. All lists are sorted.
+ */
+public class FetchPlan {
+
+    private final List<String> filesToFetch;
+
+    private final List<String> filesToKeep;
+
+    private final List<String> filesToDelete;
+
+    public FetchPlan(List<String> filesToFetch, List<String> filesToKeep, List<String> filesToDelete) {
+        this.filesToFetch = sorted(filesToFetch);
+        this.filesToKeep = sorted(filesToKeep);
+        this.filesToDelete = sorted(filesToDelete);
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> result = new ArrayList<String>(names);
+        Collections.sort(result);
+        return Collections.unmodifiableList(result);
+    }
+
+    public List<String> getFilesToFetch() {
+        return filesToFetch;
+    }
+
+    public List<String> getFilesToKeep() {
+        return filesToKeep;
+    }
+
+    public List<String> getFilesToDelete() {
+        return filesToDelete;
+    }
+
+    /**
+     * @return true if the local copy already matches the manifest and nothing needs to be transferred.
+     */
+    public boolean isUpToDate() {
+        return filesToFetch.isEmpty();
+    }
+
+    /**
+     * Writes the files to fetch, one per line, in the format expected by rsync <code>--files-from</code>.
+     */
+    public void writeFilesFrom(File file) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (String name : filesToFetch) {
+            builder.append(name).append('\n');
+        }
+        Files.write(file.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Configures <code>rsync</code> to transfer only the files to fetch from <code>repositoryUri</code>
+     * into <code>localDirectory</code>. The file list is written to <code>filesFrom</code>, which must be kept
+     * until rsync has finished.
+     *
+     * @param repositoryUri the rsync URI of the publication point directory.
+     */
+    public void configure(Rsync rsync, URI repositoryUri, File localDirectory, File filesFrom) throws IOException {
+        Validate.isTrue(repositoryUri.toString().endsWith("/"), "repository URI must be a directory");
+        writeFilesFrom(filesFrom);
+        rsync.setSource(repositoryUri.toString());
+        rsync.setDestination(localDirectory.getPath() + "/");
+        rsync.addOptions("--times", "--files-from=" + filesFrom.getPath());
+    }
+
+    /**
+     * Deletes the local files the manifest no longer lists.
+     *
+     * @return the number of deleted files.
+     */
+    public int deleteObsoleteFiles(File localDirectory) throws IOException {
+        int count = 0;
+        for (String name : filesToDelete) {
+            if (Files.deleteIfExists(new File(localDirectory, name).toPath())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "FetchPlan[fetch=" + filesToFetch.size() + ", keep=" + filesToKeep.size() + ", delete=" + filesToDelete.size() + "]";
+    }
+}
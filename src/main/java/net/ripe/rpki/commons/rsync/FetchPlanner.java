@@ -0,0 +1,171 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.x509cert.X509CertificateInformationAccessDescriptor;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+/**
+ * Compares a freshly fetched manifest with the local copy of its publication point, so that only the
+ * objects that are missing or changed are transferred, e.g. with rsync <code>--files-from</code> as set up
+ * by {@link FetchPlan#configure}.
+ * <p>
+ * The local copy is a directory holding the files of a single publication point, or any store that can
+ * provide the SHA-256 hashes of the files it holds. Local files are hashed in parallel. A manifest never lists
+ * itself, so the local copy of the manifest is never planned for deletion. Its file name is taken from the
+ * signed object URI of the manifest EE certificate unless the caller provides it.
+ */
+public class FetchPlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FetchPlanner.class);
+
+    /**
+     * Manifest entries are plain file names (RFC 6486). Anything else could escape the local directory.
+     */
+    private static final Pattern SAFE_FILE_NAME = Pattern.compile("[a-zA-Z0-9_\\-][a-zA-Z0-9._\\-]*");
+
+    private final Executor executor;
+
+    public FetchPlanner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public FetchPlanner(Executor executor) {
+        Validate.notNull(executor, "executor is required");
+        this.executor = executor;
+    }
+
+    /**
+     * Plans against the regular files in <code>localDirectory</code>. Sub directories are ignored, they hold
+     * other publication points.
+     */
+    public FetchPlan plan(ManifestCms manifest, File localDirectory) {
+        return plan(manifest, manifestFileName(manifest), localDirectory);
+    }
+
+    /**
+     * Like {@link #plan(ManifestCms, File)}, with the file name the manifest is stored under locally.
+     */
+    public FetchPlan plan(ManifestCms manifest, String manifestFileName, File localDirectory) {
+        Map<String, CompletableFuture<byte[]>> hashing = new LinkedHashMap<String, CompletableFuture<byte[]>>();
+        File[] files = localDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.isFile() && !file.getName().startsWith(".")) {
+                    hashing.put(file.getName(), CompletableFuture.supplyAsync(() -> hash(file), executor));
+                }
+            }
+        }
+        Map<String, byte[]> localHashes = new HashMap<String, byte[]>();
+        try {
+            for (Map.Entry<String, CompletableFuture<byte[]>> entry : hashing.entrySet()) {
+                localHashes.put(entry.getKey(), entry.getValue().join());
+            }
+        } catch (CompletionException e) {
+            Exception cause = e.getCause() instanceof UncheckedIOException ? ((UncheckedIOException) e.getCause()).getCause() : e;
+            throw new FetchPlannerException("could not hash files in " + localDirectory, cause);
+        }
+        return plan(manifest, manifestFileName, localHashes);
+    }
+
+    /**
+     * @param localHashes the SHA-256 hashes of the locally available files, by file name.
+     */
+    public FetchPlan plan(ManifestCms manifest, Map<String, byte[]> localHashes) {
+        return plan(manifest, manifestFileName(manifest), localHashes);
+    }
+
+    /**
+     * @param manifestFileName the file name the manifest is stored under locally, kept out of the files to delete.
+     * @param localHashes      the SHA-256 hashes of the locally available files, by file name.
+     */
+    public FetchPlan plan(ManifestCms manifest, String manifestFileName, Map<String, byte[]> localHashes) {
+        List<String> fetch = new ArrayList<String>();
+        List<String> keep = new ArrayList<String>();
+        List<String> delete = new ArrayList<String>();
+        for (String name : manifest.getFileNames()) {
+            if (!SAFE_FILE_NAME.matcher(name).matches()) {
+                LOG.warn("ignoring unsafe manifest entry '" + name + "'");
+                continue;
+            }
+            byte[] localHash = localHashes.get(name);
+            if (localHash != null && new ManifestCms.FileContentSpecification(localHash).equals(manifest.getFileContentSpecification(name))) {
+                keep.add(name);
+            } else {
+                fetch.add(name);
+            }
+        }
+        for (String name : localHashes.keySet()) {
+            if (!manifest.containsFile(name) && !name.equals(manifestFileName)) {
+                delete.add(name);
+            }
+        }
+        return new FetchPlan(fetch, keep, delete);
+    }
+
+    /**
+     * @return the last path segment of the signed object URI of the manifest EE certificate, or null.
+     */
+    static String manifestFileName(ManifestCms manifest) {
+        URI uri = manifest.getCertificate().findFirstSubjectInformationAccessByMethod(X509CertificateInformationAccessDescriptor.ID_AD_SIGNED_OBJECT);
+        if (uri == null || uri.getPath() == null) {
+            return null;
+        }
+        String path = uri.getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static byte[] hash(File file) {
+        try {
+            return ManifestCms.hashContents(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -39,10 +39,26 @@ import net.ripe.rpki.commons.validation.ValidationResult;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public class RemoteCertificateFetcher {
 
+    /**
+     * Exit status of rsync when some of the requested files could not be transferred.
+     */
+    private static final int PARTIAL_TRANSFER = 23;
+    private static final int PARTIAL_TRANSFER_VANISHED = 24;
+
     private Rsync rsync;
 
 
@@ -94,6 +110,179 @@ public class RemoteCertificateFetcher {
         }
     }
 
+    /**
+     * Fetches many objects with a single rsync invocation per rsync module (or one for all local paths), using
+     * <code>--files-from</code>, and parses the fetched objects in parallel.
+     *
+     * @param sourcePaths rsync URIs or absolute local paths.
+     * @return a result for every source path, in the order given.
+     */
+    public Map<String, FetchResult> getRemoteObjects(Collection<String> sourcePaths) {
+        Map<String, FetchResult> results = new LinkedHashMap<String, FetchResult>();
+        Map<String, List<String>> relativePathsByRoot = new LinkedHashMap<String, List<String>>();
+        for (String sourcePath : sourcePaths) {
+            String[] rootAndPath = splitSourcePath(sourcePath);
+            if (rootAndPath == null) {
+                results.put(sourcePath, FetchResult.failure("unsupported source path"));
+            } else {
+                relativePathsByRoot.computeIfAbsent(rootAndPath[0], k -> new ArrayList<String>()).add(rootAndPath[1]);
+            }
+        }
+
+        File tempDirectory = new File(ConfigurationUtil.getTempDirectory(), "rsync-batch-" + UUID.randomUUID());
+        Map<String, CompletableFuture<FetchResult>> parsing = new LinkedHashMap<String, CompletableFuture<FetchResult>>();
+        try {
+            int group = 0;
+            for (Map.Entry<String, List<String>> entry : relativePathsByRoot.entrySet()) {
+                String root = entry.getKey();
+                File destination = new File(tempDirectory, "group-" + group);
+                File filesFrom = new File(tempDirectory, "group-" + group + ".files");
+                group++;
+                if (!destination.mkdirs()) {
+                    throw new RemoteCertificateFetcherException("could not create " + destination, null);
+                }
+                java.nio.file.Files.write(filesFrom.toPath(), String.join("\n", entry.getValue()).concat("\n").getBytes(StandardCharsets.UTF_8));
+
+                rsync.reset();
+                rsync.setSource(root);
+                rsync.setDestination(destination.getPath() + "/");
+                rsync.addOptions("--files-from=" + filesFrom.getPath());
+                int rc = rsync.execute();
+
+                for (String relativePath : entry.getValue()) {
+                    String sourcePath = root + relativePath;
+                    File file = new File(destination, relativePath);
+                    if (rc != 0 && rc != PARTIAL_TRANSFER && rc != PARTIAL_TRANSFER_VANISHED) {
+                        results.put(sourcePath, FetchResult.failure("rsync exited with status " + rc));
+                    } else if (!file.isFile()) {
+                        results.put(sourcePath, FetchResult.failure("object could not be retrieved"));
+                    } else {
+                        parsing.put(sourcePath, CompletableFuture.supplyAsync(() -> parse(sourcePath, file)));
+                    }
+                }
+            }
+            for (Map.Entry<String, CompletableFuture<FetchResult>> entry : parsing.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().join());
+            }
+        } catch (IOException e) {
+            throw new RemoteCertificateFetcherException("I/O error occurred trying to rsync to: " + tempDirectory, e);
+        } finally {
+            deleteRecursively(tempDirectory);
+        }
+
+        Map<String, FetchResult> ordered = new LinkedHashMap<String, FetchResult>();
+        for (String sourcePath : sourcePaths) {
+            ordered.put(sourcePath, results.get(sourcePath));
+        }
+        return ordered;
+    }
+
+    /**
+     * @return the rsync root to transfer from (an rsync module or the file system root) and the path relative
+     * to it, or null for unsupported or unsafe paths.
+     */
+    static String[] splitSourcePath(String sourcePath) {
+        String root;
+        String relativePath;
+        if (sourcePath.startsWith("rsync://")) {
+            URI uri;
+            try {
+                uri = URI.create(sourcePath);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            String path = uri.getRawPath();
+            int moduleEnd = path == null ? -1 : path.indexOf('/', 1);
+            if (uri.getRawAuthority() == null || moduleEnd < 0) {
+                return null;
+            }
+            root = "rsync://" + uri.getRawAuthority() + path.substring(0, moduleEnd + 1);
+            relativePath = path.substring(moduleEnd + 1);
+        } else if (sourcePath.startsWith("/")) {
+            root = "/";
+            relativePath = sourcePath.substring(1);
+        } else {
+            return null;
+        }
+        if (relativePath.isEmpty() || relativePath.endsWith("/")) {
+            return null;
+        }
+        for (String segment : relativePath.split("/")) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+        }
+        return new String[]{root, relativePath};
+    }
+
+    private static FetchResult parse(String sourcePath, File file) {
+        try {
+            ValidationResult validationResult = ValidationResult.withLocation(sourcePath);
+            CertificateRepositoryObject object = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(Files.toByteArray(file), validationResult);
+            if (object == null || validationResult.hasFailures()) {
+                return new FetchResult(null, validationResult, "object could not be parsed");
+            }
+            return new FetchResult(object, validationResult, null);
+        } catch (IOException e) {
+            return FetchResult.failure("object could not be read: " + e.getMessage());
+        }
+    }
+
+    private static void deleteRecursively(File directory) {
+        if (!directory.exists()) {
+            return;
+        }
+        try (Stream<java.nio.file.Path> paths = java.nio.file.Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            throw new RemoteCertificateFetcherException("could not delete " + directory, e);
+        }
+    }
+
+    /**
+     * Result of fetching a single object with {@link #getRemoteObjects(Collection)}.
+     */
+    public static class FetchResult {
+        private final CertificateRepositoryObject object;
+        private final ValidationResult validationResult;
+        private final String error;
+
+        FetchResult(CertificateRepositoryObject object, ValidationResult validationResult, String error) {
+            this.object = object;
+            this.validationResult = validationResult;
+            this.error = error;
+        }
+
+        static FetchResult failure(String error) {
+            return new FetchResult(null, null, error);
+        }
+
+        public boolean isSuccess() {
+            return object != null;
+        }
+
+        /**
+         * @return the parsed object, or null when the object could not be fetched or parsed.
+         */
+        public CertificateRepositoryObject getObject() {
+            return object;
+        }
+
+        /**
+         * @return the parse checks, or null when the object could not be fetched.
+         */
+        public ValidationResult getValidationResult() {
+            return validationResult;
+        }
+
+        /**
+         * @return the reason the object is missing, or null on success.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
     /**
      * Use this for stubbing rsync to test this class..
      */
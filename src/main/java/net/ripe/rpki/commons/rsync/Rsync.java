@@ -35,6 +35,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -65,6 +66,16 @@ public class Rsync {
 
     private String proxy;
 
+    private boolean itemizeChanges;
+
+    private RsyncChangeSet changeSet;
+
+    private boolean collectStatistics;
+
+    private RsyncStatistics statistics;
+
+    private RsyncHostMonitor hostMonitor;
+
     public Rsync() {
     }
 
@@ -99,6 +110,72 @@ public class Rsync {
         }
     }
 
+    /**
+     * @param itemizeChanges when true, rsync is run with <code>--itemize-changes</code> and its output is made
+     *                       available as {@link #getChangeSet()}.
+     */
+    public void setItemizeChanges(boolean itemizeChanges) {
+        this.itemizeChanges = itemizeChanges;
+    }
+
+    public boolean isItemizeChanges() {
+        return itemizeChanges;
+    }
+
+    /**
+     * @return the files changed by the last successful execution, or null when it failed or changes were not
+     * itemized.
+     */
+    public RsyncChangeSet getChangeSet() {
+        return changeSet;
+    }
+
+    /**
+     * @param collectStatistics when true, rsync is run with <code>--stats</code> and its output is made
+     *                          available as {@link #getStatistics()}.
+     */
+    public void setCollectStatistics(boolean collectStatistics) {
+        this.collectStatistics = collectStatistics;
+    }
+
+    public boolean isCollectStatistics() {
+        return collectStatistics;
+    }
+
+    /**
+     * @return the transfer statistics of the last successful execution, or null when it failed or statistics
+     * were not collected.
+     */
+    public RsyncStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param hostMonitor when set, executions are skipped while the circuit of the source host is open, the
+     *                    adaptive timeout of the host is used as the rsync(1) communication timeout, and the
+     *                    outcome of each execution is recorded. Implies collecting statistics. The adaptive
+     *                    timeout follows whole fetch durations but rsync(1) only applies it to periods without
+     *                    I/O, use {@link AsyncRsyncExecutor} to limit the total duration of a fetch.
+     */
+    public void setHostMonitor(RsyncHostMonitor hostMonitor) {
+        this.hostMonitor = hostMonitor;
+    }
+
+    public RsyncHostMonitor getHostMonitor() {
+        return hostMonitor;
+    }
+
+    /**
+     * Removes all options starting with <code>prefix</code>, for example <code>--link-dest=</code>.
+     */
+    public void removeOptionsStartingWith(String prefix) {
+        options.removeIf(option -> option.startsWith(prefix));
+    }
+
+    public List<String> getOptions() {
+        return Collections.unmodifiableList(options);
+    }
+
     public boolean containsOption(String option) {
         return options.contains(option);
     }
@@ -110,6 +187,10 @@ public class Rsync {
         destination = null;
         startedAt = 0;
         finishedAt = 0;
+        itemizeChanges = false;
+        changeSet = null;
+        collectStatistics = false;
+        statistics = null;
     }
 
     public String getSource() {
@@ -152,27 +233,56 @@ public class Rsync {
         return command == null ? null : command.getException();
     }
 
-    public int execute() {
+    List<String> getCommandLine() {
         List<String> args = new ArrayList<String>();
         args.add(COMMAND);
-        args.add("--timeout=" + timeoutInSeconds);
+        args.add("--timeout=" + (hostMonitor == null ? timeoutInSeconds : (hostMonitor.getTimeoutMillis(AsyncRsyncExecutor.hostOf(source)) + 999) / 1000));
+        if (itemizeChanges && !options.contains("--itemize-changes") && !options.contains("-i")) {
+            args.add("--itemize-changes");
+        }
+        if ((collectStatistics || hostMonitor != null) && !options.contains("--stats")) {
+            args.add("--stats");
+        }
         args.addAll(options);
         if ((source != null) && (destination != null)) {
             args.add(source);
             args.add(destination);
         }
+        return args;
+    }
 
-        final Command rsync;
-        if (proxy != null) {
-            Map<String, String> environment = System.getenv();
-            if (System.getenv(RSYNC_PROXY) == null) {
-                environment = new HashMap<>(environment);
-                environment.put(RSYNC_PROXY, proxy);
-            }
-            rsync = new Command(args, environment);
-        } else {
-            rsync = new Command(args);
+    /**
+     * @return the environment for the rsync process, or null to inherit the environment unchanged.
+     */
+    Map<String, String> getEnvironment() {
+        if (proxy == null) {
+            return null;
         }
+        Map<String, String> environment = System.getenv();
+        if (System.getenv(RSYNC_PROXY) == null) {
+            environment = new HashMap<>(environment);
+            environment.put(RSYNC_PROXY, proxy);
+        }
+        return environment;
+    }
+
+    /**
+     * @return the exit status of rsync, or {@link Command#NOT_EXECUTED} when the host monitor does not allow a
+     * fetch from the source host.
+     */
+    public int execute() {
+        changeSet = null;
+        statistics = null;
+        if (hostMonitor != null && !hostMonitor.allowFetch(AsyncRsyncExecutor.hostOf(source))) {
+            log.warn("skipping rsync of " + source + ", host is failing");
+            command = null;
+            startedAt = finishedAt = DateTimeUtils.currentTimeMillis();
+            return Command.NOT_EXECUTED;
+        }
+
+        List<String> args = getCommandLine();
+        Map<String, String> environment = getEnvironment();
+        final Command rsync = environment == null ? new Command(args) : new Command(args, environment);
 
         startedAt = DateTimeUtils.currentTimeMillis();
         try {
@@ -184,11 +294,21 @@ public class Rsync {
                 log.error("rsync exit status: " + exitStatus);
                 log.error("rsync stderr: " + rsync.getErrors());
                 log.error("rsync stdout: " + rsync.getOutputs());
+            } else {
+                if (itemizeChanges) {
+                    changeSet = RsyncChangeSet.parse(rsync.getOutputs());
+                }
+                if (collectStatistics || hostMonitor != null) {
+                    statistics = RsyncStatistics.parse(rsync.getOutputs());
+                }
             }
 
             return exitStatus;
         } finally {
             finishedAt = DateTimeUtils.currentTimeMillis();
+            if (hostMonitor != null) {
+                hostMonitor.record(this);
+            }
         }
     }
 
@@ -0,0 +1,161 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The files added, updated and deleted by an rsync run, parsed from its <code>--itemize-changes</code>
+ * output. Paths are relative to the destination directory, in the order rsync reported them. Directories,
+ * symbolic links, devices and attribute only changes are not included.
+ */
+public class RsyncChangeSet {
+
+    private static final String DELETING = "*deleting";
+
+    /**
+     * The <code>%i</code> item code (<code>YXcstpoguax</code>, 9 characters for rsync before 3.0) or the
+     * deletion message, followed by the path.
+     */
+    private static final Pattern ITEMIZED_LINE = Pattern.compile("^(\\*deleting|[<>ch.*][fdLDS][^ ]{7,9})\\s+(.+)$");
+
+    private static final Pattern ESCAPE = Pattern.compile("\\\\#([0-7]{3})");
+
+    private final List<String> addedPaths;
+
+    private final List<String> updatedPaths;
+
+    private final List<String> deletedPaths;
+
+    public RsyncChangeSet(List<String> addedPaths, List<String> updatedPaths, List<String> deletedPaths) {
+        this.addedPaths = Collections.unmodifiableList(new ArrayList<String>(addedPaths));
+        this.updatedPaths = Collections.unmodifiableList(new ArrayList<String>(updatedPaths));
+        this.deletedPaths = Collections.unmodifiableList(new ArrayList<String>(deletedPaths));
+    }
+
+    /**
+     * Parses itemized rsync output. Lines that are not itemized changes, such as the statistics printed
+     * with <code>--verbose</code>, are ignored.
+     */
+    public static RsyncChangeSet parse(List<String> lines) {
+        List<String> added = new ArrayList<String>();
+        List<String> updated = new ArrayList<String>();
+        List<String> deleted = new ArrayList<String>();
+        if (lines != null) {
+            for (String line : lines) {
+                Matcher matcher = ITEMIZED_LINE.matcher(line);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                String code = matcher.group(1);
+                String path = unescape(matcher.group(2));
+                if (DELETING.equals(code)) {
+                    if (!path.endsWith("/")) {
+                        deleted.add(path);
+                    }
+                } else if (code.charAt(1) == 'f' && isTransfer(code.charAt(0))) {
+                    if (code.substring(2).matches("\\++")) {
+                        added.add(path);
+                    } else {
+                        updated.add(path);
+                    }
+                }
+            }
+        }
+        return new RsyncChangeSet(added, updated, deleted);
+    }
+
+    /**
+     * '<' and '>' are files sent or received, 'c' is a local change and 'h' a hard link. A '.' means only
+     * attributes changed, so the content is the same.
+     */
+    private static boolean isTransfer(char updateType) {
+        return updateType == '>' || updateType == '<' || updateType == 'c' || updateType == 'h';
+    }
+
+    /**
+     * rsync escapes unprintable characters as <code>\#ooo</code>, with <code>ooo</code> the octal value of
+     * the byte.
+     */
+    static String unescape(String path) {
+        if (path.indexOf("\\#") < 0) {
+            return path;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Matcher matcher = ESCAPE.matcher(path);
+        int last = 0;
+        while (matcher.find()) {
+            byte[] literal = path.substring(last, matcher.start()).getBytes(StandardCharsets.UTF_8);
+            bytes.write(literal, 0, literal.length);
+            bytes.write(Integer.parseInt(matcher.group(1), 8));
+            last = matcher.end();
+        }
+        byte[] rest = path.substring(last).getBytes(StandardCharsets.UTF_8);
+        bytes.write(rest, 0, rest.length);
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public List<String> getAddedPaths() {
+        return addedPaths;
+    }
+
+    public List<String> getUpdatedPaths() {
+        return updatedPaths;
+    }
+
+    public List<String> getDeletedPaths() {
+        return deletedPaths;
+    }
+
+    /**
+     * @return the added and updated paths: the files that need to be (re)parsed.
+     */
+    public List<String> getChangedPaths() {
+        List<String> result = new ArrayList<String>(addedPaths.size() + updatedPaths.size());
+        result.addAll(addedPaths);
+        result.addAll(updatedPaths);
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return addedPaths.isEmpty() && updatedPaths.isEmpty() && deletedPaths.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "RsyncChangeSet[added=" + addedPaths.size() + ", updated=" + updatedPaths.size() + ", deleted=" + deletedPaths.size() + "]";
+    }
+}
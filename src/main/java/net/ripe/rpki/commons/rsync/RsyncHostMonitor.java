@@ -0,0 +1,318 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import net.ripe.rpki.commons.rsync.RsyncHostStatistics.CircuitState;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects fetch statistics per rsync host, derives an adaptive timeout per host from them and acts as a
+ * circuit breaker for hosts that keep failing.
+ * <p>
+ * The timeout follows the duration of successful fetches the way TCP derives its retransmission timeout
+ * (RFC 6298): a smoothed duration plus four times its mean deviation, bounded by a minimum and a maximum.
+ * A fetch that is killed because of the timeout, or that rsync ends with a timeout exit status (30 or 35),
+ * doubles the timeout of its host, up to the maximum. Partial transfers (exit status 23 or 24) mean the host
+ * did respond, so they are not counted as failures.
+ * <p>
+ * The timeout is derived from whole fetch durations. {@link AsyncRsyncExecutor} enforces it on the total
+ * duration of a fetch by killing the process, while {@link Rsync} passes it as the rsync(1)
+ * <code>--timeout</code> option, which only limits the time without I/O. A synchronous fetch that keeps
+ * making progress is therefore not cut off, only one that stalls for longer than a whole fetch usually takes.
+ * <p>
+ * After <code>failureThreshold</code> consecutive failures the circuit of a host opens and
+ * {@link #allowFetch(String)} returns false until the back off period ends. Then a single trial fetch is
+ * allowed: when it succeeds the circuit closes, otherwise it opens again with twice the back off period, up
+ * to the maximum back off. A trial that is not recorded within the maximum timeout counts as failed, so a
+ * lost trial cannot keep the host out forever; a trial that is cancelled is released with
+ * {@link #cancelFetch(String)}.
+ * <p>
+ * A single monitor can be shared between {@link Rsync} instances and {@link AsyncRsyncExecutor}s.
+ */
+public class RsyncHostMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RsyncHostMonitor.class);
+
+    public static final long DEFAULT_MIN_TIMEOUT_MILLIS = 30 * 1000L;
+
+    public static final long DEFAULT_MAX_TIMEOUT_MILLIS = 300 * 1000L;
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 60 * 1000L;
+
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60 * 60 * 1000L;
+
+    private static final int PARTIAL_TRANSFER = 23;
+
+    private static final int PARTIAL_TRANSFER_VANISHED = 24;
+
+    private static final int IO_TIMEOUT = 30;
+
+    private static final int CONNECT_TIMEOUT = 35;
+
+    private final long minTimeoutMillis;
+
+    private final long maxTimeoutMillis;
+
+    private final int failureThreshold;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final Map<String, Host> hosts = new TreeMap<String, Host>();
+
+    public RsyncHostMonitor() {
+        this(DEFAULT_MIN_TIMEOUT_MILLIS, DEFAULT_MAX_TIMEOUT_MILLIS, DEFAULT_FAILURE_THRESHOLD, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param minTimeoutMillis     the lower bound of the adaptive timeout.
+     * @param maxTimeoutMillis     the upper bound of the adaptive timeout, also used for hosts without history.
+     * @param failureThreshold     the number of consecutive failures that opens the circuit of a host.
+     * @param initialBackoffMillis the time fetches are skipped after the circuit opens.
+     * @param maxBackoffMillis     the upper bound of the back off period.
+     */
+    public RsyncHostMonitor(long minTimeoutMillis, long maxTimeoutMillis, int failureThreshold, long initialBackoffMillis, long maxBackoffMillis) {
+        Validate.isTrue(minTimeoutMillis > 0, "minimum timeout must be positive");
+        Validate.isTrue(maxTimeoutMillis >= minTimeoutMillis, "maximum timeout must not be less than the minimum timeout");
+        Validate.isTrue(failureThreshold > 0, "failure threshold must be positive");
+        Validate.isTrue(initialBackoffMillis > 0, "initial back off must be positive");
+        Validate.isTrue(maxBackoffMillis >= initialBackoffMillis, "maximum back off must not be less than the initial back off");
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * @return the timeout for the next fetch from <code>host</code> in milliseconds.
+     */
+    public synchronized long getTimeoutMillis(String host) {
+        Host state = hosts.get(host);
+        return state == null ? maxTimeoutMillis : state.timeoutMillis;
+    }
+
+    /**
+     * Decides whether a fetch from <code>host</code> may start. A fetch that is allowed must be reported with
+     * one of the <code>record</code> methods, since a trial fetch keeps other fetches out until it is recorded.
+     */
+    public synchronized boolean allowFetch(String host) {
+        Host state = hosts.get(host);
+        if (state == null || state.circuitState == CircuitState.CLOSED) {
+            return true;
+        }
+        long now = DateTimeUtils.currentTimeMillis();
+        if (state.circuitState == CircuitState.HALF_OPEN && now - state.trialStartedAt > maxTimeoutMillis) {
+            LOG.warn("trial rsync of host " + host + " was not recorded within " + maxTimeoutMillis + "ms, counting it as failed");
+            open(state);
+        }
+        if (state.circuitState == CircuitState.OPEN && now >= state.openUntil) {
+            state.circuitState = CircuitState.HALF_OPEN;
+            state.trialStartedAt = now;
+            return true;
+        }
+        state.skippedCount++;
+        return false;
+    }
+
+    /**
+     * Reports that an allowed fetch from <code>host</code> was cancelled before it completed, e.g. because its
+     * executor was closed. A trial fetch is released without counting it as failed, so the next fetch becomes
+     * the trial.
+     */
+    public synchronized void cancelFetch(String host) {
+        Host state = hosts.get(host);
+        if (state != null && state.circuitState == CircuitState.HALF_OPEN) {
+            state.circuitState = CircuitState.OPEN;
+        }
+    }
+
+    /**
+     * Records the outcome of an executed {@link Rsync}.
+     */
+    public void record(Rsync rsync) {
+        String host = AsyncRsyncExecutor.hostOf(rsync.getSource());
+        int exitStatus = rsync.getExitStatus();
+        if (isHostResponsive(exitStatus)) {
+            recordSuccess(host, rsync.elapsedTime(), rsync.getStatistics());
+        } else {
+            recordFailure(host, rsync.elapsedTime(), isTimeout(exitStatus));
+        }
+    }
+
+    /**
+     * Records the outcome of a fetch run by an {@link AsyncRsyncExecutor}.
+     */
+    public void record(RsyncResult result) {
+        String host = AsyncRsyncExecutor.hostOf(result.getSource());
+        if (isHostResponsive(result.getExitStatus())) {
+            recordSuccess(host, result.getElapsedTime(), result.getStatistics());
+        } else {
+            recordFailure(host, result.getElapsedTime(), result.isTimedOut() || isTimeout(result.getExitStatus()));
+        }
+    }
+
+    /**
+     * @return true for a successful fetch or a partial transfer, where the host did respond.
+     */
+    static boolean isHostResponsive(int exitStatus) {
+        return exitStatus == 0 || exitStatus == PARTIAL_TRANSFER || exitStatus == PARTIAL_TRANSFER_VANISHED;
+    }
+
+    /**
+     * @return true for the rsync exit statuses of an I/O or daemon connection timeout.
+     */
+    static boolean isTimeout(int exitStatus) {
+        return exitStatus == IO_TIMEOUT || exitStatus == CONNECT_TIMEOUT;
+    }
+
+    /**
+     * @param statistics the transfer statistics of the fetch, or null when not available.
+     */
+    public synchronized void recordSuccess(String host, long elapsedMillis, RsyncStatistics statistics) {
+        Host state = hosts.computeIfAbsent(host, Host::new);
+        state.recordFetch(elapsedMillis);
+        if (state.smoothedElapsedTime < 0) {
+            state.smoothedElapsedTime = elapsedMillis;
+            state.elapsedTimeDeviation = elapsedMillis / 2;
+        } else {
+            state.elapsedTimeDeviation += (Math.abs(state.smoothedElapsedTime - elapsedMillis) - state.elapsedTimeDeviation) / 4;
+            state.smoothedElapsedTime += (elapsedMillis - state.smoothedElapsedTime) / 8;
+        }
+        state.timeoutMillis = bound(state.smoothedElapsedTime + 4 * state.elapsedTimeDeviation, minTimeoutMillis, maxTimeoutMillis);
+        if (statistics != null) {
+            state.totalBytesSent += statistics.getTotalBytesSent();
+            state.totalBytesReceived += statistics.getTotalBytesReceived();
+            state.totalFilesTransferred += statistics.getNumberOfFilesTransferred();
+            state.numberOfFiles = statistics.getNumberOfFiles();
+        }
+        if (state.circuitState != CircuitState.CLOSED) {
+            LOG.info("rsync host " + host + " recovered, closing circuit");
+        }
+        state.consecutiveFailures = 0;
+        state.circuitState = CircuitState.CLOSED;
+        state.backoffMillis = 0;
+        state.openUntil = 0;
+    }
+
+    /**
+     * @param timedOut true when the fetch was killed because it exceeded the timeout.
+     */
+    public synchronized void recordFailure(String host, long elapsedMillis, boolean timedOut) {
+        Host state = hosts.computeIfAbsent(host, Host::new);
+        state.recordFetch(elapsedMillis);
+        state.failureCount++;
+        state.consecutiveFailures++;
+        if (timedOut) {
+            state.timeoutCount++;
+            state.timeoutMillis = bound(state.timeoutMillis * 2, minTimeoutMillis, maxTimeoutMillis);
+        }
+        if (state.circuitState == CircuitState.HALF_OPEN || state.consecutiveFailures >= failureThreshold) {
+            open(state);
+            LOG.warn("rsync host " + host + " failed " + state.consecutiveFailures + " times in a row, skipping it for " + state.backoffMillis + "ms");
+        }
+    }
+
+    private void open(Host state) {
+        state.backoffMillis = state.backoffMillis == 0 ? initialBackoffMillis : Math.min(state.backoffMillis * 2, maxBackoffMillis);
+        state.openUntil = DateTimeUtils.currentTimeMillis() + state.backoffMillis;
+        state.circuitState = CircuitState.OPEN;
+    }
+
+    /**
+     * @return the statistics of <code>host</code>, or null when nothing was recorded for it.
+     */
+    public synchronized RsyncHostStatistics getStatistics(String host) {
+        Host state = hosts.get(host);
+        return state == null ? null : state.snapshot();
+    }
+
+    /**
+     * @return the statistics of all hosts, ordered by host name.
+     */
+    public synchronized Map<String, RsyncHostStatistics> getStatistics() {
+        Map<String, RsyncHostStatistics> result = new TreeMap<String, RsyncHostStatistics>();
+        for (Host state : hosts.values()) {
+            result.put(state.host, state.snapshot());
+        }
+        return result;
+    }
+
+    private static long bound(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private final class Host {
+        private final String host;
+        private long fetchCount;
+        private long failureCount;
+        private long timeoutCount;
+        private long skippedCount;
+        private int consecutiveFailures;
+        private long lastElapsedTime;
+        private long smoothedElapsedTime = -1;
+        private long elapsedTimeDeviation;
+        private long totalElapsedTime;
+        private long totalBytesSent;
+        private long totalBytesReceived;
+        private long totalFilesTransferred;
+        private long numberOfFiles;
+        private long timeoutMillis = maxTimeoutMillis;
+        private CircuitState circuitState = CircuitState.CLOSED;
+        private long backoffMillis;
+        private long openUntil;
+        private long trialStartedAt;
+
+        private Host(String host) {
+            this.host = host;
+        }
+
+        private void recordFetch(long elapsedMillis) {
+            fetchCount++;
+            lastElapsedTime = elapsedMillis;
+            totalElapsedTime += elapsedMillis;
+        }
+
+        private RsyncHostStatistics snapshot() {
+            return new RsyncHostStatistics(host, fetchCount, failureCount, timeoutCount, skippedCount, consecutiveFailures,
+                    lastElapsedTime, Math.max(smoothedElapsedTime, 0), totalElapsedTime, totalBytesSent, totalBytesReceived,
+                    totalFilesTransferred, numberOfFiles, timeoutMillis, circuitState, openUntil);
+        }
+    }
+}
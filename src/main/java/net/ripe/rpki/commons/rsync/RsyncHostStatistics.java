@@ -0,0 +1,183 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+/**
+ * Snapshot of the fetch statistics of a single host, as collected by a {@link RsyncHostMonitor}.
+ */
+public class RsyncHostStatistics {
+
+    public enum CircuitState {
+        /**
+         * Fetches are allowed.
+         */
+        CLOSED,
+        /**
+         * The host failed too often, fetches are skipped until the back off period ends.
+         */
+        OPEN,
+        /**
+         * The back off period ended and a single trial fetch is allowed.
+         */
+        HALF_OPEN
+    }
+
+    private final String host;
+    private final long fetchCount;
+    private final long failureCount;
+    private final long timeoutCount;
+    private final long skippedCount;
+    private final int consecutiveFailures;
+    private final long lastElapsedTime;
+    private final long smoothedElapsedTime;
+    private final long totalElapsedTime;
+    private final long totalBytesSent;
+    private final long totalBytesReceived;
+    private final long totalFilesTransferred;
+    private final long numberOfFiles;
+    private final long timeoutMillis;
+    private final CircuitState circuitState;
+    private final long openUntil;
+
+    RsyncHostStatistics(String host, long fetchCount, long failureCount, long timeoutCount, long skippedCount, int consecutiveFailures,
+                        long lastElapsedTime, long smoothedElapsedTime, long totalElapsedTime, long totalBytesSent, long totalBytesReceived,
+                        long totalFilesTransferred, long numberOfFiles, long timeoutMillis, CircuitState circuitState, long openUntil) {
+        this.host = host;
+        this.fetchCount = fetchCount;
+        this.failureCount = failureCount;
+        this.timeoutCount = timeoutCount;
+        this.skippedCount = skippedCount;
+        this.consecutiveFailures = consecutiveFailures;
+        this.lastElapsedTime = lastElapsedTime;
+        this.smoothedElapsedTime = smoothedElapsedTime;
+        this.totalElapsedTime = totalElapsedTime;
+        this.totalBytesSent = totalBytesSent;
+        this.totalBytesReceived = totalBytesReceived;
+        this.totalFilesTransferred = totalFilesTransferred;
+        this.numberOfFiles = numberOfFiles;
+        this.timeoutMillis = timeoutMillis;
+        this.circuitState = circuitState;
+        this.openUntil = openUntil;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the number of completed fetches, successful or not.
+     */
+    public long getFetchCount() {
+        return fetchCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the number of fetches that were killed because they exceeded the timeout.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return the number of fetches that were not started because the circuit was open.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the duration of the last fetch in milliseconds.
+     */
+    public long getLastElapsedTime() {
+        return lastElapsedTime;
+    }
+
+    /**
+     * @return the moving average of the duration of successful fetches in milliseconds.
+     */
+    public long getSmoothedElapsedTime() {
+        return smoothedElapsedTime;
+    }
+
+    public long getTotalElapsedTime() {
+        return totalElapsedTime;
+    }
+
+    public long getTotalBytesSent() {
+        return totalBytesSent;
+    }
+
+    public long getTotalBytesReceived() {
+        return totalBytesReceived;
+    }
+
+    public long getTotalFilesTransferred() {
+        return totalFilesTransferred;
+    }
+
+    /**
+     * @return the number of files in the last successful fetch that reported statistics.
+     */
+    public long getNumberOfFiles() {
+        return numberOfFiles;
+    }
+
+    /**
+     * @return the current adaptive timeout for this host in milliseconds.
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public CircuitState getCircuitState() {
+        return circuitState;
+    }
+
+    /**
+     * @return the end of the back off period in milliseconds since the epoch, or 0 when the circuit is closed.
+     */
+    public long getOpenUntil() {
+        return openUntil;
+    }
+
+    @Override
+    public String toString() {
+        return "RsyncHostStatistics[host=" + host + ", fetches=" + fetchCount + ", failures=" + failureCount
+                + ", timeoutMillis=" + timeoutMillis + ", circuit=" + circuitState + "]";
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of an rsync run submitted to an {@link AsyncRsyncExecutor}.
+ */
+public class RsyncResult {
+
+    private final String source;
+    private final int exitStatus;
+    private final List<String> outputLines;
+    private final List<String> errorLines;
+    private final boolean outputTruncated;
+    private final boolean timedOut;
+    private final long elapsedTime;
+    private final Exception exception;
+    private final RsyncChangeSet changeSet;
+    private final RsyncStatistics statistics;
+
+    RsyncResult(String source, int exitStatus, List<String> outputLines, List<String> errorLines, boolean outputTruncated,
+                boolean timedOut, long elapsedTime, Exception exception, RsyncChangeSet changeSet, RsyncStatistics statistics) {
+        this.source = source;
+        this.exitStatus = exitStatus;
+        this.outputLines = Collections.unmodifiableList(outputLines);
+        this.errorLines = Collections.unmodifiableList(errorLines);
+        this.outputTruncated = outputTruncated;
+        this.timedOut = timedOut;
+        this.elapsedTime = elapsedTime;
+        this.exception = exception;
+        this.changeSet = changeSet;
+        this.statistics = statistics;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the rsync exit status, {@link Command#COMMAND_FAILED} when the process could not be started
+     * or was killed, or {@link Command#NOT_EXECUTED} when the fetch was skipped by the host monitor.
+     */
+    public int getExitStatus() {
+        return exitStatus;
+    }
+
+    public boolean isSuccess() {
+        return exitStatus == 0;
+    }
+
+    public List<String> getOutputLines() {
+        return outputLines;
+    }
+
+    public List<String> getErrorLines() {
+        return errorLines;
+    }
+
+    /**
+     * @return true if stdout or stderr exceeded the output limit of the executor and was cut off.
+     */
+    public boolean isOutputTruncated() {
+        return outputTruncated;
+    }
+
+    /**
+     * @return true if the process was killed because it exceeded the timeout of the executor.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return the time between starting and the end of the process in milliseconds, excluding the time queued.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public Exception getException() {
+        return exception;
+    }
+
+    /**
+     * @return the itemized changes of a successful run with {@link Rsync#setItemizeChanges(boolean)}, or null.
+     */
+    public RsyncChangeSet getChangeSet() {
+        return changeSet;
+    }
+
+    /**
+     * @return the transfer statistics of a successful run with {@link Rsync#setCollectStatistics(boolean)}, or null.
+     */
+    public RsyncStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public String toString() {
+        return "RsyncResult[source=" + source + ", exitStatus=" + exitStatus + ", timedOut=" + timedOut + ", elapsedTime=" + elapsedTime + "]";
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Transfer statistics printed by rsync when run with <code>--stats</code>.
+ */
+public class RsyncStatistics {
+
+    private static final Pattern STATISTICS_LINE = Pattern.compile("^([A-Za-z ]+): ([0-9][0-9,.]*)(?: bytes)?(?:\\s.*)?$");
+
+    private final long numberOfFiles;
+    private final long numberOfFilesTransferred;
+    private final long totalFileSize;
+    private final long totalTransferredFileSize;
+    private final long totalBytesSent;
+    private final long totalBytesReceived;
+
+    public RsyncStatistics(long numberOfFiles, long numberOfFilesTransferred, long totalFileSize, long totalTransferredFileSize,
+                           long totalBytesSent, long totalBytesReceived) {
+        this.numberOfFiles = numberOfFiles;
+        this.numberOfFilesTransferred = numberOfFilesTransferred;
+        this.totalFileSize = totalFileSize;
+        this.totalTransferredFileSize = totalTransferredFileSize;
+        this.totalBytesSent = totalBytesSent;
+        this.totalBytesReceived = totalBytesReceived;
+    }
+
+    /**
+     * Parses the statistics from rsync output. Lines that are not part of the statistics are ignored.
+     *
+     * @return the statistics, or null when the output does not contain them.
+     */
+    public static RsyncStatistics parse(List<String> outputLines) {
+        long numberOfFiles = 0;
+        long numberOfFilesTransferred = 0;
+        long totalFileSize = 0;
+        long totalTransferredFileSize = 0;
+        long totalBytesSent = 0;
+        long totalBytesReceived = 0;
+        boolean found = false;
+        for (String line : outputLines) {
+            Matcher matcher = STATISTICS_LINE.matcher(line.trim());
+            if (!matcher.matches()) {
+                continue;
+            }
+            long value = parseNumber(matcher.group(2));
+            switch (matcher.group(1)) {
+                case "Number of files":
+                    numberOfFiles = value;
+                    break;
+                case "Number of files transferred":
+                case "Number of regular files transferred":
+                    numberOfFilesTransferred = value;
+                    break;
+                case "Total file size":
+                    totalFileSize = value;
+                    break;
+                case "Total transferred file size":
+                    totalTransferredFileSize = value;
+                    break;
+                case "Total bytes sent":
+                    totalBytesSent = value;
+                    break;
+                case "Total bytes received":
+                    totalBytesReceived = value;
+                    break;
+                default:
+                    continue;
+            }
+            found = true;
+        }
+        return found ? new RsyncStatistics(numberOfFiles, numberOfFilesTransferred, totalFileSize, totalTransferredFileSize, totalBytesSent, totalBytesReceived) : null;
+    }
+
+    private static long parseNumber(String number) {
+        // Digits are grouped with ',' or '.' depending on the locale of the rsync process.
+        String digits = number.replaceAll("[,.]", "");
+        return digits.length() > 18 ? Long.MAX_VALUE : Long.parseLong(digits);
+    }
+
+    public long getNumberOfFiles() {
+        return numberOfFiles;
+    }
+
+    public long getNumberOfFilesTransferred() {
+        return numberOfFilesTransferred;
+    }
+
+    public long getTotalFileSize() {
+        return totalFileSize;
+    }
+
+    public long getTotalTransferredFileSize() {
+        return totalTransferredFileSize;
+    }
+
+    public long getTotalBytesSent() {
+        return totalBytesSent;
+    }
+
+    public long getTotalBytesReceived() {
+        return totalBytesReceived;
+    }
+
+    @Override
+    public String toString() {
+        return "RsyncStatistics[files=" + numberOfFiles + ", transferred=" + numberOfFilesTransferred + ", sent=" + totalBytesSent
+                + ", received=" + totalBytesReceived + "]";
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A local rsync mirror kept as a series of immutable versions, so readers always see a consistent snapshot
+ * while a new version is being synced.
+ * <p>
+ * The layout below the base directory is:
+ * <pre>
+ *   current -&gt; versions/v000042   (symbolic link to the latest complete version)
+ *   versions/v000041/...
+ *   versions/v000042/...
+ * </pre>
+ * {@link #update(Rsync)} syncs into a new version directory with <code>--link-dest</code> pointing at the
+ * current version, so unchanged files are hard links instead of copies, and then atomically replaces the
+ * <code>current</code> link. Readers should resolve {@link #getCurrentVersion()} once and use that directory
+ * for a whole validation run; the most recent versions are retained so a run that started on the previous
+ * version is not disrupted. Hard links are only made for files whose attributes match, so the rsync options
+ * should preserve modification times (e.g. <code>--times</code> or <code>--archive</code>).
+ */
+public class VersionedRsyncMirror {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VersionedRsyncMirror.class);
+
+    static final String CURRENT = "current";
+
+    static final String VERSIONS = "versions";
+
+    private static final String LINK_DEST = "--link-dest=";
+
+    private static final Pattern VERSION_NAME = Pattern.compile("v(\\d+)");
+
+    private final File baseDirectory;
+
+    private final int versionsToKeep;
+
+    /**
+     * @param versionsToKeep the number of most recent versions retained after an update, at least 1.
+     */
+    public VersionedRsyncMirror(File baseDirectory, int versionsToKeep) {
+        Validate.notNull(baseDirectory, "base directory is required");
+        Validate.isTrue(versionsToKeep >= 1, "at least one version must be kept");
+        this.baseDirectory = baseDirectory;
+        this.versionsToKeep = versionsToKeep;
+    }
+
+    public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    /**
+     * @return the stable path of the <code>current</code> link.
+     */
+    public File getCurrentLink() {
+        return new File(baseDirectory, CURRENT);
+    }
+
+    /**
+     * @return the directory of the latest complete version, or null if there is none yet.
+     */
+    public synchronized File getCurrentVersion() {
+        Path link = getCurrentLink().toPath();
+        if (!Files.isSymbolicLink(link)) {
+            return null;
+        }
+        try {
+            return baseDirectory.toPath().resolve(Files.readSymbolicLink(link)).normalize().toFile();
+        } catch (IOException e) {
+            throw new VersionedRsyncMirrorException("could not read " + link, e);
+        }
+    }
+
+    /**
+     * @return the version directories, oldest first.
+     */
+    public synchronized List<File> getVersions() {
+        List<File> versions = new ArrayList<File>();
+        File[] files = new File(baseDirectory, VERSIONS).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && VERSION_NAME.matcher(file.getName()).matches()) {
+                    versions.add(file);
+                }
+            }
+        }
+        Collections.sort(versions, Comparator.comparingLong(VersionedRsyncMirror::sequenceOf));
+        return versions;
+    }
+
+    /**
+     * Syncs the source of <code>rsync</code> into a new version and makes it current when rsync succeeds.
+     * The destination and <code>--link-dest</code> option of <code>rsync</code> are set by this method, replacing
+     * those of an earlier update, so the same instance can be reused. A failed sync is removed and leaves the
+     * current version unchanged.
+     *
+     * @return the rsync exit status.
+     */
+    public synchronized int update(Rsync rsync) {
+        File current = getCurrentVersion();
+        List<File> versions = getVersions();
+        long sequence = versions.isEmpty() ? 1 : sequenceOf(versions.get(versions.size() - 1)) + 1;
+        File version = new File(new File(baseDirectory, VERSIONS), String.format("v%06d", sequence));
+        if (!version.mkdirs()) {
+            throw new VersionedRsyncMirrorException("could not create " + version);
+        }
+
+        rsync.setDestination(version.getPath() + "/");
+        rsync.removeOptionsStartingWith(LINK_DEST);
+        if (current != null && current.isDirectory()) {
+            rsync.addOptions(LINK_DEST + current.getAbsolutePath());
+        }
+        int rc = rsync.execute();
+        if (rc != 0) {
+            LOG.warn("rsync of " + rsync.getSource() + " failed with exit status " + rc + ", keeping " + current);
+            deleteRecursively(version);
+            return rc;
+        }
+
+        switchCurrent(version);
+        removeOldVersions(version);
+        return rc;
+    }
+
+    private void switchCurrent(File version) {
+        Path link = getCurrentLink().toPath();
+        Path temporaryLink = new File(baseDirectory, CURRENT + ".tmp").toPath();
+        try {
+            Files.deleteIfExists(temporaryLink);
+            Files.createSymbolicLink(temporaryLink, Paths.get(VERSIONS, version.getName()));
+            Files.move(temporaryLink, link, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new VersionedRsyncMirrorException("could not switch " + link + " to " + version, e);
+        }
+    }
+
+    private void removeOldVersions(File current) {
+        List<File> versions = getVersions();
+        for (int i = 0; i < versions.size() - versionsToKeep; i++) {
+            if (!versions.get(i).equals(current)) {
+                deleteRecursively(versions.get(i));
+            }
+        }
+    }
+
+    private static long sequenceOf(File version) {
+        Matcher matcher = VERSION_NAME.matcher(version.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static void deleteRecursively(File directory) {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new VersionedRsyncMirrorException("could not delete " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rtr;
+
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import net.ripe.rpki.commons.validation.roa.VrpSetDelta;
+import net.ripe.rpki.commons.validation.roa.VrpSetHistory;
+import org.apache.commons.lang.Validate;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * RTR cache holding the current VRP set as pre-encoded responses.
+ * <p>
+ * The full (Reset Query) response is encoded once per serial into a direct buffer. Incremental (Serial
+ * Query) responses are encoded on first use and cached per client serial until the next update. Only serials
+ * still covered by the delta history are cached, so the cache is bounded by the history size. Callers get
+ * read-only duplicates of the cached buffers, so any number of sessions can write the same response without
+ * copying it.
+ */
+public class RtrCache {
+
+    /**
+     * Notified after every update that changed the VRP set.
+     */
+    public interface Listener {
+        void serialChanged(short sessionId, int serial);
+    }
+
+    private final short sessionId;
+
+    private final RtrTimingParameters timing;
+
+    private final VrpSetHistory history;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private volatile State state;
+
+    public RtrCache(short sessionId, int initialSerial, VrpSet initial, int maximumDeltas, RtrTimingParameters timing) {
+        Validate.notNull(initial, "initial VRP set is required");
+        Validate.notNull(timing, "timing parameters are required");
+        this.sessionId = sessionId;
+        this.timing = timing;
+        this.history = new VrpSetHistory(initialSerial, initial, maximumDeltas);
+        this.state = new State(initialSerial, initial, history.getDeltas());
+    }
+
+    public short getSessionId() {
+        return sessionId;
+    }
+
+    public int getSerial() {
+        return state.serial;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replaces the VRP set. When it changed, the serial is incremented, the responses for the new serial are
+     * encoded and listeners are notified.
+     */
+    public void update(VrpSet vrps) {
+        State newState;
+        synchronized (history) {
+            VrpSetDelta delta = history.update(vrps);
+            if (delta.isEmpty()) {
+                return;
+            }
+            newState = new State(history.getSerial(), history.getCurrent(), history.getDeltas());
+            state = newState;
+        }
+        for (Listener listener : listeners) {
+            listener.serialChanged(sessionId, newState.serial);
+        }
+    }
+
+    /**
+     * @return Cache Response, announcements of all VRPs and End of Data.
+     */
+    public ByteBuffer getResetResponse() {
+        return state.snapshot.duplicate();
+    }
+
+    /**
+     * @return Cache Response, withdrawals, announcements and End of Data bringing a router at
+     * <code>fromSerial</code> to the current serial, or null if that serial is not known and the router
+     * must be sent a Cache Reset.
+     */
+    public ByteBuffer getSerialResponse(int fromSerial) {
+        State current = state;
+        if (!current.isKnown(fromSerial)) {
+            return null;
+        }
+        return current.deltas.computeIfAbsent(fromSerial, serial -> current.encodeDelta(serial)).duplicate();
+    }
+
+    int getCachedSerialResponseCount() {
+        return state.deltas.size();
+    }
+
+    private final class State {
+        private final int serial;
+        private final ByteBuffer snapshot;
+        private final List<VrpSetDelta> history;
+        private final ConcurrentMap<Integer, ByteBuffer> deltas = new ConcurrentHashMap<Integer, ByteBuffer>();
+
+        private State(int serial, VrpSet vrps, List<VrpSetDelta> history) {
+            this.serial = serial;
+            this.history = history;
+            this.snapshot = encode(VrpSet.EMPTY, vrps);
+        }
+
+        private boolean isKnown(int fromSerial) {
+            if (fromSerial == serial) {
+                return true;
+            }
+            for (VrpSetDelta delta : history) {
+                if (delta.getFromSerial() == fromSerial) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the encoded response for a serial that {@link #isKnown(int) is known}.
+         */
+        private ByteBuffer encodeDelta(int fromSerial) {
+            if (fromSerial == serial) {
+                return encode(VrpSet.EMPTY, VrpSet.EMPTY);
+            }
+            VrpSetDelta result = null;
+            for (VrpSetDelta delta : history) {
+                if (result != null) {
+                    result = result.compose(delta);
+                } else if (delta.getFromSerial() == fromSerial) {
+                    result = delta;
+                }
+            }
+            return encode(result.getRemoved(), result.getAdded());
+        }
+
+        private ByteBuffer encode(VrpSet withdrawn, VrpSet announced) {
+            long length = RtrPduEncoder.CACHE_RESPONSE_LENGTH + RtrPduEncoder.prefixesLength(withdrawn) + RtrPduEncoder.prefixesLength(announced) + RtrPduEncoder.END_OF_DATA_LENGTH;
+            Validate.isTrue(length <= Integer.MAX_VALUE, "response too large");
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+            RtrPduEncoder.cacheResponse(buffer, sessionId);
+            RtrPduEncoder.prefixes(buffer, withdrawn, false);
+            RtrPduEncoder.prefixes(buffer, announced, true);
+            RtrPduEncoder.endOfData(buffer, sessionId, serial, timing);
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rtr;
+
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import net.ripe.rpki.commons.validation.roa.VrpTable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes RPKI-to-Router protocol version 1 PDUs (RFC 8210) directly into {@link ByteBuffer}s.
+ */
+public final class RtrPduEncoder {
+
+    public static final byte PROTOCOL_VERSION = 1;
+
+    public static final byte SERIAL_NOTIFY = 0;
+    public static final byte SERIAL_QUERY = 1;
+    public static final byte RESET_QUERY = 2;
+    public static final byte CACHE_RESPONSE = 3;
+    public static final byte IPV4_PREFIX = 4;
+    public static final byte IPV6_PREFIX = 6;
+    public static final byte END_OF_DATA = 7;
+    public static final byte CACHE_RESET = 8;
+    public static final byte ERROR_REPORT = 10;
+
+    public static final int ERROR_CORRUPT_DATA = 0;
+    public static final int ERROR_INTERNAL_ERROR = 1;
+    public static final int ERROR_NO_DATA_AVAILABLE = 2;
+    public static final int ERROR_INVALID_REQUEST = 3;
+    public static final int ERROR_UNSUPPORTED_PROTOCOL_VERSION = 4;
+    public static final int ERROR_UNSUPPORTED_PDU_TYPE = 5;
+
+    public static final int HEADER_LENGTH = 8;
+    public static final int SERIAL_NOTIFY_LENGTH = 12;
+    public static final int SERIAL_QUERY_LENGTH = 12;
+    public static final int RESET_QUERY_LENGTH = 8;
+    public static final int CACHE_RESPONSE_LENGTH = 8;
+    public static final int IPV4_PREFIX_LENGTH = 20;
+    public static final int IPV6_PREFIX_LENGTH = 32;
+    public static final int END_OF_DATA_LENGTH = 24;
+    public static final int CACHE_RESET_LENGTH = 8;
+
+    private static final byte FLAG_WITHDRAW = 0;
+    private static final byte FLAG_ANNOUNCE = 1;
+
+    private RtrPduEncoder() {
+    }
+
+    public static void serialNotify(ByteBuffer target, short sessionId, int serial) {
+        header(target, SERIAL_NOTIFY, sessionId, SERIAL_NOTIFY_LENGTH);
+        target.putInt(serial);
+    }
+
+    public static void serialQuery(ByteBuffer target, short sessionId, int serial) {
+        header(target, SERIAL_QUERY, sessionId, SERIAL_QUERY_LENGTH);
+        target.putInt(serial);
+    }
+
+    public static void resetQuery(ByteBuffer target) {
+        header(target, RESET_QUERY, (short) 0, RESET_QUERY_LENGTH);
+    }
+
+    public static void cacheResponse(ByteBuffer target, short sessionId) {
+        header(target, CACHE_RESPONSE, sessionId, CACHE_RESPONSE_LENGTH);
+    }
+
+    public static void cacheReset(ByteBuffer target) {
+        header(target, CACHE_RESET, (short) 0, CACHE_RESET_LENGTH);
+    }
+
+    public static void endOfData(ByteBuffer target, short sessionId, int serial, RtrTimingParameters timing) {
+        header(target, END_OF_DATA, sessionId, END_OF_DATA_LENGTH);
+        target.putInt(serial);
+        target.putInt(timing.getRefreshInterval());
+        target.putInt(timing.getRetryInterval());
+        target.putInt(timing.getExpireInterval());
+    }
+
+    /**
+     * Encodes entry <code>index</code> of <code>table</code> as an IPv4 or IPv6 Prefix PDU.
+     */
+    public static void prefix(ByteBuffer target, VrpTable table, int index, boolean announce) {
+        boolean ipv4 = table.getType() == IpResourceType.IPv4;
+        header(target, ipv4 ? IPV4_PREFIX : IPV6_PREFIX, (short) 0, ipv4 ? IPV4_PREFIX_LENGTH : IPV6_PREFIX_LENGTH);
+        target.put(announce ? FLAG_ANNOUNCE : FLAG_WITHDRAW);
+        target.put((byte) table.getPrefixLength(index));
+        target.put((byte) table.getMaximumLength(index));
+        target.put((byte) 0);
+        if (ipv4) {
+            target.putInt((int) table.getAddressHigh(index));
+        } else {
+            target.putLong(table.getAddressHigh(index));
+            target.putLong(table.getAddressLow(index));
+        }
+        target.putInt((int) table.getAsn(index));
+    }
+
+    /**
+     * @param erroneousPdu the offending PDU, positioned at its start and limited to its end, or null.
+     */
+    public static void errorReport(ByteBuffer target, int errorCode, ByteBuffer erroneousPdu, String text) {
+        byte[] encodedText = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+        int pduLength = erroneousPdu == null ? 0 : erroneousPdu.remaining();
+        header(target, ERROR_REPORT, (short) errorCode, errorReportLength(pduLength, encodedText.length));
+        target.putInt(pduLength);
+        if (erroneousPdu != null) {
+            target.put(erroneousPdu.duplicate());
+        }
+        target.putInt(encodedText.length);
+        target.put(encodedText);
+    }
+
+    public static int errorReportLength(int pduLength, int textLength) {
+        return HEADER_LENGTH + 4 + pduLength + 4 + textLength;
+    }
+
+    /**
+     * @return the number of bytes needed to encode the VRPs of <code>vrps</code> as prefix PDUs.
+     */
+    public static long prefixesLength(VrpSet vrps) {
+        return (long) vrps.getIpv4().size() * IPV4_PREFIX_LENGTH + (long) vrps.getIpv6().size() * IPV6_PREFIX_LENGTH;
+    }
+
+    /**
+     * Encodes all VRPs of <code>vrps</code> as prefix PDUs with the given announce/withdraw flag.
+     */
+    public static void prefixes(ByteBuffer target, VrpSet vrps, boolean announce) {
+        for (VrpTable table : new VrpTable[]{vrps.getIpv4(), vrps.getIpv6()}) {
+            for (int i = 0; i < table.size(); i++) {
+                prefix(target, table, i, announce);
+            }
+        }
+    }
+
+    private static void header(ByteBuffer target, byte type, short sessionIdOrErrorCode, int length) {
+        target.put(PROTOCOL_VERSION);
+        target.put(type);
+        target.putShort(sessionIdOrErrorCode);
+        target.putInt(length);
+    }
+}
@@ -0,0 +1,368 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rtr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking RPKI-to-Router (RFC 8210, version 1) server serving the responses of an {@link RtrCache}.
+ * <p>
+ * A single selector thread handles all router sessions. Responses are written from read-only duplicates of
+ * the cache's pre-encoded buffers, and every session is sent a Serial Notify when the cache serial changes.
+ */
+public class RtrServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RtrServer.class);
+
+    /**
+     * Largest PDU accepted from a router. Queries are small, this bounds Error Reports.
+     */
+    private static final int MAXIMUM_PDU_LENGTH = 64 * 1024;
+
+    private final RtrCache cache;
+
+    private final InetSocketAddress address;
+
+    private final Queue<Integer> pendingNotifies = new ConcurrentLinkedQueue<Integer>();
+
+    private final RtrCache.Listener listener = new RtrCache.Listener() {
+        @Override
+        public void serialChanged(short sessionId, int serial) {
+            pendingNotifies.add(serial);
+            Selector s = selector;
+            if (s != null) {
+                s.wakeup();
+            }
+        }
+    };
+
+    private volatile Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private Thread thread;
+
+    private volatile int sessionCount;
+
+    private volatile boolean closing;
+
+    public RtrServer(RtrCache cache, InetSocketAddress address) {
+        this.cache = cache;
+        this.address = address;
+    }
+
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("server already started");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        cache.addListener(listener);
+        thread = new Thread(this::run, "rtr-server-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the local port, useful when bound to port 0.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * Stops the server. The sessions and the selector are closed by the selector thread itself.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        cache.removeListener(listener);
+        closing = true;
+        if (thread == null) {
+            closeAll();
+            return;
+        }
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closing) {
+                selector.select();
+                if (closing) {
+                    break;
+                }
+                sendNotifies();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Session session = (Session) key.attachment();
+                            if (key.isReadable()) {
+                                session.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                session.write();
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // a router disconnecting mid-write cancels the key, so interestOps can throw
+                        // CancelledKeyException; only that session is affected
+                        log.debug("closing RTR session: " + e);
+                        closeSession(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // server closed
+        } catch (IOException e) {
+            log.error("RTR server failed", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void closeAll() {
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) {
+                closeChannel(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("failed to close RTR selector", e);
+            }
+        }
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                log.debug("failed to close RTR server channel", e);
+            }
+        }
+        sessionCount = 0;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Session(key, channel));
+        sessionCount++;
+    }
+
+    /**
+     * Closes the session of <code>key</code>. Closing an already closed session has no effect.
+     */
+    private void closeSession(SelectionKey key) {
+        if (key.attach(null) == null) {
+            return;
+        }
+        closeChannel(key);
+        sessionCount--;
+    }
+
+    private void closeChannel(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("failed to close RTR channel", e);
+        }
+    }
+
+    private void sendNotifies() throws IOException {
+        Integer serial = null;
+        for (Integer next = pendingNotifies.poll(); next != null; next = pendingNotifies.poll()) {
+            serial = next;
+        }
+        if (serial == null) {
+            return;
+        }
+        ByteBuffer notify = ByteBuffer.allocateDirect(RtrPduEncoder.SERIAL_NOTIFY_LENGTH);
+        RtrPduEncoder.serialNotify(notify, cache.getSessionId(), serial);
+        notify.flip();
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Session) {
+                try {
+                    ((Session) key.attachment()).send(notify.duplicate());
+                } catch (IOException | RuntimeException e) {
+                    closeSession(key);
+                }
+            }
+        }
+    }
+
+    private final class Session {
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final Deque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+        private ByteBuffer input = ByteBuffer.allocate(RtrPduEncoder.SERIAL_QUERY_LENGTH * 4);
+        private boolean closeAfterWrite;
+
+        private Session(SelectionKey key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            if (channel.read(input) < 0) {
+                throw new IOException("connection closed by router");
+            }
+            input.flip();
+            while (!closeAfterWrite && input.remaining() >= RtrPduEncoder.HEADER_LENGTH) {
+                int start = input.position();
+                int length = input.getInt(start + 4);
+                if (length < RtrPduEncoder.HEADER_LENGTH || length > MAXIMUM_PDU_LENGTH) {
+                    ByteBuffer header = input.duplicate();
+                    header.limit(start + RtrPduEncoder.HEADER_LENGTH);
+                    fail(RtrPduEncoder.ERROR_CORRUPT_DATA, header, "invalid PDU length " + length);
+                    break;
+                }
+                if (input.remaining() < length) {
+                    if (input.capacity() < length) {
+                        ByteBuffer larger = ByteBuffer.allocate(length);
+                        larger.put(input);
+                        input = larger;
+                        input.flip();
+                    }
+                    break;
+                }
+                ByteBuffer pdu = input.duplicate();
+                pdu.limit(start + length);
+                input.position(start + length);
+                handle(pdu);
+            }
+            input.compact();
+        }
+
+        private void handle(ByteBuffer pdu) throws IOException {
+            int start = pdu.position();
+            byte version = pdu.get(start);
+            byte type = pdu.get(start + 1);
+            short sessionId = pdu.getShort(start + 2);
+            if (version != RtrPduEncoder.PROTOCOL_VERSION) {
+                fail(RtrPduEncoder.ERROR_UNSUPPORTED_PROTOCOL_VERSION, pdu, "only protocol version " + RtrPduEncoder.PROTOCOL_VERSION + " is supported");
+                return;
+            }
+            switch (type) {
+                case RtrPduEncoder.RESET_QUERY:
+                    send(cache.getResetResponse());
+                    break;
+                case RtrPduEncoder.SERIAL_QUERY:
+                    if (pdu.remaining() != RtrPduEncoder.SERIAL_QUERY_LENGTH) {
+                        fail(RtrPduEncoder.ERROR_CORRUPT_DATA, pdu, "invalid Serial Query length");
+                    } else if (sessionId != cache.getSessionId()) {
+                        fail(RtrPduEncoder.ERROR_CORRUPT_DATA, pdu, "session id mismatch");
+                    } else {
+                        ByteBuffer response = cache.getSerialResponse(pdu.getInt(start + 8));
+                        if (response == null) {
+                            ByteBuffer reset = ByteBuffer.allocate(RtrPduEncoder.CACHE_RESET_LENGTH);
+                            RtrPduEncoder.cacheReset(reset);
+                            reset.flip();
+                            response = reset;
+                        }
+                        send(response);
+                    }
+                    break;
+                case RtrPduEncoder.ERROR_REPORT:
+                    throw new IOException("router sent error report with code " + sessionId);
+                default:
+                    fail(RtrPduEncoder.ERROR_UNSUPPORTED_PDU_TYPE, pdu, "unsupported PDU type " + type);
+            }
+        }
+
+        private void fail(int errorCode, ByteBuffer pdu, String text) throws IOException {
+            ByteBuffer report = ByteBuffer.allocate(RtrPduEncoder.errorReportLength(pdu.remaining(), text.length() * 4));
+            RtrPduEncoder.errorReport(report, errorCode, pdu, text);
+            report.flip();
+            closeAfterWrite = true;
+            send(report);
+        }
+
+        private void send(ByteBuffer buffer) throws IOException {
+            output.addLast(buffer);
+            write();
+        }
+
+        private void write() throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer head = output.peekFirst();
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                output.removeFirst();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterWrite) {
+                closeSession(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rtr;
+
+import net.ripe.rpki.commons.util.EqualsSupport;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Refresh, retry and expire intervals in seconds, sent to routers in End of Data PDUs (RFC 8210 section 6).
+ */
+public class RtrTimingParameters extends EqualsSupport {
+
+    public static final RtrTimingParameters DEFAULT = new RtrTimingParameters(3600, 600, 7200);
+
+    private final int refreshInterval;
+    private final int retryInterval;
+    private final int expireInterval;
+
+    public RtrTimingParameters(int refreshInterval, int retryInterval, int expireInterval) {
+        Validate.isTrue(refreshInterval >= 1 && refreshInterval <= 86400, "refresh interval out of range");
+        Validate.isTrue(retryInterval >= 1 && retryInterval <= 7200, "retry interval out of range");
+        Validate.isTrue(expireInterval >= 600 && expireInterval <= 172800, "expire interval out of range");
+        Validate.isTrue(expireInterval > refreshInterval && expireInterval > retryInterval, "expire interval must be larger than refresh and retry intervals");
+        this.refreshInterval = refreshInterval;
+        this.retryInterval = retryInterval;
+        this.expireInterval = expireInterval;
+    }
+
+    public int getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public int getRetryInterval() {
+        return retryInterval;
+    }
+
+    public int getExpireInterval() {
+        return expireInterval;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.slurm;
+
+import net.ripe.rpki.commons.util.EqualsSupport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Simplified Local Internet Number Resource Management with the RPKI (SLURM) file, see RFC 8416.
+ */
+public class Slurm extends EqualsSupport {
+
+    public static final int SLURM_VERSION = 1;
+
+    private final List<SlurmPrefixFilter> prefixFilters;
+    private final List<SlurmBgpsecFilter> bgpsecFilters;
+    private final List<SlurmPrefixAssertion> prefixAssertions;
+    private final List<SlurmBgpsecAssertion> bgpsecAssertions;
+
+    public Slurm(List<SlurmPrefixFilter> prefixFilters, List<SlurmBgpsecFilter> bgpsecFilters,
+                 List<SlurmPrefixAssertion> prefixAssertions, List<SlurmBgpsecAssertion> bgpsecAssertions) {
+        this.prefixFilters = new ArrayList<SlurmPrefixFilter>(prefixFilters);
+        this.bgpsecFilters = new ArrayList<SlurmBgpsecFilter>(bgpsecFilters);
+        this.prefixAssertions = new ArrayList<SlurmPrefixAssertion>(prefixAssertions);
+        this.bgpsecAssertions = new ArrayList<SlurmBgpsecAssertion>(bgpsecAssertions);
+    }
+
+    public List<SlurmPrefixFilter> getPrefixFilters() {
+        return Collections.unmodifiableList(prefixFilters);
+    }
+
+    public List<SlurmBgpsecFilter> getBgpsecFilters() {
+        return Collections.unmodifiableList(bgpsecFilters);
+    }
+
+    public List<SlurmPrefixAssertion> getPrefixAssertions() {
+        return Collections.unmodifiableList(prefixAssertions);
+    }
+
+    public List<SlurmBgpsecAssertion> getBgpsecAssertions() {
+        return Collections.unmodifiableList(bgpsecAssertions);
+    }
+}
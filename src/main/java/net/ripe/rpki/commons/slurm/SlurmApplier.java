@@ -0,0 +1,194 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.slurm;
+
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.validation.roa.VrpCollector;
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import net.ripe.rpki.commons.validation.roa.VrpTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Applies the prefix filters and assertions of a {@link Slurm} file to a {@link VrpSet}.
+ * <p>
+ * Prefix filters are indexed by start address per address family. Since prefixes are either nested or
+ * disjoint, a single sweep over the sorted VRP table with a stack of the filters containing the current
+ * address finds every covering filter, so applying <em>f</em> filters to <em>n</em> VRPs costs
+ * O(n + f) plus the nesting depth per VRP instead of O(n * f). ASN-only filters are a sorted array.
+ * Locally asserted VRPs are merged in afterwards with a reference count of zero, unless they are also
+ * backed by ROAs.
+ */
+public class SlurmApplier {
+
+    private final long[] filteredAsns;
+
+    private final FilterIndex ipv4;
+
+    private final FilterIndex ipv6;
+
+    private final VrpSet assertions;
+
+    public SlurmApplier(Slurm slurm) {
+        List<Long> asns = new ArrayList<Long>();
+        List<SlurmPrefixFilter> ipv4Filters = new ArrayList<SlurmPrefixFilter>();
+        List<SlurmPrefixFilter> ipv6Filters = new ArrayList<SlurmPrefixFilter>();
+        for (SlurmPrefixFilter filter : slurm.getPrefixFilters()) {
+            if (filter.getPrefix() == null) {
+                asns.add(filter.getAsn().longValue());
+            } else if (filter.getPrefix().getType() == IpResourceType.IPv4) {
+                ipv4Filters.add(filter);
+            } else {
+                ipv6Filters.add(filter);
+            }
+        }
+        this.filteredAsns = new long[asns.size()];
+        for (int i = 0; i < filteredAsns.length; i++) {
+            filteredAsns[i] = asns.get(i);
+        }
+        Arrays.sort(filteredAsns);
+        this.ipv4 = new FilterIndex(IpResourceType.IPv4, ipv4Filters);
+        this.ipv6 = new FilterIndex(IpResourceType.IPv6, ipv6Filters);
+
+        VrpCollector collector = new VrpCollector(slurm.getPrefixAssertions().size());
+        for (SlurmPrefixAssertion assertion : slurm.getPrefixAssertions()) {
+            collector.add(assertion.getAsn(), assertion.getPrefix(), assertion.getEffectiveMaxPrefixLength(), 0);
+        }
+        this.assertions = collector.build();
+    }
+
+    public VrpSet apply(VrpSet vrps) {
+        VrpTable filteredIpv4 = vrps.getIpv4().filter(ipv4.sweep(vrps.getIpv4()));
+        VrpTable filteredIpv6 = vrps.getIpv6().filter(ipv6.sweep(vrps.getIpv6()));
+        return new VrpSet(filteredIpv4, filteredIpv6).merge(assertions);
+    }
+
+    private boolean isAsnFiltered(long asn) {
+        return filteredAsns.length > 0 && Arrays.binarySearch(filteredAsns, asn) >= 0;
+    }
+
+    private static int compareUnsigned(long high1, long low1, long high2, long low2) {
+        int rc = Long.compareUnsigned(high1, high2);
+        return rc != 0 ? rc : Long.compareUnsigned(low1, low2);
+    }
+
+    /**
+     * Prefix filters of one address family in columns, sorted by start address and then prefix length so
+     * that containing prefixes come before the prefixes they contain.
+     */
+    private final class FilterIndex {
+        private final int size;
+        private final long[] startHigh;
+        private final long[] startLow;
+        private final long[] endHigh;
+        private final long[] endLow;
+        private final int[] prefixLength;
+        private final long[] asn;
+
+        private FilterIndex(IpResourceType type, List<SlurmPrefixFilter> filters) {
+            List<SlurmPrefixFilter> sorted = new ArrayList<SlurmPrefixFilter>(filters);
+            Collections.sort(sorted, new Comparator<SlurmPrefixFilter>() {
+                @Override
+                public int compare(SlurmPrefixFilter f1, SlurmPrefixFilter f2) {
+                    int rc = f1.getPrefix().getStart().compareTo(f2.getPrefix().getStart());
+                    return rc != 0 ? rc : Integer.compare(f1.getPrefix().getPrefixLength(), f2.getPrefix().getPrefixLength());
+                }
+            });
+            this.size = sorted.size();
+            this.startHigh = new long[size];
+            this.startLow = new long[size];
+            this.endHigh = new long[size];
+            this.endLow = new long[size];
+            this.prefixLength = new int[size];
+            this.asn = new long[size];
+            int bitSize = type.getBitSize();
+            for (int i = 0; i < size; i++) {
+                SlurmPrefixFilter filter = sorted.get(i);
+                long[] start = VrpTable.toLongs(filter.getPrefix().getStart().getValue(), type);
+                int length = filter.getPrefix().getPrefixLength();
+                long hostHigh = ~VrpTable.networkMask(length, bitSize, true) & (bitSize == 32 ? 0xffffffffL : -1L);
+                long hostLow = bitSize == 32 ? 0L : ~VrpTable.networkMask(length, bitSize, false);
+                startHigh[i] = start[0];
+                startLow[i] = start[1];
+                endHigh[i] = start[0] | hostHigh;
+                endLow[i] = start[1] | hostLow;
+                prefixLength[i] = length;
+                asn[i] = filter.getAsn() == null ? -1L : filter.getAsn().longValue();
+            }
+        }
+
+        /**
+         * @return a predicate accepting the VRPs of <code>table</code> that are not filtered. It must be
+         * evaluated in table order.
+         */
+        private IntPredicate sweep(final VrpTable table) {
+            return new IntPredicate() {
+                private final int[] stack = new int[size];
+                private int depth;
+                private int next;
+
+                @Override
+                public boolean test(int index) {
+                    long vrpAsn = table.getAsn(index);
+                    if (isAsnFiltered(vrpAsn)) {
+                        return false;
+                    }
+                    long high = table.getAddressHigh(index);
+                    long low = table.getAddressLow(index);
+                    while (depth > 0 && compareUnsigned(endHigh[stack[depth - 1]], endLow[stack[depth - 1]], high, low) < 0) {
+                        depth--;
+                    }
+                    while (next < size && compareUnsigned(startHigh[next], startLow[next], high, low) <= 0) {
+                        while (depth > 0 && compareUnsigned(endHigh[stack[depth - 1]], endLow[stack[depth - 1]], startHigh[next], startLow[next]) < 0) {
+                            depth--;
+                        }
+                        if (compareUnsigned(endHigh[next], endLow[next], high, low) >= 0) {
+                            stack[depth++] = next;
+                        }
+                        next++;
+                    }
+                    int vrpLength = table.getPrefixLength(index);
+                    for (int i = 0; i < depth; i++) {
+                        int filter = stack[i];
+                        if (prefixLength[filter] <= vrpLength && (asn[filter] < 0 || asn[filter] == vrpAsn)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.slurm;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.rpki.commons.util.EqualsSupport;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Locally added BGPsec router key (RFC 8416 section 3.4.2).
+ */
+public class SlurmBgpsecAssertion extends EqualsSupport {
+
+    private final Asn asn;
+    private final String ski;
+    private final String routerPublicKey;
+    private final String comment;
+
+    public SlurmBgpsecAssertion(Asn asn, String ski, String routerPublicKey, String comment) {
+        Validate.notNull(asn, "asn is required");
+        Validate.notNull(ski, "SKI is required");
+        Validate.notNull(routerPublicKey, "router public key is required");
+        this.asn = asn;
+        this.ski = ski;
+        this.routerPublicKey = routerPublicKey;
+        this.comment = comment;
+    }
+
+    public Asn getAsn() {
+        return asn;
+    }
+
+    /**
+     * @return the base64url encoded Subject Key Identifier.
+     */
+    public String getSki() {
+        return ski;
+    }
+
+    /**
+     * @return the base64url encoded DER SubjectPublicKeyInfo.
+     */
+    public String getRouterPublicKey() {
+        return routerPublicKey;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+}
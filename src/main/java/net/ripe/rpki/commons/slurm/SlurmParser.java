@@ -0,0 +1,183 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.slurm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses SLURM JSON files (RFC 8416) using a streaming parser. Unknown members are rejected, as required by
+ * the RFC.
+ */
+public class SlurmParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<SlurmPrefixFilter> prefixFilters = new ArrayList<SlurmPrefixFilter>();
+    private final List<SlurmBgpsecFilter> bgpsecFilters = new ArrayList<SlurmBgpsecFilter>();
+    private final List<SlurmPrefixAssertion> prefixAssertions = new ArrayList<SlurmPrefixAssertion>();
+    private final List<SlurmBgpsecAssertion> bgpsecAssertions = new ArrayList<SlurmBgpsecAssertion>();
+
+    public static Slurm parse(String json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return new SlurmParser().parseSlurm(parser);
+        } catch (IOException e) {
+            throw new SlurmParserException("could not parse SLURM file", e);
+        } catch (IllegalArgumentException e) {
+            throw new SlurmParserException("invalid SLURM file: " + e.getMessage(), e);
+        }
+    }
+
+    public static Slurm parse(InputStream json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return new SlurmParser().parseSlurm(parser);
+        } catch (IOException e) {
+            throw new SlurmParserException("could not parse SLURM file", e);
+        } catch (IllegalArgumentException e) {
+            throw new SlurmParserException("invalid SLURM file: " + e.getMessage(), e);
+        }
+    }
+
+    private Slurm parseSlurm(JsonParser parser) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT, "SLURM file");
+        Integer version = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("slurmVersion".equals(name)) {
+                version = parser.getIntValue();
+            } else if ("validationOutputFilters".equals(name)) {
+                parseFilters(parser);
+            } else if ("locallyAddedAssertions".equals(name)) {
+                parseAssertions(parser);
+            } else {
+                throw new SlurmParserException("unknown SLURM member: " + name);
+            }
+        }
+        if (version == null || version != Slurm.SLURM_VERSION) {
+            throw new SlurmParserException("unsupported SLURM version: " + version);
+        }
+        return new Slurm(prefixFilters, bgpsecFilters, prefixAssertions, bgpsecAssertions);
+    }
+
+    private void parseFilters(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT, "validationOutputFilters");
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            expect(parser.nextToken(), JsonToken.START_ARRAY, name);
+            if ("prefixFilters".equals(name)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Entry entry = parseEntry(parser, name);
+                    prefixFilters.add(new SlurmPrefixFilter(entry.prefix, entry.asn, entry.comment));
+                }
+            } else if ("bgpsecFilters".equals(name)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Entry entry = parseEntry(parser, name);
+                    bgpsecFilters.add(new SlurmBgpsecFilter(entry.asn, entry.ski, entry.comment));
+                }
+            } else {
+                throw new SlurmParserException("unknown validationOutputFilters member: " + name);
+            }
+            expect(parser.getCurrentToken(), JsonToken.END_ARRAY, name);
+        }
+    }
+
+    private void parseAssertions(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT, "locallyAddedAssertions");
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            expect(parser.nextToken(), JsonToken.START_ARRAY, name);
+            if ("prefixAssertions".equals(name)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Entry entry = parseEntry(parser, name);
+                    prefixAssertions.add(new SlurmPrefixAssertion(entry.asn, entry.prefix, entry.maxPrefixLength, entry.comment));
+                }
+            } else if ("bgpsecAssertions".equals(name)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Entry entry = parseEntry(parser, name);
+                    bgpsecAssertions.add(new SlurmBgpsecAssertion(entry.asn, entry.ski, entry.routerPublicKey, entry.comment));
+                }
+            } else {
+                throw new SlurmParserException("unknown locallyAddedAssertions member: " + name);
+            }
+            expect(parser.getCurrentToken(), JsonToken.END_ARRAY, name);
+        }
+    }
+
+    private Entry parseEntry(JsonParser parser, String context) throws IOException {
+        Entry entry = new Entry();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("asn".equals(name)) {
+                entry.asn = new Asn(parser.getLongValue());
+            } else if ("prefix".equals(name)) {
+                entry.prefix = IpRange.parse(parser.getText());
+                if (!entry.prefix.isLegalPrefix()) {
+                    throw new SlurmParserException("illegal prefix in " + context + ": " + parser.getText());
+                }
+            } else if ("maxPrefixLength".equals(name)) {
+                entry.maxPrefixLength = parser.getIntValue();
+            } else if ("SKI".equals(name)) {
+                entry.ski = parser.getText();
+            } else if ("routerPublicKey".equals(name)) {
+                entry.routerPublicKey = parser.getText();
+            } else if ("comment".equals(name)) {
+                entry.comment = parser.getText();
+            } else {
+                throw new SlurmParserException("unknown member in " + context + ": " + name);
+            }
+        }
+        return entry;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected, String context) {
+        if (actual != expected) {
+            throw new SlurmParserException("expected " + expected + " for " + context + " but found " + actual);
+        }
+    }
+
+    private static final class Entry {
+        private Asn asn;
+        private IpRange prefix;
+        private Integer maxPrefixLength;
+        private String ski;
+        private String routerPublicKey;
+        private String comment;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.slurm;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.commons.util.EqualsSupport;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Validation output filter removing VRPs covered by a prefix and/or originated by an ASN (RFC 8416 section 3.3.1).
+ */
+public class SlurmPrefixFilter extends EqualsSupport {
+
+    private final IpRange prefix;
+    private final Asn asn;
+    private final String comment;
+
+    public SlurmPrefixFilter(IpRange prefix, Asn asn, String comment) {
+        Validate.isTrue(prefix != null || asn != null, "prefix filter requires a prefix or an ASN");
+        Validate.isTrue(prefix == null || prefix.isLegalPrefix(), "prefix is not a legal prefix");
+        this.prefix = prefix;
+        this.asn = asn;
+        this.comment = comment;
+    }
+
+    /**
+     * @return the filtered prefix, or null when filtering on ASN only.
+     */
+    public IpRange getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the filtered ASN, or null when filtering on prefix only.
+     */
+    public Asn getAsn() {
+        return asn;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+}
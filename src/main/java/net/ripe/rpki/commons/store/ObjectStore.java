@@ -0,0 +1,933 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.store;
+
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObjectFile;
+import net.ripe.rpki.commons.crypto.cms.ghostbuster.GhostbustersCms;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCmsParser;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.rrdp.RrdpRepositoryStore;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import org.apache.commons.lang.Validate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persistent store of repository objects, keyed by the SHA-256 hash of their content, shared by rsync and
+ * RRDP fetches and by validation.
+ * <p>
+ * Content is appended to segment files as records of hash (32 bytes), length (4 bytes) and content. Every
+ * distinct content is stored once, however many URIs refer to it. Segments are memory mapped for reading,
+ * so loading objects does not open any files. The index maps URIs to hashes and hashes to their location in
+ * the segments; it is kept in memory and written to disk by {@link #sync()}, which also forces the segments.
+ * Content appended after the last sync is recovered from the segments when the store is opened, but URI
+ * mappings changed after the last sync are lost after a crash.
+ * <p>
+ * Content is live while a URI refers to it or while a manifest that is referred to by a URI lists it, so
+ * objects listed on a current manifest survive the removal of their URI, e.g. by an incomplete fetch.
+ * {@link #collectGarbage(double)} drops content that is no longer live and compacts segments that are mostly
+ * garbage.
+ * <p>
+ * URIs are owned by a source: objects stored through {@link #put(URI, byte[])} and
+ * {@link #importDirectory(File, URI)} belong to rsync, objects stored through the
+ * {@link #repository(URI) RRDP repository view} belong to that RRDP repository. Every source keeps its own
+ * mapping of a URI, so a source never replaces or removes the object another source stored at the same URI.
+ * Where several sources map a URI, lookups by URI return the object of an RRDP repository rather than the
+ * rsync object.
+ */
+public class ObjectStore implements Closeable {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    static final int MAGIC = 0x52434153; // "RCAS"
+    static final int VERSION = 1;
+    static final String INDEX_FILE = "index.bin";
+
+    private static final int HASH_LENGTH = 32;
+    private static final int RECORD_HEADER_SIZE = HASH_LENGTH + 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String RSYNC_SOURCE = "";
+
+    private final File directory;
+
+    private final long maxSegmentSize;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    private final Map<Hash, Location> contents = new HashMap<Hash, Location>();
+
+    /**
+     * The hash of the object at a URI, by source. The rsync source sorts first.
+     */
+    private final Map<URI, TreeMap<String, Hash>> mappings = new HashMap<URI, TreeMap<String, Hash>>();
+
+    private final Map<Hash, Integer> mappingCounts = new HashMap<Hash, Integer>();
+
+    /**
+     * The hashes listed on stored manifests, by hash of the manifest.
+     */
+    private final Map<Hash, Hash[]> manifestReferences = new HashMap<Hash, Hash[]>();
+
+    private final Map<Hash, Integer> manifestReferenceCounts = new HashMap<Hash, Integer>();
+
+    private final Map<String, SessionState> sessions = new HashMap<String, SessionState>();
+
+    private boolean closed;
+
+    private ObjectStore(File directory, long maxSegmentSize) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    public static ObjectStore open(File directory) {
+        return open(directory, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens or creates the store in <code>directory</code>.
+     *
+     * @param maxSegmentSize segments are not appended to beyond this size, at most 2GB so they can be mapped.
+     */
+    public static ObjectStore open(File directory, long maxSegmentSize) {
+        Validate.notNull(directory, "directory is required");
+        Validate.isTrue(maxSegmentSize > RECORD_HEADER_SIZE && maxSegmentSize <= Integer.MAX_VALUE, "invalid maximum segment size");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ObjectStoreException("could not create " + directory);
+        }
+        ObjectStore store = new ObjectStore(directory, maxSegmentSize);
+        try {
+            store.load();
+        } catch (RuntimeException e) {
+            store.closeSegments();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * Stores <code>content</code> without referring to it from a URI.
+     *
+     * @return the SHA-256 hash of the content.
+     */
+    public synchronized byte[] putContent(byte[] content) {
+        checkOpen();
+        Hash hash = new Hash(ManifestCms.hashContents(content));
+        append(hash, content);
+        return hash.bytes.clone();
+    }
+
+    /**
+     * Stores <code>content</code> as the rsync object at <code>uri</code>.
+     *
+     * @return the SHA-256 hash of the content.
+     */
+    public byte[] put(URI uri, byte[] content) {
+        return put(RSYNC_SOURCE, uri, content);
+    }
+
+    synchronized byte[] put(String source, URI uri, byte[] content) {
+        checkOpen();
+        Validate.notNull(uri, "uri is required");
+        Validate.notNull(content, "content is required");
+        Hash hash = new Hash(ManifestCms.hashContents(content));
+        append(hash, content);
+        if (RepositoryObjectType.parse(uri.getPath() == null ? uri.toString() : uri.getPath()) == RepositoryObjectType.Manifest
+                && !manifestReferences.containsKey(hash)) {
+            manifestReferences.put(hash, parseManifestReferences(uri, content));
+        }
+        map(source, uri, hash);
+        return hash.bytes.clone();
+    }
+
+    /**
+     * Removes the rsync object at <code>uri</code>.
+     */
+    public void remove(URI uri) {
+        remove(RSYNC_SOURCE, uri);
+    }
+
+    synchronized void remove(String source, URI uri) {
+        checkOpen();
+        map(source, uri, null);
+    }
+
+    /**
+     * @return the SHA-256 hash of the object at <code>uri</code>, or null when there is none.
+     */
+    public synchronized byte[] getHash(URI uri) {
+        Hash hash = resolve(uri);
+        return hash == null ? null : hash.bytes.clone();
+    }
+
+    synchronized byte[] getHash(String source, URI uri) {
+        TreeMap<String, Hash> sources = mappings.get(uri);
+        Hash hash = sources == null ? null : sources.get(source);
+        return hash == null ? null : hash.bytes.clone();
+    }
+
+    public synchronized boolean contains(byte[] hash) {
+        return contents.containsKey(new Hash(hash));
+    }
+
+    /**
+     * @return the number of URIs and of manifests referred to by URIs that refer to <code>hash</code>.
+     */
+    public synchronized int getReferenceCount(byte[] hash) {
+        Hash key = new Hash(hash);
+        return mappingCounts.getOrDefault(key, 0) + manifestReferenceCounts.getOrDefault(key, 0);
+    }
+
+    /**
+     * @return a read-only view of the content with the given hash in the mapped segment, or null when the
+     * content is not stored. The buffer stays valid after the content is garbage collected.
+     */
+    public synchronized ByteBuffer getBuffer(byte[] hash) {
+        Location location = contents.get(new Hash(hash));
+        return location == null ? null : read(location);
+    }
+
+    /**
+     * @return the content with the given hash, or null when it is not stored.
+     */
+    public byte[] getContent(byte[] hash) {
+        ByteBuffer buffer = getBuffer(hash);
+        if (buffer == null) {
+            return null;
+        }
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return content;
+    }
+
+    /**
+     * @return the content of the object at <code>uri</code>, or null when there is none.
+     */
+    public byte[] get(URI uri) {
+        byte[] hash = getHash(uri);
+        return hash == null ? null : getContent(hash);
+    }
+
+    public synchronized Set<URI> getUris() {
+        return new HashSet<URI>(mappings.keySet());
+    }
+
+    public synchronized int size() {
+        return mappings.size();
+    }
+
+    /**
+     * @return the object at <code>uri</code> with the type expected from its file name extension, or null
+     * when there is none.
+     */
+    public CertificateRepositoryObjectFile<?> getObjectFile(URI uri) {
+        byte[] content = get(uri);
+        return content == null ? null : objectFile(uri, content);
+    }
+
+    /**
+     * @return the objects with a URI below <code>directoryUri</code>, ordered by URI.
+     */
+    public List<CertificateRepositoryObjectFile<?>> getObjectFiles(URI directoryUri) {
+        String prefix = directoryUri.toString().endsWith("/") ? directoryUri.toString() : directoryUri + "/";
+        // Map the contents while holding the lock, garbage collection may move them to another segment.
+        // The buffers stay valid afterwards, so they are copied without holding the lock.
+        TreeMap<String, ByteBuffer> selected = new TreeMap<String, ByteBuffer>();
+        synchronized (this) {
+            for (URI uri : mappings.keySet()) {
+                if (uri.toString().startsWith(prefix)) {
+                    selected.put(uri.toString(), read(contents.get(resolve(uri))));
+                }
+            }
+        }
+        List<CertificateRepositoryObjectFile<?>> result = new ArrayList<CertificateRepositoryObjectFile<?>>(selected.size());
+        for (Map.Entry<String, ByteBuffer> entry : selected.entrySet()) {
+            ByteBuffer buffer = entry.getValue();
+            byte[] content = new byte[buffer.remaining()];
+            buffer.get(content);
+            result.add(objectFile(URI.create(entry.getKey()), content));
+        }
+        return result;
+    }
+
+    /**
+     * Stores the files below <code>directory</code>, e.g. an rsync mirror, as rsync objects below
+     * <code>baseUri</code>, and removes the rsync objects below <code>baseUri</code> that no longer exist.
+     *
+     * @return the number of stored files.
+     */
+    public int importDirectory(File directory, URI baseUri) {
+        String prefix = baseUri.toString().endsWith("/") ? baseUri.toString() : baseUri + "/";
+        Set<URI> imported = new HashSet<URI>();
+        Path root = directory.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> it = paths.filter(Files::isRegularFile).iterator();
+            while (it.hasNext()) {
+                Path path = it.next();
+                URI uri = URI.create(prefix).resolve(new URI(null, null, root.relativize(path).toString().replace(File.separatorChar, '/'), null));
+                put(uri, Files.readAllBytes(path));
+                imported.add(uri);
+            }
+        } catch (IOException | java.net.URISyntaxException e) {
+            throw new ObjectStoreException("could not import " + directory, e);
+        }
+        synchronized (this) {
+            for (Map.Entry<URI, TreeMap<String, Hash>> entry : new ArrayList<Map.Entry<URI, TreeMap<String, Hash>>>(mappings.entrySet())) {
+                if (entry.getValue().containsKey(RSYNC_SOURCE) && entry.getKey().toString().startsWith(prefix) && !imported.contains(entry.getKey())) {
+                    map(RSYNC_SOURCE, entry.getKey(), null);
+                }
+            }
+        }
+        return imported.size();
+    }
+
+    /**
+     * @return a view of the objects of the RRDP repository with the given notification URI, for use with an
+     * {@link net.ripe.rpki.commons.rrdp.RrdpClient}.
+     */
+    public RrdpRepositoryStore repository(URI notificationUri) {
+        return new RrdpRepository(notificationUri.toString());
+    }
+
+    /**
+     * Forces appended content to disk and writes the index.
+     */
+    public synchronized void sync() {
+        checkOpen();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not force segments to disk", e);
+        }
+        writeIndex();
+    }
+
+    /**
+     * Drops content that is no longer live and moves the live content out of segments with less than
+     * <code>maxLiveRatio</code> live bytes, which are then deleted. The index is synced before segments are
+     * deleted.
+     *
+     * @return the number of bytes reclaimed from deleted segments.
+     */
+    public synchronized long collectGarbage(double maxLiveRatio) {
+        checkOpen();
+        for (Iterator<Map.Entry<Hash, Location>> it = contents.entrySet().iterator(); it.hasNext(); ) {
+            Hash hash = it.next().getKey();
+            if (!isLive(hash)) {
+                it.remove();
+                manifestReferences.remove(hash);
+            }
+        }
+
+        Map<Integer, Long> liveBytes = new HashMap<Integer, Long>();
+        for (Location location : contents.values()) {
+            liveBytes.merge(location.segment, (long) RECORD_HEADER_SIZE + location.length, Long::sum);
+        }
+        int activeId = segments.lastKey();
+        List<Segment> compacted = new ArrayList<Segment>();
+        for (Segment segment : segments.values()) {
+            if (segment.id != activeId && liveBytes.getOrDefault(segment.id, 0L) < maxLiveRatio * segment.size) {
+                compacted.add(segment);
+            }
+        }
+        if (compacted.isEmpty()) {
+            sync();
+            return 0;
+        }
+
+        Set<Integer> compactedIds = new HashSet<Integer>();
+        for (Segment segment : compacted) {
+            compactedIds.add(segment.id);
+        }
+        for (Map.Entry<Hash, Location> entry : new ArrayList<Map.Entry<Hash, Location>>(contents.entrySet())) {
+            if (compactedIds.contains(entry.getValue().segment)) {
+                ByteBuffer buffer = read(entry.getValue());
+                byte[] content = new byte[buffer.remaining()];
+                buffer.get(content);
+                contents.remove(entry.getKey());
+                append(entry.getKey(), content);
+            }
+        }
+        long reclaimed = 0;
+        for (Segment segment : compacted) {
+            segments.remove(segment.id);
+            reclaimed += segment.size;
+        }
+        sync();
+        for (Segment segment : compacted) {
+            segment.close();
+            if (!segment.file.delete()) {
+                throw new ObjectStoreException("could not delete " + segment.file);
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Syncs and closes the store.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            closed = true;
+            closeSegments();
+        }
+    }
+
+    private boolean isLive(Hash hash) {
+        return mappingCounts.containsKey(hash) || manifestReferenceCounts.containsKey(hash);
+    }
+
+    /**
+     * @return the hash of the object at <code>uri</code>, preferring RRDP repositories over rsync.
+     */
+    private Hash resolve(URI uri) {
+        TreeMap<String, Hash> sources = mappings.get(uri);
+        return sources == null ? null : sources.lastEntry().getValue();
+    }
+
+    private void map(String source, URI uri, Hash hash) {
+        TreeMap<String, Hash> sources = mappings.get(uri);
+        Hash previous;
+        if (hash != null) {
+            if (sources == null) {
+                sources = new TreeMap<String, Hash>();
+                mappings.put(uri, sources);
+            }
+            previous = sources.put(source, hash);
+        } else {
+            previous = sources == null ? null : sources.remove(source);
+            if (sources != null && sources.isEmpty()) {
+                mappings.remove(uri);
+            }
+        }
+        if (hash != null && mappingCounts.merge(hash, 1, Integer::sum) == 1) {
+            addManifestReferences(hash, 1);
+        }
+        if (previous != null && decrement(mappingCounts, previous) == 0) {
+            addManifestReferences(previous, -1);
+        }
+    }
+
+    private void addManifestReferences(Hash manifest, int delta) {
+        Hash[] references = manifestReferences.get(manifest);
+        if (references == null) {
+            return;
+        }
+        for (Hash reference : references) {
+            if (delta > 0) {
+                manifestReferenceCounts.merge(reference, 1, Integer::sum);
+            } else {
+                decrement(manifestReferenceCounts, reference);
+            }
+        }
+    }
+
+    private static int decrement(Map<Hash, Integer> counts, Hash hash) {
+        Integer count = counts.computeIfPresent(hash, (k, v) -> v > 1 ? v - 1 : null);
+        return count == null ? 0 : count;
+    }
+
+    private static Hash[] parseManifestReferences(URI uri, byte[] content) {
+        ManifestCmsParser parser = new ManifestCmsParser();
+        try {
+            parser.parse(ValidationResult.withLocation(uri), content);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (!parser.isSuccess()) {
+            return null;
+        }
+        Collection<byte[]> hashes = parser.getManifestCms().getHashes().values();
+        Hash[] references = new Hash[hashes.size()];
+        int i = 0;
+        for (byte[] hash : hashes) {
+            references[i++] = new Hash(hash);
+        }
+        return references;
+    }
+
+    private static CertificateRepositoryObjectFile<?> objectFile(URI uri, byte[] content) {
+        String name = uri.toString();
+        switch (RepositoryObjectType.parse(name)) {
+            case Certificate:
+                return new CertificateRepositoryObjectFile<X509ResourceCertificate>(X509ResourceCertificate.class, name, content);
+            case Crl:
+                return new CertificateRepositoryObjectFile<X509Crl>(X509Crl.class, name, content);
+            case Manifest:
+                return new CertificateRepositoryObjectFile<ManifestCms>(ManifestCms.class, name, content);
+            case Roa:
+                return new CertificateRepositoryObjectFile<RoaCms>(RoaCms.class, name, content);
+            case Gbr:
+                return new CertificateRepositoryObjectFile<GhostbustersCms>(GhostbustersCms.class, name, content);
+            default:
+                return new CertificateRepositoryObjectFile<CertificateRepositoryObject>(CertificateRepositoryObject.class, name, content);
+        }
+    }
+
+    private void append(Hash hash, byte[] content) {
+        if (contents.containsKey(hash)) {
+            return;
+        }
+        long recordSize = (long) RECORD_HEADER_SIZE + content.length;
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (segment == null || (segment.size > 0 && segment.size + recordSize > maxSegmentSize)) {
+            segment = createSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+        record.put(hash.bytes).putInt(content.length).put(content);
+        record.flip();
+        try {
+            long position = segment.size;
+            while (record.hasRemaining()) {
+                position += segment.channel.write(record, position);
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not append to " + segment.file, e);
+        }
+        contents.put(hash, new Location(segment.id, segment.size + RECORD_HEADER_SIZE, content.length));
+        segment.size += recordSize;
+    }
+
+    private ByteBuffer read(Location location) {
+        Segment segment = segments.get(location.segment);
+        try {
+            return segment.slice(location.offset, location.length);
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not map " + segment.file, e);
+        }
+    }
+
+    private Segment createSegment(int id) {
+        File file = new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = openSegment(id, file);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static Segment openSegment(int id, File file) {
+        try {
+            return new Segment(id, file, FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not open " + file, e);
+        }
+    }
+
+    private void load() {
+        File index = new File(directory, INDEX_FILE);
+        Map<Integer, Long> indexedSizes = index.exists() ? readIndex(index) : new HashMap<Integer, Long>();
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        TreeMap<Integer, File> segmentFiles = new TreeMap<Integer, File>();
+        for (File file : files == null ? new File[0] : files) {
+            try {
+                segmentFiles.put(Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length())), file);
+            } catch (NumberFormatException e) {
+                throw new ObjectStoreException("unexpected segment file " + file, e);
+            }
+        }
+        for (Integer id : indexedSizes.keySet()) {
+            if (!segmentFiles.containsKey(id)) {
+                throw new ObjectStoreException("segment " + id + " of " + directory + " is missing");
+            }
+        }
+        for (Map.Entry<Integer, File> entry : segmentFiles.entrySet()) {
+            Segment segment = openSegment(entry.getKey(), entry.getValue());
+            segments.put(segment.id, segment);
+            segment.size = indexedSizes.getOrDefault(segment.id, 0L);
+            recover(segment);
+        }
+    }
+
+    /**
+     * Adds the complete records appended to <code>segment</code> after the last sync, and truncates a partially
+     * written record.
+     */
+    private void recover(Segment segment) {
+        try {
+            long fileSize = segment.channel.size();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            while (segment.size + RECORD_HEADER_SIZE <= fileSize) {
+                header.clear();
+                segment.channel.read(header, segment.size);
+                header.flip();
+                byte[] hash = new byte[HASH_LENGTH];
+                header.get(hash);
+                int length = header.getInt();
+                if (length < 0 || segment.size + RECORD_HEADER_SIZE + length > fileSize) {
+                    break;
+                }
+                Location location = new Location(segment.id, segment.size + RECORD_HEADER_SIZE, length);
+                ByteBuffer content = segment.slice(location.offset, length);
+                byte[] bytes = new byte[length];
+                content.get(bytes);
+                if (!Arrays.equals(hash, ManifestCms.hashContents(bytes))) {
+                    break;
+                }
+                contents.putIfAbsent(new Hash(hash), location);
+                segment.size += RECORD_HEADER_SIZE + length;
+            }
+            if (segment.size < fileSize) {
+                segment.channel.truncate(segment.size);
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not recover " + segment.file, e);
+        }
+    }
+
+    private void writeIndex() {
+        File file = new File(directory, INDEX_FILE);
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                out.writeInt(segment.id);
+                out.writeLong(segment.size);
+            }
+            out.writeInt(contents.size());
+            for (Map.Entry<Hash, Location> entry : contents.entrySet()) {
+                out.write(entry.getKey().bytes);
+                out.writeInt(entry.getValue().segment);
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().length);
+            }
+            out.writeInt(manifestReferences.size());
+            for (Map.Entry<Hash, Hash[]> entry : manifestReferences.entrySet()) {
+                out.write(entry.getKey().bytes);
+                Hash[] references = entry.getValue();
+                out.writeInt(references == null ? -1 : references.length);
+                for (int i = 0; references != null && i < references.length; i++) {
+                    out.write(references[i].bytes);
+                }
+            }
+            int mappingCount = 0;
+            for (TreeMap<String, Hash> sources : mappings.values()) {
+                mappingCount += sources.size();
+            }
+            out.writeInt(mappingCount);
+            for (Map.Entry<URI, TreeMap<String, Hash>> entry : mappings.entrySet()) {
+                for (Map.Entry<String, Hash> source : entry.getValue().entrySet()) {
+                    out.writeUTF(entry.getKey().toString());
+                    out.write(source.getValue().bytes);
+                    out.writeUTF(source.getKey());
+                }
+            }
+            out.writeInt(sessions.size());
+            for (Map.Entry<String, SessionState> entry : sessions.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().sessionId);
+                out.writeUTF(entry.getValue().serial.toString());
+            }
+            out.flush();
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not write index to " + temp, e);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not move " + temp + " to " + file, e);
+        }
+    }
+
+    private Map<Integer, Long> readIndex(File file) {
+        Map<Integer, Long> segmentSizes = new HashMap<Integer, Long>();
+        verifyChecksum(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new ObjectStoreException(file + " is not an object store index");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new ObjectStoreException(file + " has unsupported version " + version);
+            }
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                segmentSizes.put(in.readInt(), in.readLong());
+            }
+            int contentCount = in.readInt();
+            for (int i = 0; i < contentCount; i++) {
+                Hash hash = readHash(in);
+                contents.put(hash, new Location(in.readInt(), in.readLong(), in.readInt()));
+            }
+            int manifestCount = in.readInt();
+            for (int i = 0; i < manifestCount; i++) {
+                Hash manifest = readHash(in);
+                int count = in.readInt();
+                Hash[] references = count < 0 ? null : new Hash[count];
+                for (int j = 0; j < count; j++) {
+                    references[j] = readHash(in);
+                }
+                manifestReferences.put(manifest, references);
+            }
+            int mappingCount = in.readInt();
+            for (int i = 0; i < mappingCount; i++) {
+                URI uri = URI.create(in.readUTF());
+                Hash hash = readHash(in);
+                map(in.readUTF(), uri, hash);
+            }
+            int sessionCount = in.readInt();
+            for (int i = 0; i < sessionCount; i++) {
+                sessions.put(in.readUTF(), new SessionState(in.readUTF(), new BigInteger(in.readUTF())));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ObjectStoreException("could not read index from " + file, e);
+        }
+        return segmentSizes;
+    }
+
+    /**
+     * Checks the CRC32 of the index, which is stored in the last 8 bytes.
+     */
+    private static void verifyChecksum(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long dataLength = channel.size() - 8;
+            if (dataLength < 0) {
+                throw new ObjectStoreException(file + " is too short for an object store index");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer data = buffer.duplicate();
+            data.limit((int) dataLength);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (buffer.getLong((int) dataLength) != crc.getValue()) {
+                throw new ObjectStoreException(file + " has an invalid checksum");
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("could not read index from " + file, e);
+        }
+    }
+
+    private static Hash readHash(DataInputStream in) throws IOException {
+        byte[] hash = new byte[HASH_LENGTH];
+        in.readFully(hash);
+        return new Hash(hash);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new ObjectStoreException("object store " + directory + " is closed");
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    /**
+     * View of the objects of a single RRDP repository.
+     */
+    private final class RrdpRepository implements RrdpRepositoryStore {
+        private final String source;
+
+        private RrdpRepository(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public String getSessionId() {
+            synchronized (ObjectStore.this) {
+                SessionState state = sessions.get(source);
+                return state == null ? null : state.sessionId;
+            }
+        }
+
+        @Override
+        public BigInteger getSerial() {
+            synchronized (ObjectStore.this) {
+                SessionState state = sessions.get(source);
+                return state == null ? null : state.serial;
+            }
+        }
+
+        @Override
+        public void setSessionState(String sessionId, BigInteger serial) {
+            synchronized (ObjectStore.this) {
+                sessions.put(source, new SessionState(sessionId, serial));
+            }
+        }
+
+        @Override
+        public byte[] getHash(URI uri) {
+            return ObjectStore.this.getHash(source, uri);
+        }
+
+        @Override
+        public Set<URI> getUris() {
+            Set<URI> result = new HashSet<URI>();
+            synchronized (ObjectStore.this) {
+                for (Map.Entry<URI, TreeMap<String, Hash>> entry : mappings.entrySet()) {
+                    if (entry.getValue().containsKey(source)) {
+                        result.add(entry.getKey());
+                    }
+                }
+            }
+            return Collections.unmodifiableSet(result);
+        }
+
+        @Override
+        public void put(URI uri, byte[] content) {
+            ObjectStore.this.put(source, uri, content);
+        }
+
+        @Override
+        public void remove(URI uri) {
+            ObjectStore.this.remove(source, uri);
+        }
+    }
+
+    private static final class Hash {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        private Hash(byte[] bytes) {
+            Validate.isTrue(bytes.length == HASH_LENGTH, "SHA-256 hash expected");
+            this.bytes = bytes;
+            this.hashCode = ByteBuffer.wrap(bytes).getInt();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Hash && Arrays.equals(bytes, ((Hash) obj).bytes);
+        }
+    }
+
+    private static final class Location {
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        private Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class SessionState {
+        private final String sessionId;
+        private final BigInteger serial;
+
+        private SessionState(String sessionId, BigInteger serial) {
+            this.sessionId = sessionId;
+            this.serial = serial;
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+        private MappedByteBuffer mapped;
+
+        private Segment(int id, File file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        /**
+         * @return a read-only view of the given range, remapping the segment when it has grown past the mapping.
+         */
+        private ByteBuffer slice(long offset, int length) throws IOException {
+            if (mapped == null || offset + length > mapped.capacity()) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position((int) offset);
+            buffer.limit((int) offset + length);
+            return buffer.slice().asReadOnlyBuffer();
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new ObjectStoreException("could not close " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.AbstractX509CertificateWrapper;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.util.UTC;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the most recent fully valid state of every publication point, keyed by manifest URI, so it can be used
+ * instead of the current state when fetching or validating the publication point fails.
+ * <p>
+ * Every entry records the issuer certificate it was validated against. Callers must only use an entry while
+ * the issuer is unchanged, see {@link PublicationPoint#isIssuedBy(X509ResourceCertificate)}.
+ * <p>
+ * A cached publication point can be used until {@link ValidationOptions#getMaxStaleDays()} days after the
+ * earliest next update time of its manifest and CRL, and never after the manifest EE certificate expires.
+ * Objects that expired in the meantime are left out. Lookups are constant time and all state is kept in
+ * memory.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LastKnownGoodCache {
+
+    private final ValidationOptions options;
+
+    private final Map<URI, PublicationPoint> entries = new ConcurrentHashMap<URI, PublicationPoint>();
+
+    public LastKnownGoodCache(ValidationOptions options) {
+        Validate.notNull(options, "options are required");
+        this.options = options;
+    }
+
+    /**
+     * Stores the validated state of the publication point of <code>manifestUri</code>, replacing the previous
+     * state. Only call this when the manifest, the CRL and all objects listed on the manifest are valid.
+     *
+     * @param issuer  the CA certificate the publication point was validated against.
+     * @param objects the valid objects listed on the manifest, by URI.
+     */
+    public void put(URI manifestUri, X509ResourceCertificate issuer, ManifestCms manifest, X509Crl crl, Map<URI, CertificateRepositoryObject> objects) {
+        Validate.notNull(manifestUri, "manifest URI is required");
+        Validate.notNull(issuer, "issuer is required");
+        Validate.notNull(manifest, "manifest is required");
+        Validate.notNull(crl, "CRL is required");
+        DateTime nextUpdate = earliest(manifest.getNextUpdateTime(), crl.getNextUpdateTime());
+        DateTime staleUntil = earliest(nextUpdate.plusDays(options.getMaxStaleDays()), manifest.getValidityPeriod().getNotValidAfter());
+        entries.put(manifestUri, new PublicationPoint(issuer, manifest, crl, objects, UTC.dateTime(), nextUpdate, staleUntil));
+    }
+
+    /**
+     * @return the cached state of the publication point of <code>manifestUri</code>, or null when there is
+     * none or it is too stale to be used now.
+     */
+    public PublicationPoint get(URI manifestUri) {
+        return get(manifestUri, UTC.dateTime());
+    }
+
+    /**
+     * @return the cached state of the publication point of <code>manifestUri</code>, or null when there is
+     * none or it is too stale to be used at <code>now</code>.
+     */
+    public PublicationPoint get(URI manifestUri, DateTime now) {
+        PublicationPoint entry = entries.get(manifestUri);
+        if (entry == null || now.isAfter(entry.staleUntil)) {
+            return null;
+        }
+        return entry;
+    }
+
+    public void remove(URI manifestUri) {
+        entries.remove(manifestUri);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all publication points that are too stale to be used at <code>now</code>.
+     *
+     * @return the number of removed publication points.
+     */
+    public int evictStale(DateTime now) {
+        int count = 0;
+        for (Iterator<PublicationPoint> it = entries.values().iterator(); it.hasNext(); ) {
+            if (now.isAfter(it.next().staleUntil)) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static DateTime earliest(DateTime a, DateTime b) {
+        return b.isBefore(a) ? b : a;
+    }
+
+    private static ValidityPeriod validityPeriod(CertificateRepositoryObject object) {
+        if (object instanceof AbstractX509CertificateWrapper) {
+            return ((AbstractX509CertificateWrapper) object).getValidityPeriod();
+        } else if (object instanceof RpkiSignedObject) {
+            return ((RpkiSignedObject) object).getValidityPeriod();
+        }
+        return null;
+    }
+
+    /**
+     * The last fully valid state of a publication point.
+     */
+    public static final class PublicationPoint {
+        private final X509ResourceCertificate issuer;
+        private final ManifestCms manifest;
+        private final X509Crl crl;
+        private final Map<URI, CertificateRepositoryObject> objects;
+        private final DateTime validatedAt;
+        private final DateTime nextUpdate;
+        private final DateTime staleUntil;
+
+        private PublicationPoint(X509ResourceCertificate issuer, ManifestCms manifest, X509Crl crl, Map<URI, CertificateRepositoryObject> objects,
+                                 DateTime validatedAt, DateTime nextUpdate, DateTime staleUntil) {
+            this.issuer = issuer;
+            this.manifest = manifest;
+            this.crl = crl;
+            this.objects = Collections.unmodifiableMap(new LinkedHashMap<URI, CertificateRepositoryObject>(objects));
+            this.validatedAt = validatedAt;
+            this.nextUpdate = nextUpdate;
+            this.staleUntil = staleUntil;
+        }
+
+        public X509ResourceCertificate getIssuer() {
+            return issuer;
+        }
+
+        /**
+         * @return true when this state was validated against <code>certificate</code>. A reissued CA
+         * certificate, with other resources or another key, makes the cached state unusable.
+         */
+        public boolean isIssuedBy(X509ResourceCertificate certificate) {
+            return issuer.equals(certificate);
+        }
+
+        public ManifestCms getManifest() {
+            return manifest;
+        }
+
+        public X509Crl getCrl() {
+            return crl;
+        }
+
+        public DateTime getValidatedAt() {
+            return validatedAt;
+        }
+
+        /**
+         * @return the earliest next update time of the manifest and CRL.
+         */
+        public DateTime getNextUpdateTime() {
+            return nextUpdate;
+        }
+
+        /**
+         * @return the last moment this state may be used.
+         */
+        public DateTime getStaleUntil() {
+            return staleUntil;
+        }
+
+        /**
+         * @return true when neither the manifest nor the CRL is past its next update time at <code>now</code>,
+         * so there is no need to fetch the publication point again yet.
+         */
+        public boolean isFresh(DateTime now) {
+            return !now.isAfter(nextUpdate);
+        }
+
+        /**
+         * @return the objects of the publication point that are not expired at <code>now</code>, in manifest
+         * file name order.
+         */
+        public Map<URI, CertificateRepositoryObject> getObjects(DateTime now) {
+            Map<URI, CertificateRepositoryObject> result = new LinkedHashMap<URI, CertificateRepositoryObject>();
+            for (Map.Entry<URI, CertificateRepositoryObject> entry : objects.entrySet()) {
+                ValidityPeriod period = validityPeriod(entry.getValue());
+                if (period == null || !period.isExpiredAt(now)) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return result;
+        }
+    }
+}
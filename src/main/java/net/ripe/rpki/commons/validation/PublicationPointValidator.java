@@ -0,0 +1,425 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.util.CertificateRepositoryObjectFactory;
+import net.ripe.rpki.commons.crypto.x509cert.AbstractX509CertificateWrapper;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Validates a complete publication point of a CA: its manifest, the CRL listed on the manifest, and all
+ * other objects listed on the manifest.
+ * <p>
+ * The manifest and CRL are parsed and validated once. The listed objects are then hash checked against
+ * the manifest, parsed and validated in parallel against the same CRL and issuer context. Every object is
+ * validated into its own {@link ValidationResult}; these are merged into the caller's result in manifest
+ * file name order, so the outcome does not depend on scheduling. Objects are validated against copies of
+ * the issuer context: resources found to be overclaimed by a child certificate under loose validation are
+ * added to the issuer context afterwards, instead of affecting siblings validated concurrently.
+ * <p>
+ * With a {@link LastKnownGoodCache}, fully valid publication points are cached and a publication point that
+ * fails, as a whole or in any of its objects, is replaced by its cached state while that is not too stale and
+ * the issuer certificate is unchanged. Cached objects that overclaim the current issuer resources or are revoked
+ * by a valid current CRL are left out.
+ */
+public class PublicationPointValidator {
+
+    private final ValidationOptions options;
+
+    private final Executor executor;
+
+    private final ValidationDependencyGraph graph;
+
+    private final RevalidationScheduler scheduler;
+
+    private final LastKnownGoodCache lastKnownGood;
+
+    public PublicationPointValidator(ValidationOptions options) {
+        this(options, ForkJoinPool.commonPool());
+    }
+
+    public PublicationPointValidator(ValidationOptions options, Executor executor) {
+        this(options, executor, null);
+    }
+
+    /**
+     * @param graph when not null, the dependencies and checks of every validated object are recorded in this
+     *              graph, which enables {@link #revalidate(CertificateRepositoryObjectValidationContext, Map, Set, Map, ValidationResult)}.
+     */
+    public PublicationPointValidator(ValidationOptions options, Executor executor, ValidationDependencyGraph graph) {
+        this(options, executor, graph, null);
+    }
+
+    /**
+     * @param scheduler when not null, the manifest, the CRL and every parsed object are tracked in this
+     *                  scheduler at their next time based state change.
+     */
+    public PublicationPointValidator(ValidationOptions options, Executor executor, ValidationDependencyGraph graph, RevalidationScheduler scheduler) {
+        this(options, executor, graph, scheduler, null);
+    }
+
+    /**
+     * @param lastKnownGood when not null, fully valid publication points are stored in this cache, and used
+     *                      instead of publication points that fail validation.
+     */
+    public PublicationPointValidator(ValidationOptions options, Executor executor, ValidationDependencyGraph graph, RevalidationScheduler scheduler,
+                                     LastKnownGoodCache lastKnownGood) {
+        Validate.notNull(options, "options are required");
+        Validate.notNull(executor, "executor is required");
+        this.options = options;
+        this.executor = executor;
+        this.graph = graph;
+        this.scheduler = scheduler;
+        this.lastKnownGood = lastKnownGood;
+    }
+
+    /**
+     * @param context the issuing CA certificate, its location and effective resources.
+     * @param files   the retrieved files of the publication point, by rsync URI.
+     * @param result  receives the checks of the manifest, the CRL and all listed objects.
+     * @return the objects listed on the manifest that passed validation, by URI, in manifest file name order.
+     * The result is empty when the manifest or CRL is invalid.
+     */
+    public Map<URI, CertificateRepositoryObject> validate(CertificateRepositoryObjectValidationContext context, Map<URI, byte[]> files, ValidationResult result) {
+        return validate(context, files, null, Collections.<URI, CertificateRepositoryObject>emptyMap(), result);
+    }
+
+    /**
+     * Like {@link #validate(CertificateRepositoryObjectValidationContext, Map, ValidationResult)}, but only
+     * validates the objects in <code>affected</code> (see {@link ValidationDependencyGraph#findAffected}) and
+     * objects not recorded in the dependency graph. All other objects get their recorded checks; when they were
+     * valid they are taken from <code>previous</code>, or parsed again when missing from it.
+     *
+     * @param previous the objects returned by an earlier validation of this publication point.
+     */
+    public Map<URI, CertificateRepositoryObject> revalidate(CertificateRepositoryObjectValidationContext context, Map<URI, byte[]> files, Set<URI> affected,
+                                                            Map<URI, CertificateRepositoryObject> previous, ValidationResult result) {
+        Validate.notNull(graph, "revalidation requires a dependency graph");
+        Validate.notNull(affected, "affected objects are required");
+        return validate(context, files, affected, previous, result);
+    }
+
+    private Map<URI, CertificateRepositoryObject> validate(CertificateRepositoryObjectValidationContext context, Map<URI, byte[]> files, Set<URI> affected,
+                                                           Map<URI, CertificateRepositoryObject> previous, ValidationResult result) {
+        Map<URI, CertificateRepositoryObject> validObjects = new LinkedHashMap<URI, CertificateRepositoryObject>();
+        URI manifestUri = context.getManifestURI();
+        URI repositoryUri = context.getRepositoryURI();
+        ValidationLocation savedLocation = result.getCurrentLocation();
+        try {
+            result.setLocation(new ValidationLocation(context.getLocation()));
+            if (!result.rejectIfNull(manifestUri, ValidationString.VALIDATOR_CA_SHOULD_HAVE_MANIFEST)) {
+                return validObjects;
+            }
+            if (affected != null && isUnaffected(context.getLocation(), manifestUri, affected)) {
+                return reuseCachedResults(manifestUri, files, previous, result);
+            }
+
+            ManifestCms manifest = parseManifest(manifestUri, files.get(manifestUri), result);
+            if (manifest == null) {
+                record(manifestUri, null, files, context.getLocation(), null, null, result);
+                return useLastKnownGood(context, manifestUri, null, validObjects, result);
+            }
+            URI crlUri = manifest.getCrlUri();
+            X509Crl crl = parseCrl(context, manifestUri, manifest, crlUri, files.get(crlUri), result);
+            track(manifestUri, manifest);
+            track(crlUri, crl);
+
+            result.setLocation(new ValidationLocation(manifestUri));
+            manifest.validate(manifestUri.toString(), context, crl, crlUri, options, result);
+            record(manifestUri, manifest, files, context.getLocation(), crlUri, null, result);
+            if (crlUri != null) {
+                record(crlUri, crl, files, context.getLocation(), null, manifestUri, result);
+            }
+            if (crl == null || result.hasFailureForLocation(new ValidationLocation(crlUri))) {
+                return useLastKnownGood(context, manifestUri, null, validObjects, result);
+            }
+            if (result.hasFailureForLocation(new ValidationLocation(manifestUri))) {
+                return useLastKnownGood(context, manifestUri, crl, validObjects, result);
+            }
+
+            List<String> names = new ArrayList<String>();
+            for (String name : new TreeSet<String>(manifest.getFileNames())) {
+                if (!repositoryUri.resolve(name).equals(crlUri)) {
+                    names.add(name);
+                }
+            }
+            List<CompletableFuture<ObjectResult>> futures = new ArrayList<CompletableFuture<ObjectResult>>(names.size());
+            for (String name : names) {
+                final URI uri = repositoryUri.resolve(name);
+                final ManifestCms.FileContentSpecification specification = manifest.getFileContentSpecification(name);
+                final byte[] content = files.get(uri);
+                if (affected != null && !affected.contains(uri) && graph.contains(uri)) {
+                    futures.add(CompletableFuture.supplyAsync(() -> reuseCachedResult(context, uri, content, previous), executor));
+                } else {
+                    futures.add(CompletableFuture.supplyAsync(() -> validateObject(context, manifestUri, crl, crlUri, uri, specification, content), executor));
+                }
+            }
+            for (CompletableFuture<ObjectResult> future : futures) {
+                ObjectResult objectResult = future.join();
+                result.addAll(objectResult.result);
+                IpResourceSet overclaimed = new IpResourceSet(context.getResources());
+                overclaimed.removeAll(objectResult.context.getResources());
+                if (!overclaimed.isEmpty()) {
+                    context.addOverclaiming(overclaimed);
+                }
+                track(objectResult.uri, objectResult.object);
+                if (!objectResult.cached) {
+                    record(objectResult.uri, objectResult.object, files, context.getLocation(), crlUri, manifestUri, objectResult.result);
+                }
+                if (objectResult.object != null && !objectResult.result.hasFailures()) {
+                    validObjects.put(objectResult.uri, objectResult.object);
+                }
+            }
+            if (validObjects.size() < names.size()) {
+                return useLastKnownGood(context, manifestUri, crl, validObjects, result);
+            }
+            if (lastKnownGood != null) {
+                lastKnownGood.put(manifestUri, context.getCertificate(), manifest, crl, validObjects);
+            }
+            return validObjects;
+        } finally {
+            result.setLocation(savedLocation);
+        }
+    }
+
+    /**
+     * @param crl the current CRL of the publication point when it is valid, otherwise null.
+     */
+    private Map<URI, CertificateRepositoryObject> useLastKnownGood(CertificateRepositoryObjectValidationContext context, URI manifestUri, X509Crl crl,
+                                                                   Map<URI, CertificateRepositoryObject> validObjects, ValidationResult result) {
+        LastKnownGoodCache.PublicationPoint cached = lastKnownGood == null ? null : lastKnownGood.get(manifestUri);
+        if (cached == null || !cached.isIssuedBy(context.getCertificate())) {
+            return validObjects;
+        }
+        if (crl != null && crl.isRevoked(cached.getManifest().getCertificate().getCertificate())) {
+            return validObjects;
+        }
+        result.setLocation(new ValidationLocation(manifestUri));
+        result.warn(ValidationString.VALIDATOR_MANIFEST_LAST_KNOWN_GOOD_USED, cached.getValidatedAt().toString(), cached.getStaleUntil().toString());
+        Map<URI, CertificateRepositoryObject> objects = new LinkedHashMap<URI, CertificateRepositoryObject>();
+        for (Map.Entry<URI, CertificateRepositoryObject> entry : cached.getObjects(UTC.dateTime()).entrySet()) {
+            if (isStillValid(context, crl, entry.getValue())) {
+                track(entry.getKey(), entry.getValue());
+                objects.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * @return false when the certificate of <code>object</code> claims resources the issuer no longer holds, or
+     * is revoked by <code>crl</code>.
+     */
+    private static boolean isStillValid(CertificateRepositoryObjectValidationContext context, X509Crl crl, CertificateRepositoryObject object) {
+        X509Certificate certificate = null;
+        X509ResourceCertificate resourceCertificate = null;
+        if (object instanceof RpkiSignedObject) {
+            resourceCertificate = ((RpkiSignedObject) object).getCertificate();
+        } else if (object instanceof X509ResourceCertificate) {
+            resourceCertificate = (X509ResourceCertificate) object;
+        } else if (object instanceof AbstractX509CertificateWrapper) {
+            certificate = ((AbstractX509CertificateWrapper) object).getCertificate();
+        }
+        if (resourceCertificate != null) {
+            IpResourceSet resources = context.getResources();
+            if (!resources.contains(resourceCertificate.deriveResources(resources))) {
+                return false;
+            }
+            certificate = resourceCertificate.getCertificate();
+        }
+        return crl == null || certificate == null || !crl.isRevoked(certificate);
+    }
+
+    private boolean isUnaffected(URI issuerUri, URI manifestUri, Set<URI> affected) {
+        if (!graph.contains(manifestUri) || affected.contains(issuerUri) || affected.contains(manifestUri)) {
+            return false;
+        }
+        for (URI dependent : graph.getDependents(manifestUri)) {
+            if (affected.contains(dependent)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<URI, CertificateRepositoryObject> reuseCachedResults(URI manifestUri, Map<URI, byte[]> files, Map<URI, CertificateRepositoryObject> previous, ValidationResult result) {
+        Map<URI, CertificateRepositoryObject> validObjects = new LinkedHashMap<URI, CertificateRepositoryObject>();
+        graph.addCachedResult(manifestUri, result);
+        if (!graph.isValid(manifestUri)) {
+            return validObjects;
+        }
+        for (URI uri : new TreeSet<URI>(graph.getDependents(manifestUri))) {
+            graph.addCachedResult(uri, result);
+            if (graph.isValid(uri) && RepositoryObjectType.parse(uri.toString()) != RepositoryObjectType.Crl) {
+                CertificateRepositoryObject object = previousOrParse(uri, files.get(uri), previous);
+                if (object != null) {
+                    track(uri, object);
+                    validObjects.put(uri, object);
+                }
+            }
+        }
+        return validObjects;
+    }
+
+    private ObjectResult reuseCachedResult(CertificateRepositoryObjectValidationContext issuer, URI uri, byte[] content, Map<URI, CertificateRepositoryObject> previous) {
+        ValidationResult result = ValidationResult.withLocation(uri);
+        graph.addCachedResult(uri, result);
+        CertificateRepositoryObject object = graph.isValid(uri) ? previousOrParse(uri, content, previous) : null;
+        return new ObjectResult(uri, object, result, issuer, true);
+    }
+
+    private CertificateRepositoryObject previousOrParse(URI uri, byte[] content, Map<URI, CertificateRepositoryObject> previous) {
+        CertificateRepositoryObject object = previous.get(uri);
+        if (object == null && content != null) {
+            object = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(content, ValidationResult.withLocation(uri), options);
+        }
+        return object;
+    }
+
+    private void track(URI uri, CertificateRepositoryObject object) {
+        if (scheduler != null && object != null) {
+            scheduler.track(uri, object);
+        }
+    }
+
+    private void record(URI uri, CertificateRepositoryObject object, Map<URI, byte[]> files, URI issuer, URI crl, URI manifest, ValidationResult result) {
+        byte[] content = files.get(uri);
+        if (graph != null && content != null) {
+            DateTime nextStateChange = object == null ? null : RevalidationScheduler.nextStateChange(object, UTC.dateTime());
+            graph.record(uri, content, issuer, crl, manifest, result.getAllValidationChecksForLocation(new ValidationLocation(uri)), nextStateChange);
+        }
+    }
+
+    private ManifestCms parseManifest(URI manifestUri, byte[] encoded, ValidationResult result) {
+        result.setLocation(new ValidationLocation(manifestUri));
+        if (!result.rejectIfNull(encoded, ValidationString.VALIDATOR_REPOSITORY_OBJECT_NOT_FOUND, manifestUri.toString(), "")) {
+            return null;
+        }
+        CertificateRepositoryObject object = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(encoded, result, options);
+        if (!result.rejectIfFalse(object instanceof ManifestCms, ValidationString.VALIDATOR_FETCHED_OBJECT_IS_MANIFEST)) {
+            return null;
+        }
+        return (ManifestCms) object;
+    }
+
+    private X509Crl parseCrl(CertificateRepositoryObjectValidationContext context, URI manifestUri, ManifestCms manifest, URI crlUri, byte[] encoded, ValidationResult result) {
+        result.setLocation(new ValidationLocation(manifestUri));
+        int crlEntries = 0;
+        String crlName = null;
+        for (String name : manifest.getFileNames()) {
+            if (RepositoryObjectType.parse(name) == RepositoryObjectType.Crl) {
+                crlEntries++;
+                crlName = name;
+            }
+        }
+        if (!result.rejectIfFalse(crlEntries == 1, ValidationString.VALIDATOR_MANIFEST_CONTAINS_ONE_CRL_ENTRY, String.valueOf(crlEntries))) {
+            return null;
+        }
+        if (!result.rejectIfFalse(crlUri != null && crlUri.toString().endsWith("/" + crlName), ValidationString.VALIDATOR_MANIFEST_CRL_URI_MISMATCH, crlName, String.valueOf(crlUri))) {
+            return null;
+        }
+
+        result.setLocation(new ValidationLocation(crlUri));
+        if (!result.rejectIfNull(encoded, ValidationString.OBJECTS_CRL_VALID, crlUri.toString())) {
+            return null;
+        }
+        if (!result.rejectIfFalse(manifest.verifyFileContents(crlName, encoded), ValidationString.VALIDATOR_MANIFEST_ENTRY_HASH_MATCHES)) {
+            return null;
+        }
+        int maxSize = options.getMaxObjectSize(RepositoryObjectType.Crl);
+        if (encoded.length > maxSize) {
+            result.error(ValidationString.OBJECTS_SIZE_LIMIT, String.valueOf(maxSize));
+            return null;
+        }
+        X509Crl crl = X509Crl.parseDerEncoded(encoded, result);
+        if (crl != null) {
+            crl.validate(crlUri.toString(), context, null, options, result);
+        }
+        return crl;
+    }
+
+    private ObjectResult validateObject(CertificateRepositoryObjectValidationContext issuer, URI manifestUri, X509Crl crl, URI crlUri,
+                                        URI uri, ManifestCms.FileContentSpecification specification, byte[] content) {
+        ValidationResult result = ValidationResult.withLocation(uri);
+        CertificateRepositoryObjectValidationContext context = new CertificateRepositoryObjectValidationContext(
+                issuer.getLocation(), issuer.getCertificate(), issuer.getResources(), issuer.getSubjectChain());
+        if (!result.rejectIfNull(content, ValidationString.VALIDATOR_MANIFEST_ENTRY_FOUND, manifestUri.toString())) {
+            return new ObjectResult(uri, null, result, context, false);
+        }
+        if (!result.rejectIfFalse(specification.isSatisfiedBy(content), ValidationString.VALIDATOR_MANIFEST_ENTRY_HASH_MATCHES)) {
+            return new ObjectResult(uri, null, result, context, false);
+        }
+        CertificateRepositoryObject object = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(content, result, options);
+        if (object == null || result.hasFailures()) {
+            return new ObjectResult(uri, null, result, context, false);
+        }
+        object.validate(uri.toString(), context, crl, crlUri, options, result);
+        return new ObjectResult(uri, object, result, context, false);
+    }
+
+    private static final class ObjectResult {
+        private final URI uri;
+        private final CertificateRepositoryObject object;
+        private final ValidationResult result;
+        private final CertificateRepositoryObjectValidationContext context;
+        private final boolean cached;
+
+        private ObjectResult(URI uri, CertificateRepositoryObject object, ValidationResult result, CertificateRepositoryObjectValidationContext context, boolean cached) {
+            this.uri = uri;
+            this.object = object;
+            this.result = result;
+            this.context = context;
+            this.cached = cached;
+        }
+    }
+}
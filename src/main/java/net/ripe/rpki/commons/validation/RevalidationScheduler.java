@@ -0,0 +1,285 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.AbstractX509CertificateWrapper;
+import net.ripe.rpki.commons.util.UTC;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the next moment at which the validation outcome of each object changes purely through the passing
+ * of time: a certificate becoming valid or expiring, or a CRL or manifest passing its next update time.
+ * <p>
+ * Due objects are polled in deadline order with {@link #pollDue(DateTime)}, or pushed to a callback by
+ * {@link #start(ScheduledExecutorService, Consumer)} which sleeps until the earliest deadline, so no work is
+ * done between state changes. The callback typically passes the due objects to
+ * {@link ValidationDependencyGraph#findAffected} and revalidates those, which tracks them again with their
+ * new deadline.
+ * <p>
+ * This class is thread-safe.
+ */
+public class RevalidationScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RevalidationScheduler.class);
+
+    /**
+     * Replaced entries stay in the queue until they reach its head, the queue is rebuilt when it holds more
+     * than twice the tracked entries (plus this slack).
+     */
+    private static final int COMPACTION_SLACK = 64;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+    private final Map<URI, Entry> entries = new HashMap<URI, Entry>();
+
+    private ScheduledExecutorService executor;
+
+    private Consumer<Set<URI>> callback;
+
+    private ScheduledFuture<?> wakeUp;
+
+    private DateTime wakeUpTime;
+
+    /**
+     * @return the first moment after <code>now</code> at which the validation outcome of <code>object</code>
+     * can change without the object itself changing, or null when there is no such moment.
+     */
+    public static DateTime nextStateChange(CertificateRepositoryObject object, DateTime now) {
+        DateTime next = null;
+        if (object instanceof AbstractX509CertificateWrapper) {
+            next = nextStateChange(((AbstractX509CertificateWrapper) object).getValidityPeriod(), now);
+        } else if (object instanceof X509Crl) {
+            next = after(((X509Crl) object).getNextUpdateTime(), now);
+        } else if (object instanceof RpkiSignedObject) {
+            next = nextStateChange(((RpkiSignedObject) object).getValidityPeriod(), now);
+            if (object instanceof ManifestCms) {
+                next = earliest(next, after(((ManifestCms) object).getNextUpdateTime(), now));
+            }
+        }
+        return next;
+    }
+
+    private static DateTime nextStateChange(ValidityPeriod period, DateTime now) {
+        return earliest(after(period.getNotValidBefore(), now), after(period.getNotValidAfter(), now));
+    }
+
+    /**
+     * Validity checks compare with <code>isAfter</code>, so the outcome changes one millisecond after the
+     * boundary.
+     */
+    private static DateTime after(DateTime boundary, DateTime now) {
+        if (boundary == null) {
+            return null;
+        }
+        DateTime change = boundary.plusMillis(1);
+        return change.isAfter(now) ? change : null;
+    }
+
+    private static DateTime earliest(DateTime a, DateTime b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.isBefore(b) ? a : b;
+    }
+
+    /**
+     * Tracks <code>object</code> at its next state change, replacing any earlier deadline for <code>uri</code>.
+     */
+    public void track(URI uri, CertificateRepositoryObject object) {
+        track(uri, nextStateChange(object, UTC.dateTime()));
+    }
+
+    /**
+     * Tracks <code>uri</code> to become due at <code>time</code>, replacing any earlier deadline. A null
+     * <code>time</code> stops tracking.
+     */
+    public synchronized void track(URI uri, DateTime time) {
+        Validate.notNull(uri, "uri is required");
+        Entry previous = entries.get(uri);
+        if (time != null && previous != null && previous.time == time.getMillis()) {
+            return;
+        }
+        entries.remove(uri);
+        if (time != null) {
+            Entry entry = new Entry(uri, time.getMillis());
+            entries.put(uri, entry);
+            queue.add(entry);
+        }
+        compact();
+        rearm();
+    }
+
+    public synchronized void untrack(URI uri) {
+        entries.remove(uri);
+        compact();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return the time of the earliest tracked state change, or null when nothing is tracked.
+     */
+    public synchronized DateTime getNextStateChange() {
+        Entry head = head();
+        return head == null ? null : new DateTime(head.time, DateTimeZone.UTC);
+    }
+
+    /**
+     * Removes and returns all objects with a state change at or before <code>now</code>, in deadline order.
+     */
+    public synchronized Set<URI> pollDue(DateTime now) {
+        Set<URI> due = new LinkedHashSet<URI>();
+        for (Entry head = head(); head != null && head.time <= now.getMillis(); head = head()) {
+            queue.poll();
+            entries.remove(head.uri);
+            due.add(head.uri);
+        }
+        return due;
+    }
+
+    /**
+     * Calls <code>callback</code> on <code>executor</code> with the due objects whenever the earliest tracked
+     * state change has passed.
+     */
+    public synchronized void start(ScheduledExecutorService executor, Consumer<Set<URI>> callback) {
+        Validate.notNull(executor, "executor is required");
+        Validate.notNull(callback, "callback is required");
+        Validate.isTrue(this.executor == null, "scheduler is already started");
+        this.executor = executor;
+        this.callback = callback;
+        rearm();
+    }
+
+    public synchronized void stop() {
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        wakeUp = null;
+        wakeUpTime = null;
+        executor = null;
+        callback = null;
+    }
+
+    private Entry head() {
+        Entry head = queue.peek();
+        while (head != null && entries.get(head.uri) != head) {
+            queue.poll();
+            head = queue.peek();
+        }
+        return head;
+    }
+
+    private void compact() {
+        if (queue.size() > 2 * entries.size() + COMPACTION_SLACK) {
+            queue.clear();
+            queue.addAll(entries.values());
+        }
+    }
+
+    private void rearm() {
+        if (executor == null) {
+            return;
+        }
+        Entry head = head();
+        DateTime next = head == null ? null : new DateTime(head.time, DateTimeZone.UTC);
+        if (next == null || (wakeUpTime != null && !next.isBefore(wakeUpTime))) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        wakeUpTime = next;
+        long delay = Math.max(0, next.getMillis() - UTC.dateTime().getMillis());
+        wakeUp = executor.schedule(this::fire, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire() {
+        Set<URI> due;
+        Consumer<Set<URI>> target;
+        synchronized (this) {
+            wakeUp = null;
+            wakeUpTime = null;
+            target = callback;
+            due = pollDue(UTC.dateTime());
+        }
+        try {
+            if (target != null && !due.isEmpty()) {
+                target.accept(due);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("revalidation of " + due.size() + " objects failed", e);
+        } finally {
+            synchronized (this) {
+                rearm();
+            }
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final URI uri;
+        private final long time;
+
+        private Entry(URI uri, long time) {
+            this.uri = uri;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(time, o.time);
+        }
+    }
+}
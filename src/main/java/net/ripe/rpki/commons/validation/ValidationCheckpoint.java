@@ -0,0 +1,260 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateParser;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import net.ripe.rpki.commons.validation.roa.VrpSetFile;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Validated state written by a {@link ValidationCheckpointWriter}, used to warm-restart validation.
+ * <p>
+ * Context records are read sequentially and decoded in parallel, which is dominated by parsing the CA
+ * certificates of the validation contexts. The per object results are kept in the
+ * {@link ValidationDependencyGraph} of the checkpointed run: {@link #findRevalidationNeeded(Map, DateTime)}
+ * uses it to determine which objects must be validated again, and the results of all other objects can be
+ * taken from the checkpoint with {@link #addValidationResults(ValidationResult)}.
+ */
+public final class ValidationCheckpoint {
+
+    private final DateTime created;
+
+    private final Map<URI, CertificateRepositoryObjectValidationContext> contexts;
+
+    private final ValidationDependencyGraph graph;
+
+    private final VrpSet vrps;
+
+    private ValidationCheckpoint(DateTime created, Map<URI, CertificateRepositoryObjectValidationContext> contexts, ValidationDependencyGraph graph, VrpSet vrps) {
+        this.created = created;
+        this.contexts = Collections.unmodifiableMap(contexts);
+        this.graph = graph;
+        this.vrps = vrps;
+    }
+
+    public static boolean exists(File directory) {
+        return new File(directory, ValidationCheckpointWriter.LOG_FILE).isFile();
+    }
+
+    /**
+     * @throws ValidationCheckpointException when the checkpoint is missing, incomplete or corrupted.
+     */
+    public static ValidationCheckpoint load(File directory) {
+        File log = new File(directory, ValidationCheckpointWriter.LOG_FILE);
+        List<Record> records = new ArrayList<Record>();
+        long created;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log), 64 * 1024))) {
+            if (in.readInt() != ValidationCheckpointWriter.MAGIC) {
+                throw new ValidationCheckpointException(log + " is not a validation checkpoint");
+            }
+            int version = in.readInt();
+            if (version != ValidationCheckpointWriter.VERSION) {
+                throw new ValidationCheckpointException(log + " has unsupported version " + version);
+            }
+            created = in.readLong();
+            CRC32 crc = new CRC32();
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new ValidationCheckpointException(log + " has a record with invalid length");
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if (in.readInt() != (int) crc.getValue()) {
+                    throw new ValidationCheckpointException(log + " has a record with an invalid checksum");
+                }
+                records.add(new Record((byte) type, payload));
+            }
+        } catch (EOFException e) {
+            throw new ValidationCheckpointException(log + " is truncated", e);
+        } catch (IOException e) {
+            throw new ValidationCheckpointException("could not read checkpoint " + log, e);
+        }
+        if (records.isEmpty() || records.get(records.size() - 1).type != ValidationCheckpointWriter.COMMIT_RECORD) {
+            throw new ValidationCheckpointException(log + " is not committed");
+        }
+        DataInputStream commit = records.remove(records.size() - 1).input();
+        String graphFileName = readString(commit);
+        String vrpFileName = readString(commit);
+
+        Map<URI, CertificateRepositoryObjectValidationContext> contexts = new ConcurrentHashMap<URI, CertificateRepositoryObjectValidationContext>();
+        records.parallelStream().forEach(record -> {
+            if (record.type != ValidationCheckpointWriter.CONTEXT_RECORD) {
+                throw new ValidationCheckpointException(log + " has a record of unknown type " + record.type);
+            }
+            CertificateRepositoryObjectValidationContext context = decodeContext(record.input());
+            contexts.put(context.getLocation(), context);
+        });
+        ValidationDependencyGraph graph;
+        try {
+            graph = ValidationDependencyGraph.readFrom(new File(directory, graphFileName));
+        } catch (ValidationDependencyGraphException e) {
+            throw new ValidationCheckpointException("could not read checkpoint " + log, e);
+        }
+        VrpSet vrps = VrpSetFile.map(new File(directory, vrpFileName));
+        return new ValidationCheckpoint(new DateTime(created), new HashMap<URI, CertificateRepositoryObjectValidationContext>(contexts), graph, vrps);
+    }
+
+    public DateTime getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the validation contexts of the validated CA certificates, by certificate location.
+     */
+    public Map<URI, CertificateRepositoryObjectValidationContext> getContexts() {
+        return contexts;
+    }
+
+    /**
+     * @return the dependency graph of the checkpointed run, to continue recording validation results in.
+     */
+    public ValidationDependencyGraph getGraph() {
+        return graph;
+    }
+
+    public VrpSet getVrps() {
+        return vrps;
+    }
+
+    public Set<URI> getUris() {
+        return graph.getUris();
+    }
+
+    /**
+     * @return the SHA-256 hash of the object validated at <code>uri</code>, or null.
+     */
+    public byte[] getHash(URI uri) {
+        return graph.getHash(uri);
+    }
+
+    /**
+     * Adds the recorded checks of all objects in the checkpoint that have no checks in <code>result</code> yet.
+     */
+    public void addValidationResults(ValidationResult result) {
+        graph.addCachedResults(result);
+    }
+
+    /**
+     * Adds the recorded checks of the objects in <code>uris</code> to <code>result</code>.
+     */
+    public void addValidationResults(ValidationResult result, Set<URI> uris) {
+        for (URI uri : uris) {
+            graph.addCachedResult(uri, result);
+        }
+    }
+
+    /**
+     * Determines the objects that must be validated again: objects that changed, appeared or disappeared since
+     * the checkpoint was written, objects whose validity may have changed by <code>now</code>, and everything
+     * that depends on those, see {@link ValidationDependencyGraph#findAffected(java.util.Collection)}.
+     *
+     * @param currentHashes the SHA-256 hashes of the objects currently in the repositories, by location.
+     */
+    public Set<URI> findRevalidationNeeded(Map<URI, byte[]> currentHashes, DateTime now) {
+        Validate.notNull(currentHashes, "current hashes are required");
+        Set<URI> changed = graph.findChangedHashes(currentHashes);
+        changed.addAll(graph.findExpired(now));
+        return graph.findAffected(changed);
+    }
+
+    private static CertificateRepositoryObjectValidationContext decodeContext(DataInputStream in) {
+        try {
+            URI location = URI.create(readString(in));
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            IpResourceSet resources = IpResourceSet.parse(readString(in));
+            int chainLength = in.readInt();
+            List<String> subjectChain = new ArrayList<String>(chainLength);
+            for (int i = 0; i < chainLength; i++) {
+                subjectChain.add(readString(in));
+            }
+            X509ResourceCertificateParser parser = new X509ResourceCertificateParser();
+            parser.parse(ValidationResult.withLocation(location), encoded);
+            if (!parser.isSuccess()) {
+                throw new ValidationCheckpointException("checkpoint contains an invalid certificate for " + location);
+            }
+            X509ResourceCertificate certificate = parser.getCertificate();
+            return new CertificateRepositoryObjectValidationContext(location, certificate, resources, subjectChain);
+        } catch (IOException e) {
+            throw new ValidationCheckpointException("invalid context record in checkpoint", e);
+        }
+    }
+
+    private static String readString(DataInputStream in) {
+        try {
+            return ValidationDependencyGraph.readString(in);
+        } catch (IOException e) {
+            throw new ValidationCheckpointException("invalid string in checkpoint", e);
+        }
+    }
+
+    private static final class Record {
+        private final byte type;
+        private final byte[] payload;
+
+        private Record(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        private DataInputStream input() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+    }
+}
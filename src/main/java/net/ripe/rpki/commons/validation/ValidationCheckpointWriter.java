@@ -0,0 +1,210 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import net.ripe.rpki.commons.validation.roa.VrpSetFile;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTimeUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a {@link ValidationCheckpoint} while a validation run progresses.
+ * <p>
+ * Validation contexts are appended to a temporary log as they are added, so they never have to be kept in
+ * memory. The per object results are those of the {@link ValidationDependencyGraph} of the run:
+ * {@link #finish(ValidationDependencyGraph, VrpSet)} writes the graph and the VRP set next to the log, appends a
+ * commit record naming them and then atomically replaces the previous checkpoint; a run that is aborted or
+ * crashes leaves the previous checkpoint in place.
+ * <p>
+ * The log starts with a header (magic "RVCP", version, creation time) followed by records of type (1 byte),
+ * payload length (4 bytes), payload and the CRC32 of the payload (4 bytes).
+ */
+public class ValidationCheckpointWriter implements Closeable {
+
+    static final int MAGIC = 0x52564350; // "RVCP"
+    static final int VERSION = 2;
+    static final String LOG_FILE = "checkpoint.log";
+
+    static final byte CONTEXT_RECORD = 1;
+    static final byte COMMIT_RECORD = 2;
+
+    private final File directory;
+
+    private final File temp;
+
+    private final DataOutputStream out;
+
+    private final long created;
+
+    private final CRC32 crc = new CRC32();
+
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+    private boolean done;
+
+    public ValidationCheckpointWriter(File directory) {
+        Validate.notNull(directory, "directory is required");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ValidationCheckpointException("could not create " + directory);
+        }
+        this.directory = directory;
+        this.temp = new File(directory, LOG_FILE + ".tmp");
+        this.created = DateTimeUtils.currentTimeMillis();
+        try {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(created);
+        } catch (IOException e) {
+            throw new ValidationCheckpointException("could not create checkpoint " + temp, e);
+        }
+    }
+
+    /**
+     * Adds the validation context of a validated CA certificate, with its effective resources.
+     */
+    public synchronized void addContext(CertificateRepositoryObjectValidationContext context) {
+        DataOutputStream record = startRecord();
+        try {
+            ValidationDependencyGraph.writeString(record, context.getLocation().toString());
+            byte[] encoded = context.getCertificate().getEncoded();
+            record.writeInt(encoded.length);
+            record.write(encoded);
+            ValidationDependencyGraph.writeString(record, context.getResources().toString());
+            record.writeInt(context.getSubjectChain().size());
+            for (String subject : context.getSubjectChain()) {
+                ValidationDependencyGraph.writeString(record, subject);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        writeRecord(CONTEXT_RECORD);
+    }
+
+    /**
+     * Writes buffered records to the log.
+     */
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new ValidationCheckpointException("could not write checkpoint " + temp, e);
+        }
+    }
+
+    /**
+     * Completes the checkpoint with the validated objects recorded in <code>graph</code> and with
+     * <code>vrps</code>, and makes it the current checkpoint of the directory.
+     */
+    public synchronized void finish(ValidationDependencyGraph graph, VrpSet vrps) {
+        Validate.isTrue(!done, "checkpoint is already finished or closed");
+        String graphFileName = "graph-" + created + ".bin";
+        String vrpFileName = "vrps-" + created + ".bin";
+        try {
+            graph.writeTo(new File(directory, graphFileName));
+        } catch (ValidationDependencyGraphException e) {
+            throw new ValidationCheckpointException("could not write checkpoint " + temp, e);
+        }
+        VrpSetFile.write(vrps, new File(directory, vrpFileName));
+        DataOutputStream record = startRecord();
+        try {
+            ValidationDependencyGraph.writeString(record, graphFileName);
+            ValidationDependencyGraph.writeString(record, vrpFileName);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        writeRecord(COMMIT_RECORD);
+        try {
+            out.close();
+            Files.move(temp.toPath(), new File(directory, LOG_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new ValidationCheckpointException("could not complete checkpoint " + temp, e);
+        }
+        done = true;
+        File[] obsolete = directory.listFiles((dir, name) -> (name.startsWith("vrps-") || name.startsWith("graph-")) && name.endsWith(".bin")
+                && !name.equals(vrpFileName) && !name.equals(graphFileName));
+        for (File file : obsolete == null ? new File[0] : obsolete) {
+            if (!file.delete()) {
+                throw new ValidationCheckpointException("could not delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Discards the checkpoint unless it was finished.
+     */
+    @Override
+    public synchronized void close() {
+        if (done) {
+            return;
+        }
+        done = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Discarded anyway.
+        }
+        if (!temp.delete() && temp.exists()) {
+            throw new ValidationCheckpointException("could not delete " + temp);
+        }
+    }
+
+    private DataOutputStream startRecord() {
+        Validate.isTrue(!done, "checkpoint is already finished or closed");
+        payload.reset();
+        return new DataOutputStream(payload);
+    }
+
+    private void writeRecord(byte type) {
+        byte[] bytes = payload.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        try {
+            out.writeByte(type);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new ValidationCheckpointException("could not write checkpoint " + temp, e);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records, for every validated object, the content hash, the validation checks, the time its validity may
+ * change without the object changing, and the objects its validity depends on: the issuing certificate, the
+ * CRL and the manifest. The graph is built as a side product of validation (see
+ * {@link PublicationPointValidator}) and can be persisted between runs, on its own or as part of a
+ * {@link ValidationCheckpoint}.
+ * <p>
+ * When repository content changes, {@link #findChanged(Map)} and {@link #findAffected(Collection)} give the
+ * minimal set of objects whose validation outcome may differ: the changed objects and, transitively, every
+ * object that depends on them. All other objects can reuse their recorded checks, see
+ * {@link #addCachedResults(ValidationResult)}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ValidationDependencyGraph {
+
+    static final int MAGIC = 0x52564447; // "RVDG"
+    static final int VERSION = 3;
+
+    private final Map<URI, Node> nodes = new ConcurrentHashMap<URI, Node>();
+
+    private final Map<URI, Set<URI>> dependents = new ConcurrentHashMap<URI, Set<URI>>();
+
+    /**
+     * Records the outcome of validating the object at <code>uri</code>, replacing any earlier record.
+     *
+     * @param content  the encoded object, only its SHA-256 hash is kept.
+     * @param issuer   location of the issuing certificate, or null for trust anchors.
+     * @param crl      location of the CRL the object was checked against, or null.
+     * @param manifest location of the manifest listing the object, or null.
+     * @param checks   the validation checks for the location of the object.
+     */
+    public void record(URI uri, byte[] content, URI issuer, URI crl, URI manifest, List<ValidationCheck> checks) {
+        record(uri, content, issuer, crl, manifest, checks, null);
+    }
+
+    /**
+     * @param nextStateChange the time the validity of the object may change without the object changing, or
+     *                        null, see {@link RevalidationScheduler#nextStateChange}.
+     */
+    public void record(URI uri, byte[] content, URI issuer, URI crl, URI manifest, List<ValidationCheck> checks, DateTime nextStateChange) {
+        Validate.notNull(uri, "uri is required");
+        Validate.notNull(content, "content is required");
+        put(new Node(uri, ManifestCms.hashContents(content), issuer, crl, manifest, new ArrayList<ValidationCheck>(checks),
+                nextStateChange == null ? -1 : nextStateChange.getMillis()));
+    }
+
+    public synchronized void remove(URI uri) {
+        Node old = nodes.remove(uri);
+        if (old != null) {
+            for (URI dependency : old.getDependencies()) {
+                Set<URI> set = dependents.get(dependency);
+                if (set != null) {
+                    set.remove(uri);
+                }
+            }
+        }
+    }
+
+    public boolean contains(URI uri) {
+        return nodes.containsKey(uri);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public Set<URI> getUris() {
+        return Collections.unmodifiableSet(new HashSet<URI>(nodes.keySet()));
+    }
+
+    /**
+     * @return the SHA-256 hash of the recorded object, or null when it was not recorded.
+     */
+    public byte[] getHash(URI uri) {
+        Node node = nodes.get(uri);
+        return node == null ? null : node.hash.clone();
+    }
+
+    /**
+     * @return true if the object was recorded without validation failures.
+     */
+    public boolean isValid(URI uri) {
+        Node node = nodes.get(uri);
+        return node != null && node.isValid();
+    }
+
+    /**
+     * @return the recorded checks of the object, or an empty list when it was not recorded.
+     */
+    public List<ValidationCheck> getChecks(URI uri) {
+        Node node = nodes.get(uri);
+        return node == null ? Collections.<ValidationCheck>emptyList() : Collections.unmodifiableList(node.checks);
+    }
+
+    /**
+     * @return the recorded objects that directly depend on <code>uri</code> as issuer, CRL or manifest.
+     */
+    public Set<URI> getDependents(URI uri) {
+        Set<URI> set = dependents.get(uri);
+        return set == null ? Collections.<URI>emptySet() : Collections.unmodifiableSet(new HashSet<URI>(set));
+    }
+
+    /**
+     * Compares a repository snapshot with the recorded content hashes.
+     *
+     * @return the URIs of objects that are new, modified, or recorded but no longer present in <code>files</code>.
+     */
+    public Set<URI> findChanged(Map<URI, byte[]> files) {
+        Map<URI, byte[]> hashes = new HashMap<URI, byte[]>();
+        for (Map.Entry<URI, byte[]> entry : files.entrySet()) {
+            hashes.put(entry.getKey(), ManifestCms.hashContents(entry.getValue()));
+        }
+        return findChangedHashes(hashes);
+    }
+
+    /**
+     * Like {@link #findChanged(Map)}, for a snapshot given as SHA-256 hashes of the objects, e.g. from an
+     * {@link net.ripe.rpki.commons.store.ObjectStore}.
+     */
+    public Set<URI> findChangedHashes(Map<URI, byte[]> hashes) {
+        Set<URI> changed = new HashSet<URI>();
+        for (Map.Entry<URI, byte[]> entry : hashes.entrySet()) {
+            Node node = nodes.get(entry.getKey());
+            if (node == null || !Arrays.equals(node.hash, entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (URI uri : nodes.keySet()) {
+            if (!hashes.containsKey(uri)) {
+                changed.add(uri);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the URIs of the recorded objects whose validity may have changed by <code>now</code>.
+     */
+    public Set<URI> findExpired(DateTime now) {
+        Set<URI> expired = new HashSet<URI>();
+        for (Node node : nodes.values()) {
+            if (node.nextStateChange >= 0 && node.nextStateChange <= now.getMillis()) {
+                expired.add(node.uri);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return the URIs of the recorded objects whose content has one of the given SHA-256 hashes.
+     */
+    public Set<URI> findByHashes(Collection<byte[]> hashes) {
+        Set<URI> result = new HashSet<URI>();
+        for (Node node : nodes.values()) {
+            for (byte[] hash : hashes) {
+                if (Arrays.equals(node.hash, hash)) {
+                    result.add(node.uri);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return <code>changed</code> together with all recorded objects that directly or transitively depend on
+     * any of them. These are the objects that must be revalidated.
+     */
+    public Set<URI> findAffected(Collection<URI> changed) {
+        Set<URI> affected = new HashSet<URI>(changed);
+        Deque<URI> todo = new ArrayDeque<URI>(changed);
+        while (!todo.isEmpty()) {
+            Set<URI> set = dependents.get(todo.pop());
+            if (set != null) {
+                for (URI dependent : set) {
+                    if (affected.add(dependent)) {
+                        todo.push(dependent);
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Adds the recorded checks of every object that has no checks in <code>result</code> yet. Call this after
+     * revalidating the affected objects to complete the result with the cached outcome of all others.
+     */
+    public void addCachedResults(ValidationResult result) {
+        Set<ValidationLocation> validated = new HashSet<ValidationLocation>(result.getValidatedLocations());
+        for (Node node : nodes.values()) {
+            ValidationLocation location = new ValidationLocation(node.uri);
+            if (!validated.contains(location)) {
+                addCachedResult(node, location, result);
+            }
+        }
+    }
+
+    /**
+     * Adds the recorded checks of the object at <code>uri</code> to <code>result</code>.
+     *
+     * @return false if the object was not recorded.
+     */
+    public boolean addCachedResult(URI uri, ValidationResult result) {
+        Node node = nodes.get(uri);
+        if (node == null) {
+            return false;
+        }
+        addCachedResult(node, new ValidationLocation(uri), result);
+        return true;
+    }
+
+    private static void addCachedResult(Node node, ValidationLocation location, ValidationResult result) {
+        for (ValidationCheck check : node.checks) {
+            result.addCheck(location, check);
+        }
+    }
+
+    /**
+     * Writes the graph to a temporary file next to <code>file</code> which is then atomically moved into place.
+     */
+    public void writeTo(File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            List<Node> snapshot = new ArrayList<Node>(nodes.values());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Node node : snapshot) {
+                writeString(out, node.uri.toString());
+                out.write(node.hash);
+                writeUri(out, node.issuer);
+                writeUri(out, node.crl);
+                writeUri(out, node.manifest);
+                out.writeLong(node.nextStateChange);
+                out.writeInt(node.checks.size());
+                for (ValidationCheck check : node.checks) {
+                    out.writeByte(check.getStatus().ordinal());
+                    writeString(out, check.getKey());
+                    String[] params = check.getParams() == null ? new String[0] : check.getParams();
+                    out.writeInt(params.length);
+                    for (String param : params) {
+                        writeString(out, param);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ValidationDependencyGraphException("could not write validation dependency graph to " + temp, e);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new ValidationDependencyGraphException("could not move " + temp + " to " + file, e);
+        }
+    }
+
+    public static ValidationDependencyGraph readFrom(File file) {
+        ValidationDependencyGraph graph = new ValidationDependencyGraph();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new ValidationDependencyGraphException(file + " is not a validation dependency graph");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new ValidationDependencyGraphException(file + " has unsupported version " + version);
+            }
+            int count = in.readInt();
+            ValidationStatus[] statuses = ValidationStatus.values();
+            for (int i = 0; i < count; i++) {
+                URI uri = URI.create(readString(in));
+                byte[] hash = new byte[32];
+                in.readFully(hash);
+                URI issuer = readUri(in);
+                URI crl = readUri(in);
+                URI manifest = readUri(in);
+                long nextStateChange = in.readLong();
+                int checkCount = in.readInt();
+                List<ValidationCheck> checks = new ArrayList<ValidationCheck>(checkCount);
+                for (int j = 0; j < checkCount; j++) {
+                    ValidationStatus status = statuses[in.readUnsignedByte()];
+                    String key = readString(in);
+                    String[] params = new String[in.readInt()];
+                    for (int k = 0; k < params.length; k++) {
+                        params[k] = readString(in);
+                    }
+                    checks.add(new ValidationCheck(status, key, params));
+                }
+                graph.put(new Node(uri, hash, issuer, crl, manifest, checks, nextStateChange));
+            }
+        } catch (IOException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new ValidationDependencyGraphException("could not read validation dependency graph from " + file, e);
+        }
+        return graph;
+    }
+
+    private synchronized void put(Node node) {
+        remove(node.uri);
+        nodes.put(node.uri, node);
+        for (URI dependency : node.getDependencies()) {
+            dependents.computeIfAbsent(dependency, k -> ConcurrentHashMap.<URI>newKeySet()).add(node.uri);
+        }
+    }
+
+    private static void writeUri(DataOutputStream out, URI uri) throws IOException {
+        writeString(out, uri == null ? null : uri.toString());
+    }
+
+    private static URI readUri(DataInputStream in) throws IOException {
+        String value = readString(in);
+        return value == null ? null : URI.create(value);
+    }
+
+    /**
+     * Writes a nullable string as length and UTF-8 bytes, without the 64KB limit of
+     * {@link DataOutputStream#writeUTF(String)} that long check parameters would exceed.
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < -1) {
+            throw new IOException("invalid string length " + length);
+        }
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Node {
+        private final URI uri;
+        private final byte[] hash;
+        private final URI issuer;
+        private final URI crl;
+        private final URI manifest;
+        private final List<ValidationCheck> checks;
+        private final long nextStateChange;
+
+        private Node(URI uri, byte[] hash, URI issuer, URI crl, URI manifest, List<ValidationCheck> checks, long nextStateChange) {
+            this.uri = uri;
+            this.hash = hash;
+            this.issuer = issuer;
+            this.crl = crl;
+            this.manifest = manifest;
+            this.checks = checks;
+            this.nextStateChange = nextStateChange;
+        }
+
+        private boolean isValid() {
+            for (ValidationCheck check : checks) {
+                if (!check.isOk()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private List<URI> getDependencies() {
+            List<URI> result = new ArrayList<URI>(3);
+            for (URI dependency : new URI[]{issuer, crl, manifest}) {
+                if (dependency != null && !dependency.equals(uri) && !result.contains(dependency)) {
+                    result.add(dependency);
+                }
+            }
+            return result;
+        }
+    }
+}
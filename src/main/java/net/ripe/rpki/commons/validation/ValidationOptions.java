@@ -29,16 +29,38 @@
  */
 package net.ripe.rpki.commons.validation;
 
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import org.apache.commons.lang.Validate;
+
+import java.util.EnumMap;
+import java.util.Map;
 
 /**
  * User controlled options to use when validating objects.
  */
 public class ValidationOptions {
 
+    public static final int DEFAULT_MAX_ASN1_NESTING_DEPTH = 32;
+
+    private static final int MB = 1024 * 1024;
+
     private int maxStaleDays = 0;
 
     private boolean looseValidationEnabled = false;
 
+    private final Map<RepositoryObjectType, Integer> maxObjectSizes = new EnumMap<RepositoryObjectType, Integer>(RepositoryObjectType.class);
+
+    private int maxAsn1NestingDepth = DEFAULT_MAX_ASN1_NESTING_DEPTH;
+
+    public ValidationOptions() {
+        maxObjectSizes.put(RepositoryObjectType.Manifest, 32 * MB);
+        maxObjectSizes.put(RepositoryObjectType.Crl, 32 * MB);
+        maxObjectSizes.put(RepositoryObjectType.Certificate, 4 * MB);
+        maxObjectSizes.put(RepositoryObjectType.Roa, 4 * MB);
+        maxObjectSizes.put(RepositoryObjectType.Gbr, 64 * 1024);
+        maxObjectSizes.put(RepositoryObjectType.Unknown, 32 * MB);
+    }
+
     public void setMaxStaleDays(int maxStaleDays) {
         this.maxStaleDays = maxStaleDays;
     }
@@ -54,4 +76,30 @@ public class ValidationOptions {
     public void setLooseValidationEnabled(boolean looseValidationEnabled) {
         this.looseValidationEnabled = looseValidationEnabled;
     }
+
+    /**
+     * @return the maximum size in bytes of an object of <code>type</code>. For signed objects this limits both the
+     * encoded object and its decoded content.
+     */
+    public int getMaxObjectSize(RepositoryObjectType type) {
+        return maxObjectSizes.get(type);
+    }
+
+    public void setMaxObjectSize(RepositoryObjectType type, int maxObjectSize) {
+        Validate.notNull(type, "type is required");
+        Validate.isTrue(maxObjectSize > 0, "maximum object size must be positive");
+        maxObjectSizes.put(type, maxObjectSize);
+    }
+
+    /**
+     * @return the maximum number of nested constructed ASN.1 values in decoded content and resource extensions.
+     */
+    public int getMaxAsn1NestingDepth() {
+        return maxAsn1NestingDepth;
+    }
+
+    public void setMaxAsn1NestingDepth(int maxAsn1NestingDepth) {
+        Validate.isTrue(maxAsn1NestingDepth > 0, "maximum nesting depth must be positive");
+        this.maxAsn1NestingDepth = maxAsn1NestingDepth;
+    }
 }
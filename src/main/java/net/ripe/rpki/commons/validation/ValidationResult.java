@@ -74,16 +74,18 @@ public final class ValidationResult implements Serializable {
     public ValidationResult setLocation(ValidationLocation location) {
         currentLocation = location;
 
-        if (!results.containsKey(currentLocation)) {
-            Map<ValidationStatus, List<ValidationCheck>> locationResults = new TreeMap<>();
-            locationResults.put(ValidationStatus.ERROR, new ArrayList<>());
-            locationResults.put(ValidationStatus.WARNING, new ArrayList<>());
-            locationResults.put(ValidationStatus.PASSED, new ArrayList<>());
-            results.put(currentLocation, locationResults);
-        }
+        results.computeIfAbsent(currentLocation, k -> newLocationResults());
         return this;
     }
 
+    private static Map<ValidationStatus, List<ValidationCheck>> newLocationResults() {
+        Map<ValidationStatus, List<ValidationCheck>> locationResults = new TreeMap<>();
+        locationResults.put(ValidationStatus.ERROR, new ArrayList<>());
+        locationResults.put(ValidationStatus.WARNING, new ArrayList<>());
+        locationResults.put(ValidationStatus.PASSED, new ArrayList<>());
+        return locationResults;
+    }
+
     private ValidationResult setValidationCheckForCurrentLocation(ValidationStatus status, String key, String... param) {
         Map<ValidationStatus, List<ValidationCheck>> currentResults = results.get(currentLocation);
         List<ValidationCheck> checksForStatus = currentResults.get(status);
@@ -91,6 +93,16 @@ public final class ValidationResult implements Serializable {
         return this;
     }
 
+    /**
+     * Adds a check for <code>location</code> without changing the current location.
+     */
+    ValidationResult addCheck(ValidationLocation location, ValidationCheck check) {
+        results.computeIfAbsent(location, k -> newLocationResults())
+                .computeIfAbsent(check.getStatus(), k -> new ArrayList<>())
+                .add(check);
+        return this;
+    }
+
     public ValidationResult pass(String key, String... param) {
         setValidationCheckForCurrentLocation(ValidationStatus.PASSED, key, param);
         return this;
@@ -44,6 +44,8 @@ public final class ValidationString {
     public static final String OBJECTS_GENERAL_PARSING = "objects.general.parsing";
     public static final String OBJECTS_CRL_VALID = "objects.crl.valid";
     public static final String KNOWN_OBJECT_TYPE = "known.object.type";
+    public static final String OBJECTS_SIZE_LIMIT = "objects.size.limit";
+    public static final String OBJECTS_NESTING_LIMIT = "objects.nesting.limit";
 
     // Trust anchor
     public static final String TRUST_ANCHOR_PUBLIC_KEY_MATCH = "trust.anchor.public.key.match";
@@ -216,6 +218,7 @@ public final class ValidationString {
     public static final String VALIDATOR_OLD_LOCAL_MANIFEST_REPOSITORY_FAILED = "validator.old.local.manifest.repository.failed";
     public static final String VALIDATOR_NO_LOCAL_MANIFEST_NO_MANIFEST_IN_REPOSITORY = "validator.no.local.manifest.no.manifest.in.repository";
     public static final String VALIDATOR_NO_MANIFEST_REPOSITORY_FAILED = "validator.no.manifest.repository.failed";
+    public static final String VALIDATOR_MANIFEST_LAST_KNOWN_GOOD_USED = "validator.manifest.last.known.good.used";
 
     // Problems with repository
     public static final String VALIDATOR_REPOSITORY_INCOMPLETE = "validator.repository.incomplete";
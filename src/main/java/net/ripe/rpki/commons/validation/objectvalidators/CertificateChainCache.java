@@ -0,0 +1,264 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.objectvalidators;
+
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObjectFile;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.ValidationLocation;
+import org.bouncycastle.util.encoders.Hex;
+import org.joda.time.DateTime;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe cache of CA certificates whose chain up to a trust anchor was validated without failures by a
+ * {@link X509ResourceCertificateBottomUpValidator}, keyed by subject key identifier.
+ * <p>
+ * An entry holds the parsed certificate, its encoding, its derived (inherited) resources and the trust
+ * anchor at the top of its chain, so validating another certificate issued by a cached CA only requires
+ * checking that last hop. An entry is only used while the locator still returns exactly the same encoded
+ * parent certificate for every certificate in its chain, and never after the earliest expiry or CRL next
+ * update time of any certificate in its chain. Every entry also records the SHA-256 hash of the CRL it was
+ * checked against, and is only used while the locator returns that same CRL for every certificate in its
+ * chain, so a CA revoked by a newer CRL is validated again. Content found to match is remembered by
+ * reference, so a locator returning the same content again is not hashed or compared again. The most recent
+ * CRL issued by a cached CA is kept in parsed form as well.
+ * <p>
+ * Validation outcomes depend on the {@link net.ripe.rpki.commons.validation.ValidationOptions} used, so a
+ * cache must only be shared between validators using the same options.
+ */
+public class CertificateChainCache {
+
+    private final ConcurrentMap<String, VerifiedCertificate> entries = new ConcurrentHashMap<String, VerifiedCertificate>();
+
+    /**
+     * @return the verified parent certificate of <code>certificate</code> with the given encoding, or
+     * <code>null</code> when not cached, expired, the encoding differs or a certificate or CRL in its chain
+     * changed.
+     */
+    VerifiedCertificate findParent(X509ResourceCertificate certificate, byte[] encodedParent, ResourceCertificateLocator locator) {
+        byte[] aki = certificate.getAuthorityKeyIdentifier();
+        if (aki == null) {
+            return null;
+        }
+        VerifiedCertificate entry = entries.get(Hex.toHexString(aki));
+        if (entry == null || !Arrays.equals(entry.getEncoded(), encodedParent)) {
+            return null;
+        }
+        if (!UTC.dateTime().isBefore(entry.getValidUntil()) || !entry.isChainCurrent(locator)) {
+            entries.remove(entry.getKey(), entry);
+            return null;
+        }
+        return entry;
+    }
+
+    VerifiedCertificate put(VerifiedCertificate entry) {
+        if (entry.getKey() != null) {
+            entries.put(entry.getKey(), entry);
+        }
+        return entry;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    static final class VerifiedCertificate {
+        private final String key;
+        private final X509ResourceCertificate certificate;
+        private final byte[] encoded;
+        private final ValidationLocation location;
+        private final IpResourceSet resources;
+        private final X509ResourceCertificate trustAnchor;
+        private final ValidationLocation trustAnchorLocation;
+        private final int chainLength;
+        private final DateTime validUntil;
+        private final VerifiedCertificate issuer;
+        private final byte[] issuerCrlHash;
+        private volatile byte[] matchedParentContent;
+        private volatile byte[] matchedCrlContent;
+        private volatile CachedCrl crl;
+
+        private VerifiedCertificate(X509ResourceCertificate certificate, ValidationLocation location, IpResourceSet resources,
+                                    X509ResourceCertificate trustAnchor, ValidationLocation trustAnchorLocation, int chainLength, DateTime validUntil,
+                                    VerifiedCertificate issuer, byte[] issuerCrlHash) {
+            byte[] ski = certificate.getSubjectKeyIdentifier();
+            this.key = ski == null ? null : Hex.toHexString(ski);
+            this.certificate = certificate;
+            this.encoded = certificate.getEncoded();
+            this.location = location;
+            this.resources = resources;
+            this.trustAnchor = trustAnchor;
+            this.trustAnchorLocation = trustAnchorLocation;
+            this.chainLength = chainLength;
+            this.validUntil = validUntil;
+            this.issuer = issuer;
+            this.issuerCrlHash = issuerCrlHash;
+        }
+
+        static VerifiedCertificate root(X509ResourceCertificate root, ValidationLocation location) {
+            return new VerifiedCertificate(root, location, root.getResources(), root, location, 1, root.getValidityPeriod().getNotValidAfter(), null, null);
+        }
+
+        /**
+         * @return the entry for <code>child</code>, validated against this certificate and <code>crl</code>.
+         */
+        VerifiedCertificate child(X509ResourceCertificate child, ValidationLocation childLocation, IpResourceSet childResources, X509Crl crl) {
+            DateTime until = earliest(validUntil, child.getValidityPeriod().getNotValidAfter());
+            if (crl != null && crl.getNextUpdateTime() != null) {
+                until = earliest(until, crl.getNextUpdateTime());
+            }
+            return new VerifiedCertificate(child, childLocation, childResources, trustAnchor, trustAnchorLocation, chainLength + 1, until,
+                    this, crl == null ? null : sha256(crl.getEncoded()));
+        }
+
+        /**
+         * @return true if the locator still returns the parent certificate and the CRL each certificate in the
+         * chain was checked against.
+         */
+        boolean isChainCurrent(ResourceCertificateLocator locator) {
+            for (VerifiedCertificate entry = this; entry.issuer != null; entry = entry.issuer) {
+                if (!entry.isParentCurrent(locator.findParent(entry.certificate)) || !entry.isCrlCurrent(locator.findCrl(entry.certificate))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isParentCurrent(CertificateRepositoryObjectFile<X509ResourceCertificate> parentFile) {
+            if (parentFile == null) {
+                return false;
+            }
+            byte[] content = parentFile.getContent();
+            if (content != matchedParentContent) {
+                if (!Arrays.equals(content, issuer.encoded)) {
+                    return false;
+                }
+                matchedParentContent = content;
+            }
+            return true;
+        }
+
+        private boolean isCrlCurrent(CertificateRepositoryObjectFile<X509Crl> crlFile) {
+            if (crlFile == null) {
+                return issuerCrlHash == null;
+            }
+            byte[] content = crlFile.getContent();
+            if (content != matchedCrlContent) {
+                if (!Arrays.equals(sha256(content), issuerCrlHash)) {
+                    return false;
+                }
+                matchedCrlContent = content;
+            }
+            return true;
+        }
+
+        /**
+         * @return the parsed CRL for <code>encodedCrl</code> if it is the last CRL seen for this CA.
+         */
+        X509Crl getCrl(byte[] encodedCrl) {
+            CachedCrl cached = crl;
+            return cached != null && Arrays.equals(cached.encoded, encodedCrl) ? cached.crl : null;
+        }
+
+        void setCrl(byte[] encodedCrl, X509Crl parsed) {
+            this.crl = new CachedCrl(encodedCrl, parsed);
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        X509ResourceCertificate getCertificate() {
+            return certificate;
+        }
+
+        byte[] getEncoded() {
+            return encoded;
+        }
+
+        ValidationLocation getLocation() {
+            return location;
+        }
+
+        IpResourceSet getResources() {
+            return resources;
+        }
+
+        X509ResourceCertificate getTrustAnchor() {
+            return trustAnchor;
+        }
+
+        ValidationLocation getTrustAnchorLocation() {
+            return trustAnchorLocation;
+        }
+
+        int getChainLength() {
+            return chainLength;
+        }
+
+        DateTime getValidUntil() {
+            return validUntil;
+        }
+
+        private static DateTime earliest(DateTime a, DateTime b) {
+            return a.isBefore(b) ? a : b;
+        }
+
+        private static byte[] sha256(byte[] content) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(content);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class CachedCrl {
+        private final byte[] encoded;
+        private final X509Crl crl;
+
+        private CachedCrl(byte[] encoded, X509Crl crl) {
+            this.encoded = encoded;
+            this.crl = crl;
+        }
+    }
+}
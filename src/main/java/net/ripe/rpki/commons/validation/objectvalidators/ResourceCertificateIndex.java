@@ -0,0 +1,314 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.objectvalidators;
+
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObjectFile;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.util.RepositoryObjectHeader;
+import net.ripe.rpki.commons.crypto.util.RepositoryObjectHeaderException;
+import net.ripe.rpki.commons.crypto.util.RepositoryObjectHeaderParser;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import org.apache.commons.lang.Validate;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the certificates and CRLs of a local repository, implementing
+ * {@link ResourceCertificateLocator} with hash lookups instead of scans.
+ * <p>
+ * Only the key identifiers of each object are extracted when it is added, with
+ * {@link RepositoryObjectHeaderParser} and without a full parse; RPKI profile validation is left to the
+ * validators. Certificates are indexed by subject key identifier,
+ * certificates and CRLs by the key identifier of their issuer. When several objects match, the one whose
+ * name matches the AIA or CRLDP URI of the certificate is preferred. Objects are identified by name (for
+ * example a path relative to the repository root or an rsync URI), adding an object with a name already in
+ * the index replaces it. All methods are thread-safe.
+ */
+public class ResourceCertificateIndex implements ResourceCertificateLocator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceCertificateIndex.class);
+
+    private final ConcurrentMap<String, IndexedObject> objectsByName = new ConcurrentHashMap<String, IndexedObject>();
+    private final ConcurrentMap<String, Set<IndexedObject>> certificatesBySubjectKey = new ConcurrentHashMap<String, Set<IndexedObject>>();
+    private final ConcurrentMap<String, Set<IndexedObject>> certificatesByIssuerKey = new ConcurrentHashMap<String, Set<IndexedObject>>();
+    private final ConcurrentMap<String, Set<IndexedObject>> crlsByIssuerKey = new ConcurrentHashMap<String, Set<IndexedObject>>();
+
+    /**
+     * Indexes all certificates and CRLs below <code>directory</code> in parallel, named by their path
+     * relative to the directory.
+     */
+    public static ResourceCertificateIndex fromDirectory(File directory) {
+        ResourceCertificateIndex index = new ResourceCertificateIndex();
+        index.addDirectory(directory);
+        return index;
+    }
+
+    public void addDirectory(File directory) {
+        final Path root = directory.toPath();
+        List<Path> paths;
+        try (Stream<Path> files = Files.walk(root)) {
+            paths = files.filter(Files::isRegularFile).filter(path -> isIndexed(path.toString())).collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not list " + directory, e);
+        }
+        paths.parallelStream().forEach(path -> {
+            try {
+                add(root.relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+            } catch (IOException e) {
+                LOG.warn("could not read {}: {}", path, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Indexes <code>files</code> in parallel.
+     */
+    public void addAll(Collection<? extends CertificateRepositoryObjectFile<?>> files) {
+        files.parallelStream().forEach(file -> add(file.getName(), file.getContent()));
+    }
+
+    /**
+     * Adds or replaces the object with the given name.
+     *
+     * @return false if the object is not a certificate or CRL, or its key identifiers can not be extracted.
+     */
+    public boolean add(String name, byte[] content) {
+        Validate.notNull(name, "name is required");
+        Validate.notNull(content, "content is required");
+        IndexedObject object;
+        try {
+            object = IndexedObject.extract(name, content);
+        } catch (RuntimeException e) {
+            LOG.debug("could not index {}: {}", name, e.getMessage());
+            object = null;
+        }
+        if (object == null) {
+            remove(name);
+            return false;
+        }
+        final IndexedObject added = object;
+        objectsByName.compute(name, (key, previous) -> {
+            if (previous != null) {
+                unlink(previous);
+            }
+            link(added);
+            return added;
+        });
+        return true;
+    }
+
+    /**
+     * @return true if an object with this name was indexed.
+     */
+    public boolean remove(String name) {
+        final boolean[] removed = new boolean[1];
+        objectsByName.computeIfPresent(name, (key, previous) -> {
+            unlink(previous);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    public int size() {
+        return objectsByName.size();
+    }
+
+    @Override
+    public CertificateRepositoryObjectFile<X509ResourceCertificate> findParent(X509ResourceCertificate certificate) {
+        byte[] aki = certificate.getAuthorityKeyIdentifier();
+        if (aki == null) {
+            return null;
+        }
+        IndexedObject parent = select(certificatesBySubjectKey.get(Hex.toHexString(aki)), certificate.getParentCertificateUri());
+        return parent == null ? null : new CertificateRepositoryObjectFile<X509ResourceCertificate>(X509ResourceCertificate.class, parent.name, parent.content);
+    }
+
+    @Override
+    public CertificateRepositoryObjectFile<X509Crl> findCrl(X509ResourceCertificate certificate) {
+        byte[] aki = certificate.getAuthorityKeyIdentifier();
+        if (aki == null) {
+            return null;
+        }
+        IndexedObject crl = select(crlsByIssuerKey.get(Hex.toHexString(aki)), certificate.getCrlUri());
+        return crl == null ? null : new CertificateRepositoryObjectFile<X509Crl>(X509Crl.class, crl.name, crl.content);
+    }
+
+    /**
+     * @return the names of the certificates issued by the key with the given subject key identifier.
+     */
+    public List<String> findChildren(byte[] subjectKeyIdentifier) {
+        Set<IndexedObject> children = certificatesByIssuerKey.get(Hex.toHexString(subjectKeyIdentifier));
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>();
+        for (IndexedObject child : children) {
+            result.add(child.name);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private void link(IndexedObject object) {
+        if (object.type == RepositoryObjectType.Crl) {
+            addTo(crlsByIssuerKey, object.authorityKey, object);
+        } else {
+            addTo(certificatesBySubjectKey, object.subjectKey, object);
+            if (!object.isSelfSigned()) {
+                addTo(certificatesByIssuerKey, object.authorityKey, object);
+            }
+        }
+    }
+
+    private void unlink(IndexedObject object) {
+        if (object.type == RepositoryObjectType.Crl) {
+            removeFrom(crlsByIssuerKey, object.authorityKey, object);
+        } else {
+            removeFrom(certificatesBySubjectKey, object.subjectKey, object);
+            removeFrom(certificatesByIssuerKey, object.authorityKey, object);
+        }
+    }
+
+    /**
+     * Adds inside <code>compute</code> so a concurrent {@link #removeFrom} can not drop the set of a key
+     * between looking it up and adding to it.
+     */
+    private static void addTo(ConcurrentMap<String, Set<IndexedObject>> map, String key, IndexedObject object) {
+        if (key != null) {
+            map.compute(key, (k, objects) -> {
+                Set<IndexedObject> result = objects == null ? ConcurrentHashMap.<IndexedObject>newKeySet() : objects;
+                result.add(object);
+                return result;
+            });
+        }
+    }
+
+    private static void removeFrom(ConcurrentMap<String, Set<IndexedObject>> map, String key, IndexedObject object) {
+        if (key != null) {
+            map.computeIfPresent(key, (k, objects) -> {
+                objects.remove(object);
+                return objects.isEmpty() ? null : objects;
+            });
+        }
+    }
+
+    private static IndexedObject select(Set<IndexedObject> candidates, URI preferred) {
+        if (candidates == null) {
+            return null;
+        }
+        IndexedObject result = null;
+        for (IndexedObject candidate : candidates) {
+            if (preferred != null && matches(candidate.name, preferred)) {
+                return candidate;
+            }
+            if (result == null || candidate.name.compareTo(result.name) < 0) {
+                result = candidate;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the name is the URI or a path suffix of it.
+     */
+    static boolean matches(String name, URI uri) {
+        String location = uri.toString();
+        return location.equals(name) || location.endsWith("/" + name);
+    }
+
+    private static boolean isIndexed(String name) {
+        RepositoryObjectType type = RepositoryObjectType.parse(name);
+        return type == RepositoryObjectType.Certificate || type == RepositoryObjectType.Crl;
+    }
+
+    /**
+     * Index entry. Uses identity equality, so a replaced object with the same name is never confused with
+     * its replacement.
+     */
+    private static final class IndexedObject {
+        private final String name;
+        private final RepositoryObjectType type;
+        private final byte[] content;
+        private final String subjectKey;
+        private final String authorityKey;
+
+        private IndexedObject(String name, RepositoryObjectType type, byte[] content, byte[] subjectKey, byte[] authorityKey) {
+            this.name = name;
+            this.type = type;
+            this.content = content;
+            this.subjectKey = subjectKey == null ? null : Hex.toHexString(subjectKey);
+            this.authorityKey = authorityKey == null ? null : Hex.toHexString(authorityKey);
+        }
+
+        /**
+         * @throws RepositoryObjectHeaderException if the content is not a certificate or CRL.
+         */
+        static IndexedObject extract(String name, byte[] content) {
+            RepositoryObjectType type = RepositoryObjectType.parse(name);
+            if (type != RepositoryObjectType.Crl && type != RepositoryObjectType.Certificate) {
+                return null;
+            }
+            RepositoryObjectHeader header = RepositoryObjectHeaderParser.parse(content);
+            if (header.getType() != type) {
+                return null;
+            }
+            if (type == RepositoryObjectType.Crl) {
+                return new IndexedObject(name, type, content, null, header.getAuthorityKeyIdentifier());
+            }
+            if (header.getSubjectKeyIdentifier() == null) {
+                return null;
+            }
+            return new IndexedObject(name, type, content, header.getSubjectKeyIdentifier(), header.getAuthorityKeyIdentifier());
+        }
+
+        boolean isSelfSigned() {
+            return authorityKey == null || authorityKey.equals(subjectKey);
+        }
+    }
+}
@@ -37,6 +37,7 @@ import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateParser;
 import net.ripe.rpki.commons.validation.ValidationLocation;
 import net.ripe.rpki.commons.validation.ValidationOptions;
 import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateChainCache.VerifiedCertificate;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -56,6 +57,7 @@ public class X509ResourceCertificateBottomUpValidator implements X509ResourceCer
     private ValidationOptions options;
     private ValidationResult result;
     private ValidationLocation location;
+    private final CertificateChainCache chainCache;
 
 
     public X509ResourceCertificateBottomUpValidator(ResourceCertificateLocator locator, X509ResourceCertificate... trustAnchors) {
@@ -67,6 +69,16 @@ public class X509ResourceCertificateBottomUpValidator implements X509ResourceCer
     }
 
     public X509ResourceCertificateBottomUpValidator(ValidationOptions options, ValidationResult result, ResourceCertificateLocator locator, Collection<X509ResourceCertificate> trustAnchors) {
+        this(options, result, locator, trustAnchors, null);
+    }
+
+    /**
+     * @param chainCache cache of verified CA certificates shared between validators, so validating many
+     *                   certificates issued by the same CA only validates the chain above it once. May be
+     *                   <code>null</code>.
+     */
+    public X509ResourceCertificateBottomUpValidator(ValidationOptions options, ValidationResult result, ResourceCertificateLocator locator, Collection<X509ResourceCertificate> trustAnchors, CertificateChainCache chainCache) {
+        this.chainCache = chainCache;
         this.options = options;
         this.result = result;
         this.location = new ValidationLocation("unknown.cer");
@@ -84,24 +96,37 @@ public class X509ResourceCertificateBottomUpValidator implements X509ResourceCer
         this.location = new ValidationLocation(location);
         this.certificate = certificate;
 
-        buildCertificationList();
+        CertificateRepositoryObjectFile<X509ResourceCertificate> parentFile = null;
+        if (chainCache != null && !certificate.isRoot()) {
+            parentFile = locator.findParent(certificate);
+            if (parentFile != null && validateWithCachedParent(parentFile)) {
+                return;
+            }
+        }
+
+        buildCertificationList(parentFile);
         if (result.hasFailures()) {
             // stop validation: certificate chain too long
             return;
         }
 
-        checkTrustAnchor();
+        CertificateWithLocation root = certificates.get(0);
+        checkTrustAnchor(root.getCertificate());
 
-        X509ResourceCertificate parent = certificates.get(0).getCertificate();
+        X509ResourceCertificate parent = root.getCertificate();
         certificates.remove(0); // No need to validate the root (1st parent) certificate against itself
 
         IpResourceSet resources = parent.getResources();
+        VerifiedCertificate verified = null;
+        if (chainCache != null && !result.hasFailureForLocation(root.getLocation())) {
+            verified = chainCache.put(VerifiedCertificate.root(parent, root.getLocation()));
+        }
 
         for (CertificateWithLocation certificateWithLocation : certificates) {
             String childLocation = certificateWithLocation.getLocation().getName();
             X509ResourceCertificate child = certificateWithLocation.getCertificate();
 
-            X509Crl crl = getCRL(child, result);
+            X509Crl crl = getCRL(verified, child);
             if (result.hasFailures()) {
                 // stop validation: crl cannot be parsed
                 return;
@@ -112,10 +137,47 @@ public class X509ResourceCertificateBottomUpValidator implements X509ResourceCer
 
             resources = child.deriveResources(resources);
             parent = child;
+
+            if (verified != null && child.isCa() && !result.hasFailureForLocation(certificateWithLocation.getLocation())) {
+                verified = chainCache.put(verified.child(child, certificateWithLocation.getLocation(), resources, crl));
+            } else {
+                verified = null;
+            }
         }
     }
 
-    private void buildCertificationList() {
+    /**
+     * Validates only the last hop when the parent certificate is in the chain cache.
+     *
+     * @return false when the parent is not cached and the full chain needs to be validated.
+     */
+    private boolean validateWithCachedParent(CertificateRepositoryObjectFile<X509ResourceCertificate> parentFile) {
+        VerifiedCertificate parent = chainCache.findParent(certificate, parentFile.getContent(), locator);
+        if (parent == null || parent.getChainLength() >= MAX_CHAIN_LENGTH) {
+            return false;
+        }
+
+        result.setLocation(parent.getTrustAnchorLocation());
+        checkTrustAnchor(parent.getTrustAnchor());
+
+        X509Crl crl = getCRL(parent, certificate);
+        if (result.hasFailures()) {
+            return true;
+        }
+
+        X509ResourceCertificateParentChildValidator validator = ResourceValidatorFactory.getX509ResourceCertificateParentChildStrictValidator(options, result, parent.getCertificate(), parent.getResources(), crl);
+        validator.validate(location.getName(), certificate);
+
+        if (certificate.isCa() && !result.hasFailureForLocation(location)) {
+            chainCache.put(parent.child(certificate, location, certificate.deriveResources(parent.getResources()), crl));
+        }
+        return true;
+    }
+
+    /**
+     * @param firstParent the already located parent of the certificate, or <code>null</code>.
+     */
+    private void buildCertificationList(CertificateRepositoryObjectFile<X509ResourceCertificate> firstParent) {
         certificates.add(0, new CertificateWithLocation(this.certificate, this.location));
         result.setLocation(this.location);
         if (!result.rejectIfFalse(certificates.size() <= MAX_CHAIN_LENGTH, CERT_CHAIN_LENGTH, Integer.valueOf(MAX_CHAIN_LENGTH).toString())) {
@@ -124,7 +186,7 @@ public class X509ResourceCertificateBottomUpValidator implements X509ResourceCer
 
         X509ResourceCertificate cert = this.certificate;
         while (!cert.isRoot()) {
-            CertificateRepositoryObjectFile<X509ResourceCertificate> parent = locator.findParent(cert);
+            CertificateRepositoryObjectFile<X509ResourceCertificate> parent = cert == this.certificate && firstParent != null ? firstParent : locator.findParent(cert);
 
             if (!result.rejectIfNull(parent, CERT_CHAIN_COMPLETE)) {
                 return;
@@ -147,17 +209,26 @@ public class X509ResourceCertificateBottomUpValidator implements X509ResourceCer
 
     }
 
-    private X509Crl getCRL(X509ResourceCertificate certificate, ValidationResult validationResult) {
+    private X509Crl getCRL(VerifiedCertificate issuer, X509ResourceCertificate certificate) {
         CertificateRepositoryObjectFile<X509Crl> crlFile = locator.findCrl(certificate);
         if (crlFile == null) {
             return null;
         }
-        return X509Crl.parseDerEncoded(crlFile.getContent(), validationResult);
+        X509Crl crl = issuer == null ? null : issuer.getCrl(crlFile.getContent());
+        if (crl != null) {
+            result.pass(CRL_PARSED);
+            return crl;
+        }
+        crl = X509Crl.parseDerEncoded(crlFile.getContent(), result);
+        if (crl != null && issuer != null) {
+            issuer.setCrl(crlFile.getContent(), crl);
+        }
+        return crl;
     }
 
-    private void checkTrustAnchor() {
+    private void checkTrustAnchor(X509ResourceCertificate root) {
         if ((trustAnchors != null) && (trustAnchors.size() > 0)) {
-            result.rejectIfFalse(trustAnchors.contains(certificates.get(0).getCertificate()), ROOT_IS_TA);
+            result.rejectIfFalse(trustAnchors.contains(root), ROOT_IS_TA);
         }
     }
 
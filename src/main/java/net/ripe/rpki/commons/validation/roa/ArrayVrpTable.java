@@ -0,0 +1,361 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.IpResourceType;
+
+import java.util.Arrays;
+
+/**
+ * Heap based {@link VrpTable} using one primitive array per column.
+ */
+final class ArrayVrpTable extends VrpTable {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final int size;
+    private final long[] high;
+    private final long[] low;
+    private final byte[] prefixLength;
+    private final byte[] maximumLength;
+    private final int[] asn;
+    private final int[] referenceCount;
+
+    private ArrayVrpTable(IpResourceType type, int size, long[] high, long[] low, byte[] prefixLength, byte[] maximumLength, int[] asn, int[] referenceCount) {
+        super(type);
+        this.size = size;
+        this.high = high;
+        this.low = low;
+        this.prefixLength = prefixLength;
+        this.maximumLength = maximumLength;
+        this.asn = asn;
+        this.referenceCount = referenceCount;
+    }
+
+    static ArrayVrpTable empty(IpResourceType type) {
+        return new Builder(type, 0).build();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getAddressHigh(int index) {
+        return high[index];
+    }
+
+    @Override
+    public long getAddressLow(int index) {
+        return low == null ? 0L : low[index];
+    }
+
+    @Override
+    public int getPrefixLength(int index) {
+        return prefixLength[index] & 0xff;
+    }
+
+    @Override
+    public int getMaximumLength(int index) {
+        return maximumLength[index] & 0xff;
+    }
+
+    @Override
+    public long getAsn(int index) {
+        return asn[index] & 0xffffffffL;
+    }
+
+    @Override
+    public int getReferenceCount(int index) {
+        return referenceCount[index];
+    }
+
+    /**
+     * Merges two sorted tables of the same address family in a single linear pass. Reference counts of VRPs
+     * present in both tables are added up.
+     */
+    static ArrayVrpTable merge(VrpTable left, VrpTable right) {
+        Builder builder = new Builder(left.getType(), left.size() + right.size());
+        int i = 0;
+        int j = 0;
+        while (i < left.size() && j < right.size()) {
+            int rc = left.compareEntries(i, right, j);
+            if (rc < 0) {
+                builder.addEntry(left, i++);
+            } else if (rc > 0) {
+                builder.addEntry(right, j++);
+            } else {
+                builder.add(left.getAddressHigh(i), left.getAddressLow(i), left.getPrefixLength(i), left.getMaximumLength(i), left.getAsn(i),
+                        left.getReferenceCount(i) + right.getReferenceCount(j));
+                i++;
+                j++;
+            }
+        }
+        while (i < left.size()) {
+            builder.addEntry(left, i++);
+        }
+        while (j < right.size()) {
+            builder.addEntry(right, j++);
+        }
+        return builder.buildSorted();
+    }
+
+    /**
+     * @return the entries of <code>left</code> that are not in <code>right</code>, computed in a single linear pass.
+     */
+    static ArrayVrpTable difference(VrpTable left, VrpTable right) {
+        Builder builder = new Builder(left.getType(), left.size());
+        int i = 0;
+        int j = 0;
+        while (i < left.size() && j < right.size()) {
+            int rc = left.compareEntries(i, right, j);
+            if (rc < 0) {
+                builder.addEntry(left, i++);
+            } else if (rc > 0) {
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        while (i < left.size()) {
+            builder.addEntry(left, i++);
+        }
+        return builder.buildSorted();
+    }
+
+    /**
+     * Growable column store. Entries can be added in any order; {@link #build()} sorts them and folds
+     * duplicates into a single entry with the summed reference count.
+     */
+    static final class Builder {
+        private final IpResourceType type;
+        private int size;
+        private long[] high;
+        private long[] low;
+        private byte[] prefixLength;
+        private byte[] maximumLength;
+        private int[] asn;
+        private int[] referenceCount;
+
+        Builder(IpResourceType type, int initialCapacity) {
+            this.type = type;
+            int capacity = Math.max(initialCapacity, 16);
+            this.high = new long[capacity];
+            this.low = type == IpResourceType.IPv6 ? new long[capacity] : null;
+            this.prefixLength = new byte[capacity];
+            this.maximumLength = new byte[capacity];
+            this.asn = new int[capacity];
+            this.referenceCount = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(long addressHigh, long addressLow, int prefix, int maximum, long asNumber, int references) {
+            ensureCapacity(size + 1);
+            high[size] = addressHigh;
+            if (low != null) {
+                low[size] = addressLow;
+            }
+            prefixLength[size] = (byte) prefix;
+            maximumLength[size] = (byte) maximum;
+            asn[size] = (int) asNumber;
+            referenceCount[size] = references;
+            size++;
+        }
+
+        void addEntry(VrpTable table, int index) {
+            add(table.getAddressHigh(index), table.getAddressLow(index), table.getPrefixLength(index), table.getMaximumLength(index), table.getAsn(index), table.getReferenceCount(index));
+        }
+
+        /**
+         * Sorts the entries at or after <code>from</code> and removes the duplicates among them, keeping the
+         * reference count of a single entry.
+         */
+        void deduplicateFrom(int from) {
+            if (size - from < 2) {
+                return;
+            }
+            sort(from, size - 1);
+            size = fold(from, false);
+        }
+
+        ArrayVrpTable build() {
+            sort(0, size - 1);
+            size = fold(0, true);
+            return buildSorted();
+        }
+
+        ArrayVrpTable buildSorted() {
+            ArrayVrpTable result = new ArrayVrpTable(type, size,
+                    Arrays.copyOf(high, size),
+                    low == null ? null : Arrays.copyOf(low, size),
+                    Arrays.copyOf(prefixLength, size),
+                    Arrays.copyOf(maximumLength, size),
+                    Arrays.copyOf(asn, size),
+                    Arrays.copyOf(referenceCount, size));
+            size = 0;
+            return result;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= high.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, high.length + (high.length >> 1));
+            high = Arrays.copyOf(high, newCapacity);
+            if (low != null) {
+                low = Arrays.copyOf(low, newCapacity);
+            }
+            prefixLength = Arrays.copyOf(prefixLength, newCapacity);
+            maximumLength = Arrays.copyOf(maximumLength, newCapacity);
+            asn = Arrays.copyOf(asn, newCapacity);
+            referenceCount = Arrays.copyOf(referenceCount, newCapacity);
+        }
+
+        /**
+         * Folds equal adjacent entries at or after <code>from</code> into a single entry.
+         *
+         * @return the size after folding.
+         */
+        private int fold(int from, boolean sumReferenceCounts) {
+            int last = from - 1;
+            for (int i = from; i < size; i++) {
+                if (last >= from && compare(last, i) == 0) {
+                    if (sumReferenceCounts) {
+                        referenceCount[last] += referenceCount[i];
+                    }
+                } else {
+                    last++;
+                    if (last != i) {
+                        copy(i, last);
+                    }
+                }
+            }
+            return last + 1;
+        }
+
+        private long lowAt(int i) {
+            return low == null ? 0L : low[i];
+        }
+
+        private int compare(int i, int j) {
+            return compare(i, high[j], lowAt(j), prefixLength[j] & 0xff, maximumLength[j] & 0xff, asn[j] & 0xffffffffL);
+        }
+
+        private int compare(int i, long addressHigh, long addressLow, int prefix, int maximum, long asNumber) {
+            return VrpTable.compare(high[i], lowAt(i), prefixLength[i] & 0xff, maximumLength[i] & 0xff, asn[i] & 0xffffffffL,
+                    addressHigh, addressLow, prefix, maximum, asNumber);
+        }
+
+        private void copy(int from, int to) {
+            high[to] = high[from];
+            if (low != null) {
+                low[to] = low[from];
+            }
+            prefixLength[to] = prefixLength[from];
+            maximumLength[to] = maximumLength[from];
+            asn[to] = asn[from];
+            referenceCount[to] = referenceCount[from];
+        }
+
+        private void swap(int i, int j) {
+            long h = high[i];
+            high[i] = high[j];
+            high[j] = h;
+            if (low != null) {
+                long l = low[i];
+                low[i] = low[j];
+                low[j] = l;
+            }
+            byte p = prefixLength[i];
+            prefixLength[i] = prefixLength[j];
+            prefixLength[j] = p;
+            byte m = maximumLength[i];
+            maximumLength[i] = maximumLength[j];
+            maximumLength[j] = m;
+            int a = asn[i];
+            asn[i] = asn[j];
+            asn[j] = a;
+            int r = referenceCount[i];
+            referenceCount[i] = referenceCount[j];
+            referenceCount[j] = r;
+        }
+
+        /**
+         * Quicksort with median-of-three pivot selection, recursing into the smaller partition only so the
+         * stack depth stays logarithmic.
+         */
+        private void sort(int from, int to) {
+            while (to - from >= INSERTION_SORT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                if (compare(mid, from) < 0) {
+                    swap(mid, from);
+                }
+                if (compare(to, from) < 0) {
+                    swap(to, from);
+                }
+                if (compare(to, mid) < 0) {
+                    swap(to, mid);
+                }
+                swap(mid, to - 1);
+                int pivot = to - 1;
+                int i = from;
+                int j = to - 1;
+                while (true) {
+                    while (compare(++i, pivot) < 0) {
+                    }
+                    while (compare(--j, pivot) > 0) {
+                    }
+                    if (i >= j) {
+                        break;
+                    }
+                    swap(i, j);
+                }
+                swap(i, to - 1);
+                if (i - from < to - i) {
+                    sort(from, i - 1);
+                    from = i + 1;
+                } else {
+                    sort(i + 1, to);
+                    to = i - 1;
+                }
+            }
+            for (int i = from + 1; i <= to; i++) {
+                for (int j = i; j > from && compare(j, j - 1) < 0; j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+    }
+}
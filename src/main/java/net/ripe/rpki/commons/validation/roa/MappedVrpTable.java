@@ -0,0 +1,122 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.IpResourceType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VrpTable} reading its entries directly from a (memory mapped) buffer in the {@link VrpSetFile}
+ * record format. Entries are decoded on access, nothing is copied to the heap.
+ */
+final class MappedVrpTable extends VrpTable {
+
+    static final int IPV4_RECORD_SIZE = 16;
+    static final int IPV6_RECORD_SIZE = 28;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int recordSize;
+    private final int prefixOffset;
+
+    /**
+     * @param buffer buffer positioned at the first record of the table, records run up to its limit.
+     */
+    MappedVrpTable(IpResourceType type, ByteBuffer buffer) {
+        super(type);
+        this.buffer = buffer.slice();
+        this.recordSize = recordSize(type);
+        this.prefixOffset = type == IpResourceType.IPv4 ? 4 : 16;
+        this.size = this.buffer.remaining() / recordSize;
+    }
+
+    static int recordSize(IpResourceType type) {
+        return type == IpResourceType.IPv4 ? IPV4_RECORD_SIZE : IPV6_RECORD_SIZE;
+    }
+
+    /**
+     * Writes the entry at <code>index</code> of <code>table</code> as a record at the buffer position.
+     */
+    static void writeRecord(ByteBuffer target, VrpTable table, int index) {
+        if (table.getType() == IpResourceType.IPv4) {
+            target.putInt((int) table.getAddressHigh(index));
+        } else {
+            target.putLong(table.getAddressHigh(index));
+            target.putLong(table.getAddressLow(index));
+        }
+        target.put((byte) table.getPrefixLength(index));
+        target.put((byte) table.getMaximumLength(index));
+        target.putShort((short) 0);
+        target.putInt((int) table.getAsn(index));
+        target.putInt(table.getReferenceCount(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getAddressHigh(int index) {
+        if (getType() == IpResourceType.IPv4) {
+            return buffer.getInt(index * recordSize) & 0xffffffffL;
+        }
+        return buffer.getLong(index * recordSize);
+    }
+
+    @Override
+    public long getAddressLow(int index) {
+        if (getType() == IpResourceType.IPv4) {
+            return 0L;
+        }
+        return buffer.getLong(index * recordSize + 8);
+    }
+
+    @Override
+    public int getPrefixLength(int index) {
+        return buffer.get(index * recordSize + prefixOffset) & 0xff;
+    }
+
+    @Override
+    public int getMaximumLength(int index) {
+        return buffer.get(index * recordSize + prefixOffset + 1) & 0xff;
+    }
+
+    @Override
+    public long getAsn(int index) {
+        return buffer.getInt(index * recordSize + prefixOffset + 4) & 0xffffffffL;
+    }
+
+    @Override
+    public int getReferenceCount(int index) {
+        return buffer.getInt(index * recordSize + prefixOffset + 8);
+    }
+}
@@ -79,6 +79,40 @@ public class RouteOriginValidationPolicy {
         return result;
     }
 
+    /**
+     * Validates <code>announcedRoute</code> against a sorted VRP set, which may be memory mapped using
+     * {@link VrpSetFile}. Covering VRPs are found with one binary search per candidate prefix length.
+     * When no VRP matches, INVALID_LENGTH is preferred over INVALID_ASN if any covering VRP has the
+     * announced origin.
+     */
+    public RouteValidityState validateAnnouncedRoute(VrpSet vrps, AnnouncedRoute announcedRoute) {
+        IpRange announcedPrefix = announcedRoute.getPrefix();
+        VrpTable table = vrps.getTable(announcedPrefix.getType());
+        long[] address = VrpTable.toLongs(announcedPrefix.getStart().getValue(), announcedPrefix.getType());
+        int announcedLength = announcedPrefix.getPrefixLength();
+        long originAsn = announcedRoute.getOriginAsn().longValue();
+        int bitSize = announcedPrefix.getType().getBitSize();
+
+        RouteValidityState result = RouteValidityState.UNKNOWN;
+        for (int length = 0; length <= announcedLength; length++) {
+            long high = address[0] & VrpTable.networkMask(length, bitSize, true);
+            long low = address[1] & VrpTable.networkMask(length, bitSize, false);
+            int index = table.findFirst(high, low, length);
+            for (int i = index; i >= 0 && i < table.size() && table.getAddressHigh(i) == high && table.getAddressLow(i) == low && table.getPrefixLength(i) == length; i++) {
+                if (table.getAsn(i) != originAsn) {
+                    if (result == RouteValidityState.UNKNOWN) {
+                        result = RouteValidityState.INVALID_ASN;
+                    }
+                } else if (announcedLength > table.getMaximumLength(i)) {
+                    result = RouteValidityState.INVALID_LENGTH;
+                } else {
+                    return RouteValidityState.VALID;
+                }
+            }
+        }
+        return result;
+    }
+
     private RouteValidityState validate(AllowedRoute allowedRoute, AnnouncedRoute announcedRoute) {
         IpRange announcedPrefix = announcedRoute.getPrefix();
 
@@ -0,0 +1,116 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.crypto.cms.roa.Roa;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Collects the (ASN, prefix, effective maximum length) tuples of validated ROAs into a {@link VrpSet}.
+ * <p>
+ * The reference count of each resulting VRP is the number of ROAs containing it, so a VRP listed twice in
+ * the same ROA is counted once. Instances are not thread-safe: use one collector per trust anchor and
+ * combine the results with {@link VrpSet#mergeAll(java.util.Collection)}.
+ */
+public class VrpCollector {
+
+    private final ArrayVrpTable.Builder ipv4;
+    private final ArrayVrpTable.Builder ipv6;
+
+    public VrpCollector() {
+        this(1024);
+    }
+
+    public VrpCollector(int expectedSize) {
+        this.ipv4 = new ArrayVrpTable.Builder(IpResourceType.IPv4, expectedSize);
+        this.ipv6 = new ArrayVrpTable.Builder(IpResourceType.IPv6, expectedSize / 4);
+    }
+
+    public VrpCollector add(Roa roa) {
+        int ipv4Start = ipv4.size();
+        int ipv6Start = ipv6.size();
+        long asn = roa.getAsn().longValue();
+        for (RoaPrefix roaPrefix : roa.getPrefixes()) {
+            IpRange prefix = roaPrefix.getPrefix();
+            long[] address = VrpTable.toLongs(prefix.getStart().getValue(), prefix.getType());
+            builder(prefix.getType()).add(address[0], address[1], prefix.getPrefixLength(), roaPrefix.getEffectiveMaximumLength(), asn, 1);
+        }
+        // Sort the entries of this ROA only, so duplicates are removed in O(n log n) instead of scanning per prefix
+        ipv4.deduplicateFrom(ipv4Start);
+        ipv6.deduplicateFrom(ipv6Start);
+        return this;
+    }
+
+    public VrpCollector addAll(Iterable<? extends Roa> roas) {
+        for (Roa roa : roas) {
+            add(roa);
+        }
+        return this;
+    }
+
+    public VrpCollector add(AllowedRoute route) {
+        return add(route.getAsn(), route.getPrefix(), route.getMaximumLength(), 1);
+    }
+
+    /**
+     * Adds a single VRP backed by <code>referenceCount</code> ROAs.
+     */
+    public VrpCollector add(Asn asn, IpRange prefix, int maximumLength, int referenceCount) {
+        Validate.isTrue(prefix.isLegalPrefix(), "prefix is not a legal prefix");
+        Validate.isTrue(maximumLength >= prefix.getPrefixLength() && maximumLength <= prefix.getType().getBitSize(), "maximumLength out of bounds");
+        long[] address = VrpTable.toLongs(prefix.getStart().getValue(), prefix.getType());
+        builder(prefix.getType()).add(address[0], address[1], prefix.getPrefixLength(), maximumLength, asn.longValue(), referenceCount);
+        return this;
+    }
+
+    /**
+     * Adds the entry at <code>index</code> of <code>table</code>, keeping its reference count.
+     */
+    public VrpCollector add(VrpTable table, int index) {
+        builder(table.getType()).addEntry(table, index);
+        return this;
+    }
+
+    /**
+     * Sorts and deduplicates the collected VRPs. The collector is empty afterwards and can be reused.
+     */
+    public VrpSet build() {
+        return new VrpSet(ipv4.build(), ipv6.build());
+    }
+
+    private ArrayVrpTable.Builder builder(IpResourceType type) {
+        Validate.isTrue(type == IpResourceType.IPv4 || type == IpResourceType.IPv6, "address family required");
+        return type == IpResourceType.IPv4 ? ipv4 : ipv6;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.IpResourceType;
+import org.apache.commons.lang.Validate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Immutable, deduplicated set of Validated ROA Payloads (VRPs), kept as one sorted {@link VrpTable} per
+ * address family.
+ */
+public final class VrpSet {
+
+    public static final VrpSet EMPTY = new VrpSet(ArrayVrpTable.empty(IpResourceType.IPv4), ArrayVrpTable.empty(IpResourceType.IPv6));
+
+    private final VrpTable ipv4;
+    private final VrpTable ipv6;
+
+    public VrpSet(VrpTable ipv4, VrpTable ipv6) {
+        Validate.isTrue(ipv4.getType() == IpResourceType.IPv4, "IPv4 table expected");
+        Validate.isTrue(ipv6.getType() == IpResourceType.IPv6, "IPv6 table expected");
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+    }
+
+    public VrpTable getIpv4() {
+        return ipv4;
+    }
+
+    public VrpTable getIpv6() {
+        return ipv6;
+    }
+
+    public VrpTable getTable(IpResourceType type) {
+        return type == IpResourceType.IPv4 ? ipv4 : ipv6;
+    }
+
+    public int size() {
+        return ipv4.size() + ipv6.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(AllowedRoute route) {
+        return getTable(route.getPrefix().getType()).contains(route);
+    }
+
+    /**
+     * @return all VRPs as {@link AllowedRoute}s, IPv4 first, in table order.
+     */
+    public List<AllowedRoute> toAllowedRoutes() {
+        List<AllowedRoute> result = new ArrayList<AllowedRoute>(size());
+        result.addAll(ipv4.toAllowedRoutes());
+        result.addAll(ipv6.toAllowedRoutes());
+        return result;
+    }
+
+    /**
+     * Union of this set and <code>other</code>. Reference counts of VRPs present in both sets are added up.
+     */
+    public VrpSet merge(VrpSet other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        return new VrpSet(ArrayVrpTable.merge(ipv4, other.ipv4), ArrayVrpTable.merge(ipv6, other.ipv6));
+    }
+
+    /**
+     * Merges the VRP sets of multiple trust anchors. Sets are merged pairwise in a balanced tree, each
+     * level running in parallel on the common fork/join pool.
+     */
+    public static VrpSet mergeAll(Collection<VrpSet> sets) {
+        List<VrpSet> level = new ArrayList<VrpSet>(sets);
+        if (level.isEmpty()) {
+            return EMPTY;
+        }
+        while (level.size() > 1) {
+            List<CompletableFuture<VrpSet>> merged = new ArrayList<CompletableFuture<VrpSet>>();
+            for (int i = 0; i + 1 < level.size(); i += 2) {
+                final VrpSet left = level.get(i);
+                final VrpSet right = level.get(i + 1);
+                merged.add(CompletableFuture.supplyAsync(() -> left.merge(right)));
+            }
+            List<VrpSet> next = new ArrayList<VrpSet>();
+            for (CompletableFuture<VrpSet> future : merged) {
+                next.add(future.join());
+            }
+            if (level.size() % 2 == 1) {
+                next.add(level.get(level.size() - 1));
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return "VrpSet [ipv4=" + ipv4.size() + ", ipv6=" + ipv6.size() + "]";
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.IpResourceType;
+import org.apache.commons.lang.Validate;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The VRPs added and removed between two versions of a {@link VrpSet}, identified by serial numbers.
+ * <p>
+ * Serial numbers are unsigned 32-bit values that wrap around, compared using RFC 1982 serial number
+ * arithmetic as required by the RPKI-to-Router protocol (RFC 8210). Deltas between consecutive serials can
+ * be stacked using {@link #compose(VrpSetDelta)}.
+ */
+public final class VrpSetDelta {
+
+    private final int fromSerial;
+    private final int toSerial;
+    private final VrpSet added;
+    private final VrpSet removed;
+
+    public VrpSetDelta(int fromSerial, int toSerial, VrpSet added, VrpSet removed) {
+        this.fromSerial = fromSerial;
+        this.toSerial = toSerial;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * Computes the delta between two sorted VRP sets using a linear merge over both tables. The IPv4 and
+     * IPv6 tables are processed in parallel.
+     */
+    public static VrpSetDelta compute(int fromSerial, VrpSet from, int toSerial, VrpSet to) {
+        CompletableFuture<ArrayVrpTable[]> ipv6 = CompletableFuture.supplyAsync(() -> diff(from.getIpv6(), to.getIpv6()));
+        ArrayVrpTable[] ipv4 = diff(from.getIpv4(), to.getIpv4());
+        ArrayVrpTable[] ipv6Result = ipv6.join();
+        return new VrpSetDelta(fromSerial, toSerial, new VrpSet(ipv4[0], ipv6Result[0]), new VrpSet(ipv4[1], ipv6Result[1]));
+    }
+
+    /**
+     * @return a delta with serial <code>serial</code> on both sides and no changes.
+     */
+    public static VrpSetDelta empty(int serial) {
+        return new VrpSetDelta(serial, serial, VrpSet.EMPTY, VrpSet.EMPTY);
+    }
+
+    public int getFromSerial() {
+        return fromSerial;
+    }
+
+    public int getToSerial() {
+        return toSerial;
+    }
+
+    public VrpSet getAdded() {
+        return added;
+    }
+
+    public VrpSet getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    public int size() {
+        return added.size() + removed.size();
+    }
+
+    /**
+     * Stacks <code>next</code> on top of this delta. VRPs removed and then re-added (or vice versa) cancel
+     * out.
+     */
+    public VrpSetDelta compose(VrpSetDelta next) {
+        Validate.isTrue(toSerial == next.fromSerial, "delta to serial " + Integer.toUnsignedString(toSerial) + " cannot be followed by delta from serial " + Integer.toUnsignedString(next.fromSerial));
+        VrpSet netAdded = difference(added, next.removed).merge(difference(next.added, removed));
+        VrpSet netRemoved = difference(removed, next.added).merge(difference(next.removed, added));
+        return new VrpSetDelta(fromSerial, next.toSerial, netAdded, netRemoved);
+    }
+
+    /**
+     * @return the VRP set with serial {@link #getToSerial()}, given the set with serial {@link #getFromSerial()}.
+     */
+    public VrpSet applyTo(VrpSet vrps) {
+        return difference(vrps, removed).merge(added);
+    }
+
+    /**
+     * @return true if serial <code>s1</code> is less than <code>s2</code> according to RFC 1982.
+     */
+    public static boolean isSerialBefore(int s1, int s2) {
+        return s1 != s2 && (s1 - s2) < 0;
+    }
+
+    private static VrpSet difference(VrpSet left, VrpSet right) {
+        if (left.isEmpty() || right.isEmpty()) {
+            return left;
+        }
+        return new VrpSet(ArrayVrpTable.difference(left.getIpv4(), right.getIpv4()), ArrayVrpTable.difference(left.getIpv6(), right.getIpv6()));
+    }
+
+    /**
+     * @return the added and removed tables.
+     */
+    private static ArrayVrpTable[] diff(VrpTable from, VrpTable to) {
+        IpResourceType type = from.getType();
+        ArrayVrpTable.Builder added = new ArrayVrpTable.Builder(type, 0);
+        ArrayVrpTable.Builder removed = new ArrayVrpTable.Builder(type, 0);
+        int i = 0;
+        int j = 0;
+        while (i < from.size() && j < to.size()) {
+            int rc = from.compareEntries(i, to, j);
+            if (rc < 0) {
+                removed.addEntry(from, i++);
+            } else if (rc > 0) {
+                added.addEntry(to, j++);
+            } else {
+                i++;
+                j++;
+            }
+        }
+        while (i < from.size()) {
+            removed.addEntry(from, i++);
+        }
+        while (j < to.size()) {
+            added.addEntry(to, j++);
+        }
+        return new ArrayVrpTable[]{added.buildSorted(), removed.buildSorted()};
+    }
+
+    @Override
+    public String toString() {
+        return "VrpSetDelta [" + Integer.toUnsignedString(fromSerial) + " -> " + Integer.toUnsignedString(toSerial) + ", added=" + added.size() + ", removed=" + removed.size() + "]";
+    }
+}
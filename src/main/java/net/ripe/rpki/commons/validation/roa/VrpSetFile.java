@@ -0,0 +1,197 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.IpResourceType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary file format for a {@link VrpSet}, designed to be memory mapped so a process can answer
+ * route origin validation queries right after start up, without parsing or copying the VRPs.
+ * <p>
+ * All values are big-endian. The file starts with a 32 byte header:
+ * <pre>
+ *   magic "RVRP" | version (int) | IPv4 count (int) | IPv6 count (int) | data CRC32 (int) | reserved (8) | header CRC32 (int)
+ * </pre>
+ * followed by the IPv4 and then the IPv6 table, both in {@link VrpTable} sort order. An IPv4 record is
+ * address (4), prefix length (1), maximum length (1), padding (2), ASN (4), reference count (4). An IPv6
+ * record is the same with a 16 byte address.
+ */
+public final class VrpSetFile {
+
+    public static final int VERSION = 1;
+
+    static final int MAGIC = 0x52565250; // "RVRP"
+    static final int HEADER_SIZE = 32;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private VrpSetFile() {
+    }
+
+    /**
+     * Writes <code>vrps</code> to a temporary file next to <code>file</code> which is then atomically moved
+     * into place, so concurrent readers never see a partially written file.
+     */
+    public static void write(VrpSet vrps, File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            channel.position(HEADER_SIZE);
+            writeTable(channel, vrps.getIpv4(), crc);
+            writeTable(channel, vrps.getIpv6(), crc);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(vrps.getIpv4().size()).putInt(vrps.getIpv6().size()).putInt((int) crc.getValue()).putLong(0L);
+            header.putInt(headerChecksum(header));
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+            channel.force(true);
+        } catch (IOException e) {
+            throw new VrpSetFileException("could not write VRP set to " + temp, e);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new VrpSetFileException("could not move " + temp + " to " + file, e);
+        }
+    }
+
+    /**
+     * Maps <code>file</code> read-only and verifies both header and data checksums.
+     */
+    public static VrpSet map(File file) {
+        return map(file, true);
+    }
+
+    /**
+     * Maps <code>file</code> read-only. The header is always verified; verifying the data checksum requires
+     * a pass over the whole file and can be skipped when start up latency matters more.
+     */
+    public static VrpSet map(File file, boolean verifyData) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return fromBuffer(buffer, verifyData, file.getPath());
+        } catch (IOException e) {
+            throw new VrpSetFileException("could not map VRP set file " + file, e);
+        }
+    }
+
+    static VrpSet fromBuffer(ByteBuffer buffer, boolean verifyData, String location) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new VrpSetFileException(location + " is too short for a VRP set file");
+        }
+        ByteBuffer header = buffer.duplicate();
+        int start = header.position();
+        if (header.getInt() != MAGIC) {
+            throw new VrpSetFileException(location + " is not a VRP set file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new VrpSetFileException(location + " has unsupported version " + version);
+        }
+        int ipv4Count = header.getInt();
+        int ipv6Count = header.getInt();
+        int dataCrc = header.getInt();
+        header.position(start + HEADER_SIZE - 4);
+        int headerCrc = header.getInt();
+        header.position(start + HEADER_SIZE - 4);
+        if (headerCrc != headerChecksum(header)) {
+            throw new VrpSetFileException(location + " has an invalid header checksum");
+        }
+
+        long ipv4Bytes = (long) ipv4Count * MappedVrpTable.IPV4_RECORD_SIZE;
+        long ipv6Bytes = (long) ipv6Count * MappedVrpTable.IPV6_RECORD_SIZE;
+        if (ipv4Count < 0 || ipv6Count < 0 || buffer.remaining() != HEADER_SIZE + ipv4Bytes + ipv6Bytes) {
+            throw new VrpSetFileException(location + " has a size that does not match its header");
+        }
+
+        ByteBuffer data = buffer.duplicate();
+        data.position(start + HEADER_SIZE);
+        if (verifyData) {
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            if ((int) crc.getValue() != dataCrc) {
+                throw new VrpSetFileException(location + " has an invalid data checksum");
+            }
+        }
+
+        ByteBuffer ipv4 = data.duplicate();
+        ipv4.limit(ipv4.position() + (int) ipv4Bytes);
+        ByteBuffer ipv6 = data.duplicate();
+        ipv6.position(ipv4.limit());
+        return new VrpSet(new MappedVrpTable(IpResourceType.IPv4, ipv4), new MappedVrpTable(IpResourceType.IPv6, ipv6));
+    }
+
+    private static int headerChecksum(ByteBuffer header) {
+        CRC32 crc = new CRC32();
+        ByteBuffer fields = header.duplicate();
+        fields.limit(fields.position());
+        fields.position(fields.position() - (HEADER_SIZE - 4));
+        crc.update(fields);
+        return (int) crc.getValue();
+    }
+
+    private static void writeTable(FileChannel channel, VrpTable table, CRC32 crc) throws IOException {
+        int recordSize = MappedVrpTable.recordSize(table.getType());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE - WRITE_BUFFER_SIZE % recordSize);
+        for (int i = 0; i < table.size(); i++) {
+            if (buffer.remaining() < recordSize) {
+                flush(channel, buffer, crc);
+            }
+            MappedVrpTable.writeRecord(buffer, table, i);
+        }
+        flush(channel, buffer, crc);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import org.apache.commons.lang.Validate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Tracks successive versions of a {@link VrpSet}, keeping the deltas between the most recent serials so
+ * that clients at an older serial can be brought up to date incrementally.
+ * <p>
+ * The serial number is only incremented when an update actually changes the set. Instances are thread-safe.
+ */
+public class VrpSetHistory {
+
+    private final int maximumDeltas;
+
+    private final Deque<VrpSetDelta> deltas = new ArrayDeque<VrpSetDelta>();
+
+    private int serial;
+
+    private VrpSet current;
+
+    public VrpSetHistory(int initialSerial, VrpSet initial, int maximumDeltas) {
+        Validate.isTrue(maximumDeltas >= 0, "maximumDeltas must be non-negative");
+        this.serial = initialSerial;
+        this.current = initial;
+        this.maximumDeltas = maximumDeltas;
+    }
+
+    public synchronized int getSerial() {
+        return serial;
+    }
+
+    public synchronized VrpSet getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return the retained deltas, oldest first.
+     */
+    public synchronized List<VrpSetDelta> getDeltas() {
+        return new ArrayList<VrpSetDelta>(deltas);
+    }
+
+    /**
+     * Replaces the current set with <code>next</code>.
+     *
+     * @return the delta from the previous to the new serial; empty (with an unchanged serial) when nothing changed.
+     */
+    public synchronized VrpSetDelta update(VrpSet next) {
+        VrpSetDelta delta = VrpSetDelta.compute(serial, current, serial + 1, next);
+        if (delta.isEmpty()) {
+            return VrpSetDelta.empty(serial);
+        }
+        current = next;
+        serial = delta.getToSerial();
+        deltas.addLast(delta);
+        while (deltas.size() > maximumDeltas) {
+            deltas.removeFirst();
+        }
+        return delta;
+    }
+
+    /**
+     * @return the deltas from <code>fromSerial</code> up to the current serial, oldest first, or null when
+     * <code>fromSerial</code> is unknown or too old and a full snapshot is needed.
+     */
+    public synchronized List<VrpSetDelta> getDeltasSince(int fromSerial) {
+        List<VrpSetDelta> result = new ArrayList<VrpSetDelta>();
+        if (fromSerial == serial) {
+            return result;
+        }
+        boolean found = false;
+        for (VrpSetDelta delta : deltas) {
+            found = found || delta.getFromSerial() == fromSerial;
+            if (found) {
+                result.add(delta);
+            }
+        }
+        return found ? result : null;
+    }
+
+    /**
+     * @return the single delta from <code>fromSerial</code> to the current serial, or null when a full
+     * snapshot is needed.
+     */
+    public VrpSetDelta getDeltaSince(int fromSerial) {
+        List<VrpSetDelta> since = getDeltasSince(fromSerial);
+        if (since == null) {
+            return null;
+        }
+        if (since.isEmpty()) {
+            return VrpSetDelta.empty(fromSerial);
+        }
+        VrpSetDelta result = since.get(0);
+        for (int i = 1; i < since.size(); i++) {
+            result = result.compose(since.get(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpAddress;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.ipresource.Ipv4Address;
+import net.ripe.ipresource.Ipv6Address;
+import org.apache.commons.lang.Validate;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Sorted, duplicate free table of Validated ROA Payloads (VRPs) of a single address family.
+ * <p>
+ * Entries are ordered by prefix start address, prefix length, maximum length and ASN. Addresses are
+ * kept as two unsigned 64-bit halves: IPv4 addresses are stored in the high half only, the low half is
+ * always zero.
+ */
+public abstract class VrpTable {
+
+    private static final BigInteger LOW_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private final IpResourceType type;
+
+    protected VrpTable(IpResourceType type) {
+        Validate.isTrue(type == IpResourceType.IPv4 || type == IpResourceType.IPv6, "address family required");
+        this.type = type;
+    }
+
+    public IpResourceType getType() {
+        return type;
+    }
+
+    public abstract int size();
+
+    public abstract long getAddressHigh(int index);
+
+    public abstract long getAddressLow(int index);
+
+    public abstract int getPrefixLength(int index);
+
+    public abstract int getMaximumLength(int index);
+
+    /**
+     * @return the unsigned 32-bit origin AS number.
+     */
+    public abstract long getAsn(int index);
+
+    /**
+     * @return the number of ROAs that contain this VRP.
+     */
+    public abstract int getReferenceCount(int index);
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public IpRange getPrefix(int index) {
+        return IpRange.prefix(toAddress(type, getAddressHigh(index), getAddressLow(index)), getPrefixLength(index));
+    }
+
+    public AllowedRoute getAllowedRoute(int index) {
+        return new AllowedRoute(new Asn(getAsn(index)), getPrefix(index), getMaximumLength(index));
+    }
+
+    public List<AllowedRoute> toAllowedRoutes() {
+        List<AllowedRoute> result = new ArrayList<AllowedRoute>(size());
+        for (int i = 0; i < size(); i++) {
+            result.add(getAllowedRoute(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return a table with the entries for which <code>predicate</code> holds. The predicate is evaluated for
+     * each index exactly once, in table order, so it can keep state while sweeping over the table.
+     */
+    public VrpTable filter(IntPredicate predicate) {
+        ArrayVrpTable.Builder builder = new ArrayVrpTable.Builder(type, size());
+        for (int i = 0; i < size(); i++) {
+            if (predicate.test(i)) {
+                builder.addEntry(this, i);
+            }
+        }
+        return builder.buildSorted();
+    }
+
+    /**
+     * Compares the entry at <code>index</code> of this table with the entry at <code>otherIndex</code> of
+     * <code>other</code>, using the table sort order.
+     */
+    public int compareEntries(int index, VrpTable other, int otherIndex) {
+        return compare(getAddressHigh(index), getAddressLow(index), getPrefixLength(index), getMaximumLength(index), getAsn(index),
+                other.getAddressHigh(otherIndex), other.getAddressLow(otherIndex), other.getPrefixLength(otherIndex), other.getMaximumLength(otherIndex), other.getAsn(otherIndex));
+    }
+
+    /**
+     * @return the index of the first entry with the given prefix, or <code>-(insertion point) - 1</code> when
+     * there is no such entry.
+     */
+    public int findFirst(long addressHigh, long addressLow, int prefixLength) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int rc = compare(getAddressHigh(mid), getAddressLow(mid), getPrefixLength(mid), 0, 0, addressHigh, addressLow, prefixLength, 0, 0);
+            if (rc < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < size() && getAddressHigh(low) == addressHigh && getAddressLow(low) == addressLow && getPrefixLength(low) == prefixLength) {
+            return low;
+        }
+        return -low - 1;
+    }
+
+    public boolean contains(AllowedRoute route) {
+        if (route.getPrefix().getType() != type) {
+            return false;
+        }
+        long[] address = toLongs(route.getPrefix().getStart().getValue(), type);
+        int index = findFirst(address[0], address[1], route.getPrefix().getPrefixLength());
+        for (int i = index; i >= 0 && i < size() && getAddressHigh(i) == address[0] && getAddressLow(i) == address[1] && getPrefixLength(i) == route.getPrefix().getPrefixLength(); i++) {
+            if (getMaximumLength(i) == route.getMaximumLength() && getAsn(i) == route.getAsn().longValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int compare(long high1, long low1, int prefixLength1, int maximumLength1, long asn1,
+                       long high2, long low2, int prefixLength2, int maximumLength2, long asn2) {
+        int rc = Long.compareUnsigned(high1, high2);
+        if (rc != 0) {
+            return rc;
+        }
+        rc = Long.compareUnsigned(low1, low2);
+        if (rc != 0) {
+            return rc;
+        }
+        rc = Integer.compare(prefixLength1, prefixLength2);
+        if (rc != 0) {
+            return rc;
+        }
+        rc = Integer.compare(maximumLength1, maximumLength2);
+        if (rc != 0) {
+            return rc;
+        }
+        return Long.compare(asn1, asn2);
+    }
+
+    /**
+     * Splits an address value into the high and low 64-bit halves used by this table.
+     */
+    public static long[] toLongs(BigInteger value, IpResourceType type) {
+        if (type == IpResourceType.IPv4) {
+            return new long[]{value.longValue(), 0L};
+        }
+        return new long[]{value.shiftRight(64).longValue(), value.and(LOW_MASK).longValue()};
+    }
+
+    /**
+     * @return the mask selecting the first <code>prefixLength</code> bits of the high or low address half.
+     */
+    public static long networkMask(int prefixLength, int bitSize, boolean high) {
+        if (bitSize == 32) {
+            return high && prefixLength > 0 ? (0xffffffffL << (32 - prefixLength)) & 0xffffffffL : 0L;
+        }
+        int bits = high ? Math.min(prefixLength, 64) : Math.max(prefixLength - 64, 0);
+        return bits == 0 ? 0L : -1L << (64 - bits);
+    }
+
+    static IpAddress toAddress(IpResourceType type, long high, long low) {
+        if (type == IpResourceType.IPv4) {
+            return new Ipv4Address(high);
+        }
+        BigInteger value = new BigInteger(Long.toUnsignedString(high)).shiftLeft(64).or(new BigInteger(Long.toUnsignedString(low)));
+        return new Ipv6Address(value);
+    }
+}
@@ -35,10 +35,14 @@ import net.ripe.rpki.commons.crypto.util.KeyPairFactoryTest;
 import net.ripe.rpki.commons.crypto.x509cert.X509CertificateInformationAccessDescriptor;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
 import net.ripe.rpki.commons.util.UTC;
 import net.ripe.rpki.commons.validation.ValidationCheck;
+import net.ripe.rpki.commons.validation.ValidationOptions;
 import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.ValidationStatus;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -103,6 +107,22 @@ public class GhostbustersCmsParserTest {
         assertEquals(GHOSTBUSTERS_RECORD_SINGLE_VCARD, check.getKey());
     }
 
+    @Test
+    public void ghostbusters_record_must_not_exceed_size_limit() {
+        byte[] ghostbustersCms = new GhostbustersCmsBuilder()
+            .withCertificate(createCertificate())
+            .withVCardPayload("BEGIN:VCARD\r\nVERSION:4.0\r\nFN:" + StringUtils.repeat("x", 2048) + "\r\nEND:VCARD\r\n")
+            .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER)
+            .getEncoded(TEST_KEY_PAIR.getPrivate());
+        ValidationOptions options = new ValidationOptions();
+        options.setMaxObjectSize(RepositoryObjectType.Gbr, 1024);
+
+        ValidationResult validationResult = ValidationResult.withLocation("test3.gbr");
+        new GhostbustersCmsParser().parse(validationResult, ghostbustersCms, options);
+
+        assertTrue(validationResult.getFailuresForCurrentLocation().contains(new ValidationCheck(ValidationStatus.ERROR, OBJECTS_SIZE_LIMIT, "1024")));
+    }
+
     private ValidationResult validatePayload(String vCardPayload) {
         byte[] ghostbustersCms = new GhostbustersCmsBuilder()
             .withCertificate(createCertificate())
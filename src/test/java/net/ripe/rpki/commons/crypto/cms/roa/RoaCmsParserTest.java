@@ -32,14 +32,23 @@ package net.ripe.rpki.commons.crypto.cms.roa;
 import net.ripe.ipresource.Asn;
 import net.ripe.ipresource.IpRange;
 import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import net.ripe.rpki.commons.validation.ValidationCheck;
+import net.ripe.rpki.commons.validation.ValidationOptions;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.ValidationStatus;
 import org.bouncycastle.asn1.BERTags;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static net.ripe.rpki.commons.crypto.util.Asn1Util.*;
+import static net.ripe.rpki.commons.validation.ValidationString.OBJECTS_SIZE_LIMIT;
 import static org.junit.Assert.*;
 
 public class RoaCmsParserTest {
@@ -161,4 +170,41 @@ public class RoaCmsParserTest {
         assertEquals(ipv4Prefixes, roa.getPrefixes());
     }
 
+    @Test
+    public void shouldParseRoaFromDirectByteBuffer() {
+        RoaCms roaCms = RoaCmsObjectMother.getRoaCms();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(roaCms.getEncoded().length);
+        buffer.put(roaCms.getEncoded()).flip();
+
+        RoaCmsParser bufferParser = new RoaCmsParser();
+        bufferParser.parse(ValidationResult.withLocation("test.roa"), buffer, new ValidationOptions());
+
+        assertFalse(bufferParser.getValidationResult().hasFailures());
+        assertEquals(roaCms, bufferParser.getRoaCms());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void shouldParseRoaFromInputStream() {
+        RoaCms roaCms = RoaCmsObjectMother.getRoaCms();
+
+        RoaCmsParser streamParser = new RoaCmsParser();
+        streamParser.parse(ValidationResult.withLocation("test.roa"), new ByteArrayInputStream(roaCms.getEncoded()), new ValidationOptions());
+
+        assertFalse(streamParser.getValidationResult().hasFailures());
+        assertEquals(roaCms, streamParser.getRoaCms());
+    }
+
+    @Test
+    public void shouldRejectRoaStreamExceedingSizeLimit() {
+        RoaCms roaCms = RoaCmsObjectMother.getRoaCms();
+        ValidationOptions options = new ValidationOptions();
+        options.setMaxObjectSize(RepositoryObjectType.Roa, 256);
+
+        RoaCmsParser streamParser = new RoaCmsParser();
+        streamParser.parse(ValidationResult.withLocation("test.roa"), new ByteArrayInputStream(roaCms.getEncoded()), options);
+
+        assertEquals(Collections.singleton(new ValidationCheck(ValidationStatus.ERROR, OBJECTS_SIZE_LIMIT, "256")),
+                streamParser.getValidationResult().getFailuresForCurrentLocation());
+    }
 }
@@ -0,0 +1,211 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.crypto.crl;
+
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.ValidationOptions;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.ValidationString;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.DEFAULT_SIGNATURE_PROVIDER;
+import static org.junit.Assert.*;
+
+public class CachingCrlLocatorTest {
+
+    private static final X500Principal ISSUER = new X500Principal("CN=issuer");
+    private static final URI CRL_URI = URI.create("rsync://example.net/repo/issuer.crl");
+    private static final KeyPair KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+    private static final KeyPair OTHER_KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+
+    private final Map<URI, byte[]> repository = new ConcurrentHashMap<URI, byte[]>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private CachingCrlLocator locator;
+    private CertificateRepositoryObjectValidationContext context;
+
+    @Before
+    public void setUp() {
+        locator = new CachingCrlLocator(uri -> {
+            loads.incrementAndGet();
+            return repository.get(uri);
+        }, new ValidationOptions());
+        X509ResourceCertificate issuer = new X509ResourceCertificateBuilder()
+                .withSubjectDN(ISSUER)
+                .withIssuerDN(ISSUER)
+                .withSerial(BigInteger.ONE)
+                .withValidityPeriod(new ValidityPeriod(UTC.dateTime().minusDays(1), UTC.dateTime().plusYears(1)))
+                .withPublicKey(KEY_PAIR.getPublic())
+                .withSigningKeyPair(KEY_PAIR)
+                .withCa(true)
+                .withKeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign)
+                .withSubjectKeyIdentifier(true)
+                .withResources(IpResourceSet.parse("10.0.0.0/8"))
+                .build();
+        context = new CertificateRepositoryObjectValidationContext(URI.create("rsync://example.net/issuer.cer"), issuer);
+    }
+
+    @Test
+    public void shouldReuseCrlWithSameContent() {
+        repository.put(CRL_URI, crl(BigInteger.ONE, UTC.dateTime().plusHours(8), KEY_PAIR).getEncoded());
+
+        ValidationResult first = ValidationResult.withLocation(CRL_URI);
+        X509Crl crl = locator.getCrl(CRL_URI, context, first);
+        ValidationResult second = ValidationResult.withLocation(CRL_URI);
+
+        assertSame(crl, locator.getCrl(CRL_URI, context, second));
+        assertFalse(first.hasFailures());
+        assertFalse(second.hasFailures());
+        assertTrue(second.getResultForCurrentLocation(ValidationString.CRL_SIGNATURE_VALID).isOk());
+        assertEquals(2, loads.get());
+        assertEquals(1, locator.size());
+    }
+
+    @Test
+    public void shouldReplaceCrlWhenContentChanges() {
+        repository.put(CRL_URI, crl(BigInteger.ONE, UTC.dateTime().plusHours(8), KEY_PAIR).getEncoded());
+        X509Crl first = locator.getCrl(CRL_URI, context, ValidationResult.withLocation(CRL_URI));
+
+        repository.put(CRL_URI, crl(BigInteger.TEN, UTC.dateTime().plusHours(8), KEY_PAIR).getEncoded());
+        X509Crl second = locator.getCrl(CRL_URI, context, ValidationResult.withLocation(CRL_URI));
+
+        assertNotSame(first, second);
+        assertEquals(BigInteger.TEN, second.getNumber());
+        assertEquals(1, locator.size());
+    }
+
+    @Test
+    public void shouldRejectCrlWithInvalidSignatureOnEveryRequest() {
+        repository.put(CRL_URI, crl(BigInteger.ONE, UTC.dateTime().plusHours(8), OTHER_KEY_PAIR).getEncoded());
+
+        ValidationResult first = ValidationResult.withLocation(CRL_URI);
+        locator.getCrl(CRL_URI, context, first);
+        ValidationResult second = ValidationResult.withLocation(CRL_URI);
+        locator.getCrl(CRL_URI, context, second);
+
+        assertTrue(first.hasFailures());
+        assertFalse(second.getResultForCurrentLocation(ValidationString.CRL_SIGNATURE_VALID).isOk());
+    }
+
+    @Test
+    public void shouldReportUnparsableCrl() {
+        repository.put(CRL_URI, new byte[]{1, 2, 3});
+        ValidationResult result = ValidationResult.withLocation(CRL_URI);
+
+        assertNull(locator.getCrl(CRL_URI, context, result));
+        assertFalse(result.getResultForCurrentLocation(ValidationString.CRL_PARSED).isOk());
+        assertNull(locator.getCrl(URI.create("rsync://example.net/repo/missing.crl"), context, result));
+    }
+
+    @Test
+    public void shouldReportParseChecksOnEveryRequest() {
+        ValidationOptions options = new ValidationOptions();
+        options.setMaxObjectSize(RepositoryObjectType.Crl, 16);
+        locator = new CachingCrlLocator(repository::get, options);
+        repository.put(CRL_URI, crl(BigInteger.ONE, UTC.dateTime().plusHours(8), KEY_PAIR).getEncoded());
+
+        for (int i = 0; i < 2; i++) {
+            ValidationResult result = ValidationResult.withLocation(CRL_URI);
+            assertNull(locator.getCrl(CRL_URI, context, result));
+            assertFalse(result.getResultForCurrentLocation(ValidationString.OBJECTS_SIZE_LIMIT).isOk());
+        }
+        assertEquals(1, locator.size());
+    }
+
+    @Test
+    public void shouldEvictExpiredCrls() {
+        repository.put(CRL_URI, crl(BigInteger.ONE, UTC.dateTime().minusMinutes(1), KEY_PAIR).getEncoded());
+        ValidationResult result = ValidationResult.withLocation(CRL_URI);
+        locator.getCrl(CRL_URI, context, result);
+        assertEquals(1, locator.size());
+        assertTrue(result.hasWarnings());
+
+        locator.evictExpired();
+
+        assertEquals(0, locator.size());
+    }
+
+    @Test
+    public void shouldShareCrlBetweenConcurrentRequests() throws Exception {
+        repository.put(CRL_URI, crl(BigInteger.ONE, UTC.dateTime().plusHours(8), KEY_PAIR).getEncoded());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<X509Crl>> results = new ArrayList<Future<X509Crl>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<X509Crl>() {
+                    @Override
+                    public X509Crl call() {
+                        return locator.getCrl(CRL_URI, context, ValidationResult.withLocation(CRL_URI));
+                    }
+                }));
+            }
+            X509Crl first = results.get(0).get();
+            for (Future<X509Crl> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static X509Crl crl(BigInteger number, DateTime nextUpdate, KeyPair signingKeyPair) {
+        return new X509CrlBuilder()
+                .withIssuerDN(ISSUER)
+                .withThisUpdateTime(nextUpdate.minusHours(24))
+                .withNextUpdateTime(nextUpdate)
+                .withNumber(number)
+                .withAuthorityKeyIdentifier(KEY_PAIR.getPublic())
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER)
+                .build(signingKeyPair.getPrivate());
+    }
+}
@@ -33,7 +33,10 @@ import net.ripe.ipresource.IpResource;
 import net.ripe.ipresource.IpResourceSet;
 import net.ripe.ipresource.IpResourceType;
 import net.ripe.rpki.commons.crypto.util.Asn1Util;
+import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -54,6 +57,16 @@ public class ResourceExtensionParserTest {
         parser = new ResourceExtensionParser();
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectExtensionExceedingNestingDepth() {
+        ASN1Encodable nested = new DERSequence();
+        for (int i = 0; i < 8; i++) {
+            nested = new DERSequence(nested);
+        }
+
+        new ResourceExtensionParser(8).parseIpAddressBlocks(Asn1Util.encode(new DEROctetString(Asn1Util.encode(nested))));
+    }
+
     @Test
     public void shouldParseIpv4Range() {
         assertEquals(IpResource.parse("10.5.0.0-10.5.1.255"), parser.derToIpRange(IpResourceType.IPv4, Asn1Util.decode(ENCODED_IPV4_RANGE_10_5_0_0_TO_10_5_1_255)));
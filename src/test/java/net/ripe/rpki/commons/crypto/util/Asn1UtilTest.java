@@ -36,7 +36,9 @@ import net.ripe.ipresource.Ipv4Address;
 import net.ripe.ipresource.UniqueIpResource;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.BERSequence;
 import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
 import org.junit.Test;
 
 import static net.ripe.rpki.commons.crypto.rfc3779.ResourceExtensionEncoderTest.*;
@@ -45,6 +47,27 @@ import static org.junit.Assert.*;
 
 public class Asn1UtilTest {
 
+    @Test
+    public void shouldCheckNestingDepth() {
+        ASN1Encodable nested = new ASN1Integer(1);
+        for (int i = 0; i < 10; i++) {
+            nested = new DERSequence(new ASN1Encodable[]{new ASN1Integer(i), nested});
+        }
+        byte[] encoded = encode(nested);
+
+        assertTrue(isNestingDepthWithin(encoded, 10));
+        assertFalse(isNestingDepthWithin(encoded, 9));
+        assertTrue(isNestingDepthWithin(encode(new DERSequence(new ASN1Encodable[]{new DERSequence(), new DERSequence(), new DERSequence()})), 2));
+    }
+
+    @Test
+    public void shouldCheckNestingDepthOfIndefiniteLengthEncoding() throws Exception {
+        byte[] encoded = new BERSequence(new ASN1Encodable[]{new BERSequence(new ASN1Integer(1)), new BERSequence(new ASN1Integer(2))}).getEncoded();
+
+        assertTrue(isNestingDepthWithin(encoded, 2));
+        assertFalse(isNestingDepthWithin(encoded, 1));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void shouldFailToParseNonZeroPadBits() {
         byte[] WRONG_ENCODED_IPV4_10_5_0_0_23 = {0x03, 0x04, 0x01, 0x0a, 0x05, 0x01};
@@ -0,0 +1,74 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.crypto.util;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferInputStreamTest {
+
+    private static final byte[] DATA = {0, 1, 2, 3, 4, 5, 6, 7};
+
+    @Test
+    public void shouldReadRemainingBytesWithoutMovingBuffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length);
+        buffer.put(DATA).flip();
+        buffer.position(2).limit(6);
+
+        assertArrayEquals(new byte[]{2, 3, 4, 5}, ByteStreams.toByteArray(new ByteBufferInputStream(buffer)));
+        assertEquals(2, buffer.position());
+        assertEquals(6, buffer.limit());
+    }
+
+    @Test
+    public void shouldSupportMarkAndReset() throws IOException {
+        ByteBufferInputStream in = new ByteBufferInputStream(ByteBuffer.wrap(DATA));
+        assertEquals(2, in.skip(2));
+        in.mark(0);
+        assertEquals(2, in.read());
+        in.reset();
+        assertEquals(2, in.read());
+        assertEquals(5, in.available());
+    }
+
+    @Test
+    public void shouldReturnBackingArrayOnlyWhenItIsCoveredExactly() {
+        assertSame(DATA, ByteBufferInputStream.toByteArray(ByteBuffer.wrap(DATA)));
+
+        byte[] slice = ByteBufferInputStream.toByteArray(ByteBuffer.wrap(DATA, 1, 3));
+        assertNotSame(DATA, slice);
+        assertArrayEquals(new byte[]{1, 2, 3}, slice);
+    }
+}
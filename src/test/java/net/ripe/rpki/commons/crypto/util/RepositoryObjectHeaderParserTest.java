@@ -0,0 +1,140 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.crypto.util;
+
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.AbstractX509CertificateWrapper;
+import net.ripe.rpki.commons.crypto.x509cert.X509CertificateInformationAccessDescriptor;
+import net.ripe.rpki.commons.util.RepositoryObjectType;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class RepositoryObjectHeaderParserTest {
+
+    @Test
+    public void shouldMatchFullParserForTestObjects() throws IOException {
+        int compared = 0;
+        for (File file : testObjects()) {
+            byte[] encoded = Files.readAllBytes(file.toPath());
+            ValidationResult result = ValidationResult.withLocation(file.getName());
+            CertificateRepositoryObject object;
+            try {
+                object = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(encoded, result);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (object == null || result.hasFailures()) {
+                continue;
+            }
+
+            RepositoryObjectHeader header = RepositoryObjectHeaderParser.parse(encoded);
+
+            String message = file.getPath();
+            assertEquals(message, RepositoryObjectType.parse(file.getName()), header.getType());
+            if (object instanceof AbstractX509CertificateWrapper) {
+                assertCertificateFields(message, (AbstractX509CertificateWrapper) object, header);
+            } else if (object instanceof X509Crl) {
+                X509Crl crl = (X509Crl) object;
+                assertArrayEquals(message, crl.getAuthorityKeyIdentifier(), header.getAuthorityKeyIdentifier());
+                assertEquals(message, crl.getNumber(), header.getNumber());
+                assertTrue(message, crl.getThisUpdateTime().isEqual(header.getThisUpdateTime()));
+                assertTrue(message, crl.getNextUpdateTime().isEqual(header.getNextUpdateTime()));
+            } else if (object instanceof RpkiSignedObject) {
+                assertCertificateFields(message, ((RpkiSignedObject) object).getCertificate(), header);
+                if (object instanceof ManifestCms) {
+                    ManifestCms manifest = (ManifestCms) object;
+                    assertEquals(message, manifest.getNumber(), header.getNumber());
+                    assertTrue(message, manifest.getThisUpdateTime().isEqual(header.getThisUpdateTime()));
+                    assertTrue(message, manifest.getNextUpdateTime().isEqual(header.getNextUpdateTime()));
+                }
+            }
+            compared++;
+        }
+        assertTrue("expected test objects, compared " + compared, compared > 20);
+    }
+
+    @Test(expected = RepositoryObjectHeaderException.class)
+    public void shouldRejectTruncatedObject() throws IOException {
+        byte[] encoded = Files.readAllBytes(new File("src/test/resources/conformance/root.cer").toPath());
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        RepositoryObjectHeaderParser.parse(truncated);
+    }
+
+    @Test(expected = RepositoryObjectHeaderException.class)
+    public void shouldRejectNonDerInput() {
+        RepositoryObjectHeaderParser.parse("not an object".getBytes());
+    }
+
+    private static void assertCertificateFields(String message, AbstractX509CertificateWrapper certificate, RepositoryObjectHeader header) {
+        assertArrayEquals(message, certificate.getSubjectKeyIdentifier(), header.getSubjectKeyIdentifier());
+        assertArrayEquals(message, certificate.getAuthorityKeyIdentifier(), header.getAuthorityKeyIdentifier());
+        assertEquals(message, certificate.findFirstRsyncCrlDistributionPoint(), header.getCrlUri());
+        assertEquals(message, certificate.findFirstAuthorityInformationAccessByMethod(X509CertificateInformationAccessDescriptor.ID_CA_CA_ISSUERS), header.getParentCertificateUri());
+        try {
+            certificate.getSubjectInformationAccess();
+        } catch (IllegalArgumentException e) {
+            // SIA with non-URI names can not be converted by the full parser, the header parser skips those
+            return;
+        }
+        assertEquals(message, certificate.getRepositoryUri(), header.getRepositoryUri());
+        assertEquals(message, certificate.getManifestUri(), header.getManifestUri());
+        assertEquals(message, certificate.getRrdpNotifyUri(), header.getRrdpNotifyUri());
+    }
+
+    static List<File> testObjects() throws IOException {
+        List<File> result = new ArrayList<File>();
+        for (String directory : new String[]{"src/test/resources/conformance", "src/test/resources/interop"}) {
+            try (Stream<Path> files = Files.walk(new File(directory).toPath())) {
+                result.addAll(files.map(Path::toFile)
+                        .filter(file -> file.isFile() && !file.getName().startsWith("bad"))
+                        .filter(file -> RepositoryObjectType.parse(file.getName()) != RepositoryObjectType.Unknown)
+                        .sorted()
+                        .collect(Collectors.toList()));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RrdpClientTest {
+
+    private static final String SESSION = "9df4b597-af9e-4dca-bdda-719cce2c4e28";
+    private static final URI NOTIFICATION = URI.create("https://rrdp.example.net/notification.xml");
+    private static final URI CER = URI.create("rsync://example.net/repo/ca.cer");
+    private static final URI ROA = URI.create("rsync://example.net/repo/a.roa");
+    private static final URI CRL = URI.create("rsync://example.net/repo/ca.crl");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<URI> requested = new ArrayList<URI>();
+
+    private RrdpClient subject;
+
+    private InMemoryRrdpRepositoryStore store;
+
+    private File staging;
+
+    @Before
+    public void setUp() throws IOException {
+        staging = folder.newFolder("staging");
+        subject = new RrdpClient(uri -> {
+            requested.add(uri);
+            return new FileInputStream(new File(folder.getRoot(), uri.getPath()));
+        }, staging);
+        store = new InMemoryRrdpRepositoryStore();
+    }
+
+    @Test
+    public void shouldLoadSnapshot() throws IOException {
+        String snapshot = write("snapshot-1.xml", snapshot(1, publish(CER, "cer"), publish(ROA, "roa")));
+        write("notification.xml", notification(1, snapshot));
+
+        RrdpUpdate update = subject.update(NOTIFICATION, store);
+
+        assertEquals(RrdpUpdate.Type.SNAPSHOT, update.getType());
+        assertEquals(2, update.getChangedObjects());
+        assertArrayEquals(bytes("roa"), store.get(ROA));
+        assertEquals(SESSION, store.getSessionId());
+        assertEquals(BigInteger.ONE, store.getSerial());
+        assertEquals(0, staging.list().length);
+    }
+
+    @Test
+    public void shouldApplyOnlyDeltas() throws IOException {
+        String snapshot = write("snapshot-1.xml", snapshot(1, publish(CER, "cer"), publish(ROA, "roa")));
+        write("notification.xml", notification(1, snapshot));
+        subject.update(NOTIFICATION, store);
+
+        String delta2 = write("delta-2.xml", delta(2, publish(CRL, "crl"), publish(ROA, "roa2", "roa")));
+        String delta3 = write("delta-3.xml", delta(3, withdraw(CER, "cer")));
+        write("notification.xml", notification(3, write("snapshot-3.xml", "not used"), deltaReference(2, delta2), deltaReference(3, delta3)));
+        requested.clear();
+
+        RrdpUpdate update = subject.update(NOTIFICATION, store);
+
+        assertEquals(RrdpUpdate.Type.DELTAS, update.getType());
+        assertEquals(3, update.getChangedObjects());
+        assertFalse(requested.contains(URI.create("https://rrdp.example.net/snapshot-3.xml")));
+        assertNull(store.get(CER));
+        assertArrayEquals(bytes("roa2"), store.get(ROA));
+        assertArrayEquals(bytes("crl"), store.get(CRL));
+        assertEquals(BigInteger.valueOf(3), store.getSerial());
+
+        assertEquals(RrdpUpdate.Type.UP_TO_DATE, subject.update(NOTIFICATION, store).getType());
+    }
+
+    @Test
+    public void shouldFallBackToSnapshotWhenDeltaDoesNotApply() throws IOException {
+        write("notification.xml", notification(1, write("snapshot-1.xml", snapshot(1, publish(CER, "cer"), publish(ROA, "roa")))));
+        subject.update(NOTIFICATION, store);
+
+        String delta2 = write("delta-2.xml", delta(2, withdraw(ROA, "something else")));
+        String snapshot2 = write("snapshot-2.xml", snapshot(2, publish(CER, "cer")));
+        write("notification.xml", notification(2, snapshot2, deltaReference(2, delta2)));
+
+        RrdpUpdate update = subject.update(NOTIFICATION, store);
+
+        assertEquals(RrdpUpdate.Type.SNAPSHOT, update.getType());
+        assertEquals(1, update.getRemovedObjects());
+        assertNull(store.get(ROA));
+        assertEquals(1, store.size());
+        assertEquals(BigInteger.valueOf(2), store.getSerial());
+    }
+
+    @Test
+    public void shouldRejectFileWithWrongHash() throws IOException {
+        String snapshot = write("snapshot-1.xml", snapshot(1, publish(CER, "cer")));
+        write("notification.xml", notification(1, snapshot).replace(hashOf(snapshot), sha256("other")));
+
+        try {
+            subject.update(NOTIFICATION, store);
+            fail("expected RrdpException");
+        } catch (RrdpException expected) {
+            assertNull(store.getSerial());
+            assertEquals(0, store.size());
+            assertEquals(0, staging.list().length);
+        }
+    }
+
+    @Test
+    public void shouldNotApplyDeltaWithWrongHash() throws IOException {
+        write("notification.xml", notification(1, write("snapshot-1.xml", snapshot(1, publish(CER, "cer")))));
+        subject.update(NOTIFICATION, store);
+
+        String delta2 = write("delta-2.xml", delta(2, publish(ROA, "roa")));
+        String snapshot2 = write("snapshot-2.xml", snapshot(2, publish(CER, "cer"), publish(ROA, "roa")));
+        write("notification.xml", notification(2, snapshot2, deltaReference(2, delta2))
+                .replace(hashOf(delta2), sha256("other")).replace(hashOf(snapshot2), sha256("other")));
+
+        try {
+            subject.update(NOTIFICATION, store);
+            fail("expected RrdpException");
+        } catch (RrdpException expected) {
+            assertEquals(BigInteger.ONE, store.getSerial());
+            assertNull(store.get(ROA));
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    public void shouldOnlyOpenHttpUris() {
+        try {
+            new UrlConnectionRrdpHttpClient().open(new File(folder.getRoot(), "notification.xml").toURI());
+            fail("expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("unsupported URI scheme"));
+        }
+    }
+
+    private String write(String name, String content) throws IOException {
+        Files.write(new File(folder.getRoot(), name).toPath(), bytes(content));
+        return name;
+    }
+
+    private String notification(int serial, String snapshot, String... deltas) throws IOException {
+        StringBuilder xml = new StringBuilder("<notification xmlns=\"" + RrdpParser.NAMESPACE + "\" version=\"1\" session_id=\"" + SESSION + "\" serial=\"" + serial + "\">\n");
+        xml.append("  <snapshot uri=\"").append(uriOf(snapshot)).append("\" hash=\"").append(hashOf(snapshot)).append("\"/>\n");
+        for (String delta : deltas) {
+            xml.append(delta);
+        }
+        return xml.append("</notification>\n").toString();
+    }
+
+    private String deltaReference(int serial, String delta) throws IOException {
+        return "  <delta serial=\"" + serial + "\" uri=\"" + uriOf(delta) + "\" hash=\"" + hashOf(delta) + "\"/>\n";
+    }
+
+    private static String snapshot(int serial, String... elements) {
+        return "<snapshot xmlns=\"" + RrdpParser.NAMESPACE + "\" version=\"1\" session_id=\"" + SESSION + "\" serial=\"" + serial + "\">\n"
+                + String.join("", elements) + "</snapshot>\n";
+    }
+
+    private static String delta(int serial, String... elements) {
+        return "<delta xmlns=\"" + RrdpParser.NAMESPACE + "\" version=\"1\" session_id=\"" + SESSION + "\" serial=\"" + serial + "\">\n"
+                + String.join("", elements) + "</delta>\n";
+    }
+
+    private static String publish(URI uri, String content) {
+        return "  <publish uri=\"" + uri + "\">\n    " + Base64.getMimeEncoder().encodeToString(bytes(content)) + "\n  </publish>\n";
+    }
+
+    private static String publish(URI uri, String content, String replaces) {
+        return "  <publish uri=\"" + uri + "\" hash=\"" + sha256(replaces) + "\">" + Base64.getEncoder().encodeToString(bytes(content)) + "</publish>\n";
+    }
+
+    private static String withdraw(URI uri, String content) {
+        return "  <withdraw uri=\"" + uri + "\" hash=\"" + sha256(content) + "\"/>\n";
+    }
+
+    private String hashOf(String name) throws IOException {
+        return Hex.toHexString(ManifestCms.hashContents(Files.readAllBytes(new File(folder.getRoot(), name).toPath())));
+    }
+
+    private static String uriOf(String name) {
+        return "https://rrdp.example.net/" + name;
+    }
+
+    private static String sha256(String content) {
+        return Hex.toHexString(ManifestCms.hashContents(bytes(content)));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
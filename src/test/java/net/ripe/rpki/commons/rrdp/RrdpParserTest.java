@@ -0,0 +1,83 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class RrdpParserTest {
+
+    private static final String HASH = "a0b1c2d3e4f5a6b7c8d9e0f1a2b3c4d5e6f7a8b9c0d1e2f3a4b5c6d7e8f9a0b1";
+
+    @Test
+    public void shouldParseNotification() {
+        RrdpNotification notification = RrdpParser.parseNotification(stream(
+                "<notification xmlns=\"http://www.ripe.net/rpki/rrdp\" version=\"1\" session_id=\"s1\" serial=\"4\">"
+                        + "<snapshot uri=\"https://example.net/snapshot.xml\" hash=\"" + HASH + "\"/>"
+                        + "<delta serial=\"4\" uri=\"https://example.net/4.xml\" hash=\"" + HASH.toUpperCase() + "\"/>"
+                        + "<delta serial=\"3\" uri=\"https://example.net/3.xml\" hash=\"" + HASH + "\"/>"
+                        + "</notification>"));
+
+        assertEquals("s1", notification.getSessionId());
+        assertEquals(BigInteger.valueOf(4), notification.getSerial());
+        assertEquals(URI.create("https://example.net/snapshot.xml"), notification.getSnapshot().getUri());
+        assertEquals(BigInteger.valueOf(3), notification.getDeltas().get(0).getSerial());
+        assertEquals(2, notification.getDeltasSince(BigInteger.valueOf(2)).size());
+        assertTrue(notification.getDeltasSince(BigInteger.valueOf(4)).isEmpty());
+        assertNull("delta 2 is missing", notification.getDeltasSince(BigInteger.ONE));
+    }
+
+    @Test(expected = RrdpException.class)
+    public void shouldRejectDocumentTypeDefinitions() {
+        RrdpParser.parseSnapshot(stream(
+                "<?xml version=\"1.0\"?><!DOCTYPE snapshot [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>"
+                        + "<snapshot xmlns=\"http://www.ripe.net/rpki/rrdp\" version=\"1\" session_id=\"s1\" serial=\"1\">"
+                        + "<publish uri=\"rsync://example.net/repo/a.cer\">&xxe;</publish></snapshot>"),
+                "s1", BigInteger.ONE, new InMemoryRrdpRepositoryStore(), new HashSet<URI>());
+    }
+
+    @Test(expected = RrdpException.class)
+    public void shouldRejectUnsupportedVersion() {
+        RrdpParser.parseNotification(stream(
+                "<notification xmlns=\"http://www.ripe.net/rpki/rrdp\" version=\"2\" session_id=\"s1\" serial=\"1\"/>"));
+    }
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
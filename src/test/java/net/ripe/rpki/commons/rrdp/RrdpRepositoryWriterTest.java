@@ -0,0 +1,147 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rrdp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class RrdpRepositoryWriterTest {
+
+    private static final URI BASE_URI = URI.create("https://rrdp.example.net/rrdp/");
+    private static final URI NOTIFICATION = BASE_URI.resolve(RrdpRepositoryWriter.NOTIFICATION_FILE);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RrdpRepositoryWriter subject;
+
+    private RrdpClient client;
+
+    @Before
+    public void setUp() {
+        subject = new RrdpRepositoryWriter(folder.getRoot(), BASE_URI, 2);
+        client = new RrdpClient(uri -> new FileInputStream(new File(folder.getRoot(), BASE_URI.relativize(uri).getPath())));
+    }
+
+    @Test
+    public void shouldWriteInitialSnapshot() {
+        subject.publish(uri("a.cer"), bytes("a"));
+        subject.publish(uri("b&c.roa"), bytes("b"));
+
+        RrdpNotification notification = subject.flush();
+
+        assertEquals(BigInteger.ONE, notification.getSerial());
+        assertTrue(notification.getDeltas().isEmpty());
+        InMemoryRrdpRepositoryStore store = new InMemoryRrdpRepositoryStore();
+        assertEquals(RrdpUpdate.Type.SNAPSHOT, client.update(NOTIFICATION, store).getType());
+        assertArrayEquals(bytes("b"), store.get(uri("b&c.roa")));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void shouldWriteDeltasAndIncrementalSnapshots() {
+        for (int i = 0; i < 100; i++) {
+            subject.publish(uri("object-" + i + ".roa"), bytes("content " + i));
+        }
+        subject.flush();
+        InMemoryRrdpRepositoryStore store = new InMemoryRrdpRepositoryStore();
+        client.update(NOTIFICATION, store);
+
+        subject.publish(uri("object-0.roa"), bytes("replaced"));
+        subject.publish(uri("object-50.roa"), bytes("replaced"));
+        subject.publish(uri("new.cer"), bytes("new"));
+        subject.withdraw(uri("object-99.roa"));
+        subject.publish(uri("transient.crl"), bytes("gone before flush"));
+        subject.withdraw(uri("transient.crl"));
+        RrdpNotification notification = subject.flush();
+
+        assertEquals(1, notification.getDeltas().size());
+        RrdpUpdate update = client.update(NOTIFICATION, store);
+        assertEquals(RrdpUpdate.Type.DELTAS, update.getType());
+        assertEquals(4, update.getChangedObjects());
+
+        InMemoryRrdpRepositoryStore fromSnapshot = new InMemoryRrdpRepositoryStore();
+        assertEquals(RrdpUpdate.Type.SNAPSHOT, client.update(NOTIFICATION, fromSnapshot).getType());
+        assertEquals(100, fromSnapshot.size());
+        assertEquals(store.getUris(), fromSnapshot.getUris());
+        for (URI uri : store.getUris()) {
+            assertArrayEquals(store.get(uri), fromSnapshot.get(uri));
+        }
+        assertArrayEquals(bytes("replaced"), fromSnapshot.get(uri("object-50.roa")));
+        assertArrayEquals(bytes("content 49"), fromSnapshot.get(uri("object-49.roa")));
+        assertNull(fromSnapshot.get(uri("object-99.roa")));
+    }
+
+    @Test
+    public void shouldPruneDeltasAndOldSnapshots() {
+        for (int i = 0; i < 20; i++) {
+            subject.publish(uri("object-" + i + ".roa"), bytes("content " + i));
+        }
+        subject.flush();
+        for (int i = 0; i < 4; i++) {
+            subject.publish(uri("a.cer"), bytes("a" + i));
+            subject.flush();
+        }
+        assertEquals(subject.getSerial(), subject.flush().getSerial());
+
+        RrdpNotification notification = client.fetchNotification(NOTIFICATION);
+        assertEquals(BigInteger.valueOf(5), notification.getSerial());
+        assertEquals(2, notification.getDeltas().size());
+        assertEquals(BigInteger.valueOf(4), notification.getDeltas().get(0).getSerial());
+        File session = new File(folder.getRoot(), subject.getSessionId());
+        assertFalse(new File(session, "3/snapshot.xml").exists());
+        assertTrue(new File(session, "4/snapshot.xml").exists());
+        assertFalse(new File(session, "3/delta.xml").exists());
+        assertFalse(new File(session, "1").exists());
+
+        subject.publish(uri("large.cer"), new byte[4096]);
+        subject.flush();
+        subject.withdraw(uri("large.cer"));
+        assertEquals("deltas larger than the snapshot are dropped", 1, subject.flush().getDeltas().size());
+    }
+
+    private static URI uri(String name) {
+        return URI.create("rsync://example.net/repo/" + name);
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
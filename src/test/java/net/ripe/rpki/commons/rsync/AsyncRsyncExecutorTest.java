@@ -0,0 +1,230 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class AsyncRsyncExecutorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AsyncRsyncExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void shouldLimitConcurrencyPerHost() throws Exception {
+        executor = new AsyncRsyncExecutor(10, 1, 10000, 1024);
+        List<CompletableFuture<RsyncResult>> a = new ArrayList<CompletableFuture<RsyncResult>>();
+        for (int i = 0; i < 3; i++) {
+            a.add(submit("rsync://a.example.net/repo/", "sleep 0.2"));
+        }
+        CompletableFuture<RsyncResult> b = submit("rsync://b.example.net/repo/", "sleep 0.2");
+
+        long[] aTimes = new long[6];
+        for (int i = 0; i < 3; i++) {
+            RsyncResult result = a.get(i).get(10, TimeUnit.SECONDS);
+            assertTrue(result.isSuccess());
+            aTimes[2 * i] = timestamp(result, 0);
+            aTimes[2 * i + 1] = timestamp(result, 1);
+        }
+        for (int i = 1; i < 3; i++) {
+            assertTrue("fetches to the same host overlap", aTimes[2 * i] >= aTimes[2 * i - 1]);
+        }
+        assertTrue("other hosts are not blocked", timestamp(b.get(10, TimeUnit.SECONDS), 0) < aTimes[1]);
+    }
+
+    @Test
+    public void shouldLetHostsTakeTurns() throws Exception {
+        executor = new AsyncRsyncExecutor(1, 1, 10000, 1024);
+        List<CompletableFuture<RsyncResult>> futures = Arrays.asList(
+                submit("rsync://a.example.net/repo/1/", "sleep 0.1"),
+                submit("rsync://a.example.net/repo/2/", "true"),
+                submit("rsync://a.example.net/repo/3/", "true"),
+                submit("rsync://b.example.net/repo/1/", "true"));
+        assertEquals(1, executor.getRunningCount());
+        assertEquals(3, executor.getQueuedCount());
+
+        List<Long> started = new ArrayList<Long>();
+        for (CompletableFuture<RsyncResult> future : futures) {
+            started.add(timestamp(future.get(10, TimeUnit.SECONDS), 0));
+        }
+        assertTrue(started.get(0) < started.get(1));
+        assertTrue(started.get(1) < started.get(3));
+        assertTrue(started.get(3) < started.get(2));
+    }
+
+    @Test
+    public void shouldKillProcessOnTimeout() throws Exception {
+        executor = new AsyncRsyncExecutor(1, 1, 200, 1024);
+        long start = System.currentTimeMillis();
+
+        RsyncResult result = submit("rsync://a.example.net/repo/", "sleep 30").get(10, TimeUnit.SECONDS);
+
+        assertTrue(result.isTimedOut());
+        assertFalse(result.isSuccess());
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(0, executor.getRunningCount());
+    }
+
+    @Test
+    public void shouldCapBufferedOutput() throws Exception {
+        executor = new AsyncRsyncExecutor(1, 1, 10000, 1000);
+
+        RsyncResult result = submit(null, "yes rsync | head -c 100000; echo error >&2").get(10, TimeUnit.SECONDS);
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.isOutputTruncated());
+        assertTrue(result.getOutputLines().size() <= 1000 / 6 + 1);
+        assertEquals(Collections.singletonList("error"), result.getErrorLines());
+    }
+
+    @Test
+    public void shouldFailQueuedFetchesWhenClosed() throws Exception {
+        executor = new AsyncRsyncExecutor(1, 1, 10000, 1024);
+        CompletableFuture<RsyncResult> running = submit(null, "sleep 30");
+        CompletableFuture<RsyncResult> queued = submit(null, "true");
+
+        executor.close();
+
+        assertTrue(running.isCompletedExceptionally());
+        assertTrue(queued.isCompletedExceptionally());
+        assertTrue(executor.submit(new Rsync()).isCompletedExceptionally());
+    }
+
+    @Test
+    public void shouldFailFetchWhenCompletionIsRejected() throws Exception {
+        AtomicBoolean reject = new AtomicBoolean(true);
+        executor = new AsyncRsyncExecutor(1, 1, 10000, 1024, runnable -> {
+            if (reject.getAndSet(false)) {
+                throw new RejectedExecutionException("rejected");
+            }
+            runnable.run();
+        });
+
+        CompletableFuture<RsyncResult> rejected = submit(null, "true");
+        try {
+            rejected.get(10, TimeUnit.SECONDS);
+            fail("rejected completion should fail the fetch");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(submit(null, "true").get(10, TimeUnit.SECONDS).isSuccess());
+    }
+
+    @Test
+    public void shouldSkipFailingHostsAndRecordFetches() throws Exception {
+        RsyncHostMonitor monitor = new RsyncHostMonitor(100, 10000, 1, 60000, 60000);
+        executor = new AsyncRsyncExecutor(2, 1, 10000, 1024, Runnable::run, monitor);
+
+        assertFalse(submit("rsync://a.example.net/repo/", "exit 5").get(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(submit("rsync://b.example.net/repo/", "true").get(10, TimeUnit.SECONDS).isSuccess());
+        RsyncResult skipped = submit("rsync://a.example.net/repo/", "true").get(10, TimeUnit.SECONDS);
+
+        assertEquals(Command.NOT_EXECUTED, skipped.getExitStatus());
+        assertEquals(1, monitor.getStatistics("a.example.net").getFetchCount());
+        assertEquals(1, monitor.getStatistics("a.example.net").getSkippedCount());
+        assertEquals(RsyncHostStatistics.CircuitState.CLOSED, monitor.getStatistics("b.example.net").getCircuitState());
+    }
+
+    @Test
+    public void shouldReleaseTrialFetchWhenClosed() throws Exception {
+        RsyncHostMonitor monitor = new RsyncHostMonitor(100, 10000, 1, 1, 1);
+        monitor.recordFailure("a.example.net", 100, false);
+        Thread.sleep(10);
+        executor = new AsyncRsyncExecutor(1, 1, 10000, 1024, Runnable::run, monitor);
+        CompletableFuture<RsyncResult> trial = submit("rsync://a.example.net/repo/", "sleep 30");
+        assertEquals(RsyncHostStatistics.CircuitState.HALF_OPEN, monitor.getStatistics("a.example.net").getCircuitState());
+
+        executor.close();
+
+        assertTrue(trial.isCompletedExceptionally());
+        assertEquals(RsyncHostStatistics.CircuitState.OPEN, monitor.getStatistics("a.example.net").getCircuitState());
+        assertTrue(monitor.allowFetch("a.example.net"));
+    }
+
+    @Test
+    public void shouldDetermineHost() {
+        assertEquals("rpki.example.net", AsyncRsyncExecutor.hostOf("rsync://RPKI.example.net/repo/"));
+        assertEquals("rpki.example.net", AsyncRsyncExecutor.hostOf("user@rpki.example.net::repo/"));
+        assertEquals(AsyncRsyncExecutor.LOCAL_HOST, AsyncRsyncExecutor.hostOf("/var/cache/rpki/"));
+        assertEquals(AsyncRsyncExecutor.LOCAL_HOST, AsyncRsyncExecutor.hostOf(null));
+    }
+
+    @Test
+    public void shouldSyncLocalDirectories() throws Exception {
+        File source = folder.newFolder("source");
+        File destination = folder.newFolder("destination");
+        Files.write(new File(source, "a.roa").toPath(), new byte[]{1});
+        executor = new AsyncRsyncExecutor(2, 1, 10000, 64 * 1024);
+        Rsync rsync = new Rsync(source.getPath() + "/", destination.getPath() + "/");
+        rsync.addOptions("--recursive");
+        rsync.setItemizeChanges(true);
+
+        RsyncResult result = executor.submit(rsync).get(10, TimeUnit.SECONDS);
+
+        assertTrue(result.isSuccess());
+        assertEquals(Collections.singletonList("a.roa"), result.getChangeSet().getAddedPaths());
+        assertTrue(new File(destination, "a.roa").exists());
+    }
+
+    private CompletableFuture<RsyncResult> submit(String source, String script) {
+        return executor.submit(source, Arrays.asList("sh", "-c", "echo $(date +%s%N); " + script + "; echo $(date +%s%N)"), null, false);
+    }
+
+    private static long timestamp(RsyncResult result, int index) {
+        List<String> lines = result.getOutputLines();
+        return Long.parseLong(index == 0 ? lines.get(0) : lines.get(lines.size() - 1));
+    }
+}
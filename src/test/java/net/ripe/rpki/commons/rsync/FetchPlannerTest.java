@@ -0,0 +1,170 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCmsBuilder;
+import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
+import net.ripe.rpki.commons.crypto.x509cert.X509CertificateInformationAccessDescriptor;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.util.UTC;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.DEFAULT_SIGNATURE_PROVIDER;
+import static org.junit.Assert.*;
+
+public class FetchPlannerTest {
+
+    private static final KeyPair KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ManifestCms manifest;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        DateTime now = UTC.dateTime();
+        ManifestCmsBuilder builder = new ManifestCmsBuilder()
+                .withCertificate(new X509ResourceCertificateBuilder()
+                        .withSubjectDN(new X500Principal("CN=manifest"))
+                        .withIssuerDN(new X500Principal("CN=ca"))
+                        .withSerial(BigInteger.ONE)
+                        .withValidityPeriod(new ValidityPeriod(now.minusMinutes(1), now.plusDays(1)))
+                        .withPublicKey(KEY_PAIR.getPublic())
+                        .withSigningKeyPair(KEY_PAIR)
+                        .withKeyUsage(KeyUsage.digitalSignature)
+                        .withInheritedResourceTypes(EnumSet.allOf(IpResourceType.class))
+                        .withCrlDistributionPoints(URI.create("rsync://example.net/repo/ca/ca.crl"))
+                        .withSubjectInformationAccess(new X509CertificateInformationAccessDescriptor(
+                                X509CertificateInformationAccessDescriptor.ID_AD_SIGNED_OBJECT, URI.create("rsync://example.net/repo/ca/ca.mft")))
+                        .build())
+                .withManifestNumber(BigInteger.ONE)
+                .withThisUpdateTime(now)
+                .withNextUpdateTime(now.plusDays(1))
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER);
+        builder.addFile("a.roa", bytes("a"));
+        builder.addFile("b.roa", bytes("b"));
+        builder.addFile("c.roa", bytes("c"));
+        builder.addFile("ca.crl", bytes("crl"));
+        builder.addFile("../escape.roa", bytes("x"));
+        manifest = builder.build(KEY_PAIR.getPrivate());
+
+        directory = folder.newFolder("repo");
+        write("a.roa", "a");
+        write("b.roa", "modified");
+        write("ca.crl", "crl");
+        write("ca.mft", "manifest");
+        write("old.roa", "old");
+        assertTrue(new File(directory, "child").mkdir());
+    }
+
+    @Test
+    public void shouldPlanAgainstLocalDirectory() {
+        FetchPlan plan = new FetchPlanner().plan(manifest, directory);
+
+        assertEquals(Arrays.asList("b.roa", "c.roa"), plan.getFilesToFetch());
+        assertEquals(Arrays.asList("a.roa", "ca.crl"), plan.getFilesToKeep());
+        assertEquals(Collections.singletonList("old.roa"), plan.getFilesToDelete());
+        assertFalse(plan.isUpToDate());
+    }
+
+    @Test
+    public void shouldPlanAgainstHashes() {
+        Map<String, byte[]> hashes = new HashMap<String, byte[]>();
+        for (String name : Arrays.asList("a.roa", "b.roa", "c.roa", "ca.crl")) {
+            hashes.put(name, ManifestCms.hashContents(bytes(name.substring(0, name.indexOf('.')).replace("ca", "crl"))));
+        }
+
+        FetchPlan plan = new FetchPlanner(Runnable::run).plan(manifest, hashes);
+
+        assertTrue(plan.isUpToDate());
+        assertEquals(4, plan.getFilesToKeep().size());
+        assertTrue(plan.getFilesToDelete().isEmpty());
+    }
+
+    @Test
+    public void shouldNeverDeleteManifestItself() {
+        Map<String, byte[]> hashes = new HashMap<String, byte[]>();
+        hashes.put("ca.mft", ManifestCms.hashContents(bytes("manifest")));
+        hashes.put("renamed.mft", ManifestCms.hashContents(bytes("manifest")));
+
+        assertEquals(Collections.singletonList("renamed.mft"), new FetchPlanner(Runnable::run).plan(manifest, hashes).getFilesToDelete());
+        assertEquals(Collections.singletonList("ca.mft"), new FetchPlanner(Runnable::run).plan(manifest, "renamed.mft", hashes).getFilesToDelete());
+    }
+
+    @Test
+    public void shouldConfigureRsyncAndDeleteObsoleteFiles() throws IOException {
+        FetchPlan plan = new FetchPlanner().plan(manifest, directory);
+        File filesFrom = new File(folder.getRoot(), "files-from");
+        Rsync rsync = new Rsync();
+
+        plan.configure(rsync, URI.create("rsync://example.net/repo/ca/"), directory, filesFrom);
+
+        assertEquals("rsync://example.net/repo/ca/", rsync.getSource());
+        assertTrue(rsync.containsOption("--files-from=" + filesFrom.getPath()));
+        assertEquals(Arrays.asList("b.roa", "c.roa"), Files.readAllLines(filesFrom.toPath(), StandardCharsets.UTF_8));
+
+        assertEquals(1, plan.deleteObsoleteFiles(directory));
+        assertFalse(new File(directory, "old.roa").exists());
+        assertTrue(new File(directory, "a.roa").exists());
+        assertTrue(new File(directory, "ca.mft").exists());
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(new File(directory, name).toPath(), bytes(content));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
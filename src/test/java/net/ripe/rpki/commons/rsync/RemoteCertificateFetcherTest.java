@@ -40,6 +40,12 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -76,6 +82,81 @@ public class RemoteCertificateFetcherTest {
         assertEquals(TEST_CRL, actualCrl);
     }
 
+    @Test
+    public void shouldFetchObjectsInBatchPerModule() {
+        BatchStubbedRsync batchRsync = new BatchStubbedRsync();
+        subject.setRsyncClient(batchRsync);
+
+        Map<String, RemoteCertificateFetcher.FetchResult> results = subject.getRemoteObjects(Arrays.asList(
+                "rsync://some.valid/repo/ta/path.cer",
+                "rsync://some.valid/repo/path.crl",
+                "rsync://some.valid/repo/missing.cer",
+                "rsync://some.valid/other/path.cer",
+                "relative/path.cer"));
+
+        assertEquals(Arrays.asList("rsync://some.valid/repo/", "rsync://some.valid/other/"), batchRsync.sources);
+        assertEquals(5, results.size());
+        assertEquals(TEST_CERTIFICATE, results.get("rsync://some.valid/repo/ta/path.cer").getObject());
+        assertEquals(TEST_CRL, results.get("rsync://some.valid/repo/path.crl").getObject());
+        assertTrue(results.get("rsync://some.valid/other/path.cer").isSuccess());
+        assertFalse(results.get("rsync://some.valid/repo/missing.cer").isSuccess());
+        assertEquals("object could not be retrieved", results.get("rsync://some.valid/repo/missing.cer").getError());
+        assertEquals("unsupported source path", results.get("relative/path.cer").getError());
+    }
+
+    @Test
+    public void shouldReportRsyncFailurePerPath() {
+        BatchStubbedRsync batchRsync = new BatchStubbedRsync();
+        batchRsync.exitStatus = 10;
+        subject.setRsyncClient(batchRsync);
+
+        Map<String, RemoteCertificateFetcher.FetchResult> results = subject.getRemoteObjects(Collections.singletonList("rsync://some.valid/repo/path.cer"));
+
+        assertEquals("rsync exited with status 10", results.get("rsync://some.valid/repo/path.cer").getError());
+    }
+
+    @Test
+    public void shouldRejectUnsafeSourcePaths() {
+        assertArrayEquals(new String[]{"rsync://some.valid:873/repo/", "ta/root.cer"}, RemoteCertificateFetcher.splitSourcePath("rsync://some.valid:873/repo/ta/root.cer"));
+        assertArrayEquals(new String[]{"/", "var/cache/root.cer"}, RemoteCertificateFetcher.splitSourcePath("/var/cache/root.cer"));
+        assertNull(RemoteCertificateFetcher.splitSourcePath("rsync://some.valid/repo/../etc/passwd"));
+        assertNull(RemoteCertificateFetcher.splitSourcePath("rsync://some.valid/root.cer"));
+        assertNull(RemoteCertificateFetcher.splitSourcePath("rsync://some.valid/repo/ta/"));
+    }
+
+    /**
+     * Copies the files listed in the <code>--files-from</code> option, using the path relative to the source
+     * module, like rsync does.
+     */
+    private static final class BatchStubbedRsync extends Rsync {
+
+        private final List<String> sources = new ArrayList<String>();
+        private int exitStatus = 0;
+
+        @Override
+        public int execute() {
+            sources.add(getSource());
+            if (exitStatus != 0) {
+                return exitStatus;
+            }
+            try {
+                String filesFrom = getOptions().get(0).substring("--files-from=".length());
+                for (String path : Files.readLines(new File(filesFrom), StandardCharsets.UTF_8)) {
+                    byte[] encoded = path.endsWith(".cer") ? TEST_CERTIFICATE.getEncoded() : TEST_CRL.getEncoded();
+                    if (!path.startsWith("missing")) {
+                        File destination = new File(getDestination(), path);
+                        destination.getParentFile().mkdirs();
+                        Files.write(encoded, destination);
+                    }
+                }
+                return 23;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return 1;
+            }
+        }
+    }
+
     private static final class StubbedRsync extends Rsync {
 
         @Override
@@ -0,0 +1,77 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RsyncChangeSetTest {
+
+    @Test
+    public void shouldParseItemizedOutput() {
+        RsyncChangeSet changes = RsyncChangeSet.parse(Arrays.asList(
+                "receiving incremental file list",
+                "*deleting   ca/old.roa",
+                "*deleting   ca/gone/",
+                ".d..t...... ./",
+                "cd+++++++++ ca/",
+                ">f+++++++++ ca/new.roa",
+                ">f.st...... ca/changed.mft",
+                ">fc.t...... ca/checksum.crl",
+                ".f..t...... ca/touched.cer",
+                "cL+++++++++ ca/link -> target",
+                "",
+                "sent 1,234 bytes  received 5,678 bytes  13,824.00 bytes/sec"));
+
+        assertEquals(Collections.singletonList("ca/new.roa"), changes.getAddedPaths());
+        assertEquals(Arrays.asList("ca/changed.mft", "ca/checksum.crl"), changes.getUpdatedPaths());
+        assertEquals(Collections.singletonList("ca/old.roa"), changes.getDeletedPaths());
+        assertEquals(Arrays.asList("ca/new.roa", "ca/changed.mft", "ca/checksum.crl"), changes.getChangedPaths());
+    }
+
+    @Test
+    public void shouldParseOldItemizeFormatAndEscapedNames() {
+        RsyncChangeSet changes = RsyncChangeSet.parse(Arrays.asList(
+                ">f+++++++ with space.roa",
+                ">f+++++++++ caf\\#303\\#251.cer"));
+
+        assertEquals(Arrays.asList("with space.roa", "caf\u00e9.cer"), changes.getAddedPaths());
+    }
+
+    @Test
+    public void shouldBeEmptyWithoutChanges() {
+        assertTrue(RsyncChangeSet.parse(Collections.<String>emptyList()).isEmpty());
+        assertTrue(RsyncChangeSet.parse(null).isEmpty());
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import net.ripe.rpki.commons.rsync.RsyncHostStatistics.CircuitState;
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RsyncHostMonitorTest {
+
+    private static final String HOST = "rpki.example.net";
+
+    private RsyncHostMonitor subject;
+
+    @Before
+    public void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(1000000L);
+        subject = new RsyncHostMonitor(1000, 60000, 2, 10000, 30000);
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void shouldAdaptTimeoutToFetchDuration() {
+        assertEquals(60000, subject.getTimeoutMillis(HOST));
+
+        for (int i = 0; i < 20; i++) {
+            subject.recordSuccess(HOST, 2000, new RsyncStatistics(100, 2, 5000, 300, 50, 400));
+        }
+        long timeout = subject.getTimeoutMillis(HOST);
+        assertTrue("timeout " + timeout, timeout >= 2000 && timeout < 4000);
+
+        subject.recordFailure(HOST, timeout, true);
+        assertEquals(2 * timeout, subject.getTimeoutMillis(HOST));
+
+        RsyncHostStatistics statistics = subject.getStatistics(HOST);
+        assertEquals(21, statistics.getFetchCount());
+        assertEquals(1, statistics.getFailureCount());
+        assertEquals(1, statistics.getTimeoutCount());
+        assertEquals(8000, statistics.getTotalBytesReceived());
+        assertEquals(40, statistics.getTotalFilesTransferred());
+        assertEquals(100, statistics.getNumberOfFiles());
+        assertEquals(2000, statistics.getSmoothedElapsedTime());
+    }
+
+    @Test
+    public void shouldClassifyRsyncExitStatus() {
+        subject.record(result(30));
+        assertEquals(1, subject.getStatistics(HOST).getTimeoutCount());
+
+        subject.record(result(23));
+        subject.record(result(24));
+        RsyncHostStatistics statistics = subject.getStatistics(HOST);
+        assertEquals(3, statistics.getFetchCount());
+        assertEquals(1, statistics.getFailureCount());
+        assertEquals(0, statistics.getConsecutiveFailures());
+
+        subject.record(result(12));
+        statistics = subject.getStatistics(HOST);
+        assertEquals(2, statistics.getFailureCount());
+        assertEquals(1, statistics.getTimeoutCount());
+    }
+
+    @Test
+    public void shouldOpenCircuitAfterConsecutiveFailures() {
+        subject.recordFailure(HOST, 100, false);
+        assertTrue(subject.allowFetch(HOST));
+        subject.recordFailure(HOST, 100, false);
+
+        assertFalse(subject.allowFetch(HOST));
+        assertEquals(CircuitState.OPEN, subject.getStatistics(HOST).getCircuitState());
+        assertEquals(1010000L, subject.getStatistics(HOST).getOpenUntil());
+        assertTrue("other hosts are not affected", subject.allowFetch("other.example.net"));
+
+        DateTimeUtils.setCurrentMillisFixed(1010000L);
+        assertTrue("trial fetch after back off", subject.allowFetch(HOST));
+        assertFalse("single trial fetch", subject.allowFetch(HOST));
+        subject.recordFailure(HOST, 100, false);
+
+        RsyncHostStatistics statistics = subject.getStatistics(HOST);
+        assertEquals(CircuitState.OPEN, statistics.getCircuitState());
+        assertEquals(1030000L, statistics.getOpenUntil());
+        assertEquals(2, statistics.getSkippedCount());
+    }
+
+    @Test
+    public void shouldCloseCircuitAfterSuccessfulTrialFetch() {
+        subject.recordFailure(HOST, 100, false);
+        subject.recordFailure(HOST, 100, false);
+        DateTimeUtils.setCurrentMillisFixed(1010000L);
+        assertTrue(subject.allowFetch(HOST));
+
+        subject.recordSuccess(HOST, 100, null);
+
+        assertEquals(CircuitState.CLOSED, subject.getStatistics(HOST).getCircuitState());
+        assertEquals(0, subject.getStatistics(HOST).getConsecutiveFailures());
+        assertTrue(subject.allowFetch(HOST));
+        assertEquals(1, subject.getStatistics().size());
+    }
+
+    @Test
+    public void shouldReopenCircuitWhenTrialFetchIsNotRecorded() {
+        subject.recordFailure(HOST, 100, false);
+        subject.recordFailure(HOST, 100, false);
+        DateTimeUtils.setCurrentMillisFixed(1010000L);
+        assertTrue(subject.allowFetch(HOST));
+
+        DateTimeUtils.setCurrentMillisFixed(1070000L);
+        assertFalse("trial fetch is still within the maximum timeout", subject.allowFetch(HOST));
+        DateTimeUtils.setCurrentMillisFixed(1070001L);
+        assertFalse(subject.allowFetch(HOST));
+
+        assertEquals(CircuitState.OPEN, subject.getStatistics(HOST).getCircuitState());
+        assertEquals(1090001L, subject.getStatistics(HOST).getOpenUntil());
+        DateTimeUtils.setCurrentMillisFixed(1090001L);
+        assertTrue("next trial fetch after back off", subject.allowFetch(HOST));
+    }
+
+    @Test
+    public void shouldReleaseCancelledTrialFetch() {
+        subject.recordFailure(HOST, 100, false);
+        subject.recordFailure(HOST, 100, false);
+        DateTimeUtils.setCurrentMillisFixed(1010000L);
+        assertTrue(subject.allowFetch(HOST));
+
+        subject.cancelFetch(HOST);
+
+        assertEquals(CircuitState.OPEN, subject.getStatistics(HOST).getCircuitState());
+        assertEquals(2, subject.getStatistics(HOST).getFailureCount());
+        assertTrue("cancelled trial is replaced by a new trial", subject.allowFetch(HOST));
+    }
+
+    private static RsyncResult result(int exitStatus) {
+        return new RsyncResult("rsync://" + HOST + "/repository/", exitStatus, Collections.<String>emptyList(), Collections.<String>emptyList(),
+                false, false, 100, null, null, null);
+    }
+}
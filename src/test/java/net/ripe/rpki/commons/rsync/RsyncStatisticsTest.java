@@ -0,0 +1,82 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RsyncStatisticsTest {
+
+    @Test
+    public void shouldParseStatistics() {
+        RsyncStatistics statistics = RsyncStatistics.parse(Arrays.asList(
+                ">f+++++++++ a.roa",
+                "",
+                "Number of files: 1,204 (reg: 1,200, dir: 4)",
+                "Number of created files: 3 (reg: 3)",
+                "Number of deleted files: 0",
+                "Number of regular files transferred: 3",
+                "Total file size: 2,345,678 bytes",
+                "Total transferred file size: 5,120 bytes",
+                "Literal data: 5,120 bytes",
+                "Total bytes sent: 1,010",
+                "Total bytes received: 34,567",
+                "",
+                "sent 1,010 bytes  received 34,567 bytes  71,154.00 bytes/sec"));
+
+        assertEquals(1204, statistics.getNumberOfFiles());
+        assertEquals(3, statistics.getNumberOfFilesTransferred());
+        assertEquals(2345678, statistics.getTotalFileSize());
+        assertEquals(5120, statistics.getTotalTransferredFileSize());
+        assertEquals(1010, statistics.getTotalBytesSent());
+        assertEquals(34567, statistics.getTotalBytesReceived());
+    }
+
+    @Test
+    public void shouldParseStatisticsOfOlderVersions() {
+        RsyncStatistics statistics = RsyncStatistics.parse(Arrays.asList(
+                "Number of files: 12",
+                "Number of files transferred: 2",
+                "Total bytes received: 4.096"));
+
+        assertEquals(12, statistics.getNumberOfFiles());
+        assertEquals(2, statistics.getNumberOfFilesTransferred());
+        assertEquals(4096, statistics.getTotalBytesReceived());
+    }
+
+    @Test
+    public void shouldReturnNullWithoutStatistics() {
+        assertNull(RsyncStatistics.parse(Collections.singletonList(">f+++++++++ a.roa")));
+    }
+}
@@ -29,7 +29,13 @@
  */
 package net.ripe.rpki.commons.rsync;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -39,6 +45,9 @@ import static org.junit.Assert.*;
 
 public class RsyncTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void shouldExecuteCommand() {
         Rsync rsync = new Rsync();
@@ -114,4 +123,40 @@ public class RsyncTest {
         assertNull(rsync.getErrorLines());
         assertNull(rsync.getOutputLines());
     }
+
+    @Test
+    public void shouldItemizeChangesOfLocalDirectorySync() throws IOException {
+        File source = folder.newFolder("source");
+        File destination = folder.newFolder("destination");
+        Files.write(new File(source, "a.roa").toPath(), new byte[]{1});
+        Files.write(new File(source, "b.roa").toPath(), new byte[]{2});
+        Files.write(new File(destination, "b.roa").toPath(), new byte[]{3, 3});
+        Files.write(new File(destination, "old.roa").toPath(), new byte[]{4});
+
+        Rsync rsync = new Rsync(source.getPath() + "/", destination.getPath() + "/");
+        rsync.addOptions("--recursive", "--checksum", "--delete");
+        rsync.setItemizeChanges(true);
+
+        assertEquals(0, rsync.execute());
+        RsyncChangeSet changes = rsync.getChangeSet();
+        assertEquals(Collections.singletonList("a.roa"), changes.getAddedPaths());
+        assertEquals(Collections.singletonList("b.roa"), changes.getUpdatedPaths());
+        assertEquals(Collections.singletonList("old.roa"), changes.getDeletedPaths());
+
+        rsync.execute();
+        assertTrue(rsync.getChangeSet().isEmpty());
+    }
+
+    @Test
+    public void shouldSkipHostWithOpenCircuit() {
+        RsyncHostMonitor monitor = new RsyncHostMonitor(1000, 10000, 1, 60000, 60000);
+        monitor.recordFailure("rpki.example.net", 100, false);
+        Rsync rsync = new Rsync("rsync://rpki.example.net/repository/", folder.getRoot().getPath());
+        rsync.setHostMonitor(monitor);
+
+        assertEquals(Command.NOT_EXECUTED, rsync.execute());
+        assertFalse(rsync.isCompleted());
+        assertEquals(1, monitor.getStatistics("rpki.example.net").getSkippedCount());
+        assertEquals(1, monitor.getStatistics("rpki.example.net").getFetchCount());
+    }
 }
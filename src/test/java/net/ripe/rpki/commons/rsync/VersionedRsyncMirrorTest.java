@@ -0,0 +1,187 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rsync;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VersionedRsyncMirrorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private VersionedRsyncMirror subject;
+
+    @Before
+    public void setUp() {
+        subject = new VersionedRsyncMirror(new File(folder.getRoot(), "mirror"), 2);
+    }
+
+    @Test
+    public void shouldSwitchCurrentToNewVersion() throws IOException {
+        assertNull(subject.getCurrentVersion());
+
+        assertEquals(0, subject.update(new CopyingRsync(files("a.cer", "one"))));
+
+        File current = subject.getCurrentVersion();
+        assertEquals("v000001", current.getName());
+        assertTrue(Files.isSymbolicLink(subject.getCurrentLink().toPath()));
+        assertEquals("one", read(new File(subject.getCurrentLink(), "a.cer")));
+    }
+
+    @Test
+    public void shouldLinkUnchangedFilesToPreviousVersion() throws IOException {
+        subject.update(new CopyingRsync(files("a.cer", "one", "b.roa", "two")));
+        File previous = subject.getCurrentVersion();
+
+        CopyingRsync rsync = new CopyingRsync(files("a.cer", "one", "b.roa", "changed"));
+        subject.update(rsync);
+
+        File current = subject.getCurrentVersion();
+        assertEquals("v000002", current.getName());
+        assertTrue(rsync.containsOption("--link-dest=" + previous.getAbsolutePath()));
+        assertEquals(fileKey(new File(previous, "a.cer")), fileKey(new File(current, "a.cer")));
+        assertEquals("changed", read(new File(current, "b.roa")));
+        assertEquals("two", read(new File(previous, "b.roa")));
+    }
+
+    @Test
+    public void shouldReplaceLinkDestWhenRsyncIsReused() throws IOException {
+        Map<String, String> files = files("a.cer", "one");
+        CopyingRsync rsync = new CopyingRsync(files);
+        subject.update(rsync);
+        subject.update(rsync);
+        File previous = subject.getCurrentVersion();
+
+        files.put("a.cer", "changed");
+        subject.update(rsync);
+
+        long linkDests = rsync.getOptions().stream().filter(option -> option.startsWith("--link-dest=")).count();
+        assertEquals(1, linkDests);
+        assertTrue(rsync.containsOption("--link-dest=" + previous.getAbsolutePath()));
+        assertEquals("changed", read(new File(subject.getCurrentLink(), "a.cer")));
+        assertEquals("one", read(new File(previous, "a.cer")));
+    }
+
+    @Test
+    public void shouldKeepCurrentVersionWhenRsyncFails() throws IOException {
+        subject.update(new CopyingRsync(files("a.cer", "one")));
+
+        CopyingRsync failing = new CopyingRsync(files("a.cer", "broken"));
+        failing.exitStatus = 23;
+        assertEquals(23, subject.update(failing));
+
+        assertEquals("v000001", subject.getCurrentVersion().getName());
+        assertEquals(1, subject.getVersions().size());
+        assertEquals("one", read(new File(subject.getCurrentLink(), "a.cer")));
+    }
+
+    @Test
+    public void shouldRemoveOldVersions() {
+        for (int i = 0; i < 4; i++) {
+            subject.update(new CopyingRsync(files("a.cer", "content " + i)));
+        }
+
+        assertEquals(2, subject.getVersions().size());
+        assertEquals("v000003", subject.getVersions().get(0).getName());
+        assertEquals("v000004", subject.getCurrentVersion().getName());
+    }
+
+    private static Map<String, String> files(String... namesAndContents) {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            result.put(namesAndContents[i], namesAndContents[i + 1]);
+        }
+        return result;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static Object fileKey(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Mimics rsync: files with the same content as in the <code>--link-dest</code> directory are hard linked.
+     */
+    private static final class CopyingRsync extends Rsync {
+
+        private final Map<String, String> files;
+
+        private int exitStatus;
+
+        private CopyingRsync(Map<String, String> files) {
+            super("rsync://example.net/repository/", null);
+            this.files = files;
+        }
+
+        @Override
+        public int execute() {
+            try {
+                File destination = new File(getDestination());
+                File linkDest = null;
+                for (String option : getOptions()) {
+                    if (option.startsWith("--link-dest=")) {
+                        linkDest = new File(option.substring("--link-dest=".length()));
+                    }
+                }
+                for (Map.Entry<String, String> entry : files.entrySet()) {
+                    Path target = new File(destination, entry.getKey()).toPath();
+                    byte[] content = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                    File previous = linkDest == null ? null : new File(linkDest, entry.getKey());
+                    if (previous != null && previous.isFile() && Arrays.equals(content, Files.readAllBytes(previous.toPath()))) {
+                        Files.createLink(target, previous.toPath());
+                    } else {
+                        Files.write(target, content);
+                    }
+                }
+                return exitStatus;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.rtr;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.Ipv4Address;
+import net.ripe.rpki.commons.validation.roa.AllowedRoute;
+import net.ripe.rpki.commons.validation.roa.VrpCollector;
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RtrServerTest {
+
+    private static final short SESSION_ID = 4242;
+
+    private static final AllowedRoute ROUTE_1 = new AllowedRoute(new Asn(65000), IpRange.parse("10.0.0.0/8"), 16);
+    private static final AllowedRoute ROUTE_2 = new AllowedRoute(new Asn(65001), IpRange.parse("2001:db8::/32"), 48);
+
+    private RtrCache cache;
+    private RtrServer server;
+
+    private static VrpSet set(AllowedRoute... routes) {
+        VrpCollector collector = new VrpCollector();
+        for (AllowedRoute route : routes) {
+            collector.add(route);
+        }
+        return collector.build();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        cache = new RtrCache(SESSION_ID, 1, set(ROUTE_1), 10, RtrTimingParameters.DEFAULT);
+        server = new RtrServer(cache, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void shouldAnswerResetQueryWithFullSnapshot() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, query(RtrPduEncoder.RESET_QUERY_LENGTH, null));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            assertHeader(in, RtrPduEncoder.CACHE_RESPONSE, SESSION_ID, RtrPduEncoder.CACHE_RESPONSE_LENGTH);
+            assertHeader(in, RtrPduEncoder.IPV4_PREFIX, 0, RtrPduEncoder.IPV4_PREFIX_LENGTH);
+            assertEquals(1, in.readByte());
+            assertEquals(8, in.readByte());
+            assertEquals(16, in.readByte());
+            assertEquals(0, in.readByte());
+            assertEquals(0x0a000000, in.readInt());
+            assertEquals(65000, in.readInt());
+            assertHeader(in, RtrPduEncoder.END_OF_DATA, SESSION_ID, RtrPduEncoder.END_OF_DATA_LENGTH);
+            assertEquals(1, in.readInt());
+            assertEquals(3600, in.readInt());
+            assertEquals(600, in.readInt());
+            assertEquals(7200, in.readInt());
+        }
+    }
+
+    @Test
+    public void shouldNotifyAndAnswerSerialQueryWithDelta() throws IOException {
+        try (Socket socket = connect()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            waitForSessions(1);
+
+            cache.update(set(ROUTE_2));
+
+            assertHeader(in, RtrPduEncoder.SERIAL_NOTIFY, SESSION_ID, RtrPduEncoder.SERIAL_NOTIFY_LENGTH);
+            assertEquals(2, in.readInt());
+
+            send(socket, query(RtrPduEncoder.SERIAL_QUERY_LENGTH, 1));
+            assertHeader(in, RtrPduEncoder.CACHE_RESPONSE, SESSION_ID, RtrPduEncoder.CACHE_RESPONSE_LENGTH);
+            assertHeader(in, RtrPduEncoder.IPV4_PREFIX, 0, RtrPduEncoder.IPV4_PREFIX_LENGTH);
+            assertEquals(0, in.readByte());
+            in.skipBytes(11);
+            assertHeader(in, RtrPduEncoder.IPV6_PREFIX, 0, RtrPduEncoder.IPV6_PREFIX_LENGTH);
+            assertEquals(1, in.readByte());
+            assertEquals(32, in.readByte());
+            assertEquals(48, in.readByte());
+            in.skipBytes(1);
+            assertEquals(0x20010db800000000L, in.readLong());
+            assertEquals(0L, in.readLong());
+            assertEquals(65001, in.readInt());
+            assertHeader(in, RtrPduEncoder.END_OF_DATA, SESSION_ID, RtrPduEncoder.END_OF_DATA_LENGTH);
+            assertEquals(2, in.readInt());
+            in.skipBytes(12);
+        }
+    }
+
+    @Test
+    public void shouldSendCacheResetForUnknownSerial() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, query(RtrPduEncoder.SERIAL_QUERY_LENGTH, 42));
+            assertHeader(new DataInputStream(socket.getInputStream()), RtrPduEncoder.CACHE_RESET, 0, RtrPduEncoder.CACHE_RESET_LENGTH);
+        }
+    }
+
+    @Test
+    public void shouldNotCacheResponsesForUnknownSerials() {
+        for (int serial = 100; serial < 200; serial++) {
+            assertNull(cache.getSerialResponse(serial));
+        }
+        assertNotNull(cache.getSerialResponse(1));
+        assertEquals(1, cache.getCachedSerialResponseCount());
+    }
+
+    @Test
+    public void shouldKeepServingWhenRouterDisconnectsMidResponse() throws IOException {
+        VrpCollector collector = new VrpCollector();
+        for (int i = 0; i < 100000; i++) {
+            collector.add(new AllowedRoute(new Asn(65000 + i % 100), IpRange.prefix(new Ipv4Address(0x0a000000L + ((long) i << 8)), 24), 24));
+        }
+        cache.update(collector.build());
+
+        for (int i = 0; i < 5; i++) {
+            Socket socket = connect();
+            send(socket, query(RtrPduEncoder.RESET_QUERY_LENGTH, null));
+            socket.getInputStream().read(new byte[16]);
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+        try (Socket socket = connect()) {
+            send(socket, query(RtrPduEncoder.SERIAL_QUERY_LENGTH, 2));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertHeader(in, RtrPduEncoder.CACHE_RESPONSE, SESSION_ID, RtrPduEncoder.CACHE_RESPONSE_LENGTH);
+            assertHeader(in, RtrPduEncoder.END_OF_DATA, SESSION_ID, RtrPduEncoder.END_OF_DATA_LENGTH);
+        }
+    }
+
+    @Test
+    public void shouldCloseSessionsOnSelectorThreadWhenClosed() throws IOException {
+        try (Socket socket = connect()) {
+            waitForSessions(1);
+
+            server.close();
+
+            assertEquals(-1, socket.getInputStream().read());
+            assertEquals(0, server.getSessionCount());
+        }
+    }
+
+    @Test
+    public void shouldReportUnsupportedVersion() throws IOException {
+        try (Socket socket = connect()) {
+            ByteBuffer query = query(RtrPduEncoder.RESET_QUERY_LENGTH, null);
+            query.put(0, (byte) 0);
+            send(socket, query);
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(RtrPduEncoder.PROTOCOL_VERSION, in.readByte());
+            assertEquals(RtrPduEncoder.ERROR_REPORT, in.readByte());
+            assertEquals(RtrPduEncoder.ERROR_UNSUPPORTED_PROTOCOL_VERSION, in.readShort());
+            in.readInt();
+            assertEquals(RtrPduEncoder.RESET_QUERY_LENGTH, in.readInt());
+        }
+    }
+
+    @Test
+    public void shouldServeManySessions() throws IOException {
+        Socket[] sockets = new Socket[20];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = connect();
+                send(sockets[i], query(RtrPduEncoder.RESET_QUERY_LENGTH, null));
+            }
+            for (Socket socket : sockets) {
+                assertHeader(new DataInputStream(socket.getInputStream()), RtrPduEncoder.CACHE_RESPONSE, SESSION_ID, RtrPduEncoder.CACHE_RESPONSE_LENGTH);
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private void waitForSessions(int count) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getSessionCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(count, server.getSessionCount());
+    }
+
+    private static ByteBuffer query(int length, Integer serial) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        if (serial == null) {
+            RtrPduEncoder.resetQuery(buffer);
+        } else {
+            RtrPduEncoder.serialQuery(buffer, SESSION_ID, serial);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void send(Socket socket, ByteBuffer pdu) throws IOException {
+        byte[] bytes = new byte[pdu.remaining()];
+        pdu.get(bytes);
+        socket.getOutputStream().write(bytes);
+        socket.getOutputStream().flush();
+    }
+
+    private static void assertHeader(DataInputStream in, byte type, int sessionId, int length) throws IOException {
+        assertEquals(RtrPduEncoder.PROTOCOL_VERSION, in.readByte());
+        assertEquals(type, in.readByte());
+        assertEquals(sessionId, in.readShort());
+        assertEquals(length, in.readInt());
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.slurm;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.commons.validation.roa.AllowedRoute;
+import net.ripe.rpki.commons.validation.roa.VrpCollector;
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlurmApplierTest {
+
+    private static final VrpSet VRPS = new VrpCollector()
+            .add(new Asn(64496), IpRange.parse("10.0.0.0/8"), 24, 1)
+            .add(new Asn(64497), IpRange.parse("10.1.0.0/16"), 16, 1)
+            .add(new Asn(64498), IpRange.parse("10.1.2.0/24"), 24, 1)
+            .add(new Asn(64497), IpRange.parse("192.0.2.0/24"), 24, 1)
+            .add(new Asn(64499), IpRange.parse("2001:db8::/32"), 48, 1)
+            .add(new Asn(64499), IpRange.parse("2001:db8:1::/48"), 48, 1)
+            .build();
+
+    @Test
+    public void shouldFilterByPrefix() {
+        SlurmApplier applier = new SlurmApplier(slurm(filters(new SlurmPrefixFilter(IpRange.parse("10.1.0.0/16"), null, null)), assertions()));
+
+        VrpSet result = applier.apply(VRPS);
+
+        assertEquals(4, result.size());
+        assertTrue(result.contains(route(64496, "10.0.0.0/8", 24)));
+        assertFalse(result.contains(route(64497, "10.1.0.0/16", 16)));
+        assertFalse(result.contains(route(64498, "10.1.2.0/24", 24)));
+    }
+
+    @Test
+    public void shouldFilterByPrefixAndAsn() {
+        SlurmApplier applier = new SlurmApplier(slurm(filters(
+                new SlurmPrefixFilter(IpRange.parse("10.0.0.0/8"), new Asn(64498), null),
+                new SlurmPrefixFilter(IpRange.parse("2001:db8::/32"), new Asn(64499), null)), assertions()));
+
+        VrpSet result = applier.apply(VRPS);
+
+        assertEquals(3, result.size());
+        assertFalse(result.contains(route(64498, "10.1.2.0/24", 24)));
+        assertTrue(result.getIpv6().isEmpty());
+    }
+
+    @Test
+    public void shouldFilterByAsn() {
+        SlurmApplier applier = new SlurmApplier(slurm(filters(new SlurmPrefixFilter(null, new Asn(64497), null)), assertions()));
+
+        VrpSet result = applier.apply(VRPS);
+
+        assertEquals(4, result.size());
+        assertFalse(result.contains(route(64497, "192.0.2.0/24", 24)));
+    }
+
+    @Test
+    public void shouldAddAssertionsAfterFiltering() {
+        SlurmApplier applier = new SlurmApplier(slurm(
+                filters(new SlurmPrefixFilter(IpRange.parse("192.0.2.0/24"), null, null)),
+                assertions(new SlurmPrefixAssertion(new Asn(64500), IpRange.parse("192.0.2.0/24"), null, null),
+                        new SlurmPrefixAssertion(new Asn(64496), IpRange.parse("10.0.0.0/8"), 24, null))));
+
+        VrpSet result = applier.apply(VRPS);
+
+        assertEquals(6, result.size());
+        assertTrue(result.contains(route(64500, "192.0.2.0/24", 24)));
+        assertFalse(result.contains(route(64497, "192.0.2.0/24", 24)));
+        assertEquals(1, result.getIpv4().getReferenceCount(0));
+    }
+
+    @Test
+    public void shouldMatchNaiveFilteringOnRandomInput() {
+        Random random = new Random(42);
+        VrpCollector collector = new VrpCollector();
+        for (int i = 0; i < 5000; i++) {
+            int length = 8 + random.nextInt(17);
+            collector.add(new Asn(random.nextInt(20)), randomPrefix(random, length), length + random.nextInt(33 - length), 1);
+        }
+        VrpSet vrps = collector.build();
+        List<SlurmPrefixFilter> filters = new ArrayList<SlurmPrefixFilter>();
+        for (int i = 0; i < 200; i++) {
+            int length = 8 + random.nextInt(17);
+            Asn asn = random.nextBoolean() ? new Asn(random.nextInt(20)) : null;
+            filters.add(new SlurmPrefixFilter(randomPrefix(random, length), asn, null));
+        }
+        filters.add(new SlurmPrefixFilter(null, new Asn(7), null));
+
+        VrpSet result = new SlurmApplier(slurm(filters, assertions())).apply(vrps);
+
+        List<AllowedRoute> expected = new ArrayList<AllowedRoute>();
+        for (AllowedRoute route : vrps.toAllowedRoutes()) {
+            if (!isFiltered(route, filters)) {
+                expected.add(route);
+            }
+        }
+        assertEquals(expected, result.toAllowedRoutes());
+    }
+
+    static boolean isFiltered(AllowedRoute route, List<SlurmPrefixFilter> filters) {
+        for (SlurmPrefixFilter filter : filters) {
+            boolean prefixMatches = filter.getPrefix() == null || filter.getPrefix().contains(route.getPrefix());
+            boolean asnMatches = filter.getAsn() == null || filter.getAsn().equals(route.getAsn());
+            if (prefixMatches && asnMatches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static IpRange randomPrefix(Random random, int length) {
+        long address = (random.nextInt(4) + 10L) << 24 | (random.nextInt() & 0xffffffL);
+        long mask = (0xffffffffL << (32 - length)) & 0xffffffffL;
+        return IpRange.parse(((address & mask) >>> 24) + "." + ((address & mask) >>> 16 & 0xff) + "." + ((address & mask) >>> 8 & 0xff) + "." + (address & mask & 0xff) + "/" + length);
+    }
+
+    static Slurm slurm(List<SlurmPrefixFilter> filters, List<SlurmPrefixAssertion> assertions) {
+        return new Slurm(filters, Collections.<SlurmBgpsecFilter>emptyList(), assertions, Collections.<SlurmBgpsecAssertion>emptyList());
+    }
+
+    private static List<SlurmPrefixFilter> filters(SlurmPrefixFilter... filters) {
+        List<SlurmPrefixFilter> result = new ArrayList<SlurmPrefixFilter>();
+        Collections.addAll(result, filters);
+        return result;
+    }
+
+    private static List<SlurmPrefixAssertion> assertions(SlurmPrefixAssertion... assertions) {
+        List<SlurmPrefixAssertion> result = new ArrayList<SlurmPrefixAssertion>();
+        Collections.addAll(result, assertions);
+        return result;
+    }
+
+    private static AllowedRoute route(long asn, String prefix, int maximumLength) {
+        return new AllowedRoute(new Asn(asn), IpRange.parse(prefix), maximumLength);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.slurm;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class SlurmParserTest {
+
+    @Test
+    public void shouldParseRfcExample() throws IOException {
+        Slurm slurm;
+        try (InputStream in = getClass().getResourceAsStream("/slurm/slurm.json")) {
+            slurm = SlurmParser.parse(in);
+        }
+
+        assertEquals(3, slurm.getPrefixFilters().size());
+        assertEquals(IpRange.parse("192.0.2.0/24"), slurm.getPrefixFilters().get(0).getPrefix());
+        assertNull(slurm.getPrefixFilters().get(0).getAsn());
+        assertEquals(new Asn(64496), slurm.getPrefixFilters().get(1).getAsn());
+        assertEquals(new Asn(64497), slurm.getPrefixFilters().get(2).getAsn());
+        assertEquals(3, slurm.getBgpsecFilters().size());
+        assertEquals("Zm9v", slurm.getBgpsecFilters().get(1).getSki());
+
+        assertEquals(2, slurm.getPrefixAssertions().size());
+        assertEquals(24, slurm.getPrefixAssertions().get(0).getEffectiveMaxPrefixLength());
+        assertEquals(48, slurm.getPrefixAssertions().get(1).getEffectiveMaxPrefixLength());
+        assertEquals(1, slurm.getBgpsecAssertions().size());
+    }
+
+    @Test
+    public void shouldParseEmptySlurm() {
+        Slurm slurm = SlurmParser.parse("{\"slurmVersion\": 1, \"validationOutputFilters\": {\"prefixFilters\": [], \"bgpsecFilters\": []}, "
+                + "\"locallyAddedAssertions\": {\"prefixAssertions\": [], \"bgpsecAssertions\": []}}");
+
+        assertTrue(slurm.getPrefixFilters().isEmpty());
+        assertTrue(slurm.getPrefixAssertions().isEmpty());
+    }
+
+    @Test(expected = SlurmParserException.class)
+    public void shouldRejectUnsupportedVersion() {
+        SlurmParser.parse("{\"slurmVersion\": 2}");
+    }
+
+    @Test(expected = SlurmParserException.class)
+    public void shouldRejectUnknownMembers() {
+        SlurmParser.parse("{\"slurmVersion\": 1, \"validationOutputFilters\": {\"prefixFilters\": [{\"prefix\": \"10.0.0.0/8\", \"foo\": 1}]}}");
+    }
+
+    @Test(expected = SlurmParserException.class)
+    public void shouldRejectFilterWithoutPrefixOrAsn() {
+        SlurmParser.parse("{\"slurmVersion\": 1, \"validationOutputFilters\": {\"prefixFilters\": [{\"comment\": \"nothing\"}]}}");
+    }
+
+    @Test(expected = SlurmParserException.class)
+    public void shouldRejectMaxPrefixLengthShorterThanPrefix() {
+        SlurmParser.parse("{\"slurmVersion\": 1, \"locallyAddedAssertions\": {\"prefixAssertions\": [{\"asn\": 1, \"prefix\": \"10.0.0.0/8\", \"maxPrefixLength\": 7}]}}");
+    }
+
+    @Test(expected = SlurmParserException.class)
+    public void shouldRejectMalformedJson() {
+        SlurmParser.parse("{\"slurmVersion\": 1,");
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.store;
+
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObjectFile;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCmsBuilder;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.rrdp.RrdpRepositoryStore;
+import net.ripe.rpki.commons.util.UTC;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.DEFAULT_SIGNATURE_PROVIDER;
+import static org.junit.Assert.*;
+
+public class ObjectStoreTest {
+
+    private static final KeyPair KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+
+    private static final URI REPO = URI.create("rsync://example.net/repo/");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private ObjectStore subject;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("store");
+        subject = ObjectStore.open(directory, 1024);
+    }
+
+    @After
+    public void tearDown() {
+        subject.close();
+    }
+
+    @Test
+    public void shouldStoreContentOnceAndPersistIndex() {
+        byte[] hash = subject.put(REPO.resolve("a.roa"), bytes("same"));
+        assertArrayEquals(hash, subject.put(REPO.resolve("b.roa"), bytes("same")));
+        subject.put(REPO.resolve("c.roa"), bytes("other"));
+        assertEquals(2, subject.getReferenceCount(hash));
+        subject.close();
+
+        subject = ObjectStore.open(directory, 1024);
+
+        assertEquals(3, subject.size());
+        assertArrayEquals(bytes("same"), subject.get(REPO.resolve("b.roa")));
+        assertArrayEquals(bytes("other"), subject.get(REPO.resolve("c.roa")));
+        assertEquals(2, subject.getReferenceCount(hash));
+        assertEquals(1, directory.listFiles((dir, name) -> name.startsWith("segment-")).length);
+    }
+
+    @Test
+    public void shouldRecoverContentAppendedAfterLastSync() throws IOException {
+        subject.sync();
+        byte[] hash = subject.putContent(bytes("unsynced"));
+
+        ObjectStore reopened = ObjectStore.open(directory, 1024);
+        try {
+            assertArrayEquals(bytes("unsynced"), reopened.getContent(hash));
+        } finally {
+            reopened.close();
+        }
+
+        File segment = new File(directory, "segment-000001.dat");
+        Files.write(segment.toPath(), new byte[]{1, 2, 3}, java.nio.file.StandardOpenOption.APPEND);
+        reopened = ObjectStore.open(directory, 1024);
+        try {
+            assertArrayEquals("partial record is truncated", bytes("unsynced"), reopened.getContent(hash));
+        } finally {
+            reopened.close();
+        }
+        assertEquals(36 + "unsynced".length(), segment.length());
+    }
+
+    @Test
+    public void shouldKeepContentListedOnManifest() {
+        ManifestCms manifest = manifest("a.roa", bytes("a"));
+        byte[] hash = subject.put(REPO.resolve("a.roa"), bytes("a"));
+        subject.put(REPO.resolve("ca.mft"), manifest.getEncoded());
+        for (int i = 0; i < 50; i++) {
+            subject.put(REPO.resolve("garbage-" + i + ".roa"), bytes("garbage " + i));
+            subject.remove(REPO.resolve("garbage-" + i + ".roa"));
+        }
+
+        subject.remove(REPO.resolve("a.roa"));
+        assertEquals(1, subject.getReferenceCount(hash));
+        long reclaimed = subject.collectGarbage(0.5);
+
+        assertTrue(reclaimed > 0);
+        assertArrayEquals(bytes("a"), subject.getContent(hash));
+        assertFalse(subject.contains(ManifestCms.hashContents(bytes("garbage 3"))));
+
+        subject.remove(REPO.resolve("ca.mft"));
+        assertEquals(0, subject.getReferenceCount(hash));
+        subject.collectGarbage(1.0);
+        assertFalse(subject.contains(hash));
+        subject.close();
+
+        subject = ObjectStore.open(directory, 1024);
+        assertEquals(0, subject.size());
+    }
+
+    @Test
+    public void shouldListObjectFilesWhileCollectingGarbage() throws InterruptedException {
+        for (int i = 0; i < 20; i++) {
+            subject.put(REPO.resolve("object-" + i + ".roa"), bytes("content " + i));
+        }
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 200; round++) {
+                for (int i = 0; i < 20; i++) {
+                    subject.put(REPO.resolve("object-" + i + ".roa"), bytes("content " + i + " round " + round));
+                }
+                subject.collectGarbage(1.0);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            assertEquals(20, subject.getObjectFiles(REPO).size());
+        }
+        writer.join();
+    }
+
+    @Test
+    public void shouldImportRsyncMirrorAsObjectFiles() throws IOException {
+        File mirror = folder.newFolder("mirror");
+        assertTrue(new File(mirror, "ca").mkdir());
+        Files.write(new File(mirror, "ca/a.roa").toPath(), bytes("roa"));
+        Files.write(new File(mirror, "ca/ca.crl").toPath(), bytes("crl"));
+        subject.put(REPO.resolve("ca/old.roa"), bytes("old"));
+
+        assertEquals(2, subject.importDirectory(mirror, REPO));
+
+        List<CertificateRepositoryObjectFile<?>> files = subject.getObjectFiles(REPO.resolve("ca/"));
+        assertEquals(2, files.size());
+        assertEquals(REPO.resolve("ca/a.roa").toString(), files.get(0).getName());
+        assertEquals(RoaCms.class, files.get(0).getExpectedType());
+        assertEquals(X509Crl.class, files.get(1).getExpectedType());
+        assertArrayEquals(bytes("crl"), files.get(1).getContent());
+        assertNull(subject.getHash(REPO.resolve("ca/old.roa")));
+    }
+
+    @Test
+    public void shouldProvideRrdpRepositoryViews() {
+        RrdpRepositoryStore rrdp = subject.repository(URI.create("https://rrdp.example.net/notification.xml"));
+        rrdp.put(REPO.resolve("rrdp.roa"), bytes("rrdp"));
+        rrdp.setSessionState("session", BigInteger.TEN);
+        subject.put(REPO.resolve("rsync.roa"), bytes("rsync"));
+        subject.close();
+
+        subject = ObjectStore.open(directory, 1024);
+        rrdp = subject.repository(URI.create("https://rrdp.example.net/notification.xml"));
+
+        assertEquals(Collections.singleton(REPO.resolve("rrdp.roa")), rrdp.getUris());
+        assertEquals("session", rrdp.getSessionId());
+        assertEquals(BigInteger.TEN, rrdp.getSerial());
+        assertArrayEquals(ManifestCms.hashContents(bytes("rrdp")), rrdp.getHash(REPO.resolve("rrdp.roa")));
+        assertNull(subject.repository(URI.create("https://other.example.net/notification.xml")).getSessionId());
+    }
+
+    @Test
+    public void shouldKeepMappingsOfOverlappingSourcesApart() {
+        URI uri = REPO.resolve("shared.roa");
+        RrdpRepositoryStore rrdp = subject.repository(URI.create("https://rrdp.example.net/notification.xml"));
+        RrdpRepositoryStore other = subject.repository(URI.create("https://other.example.net/notification.xml"));
+        subject.put(uri, bytes("rsync"));
+
+        assertNull(rrdp.getHash(uri));
+        rrdp.remove(uri);
+        assertArrayEquals(bytes("rsync"), subject.get(uri));
+
+        rrdp.put(uri, bytes("rrdp"));
+        assertArrayEquals(bytes("rrdp"), subject.get(uri));
+        assertNull(other.getHash(uri));
+        other.remove(uri);
+        subject.remove(uri);
+        subject.close();
+
+        subject = ObjectStore.open(directory, 1024);
+        rrdp = subject.repository(URI.create("https://rrdp.example.net/notification.xml"));
+        assertArrayEquals(ManifestCms.hashContents(bytes("rrdp")), rrdp.getHash(uri));
+        assertEquals(Collections.singleton(uri), rrdp.getUris());
+
+        subject.put(uri, bytes("rsync"));
+        rrdp.remove(uri);
+        assertArrayEquals(bytes("rsync"), subject.get(uri));
+        assertEquals(1, subject.size());
+        assertEquals(0, subject.getReferenceCount(ManifestCms.hashContents(bytes("rrdp"))));
+    }
+
+    private static ManifestCms manifest(String name, byte[] content) {
+        DateTime now = UTC.dateTime();
+        ManifestCmsBuilder builder = new ManifestCmsBuilder()
+                .withCertificate(new X509ResourceCertificateBuilder()
+                        .withSubjectDN(new X500Principal("CN=manifest"))
+                        .withIssuerDN(new X500Principal("CN=ca"))
+                        .withSerial(BigInteger.ONE)
+                        .withValidityPeriod(new ValidityPeriod(now.minusMinutes(1), now.plusDays(1)))
+                        .withPublicKey(KEY_PAIR.getPublic())
+                        .withSigningKeyPair(KEY_PAIR)
+                        .withKeyUsage(KeyUsage.digitalSignature)
+                        .withInheritedResourceTypes(EnumSet.allOf(IpResourceType.class))
+                        .withCrlDistributionPoints(REPO.resolve("ca.crl"))
+                        .build())
+                .withManifestNumber(BigInteger.ONE)
+                .withThisUpdateTime(now)
+                .withNextUpdateTime(now.plusDays(1))
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER);
+        builder.addFile(name, content);
+        return builder.build(KEY_PAIR.getPrivate());
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCmsBuilder;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCmsBuilder;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
+import net.ripe.rpki.commons.crypto.crl.X509CrlBuilder;
+import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
+import net.ripe.rpki.commons.crypto.x509cert.X509CertificateInformationAccessDescriptor;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.DEFAULT_SIGNATURE_PROVIDER;
+import static org.junit.Assert.*;
+
+public class PublicationPointValidatorTest {
+
+    private static final X500Principal CA_NAME = new X500Principal("CN=ca");
+    private static final URI CA_URI = URI.create("rsync://example.net/repo/ca.cer");
+    private static final URI REPOSITORY_URI = URI.create("rsync://example.net/repo/ca/");
+    private static final URI MANIFEST_URI = REPOSITORY_URI.resolve("ca.mft");
+    private static final URI CRL_URI = REPOSITORY_URI.resolve("ca.crl");
+    private static final KeyPair CA_KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+    private static final KeyPair EE_KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+
+    private final DateTime now = UTC.dateTime();
+    private X509ResourceCertificate ca;
+    private CertificateRepositoryObjectValidationContext context;
+    private Map<URI, byte[]> files;
+    private byte[] crl;
+
+    @Before
+    public void setUp() {
+        ca = caBuilder().build();
+        context = new CertificateRepositoryObjectValidationContext(CA_URI, ca);
+        crl = crlBuilder(BigInteger.ONE).build(CA_KEY_PAIR.getPrivate()).getEncoded();
+
+        files = new HashMap<URI, byte[]>();
+        files.put(CRL_URI, crl);
+        for (int i = 0; i < 20; i++) {
+            files.put(REPOSITORY_URI.resolve("roa-" + i + ".roa"), roa(i, "10." + i + ".0.0/16").getEncoded());
+        }
+    }
+
+    @Test
+    public void shouldValidateAllObjectsListedOnManifest() {
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationResult result = ValidationResult.withLocation(CA_URI);
+
+        Map<URI, CertificateRepositoryObject> objects = new PublicationPointValidator(new ValidationOptions()).validate(context, files, result);
+
+        assertFalse(result.hasFailures());
+        assertEquals(20, objects.size());
+        assertEquals(REPOSITORY_URI.resolve("roa-0.roa"), objects.keySet().iterator().next());
+        assertTrue(objects.get(REPOSITORY_URI.resolve("roa-7.roa")) instanceof RoaCms);
+        assertTrue(result.getValidatedLocations().contains(new ValidationLocation(REPOSITORY_URI.resolve("roa-19.roa"))));
+        assertEquals(CA_URI.toString(), result.getCurrentLocation().getName());
+    }
+
+    @Test
+    public void shouldRejectMissingAndModifiedObjectsOnly() {
+        files.put(REPOSITORY_URI.resolve("roa-5.roa"), roa(5, "11.0.0.0/16").getEncoded());
+        files.put(MANIFEST_URI, manifest(files));
+        files.remove(REPOSITORY_URI.resolve("roa-3.roa"));
+        files.put(REPOSITORY_URI.resolve("roa-4.roa"), roa(4, "10.44.0.0/16").getEncoded());
+        ValidationResult result = ValidationResult.withLocation(CA_URI);
+
+        Map<URI, CertificateRepositoryObject> objects = new PublicationPointValidator(new ValidationOptions()).validate(context, files, result);
+
+        assertEquals(17, objects.size());
+        assertFalse(objects.containsKey(REPOSITORY_URI.resolve("roa-3.roa")));
+        assertFalse(objects.containsKey(REPOSITORY_URI.resolve("roa-4.roa")));
+        assertTrue(result.hasFailureForLocation(new ValidationLocation(REPOSITORY_URI.resolve("roa-3.roa"))));
+        assertEquals(ValidationString.VALIDATOR_MANIFEST_ENTRY_FOUND,
+                result.getFailures(new ValidationLocation(REPOSITORY_URI.resolve("roa-3.roa"))).get(0).getKey());
+        assertEquals(ValidationString.VALIDATOR_MANIFEST_ENTRY_HASH_MATCHES,
+                result.getFailures(new ValidationLocation(REPOSITORY_URI.resolve("roa-4.roa"))).get(0).getKey());
+        assertFalse(result.hasFailureForLocation(new ValidationLocation(MANIFEST_URI)));
+    }
+
+    @Test
+    public void shouldProduceSameResultRegardlessOfExecutor() {
+        files.put(REPOSITORY_URI.resolve("roa-5.roa"), roa(5, "11.0.0.0/16").getEncoded());
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationResult sequential = ValidationResult.withLocation(CA_URI);
+        ValidationResult parallel = ValidationResult.withLocation(CA_URI);
+
+        Map<URI, CertificateRepositoryObject> sequentialObjects = new PublicationPointValidator(new ValidationOptions(), Runnable::run).validate(context, files, sequential);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Map<URI, CertificateRepositoryObject> parallelObjects;
+        try {
+            parallelObjects = new PublicationPointValidator(new ValidationOptions(), executor).validate(
+                    new CertificateRepositoryObjectValidationContext(CA_URI, ca), files, parallel);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(19, sequentialObjects.size());
+        assertEquals(sequentialObjects.keySet(), parallelObjects.keySet());
+        assertEquals(sequential.getValidatedLocations(), parallel.getValidatedLocations());
+        assertEquals(sequential.getFailuresForAllLocations(), parallel.getFailuresForAllLocations());
+        assertTrue(sequential.hasFailureForLocation(new ValidationLocation(REPOSITORY_URI.resolve("roa-5.roa"))));
+    }
+
+    @Test
+    public void shouldRevalidateOnlyAffectedObjects() {
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationDependencyGraph graph = new ValidationDependencyGraph();
+        PublicationPointValidator validator = new PublicationPointValidator(new ValidationOptions(), Runnable::run, graph);
+        ValidationResult initial = ValidationResult.withLocation(CA_URI);
+        Map<URI, CertificateRepositoryObject> previous = validator.validate(context, files, initial);
+        assertEquals(22, graph.size());
+
+        URI changed = REPOSITORY_URI.resolve("roa-2.roa");
+        files.put(changed, roa(2, "11.0.0.0/16").getEncoded());
+        Set<URI> affected = graph.findAffected(graph.findChanged(files));
+        assertEquals(Collections.singleton(changed), affected);
+
+        ValidationResult result = ValidationResult.withLocation(CA_URI);
+        Map<URI, CertificateRepositoryObject> objects = validator.revalidate(context, files, affected, previous, result);
+
+        assertEquals(19, objects.size());
+        assertSame(previous.get(REPOSITORY_URI.resolve("roa-1.roa")), objects.get(REPOSITORY_URI.resolve("roa-1.roa")));
+        assertEquals(ValidationString.VALIDATOR_MANIFEST_ENTRY_HASH_MATCHES, result.getFailures(new ValidationLocation(changed)).get(0).getKey());
+        assertEquals(initial.getValidatedLocations(), result.getValidatedLocations());
+        assertEquals(initial.getAllValidationChecksForLocation(new ValidationLocation(REPOSITORY_URI.resolve("roa-1.roa"))),
+                result.getAllValidationChecksForLocation(new ValidationLocation(REPOSITORY_URI.resolve("roa-1.roa"))));
+        assertFalse(graph.isValid(changed));
+
+        ValidationResult unchanged = ValidationResult.withLocation(CA_URI);
+        assertEquals(19, validator.revalidate(context, files, Collections.<URI>emptySet(), Collections.<URI, CertificateRepositoryObject>emptyMap(), unchanged).size());
+        assertTrue(unchanged.hasFailureForLocation(new ValidationLocation(changed)));
+        assertFalse(unchanged.hasFailureForLocation(new ValidationLocation(MANIFEST_URI)));
+    }
+
+    @Test
+    public void shouldTrackTimeBasedStateChanges() {
+        files.put(MANIFEST_URI, manifest(files));
+        RevalidationScheduler scheduler = new RevalidationScheduler();
+
+        new PublicationPointValidator(new ValidationOptions(), Runnable::run, null, scheduler).validate(context, files, ValidationResult.withLocation(CA_URI));
+
+        assertEquals(22, scheduler.size());
+        assertTrue(scheduler.pollDue(now.plusHours(23)).isEmpty());
+        assertEquals(22, scheduler.pollDue(now.plusDays(1).plusSeconds(1)).size());
+    }
+
+    @Test
+    public void shouldNotValidateObjectsWhenCrlIsMissing() {
+        files.put(MANIFEST_URI, manifest(files));
+        files.remove(CRL_URI);
+        ValidationResult result = ValidationResult.withLocation(CA_URI);
+
+        Map<URI, CertificateRepositoryObject> objects = new PublicationPointValidator(new ValidationOptions()).validate(context, files, result);
+
+        assertTrue(objects.isEmpty());
+        assertTrue(result.hasFailureForLocation(new ValidationLocation(CRL_URI)));
+        assertFalse(result.getValidatedLocations().contains(new ValidationLocation(REPOSITORY_URI.resolve("roa-0.roa"))));
+    }
+
+    @Test
+    public void shouldUseLastKnownGoodPublicationPointWhenValidationFails() {
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationOptions options = new ValidationOptions();
+        options.setMaxStaleDays(7);
+        LastKnownGoodCache cache = new LastKnownGoodCache(options);
+        PublicationPointValidator validator = new PublicationPointValidator(options, Runnable::run, null, null, cache);
+        Map<URI, CertificateRepositoryObject> valid = validator.validate(context, files, ValidationResult.withLocation(CA_URI));
+        assertEquals(1, cache.size());
+
+        files.put(REPOSITORY_URI.resolve("roa-4.roa"), roa(4, "10.44.0.0/16").getEncoded());
+        ValidationResult result = ValidationResult.withLocation(CA_URI);
+        Map<URI, CertificateRepositoryObject> objects = validator.validate(context, files, result);
+
+        assertEquals(valid, objects);
+        assertTrue(result.hasFailureForLocation(new ValidationLocation(REPOSITORY_URI.resolve("roa-4.roa"))));
+        assertEquals(ValidationString.VALIDATOR_MANIFEST_LAST_KNOWN_GOOD_USED, result.getWarnings(new ValidationLocation(MANIFEST_URI)).get(0).getKey());
+
+        files.remove(MANIFEST_URI);
+        assertEquals(20, validator.validate(context, files, ValidationResult.withLocation(CA_URI)).size());
+    }
+
+    @Test
+    public void shouldNotUseLastKnownGoodPublicationPointAfterItExpired() {
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationOptions options = new ValidationOptions();
+        options.setMaxStaleDays(7);
+        LastKnownGoodCache cache = new LastKnownGoodCache(options);
+        new PublicationPointValidator(options, Runnable::run, null, null, cache).validate(context, files, ValidationResult.withLocation(CA_URI));
+
+        LastKnownGoodCache.PublicationPoint cached = cache.get(MANIFEST_URI, now.plusHours(23));
+        assertTrue(cached.isFresh(now.plusHours(23)));
+        assertEquals(20, cached.getObjects(now.plusHours(23)).size());
+        assertNull(cache.get(MANIFEST_URI, now.plusDays(2)));
+        assertEquals(1, cache.evictStale(now.plusDays(2)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldNotUseLastKnownGoodPublicationPointWhenIssuerResourcesShrink() {
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationOptions options = new ValidationOptions();
+        options.setMaxStaleDays(7);
+        LastKnownGoodCache cache = new LastKnownGoodCache(options);
+        PublicationPointValidator validator = new PublicationPointValidator(options, Runnable::run, null, null, cache);
+        validator.validate(context, files, ValidationResult.withLocation(CA_URI));
+
+        X509ResourceCertificate reissued = caBuilder().withSerial(BigInteger.valueOf(2)).withResources(IpResourceSet.parse("10.0.0.0/12, AS64496")).build();
+        ValidationResult result = ValidationResult.withLocation(CA_URI);
+        Map<URI, CertificateRepositoryObject> objects = validator.validate(new CertificateRepositoryObjectValidationContext(CA_URI, reissued), files, result);
+
+        assertEquals(16, objects.size());
+        assertFalse(objects.containsKey(REPOSITORY_URI.resolve("roa-16.roa")));
+        assertTrue(result.getWarnings(new ValidationLocation(MANIFEST_URI)).isEmpty());
+    }
+
+    @Test
+    public void shouldLeaveObjectsRevokedByCurrentCrlOutOfLastKnownGoodPublicationPoint() {
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationOptions options = new ValidationOptions();
+        options.setMaxStaleDays(7);
+        LastKnownGoodCache cache = new LastKnownGoodCache(options);
+        PublicationPointValidator validator = new PublicationPointValidator(options, Runnable::run, null, null, cache);
+        validator.validate(context, files, ValidationResult.withLocation(CA_URI));
+
+        files.put(CRL_URI, crlBuilder(BigInteger.valueOf(2)).addEntry(BigInteger.valueOf(4), now.minusMinutes(1)).build(CA_KEY_PAIR.getPrivate()).getEncoded());
+        files.remove(MANIFEST_URI);
+        files.put(MANIFEST_URI, manifest(files));
+        ValidationResult result = ValidationResult.withLocation(CA_URI);
+        Map<URI, CertificateRepositoryObject> objects = validator.validate(context, files, result);
+
+        assertEquals(ValidationString.VALIDATOR_MANIFEST_LAST_KNOWN_GOOD_USED, result.getWarnings(new ValidationLocation(MANIFEST_URI)).get(0).getKey());
+        assertEquals(19, objects.size());
+        assertFalse(objects.containsKey(REPOSITORY_URI.resolve("roa-3.roa")));
+    }
+
+    private X509ResourceCertificateBuilder caBuilder() {
+        return new X509ResourceCertificateBuilder()
+                .withSubjectDN(CA_NAME)
+                .withIssuerDN(CA_NAME)
+                .withSerial(BigInteger.ONE)
+                .withValidityPeriod(new ValidityPeriod(now.minusMinutes(1), now.plusYears(1)))
+                .withPublicKey(CA_KEY_PAIR.getPublic())
+                .withSigningKeyPair(CA_KEY_PAIR)
+                .withCa(true)
+                .withKeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign)
+                .withSubjectKeyIdentifier(true)
+                .withResources(IpResourceSet.parse("10.0.0.0/8, AS64496"))
+                .withSubjectInformationAccess(
+                        new X509CertificateInformationAccessDescriptor(X509CertificateInformationAccessDescriptor.ID_AD_CA_REPOSITORY, REPOSITORY_URI),
+                        new X509CertificateInformationAccessDescriptor(X509CertificateInformationAccessDescriptor.ID_AD_RPKI_MANIFEST, MANIFEST_URI));
+    }
+
+    private X509CrlBuilder crlBuilder(BigInteger number) {
+        return new X509CrlBuilder()
+                .withIssuerDN(CA_NAME)
+                .withThisUpdateTime(now.minusMinutes(1))
+                .withNextUpdateTime(now.plusDays(1))
+                .withNumber(number)
+                .withAuthorityKeyIdentifier(CA_KEY_PAIR.getPublic())
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER);
+    }
+
+    private byte[] manifest(Map<URI, byte[]> content) {
+        ManifestCmsBuilder builder = new ManifestCmsBuilder()
+                .withCertificate(eeCertificate(BigInteger.valueOf(1000), new IpResourceSet(), MANIFEST_URI))
+                .withManifestNumber(BigInteger.ONE)
+                .withThisUpdateTime(now.minusMinutes(1))
+                .withNextUpdateTime(now.plusDays(1))
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER);
+        for (Map.Entry<URI, byte[]> entry : content.entrySet()) {
+            builder.addFile(REPOSITORY_URI.relativize(entry.getKey()).toString(), entry.getValue());
+        }
+        return builder.build(EE_KEY_PAIR.getPrivate()).getEncoded();
+    }
+
+    private RoaCms roa(int serial, String prefix) {
+        return new RoaCmsBuilder()
+                .withCertificate(eeCertificate(BigInteger.valueOf(serial + 1), IpResourceSet.parse(prefix), REPOSITORY_URI.resolve("roa-" + serial + ".roa")))
+                .withAsn(new Asn(64496))
+                .withPrefixes(Collections.singletonList(new RoaPrefix(IpRange.parse(prefix))))
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER)
+                .build(EE_KEY_PAIR.getPrivate());
+    }
+
+    private X509ResourceCertificate eeCertificate(BigInteger serial, IpResourceSet resources, URI location) {
+        X509ResourceCertificateBuilder builder = new X509ResourceCertificateBuilder()
+                .withSubjectDN(new X500Principal("CN=ee-" + serial))
+                .withIssuerDN(CA_NAME)
+                .withSerial(serial)
+                .withValidityPeriod(new ValidityPeriod(now.minusMinutes(1), now.plusDays(1)))
+                .withPublicKey(EE_KEY_PAIR.getPublic())
+                .withSigningKeyPair(CA_KEY_PAIR)
+                .withCa(false)
+                .withKeyUsage(KeyUsage.digitalSignature)
+                .withSubjectKeyIdentifier(true)
+                .withAuthorityKeyIdentifier(true)
+                .withCrlDistributionPoints(CRL_URI)
+                .withSubjectInformationAccess(new X509CertificateInformationAccessDescriptor(X509CertificateInformationAccessDescriptor.ID_AD_SIGNED_OBJECT, location));
+        if (resources.isEmpty()) {
+            builder.withInheritedResourceTypes(EnumSet.allOf(IpResourceType.class));
+        } else {
+            builder.withResources(resources);
+        }
+        return builder.build();
+    }
+}
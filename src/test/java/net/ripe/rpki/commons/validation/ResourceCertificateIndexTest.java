@@ -0,0 +1,219 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObjectFile;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.crl.X509CrlBuilder;
+import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
+import net.ripe.rpki.commons.crypto.x509cert.X509CertificateInformationAccessDescriptor;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.objectvalidators.ResourceCertificateIndex;
+import net.ripe.rpki.commons.validation.objectvalidators.X509ResourceCertificateBottomUpValidator;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.DEFAULT_SIGNATURE_PROVIDER;
+import static org.junit.Assert.*;
+
+public class ResourceCertificateIndexTest {
+
+    private static final X500Principal ROOT_NAME = new X500Principal("CN=root");
+    private static final X500Principal CHILD_NAME = new X500Principal("CN=child");
+    private static final ValidityPeriod VALIDITY_PERIOD = new ValidityPeriod(UTC.dateTime().minusMinutes(1), UTC.dateTime().plusYears(1));
+    private static final KeyPair ROOT_KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+    private static final KeyPair CHILD_KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+    private static final KeyPair GRANDCHILD_KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private X509ResourceCertificate root;
+    private X509ResourceCertificate child;
+    private X509ResourceCertificate grandchild;
+    private X509Crl rootCrl;
+    private X509Crl childCrl;
+    private ResourceCertificateIndex index;
+
+    @Before
+    public void setUp() {
+        root = certificate(ROOT_NAME, ROOT_NAME, ROOT_KEY_PAIR, ROOT_KEY_PAIR, null)
+                .withResources(IpResourceSet.parse("10.0.0.0/8, AS64496"))
+                .build();
+        child = certificate(CHILD_NAME, ROOT_NAME, CHILD_KEY_PAIR, ROOT_KEY_PAIR, "rsync://example.net/repo/root.crl")
+                .withInheritedResourceTypes(EnumSet.allOf(IpResourceType.class))
+                .withAuthorityInformationAccess(new X509CertificateInformationAccessDescriptor(X509CertificateInformationAccessDescriptor.ID_CA_CA_ISSUERS, URI.create("rsync://example.net/repo/root.cer")))
+                .build();
+        grandchild = certificate(new X500Principal("CN=grandchild"), CHILD_NAME, GRANDCHILD_KEY_PAIR, CHILD_KEY_PAIR, "rsync://example.net/repo/child/child.crl")
+                .withResources(IpResourceSet.parse("10.1.0.0/16"))
+                .build();
+        rootCrl = crl(ROOT_NAME, ROOT_KEY_PAIR);
+        childCrl = crl(CHILD_NAME, CHILD_KEY_PAIR);
+
+        index = new ResourceCertificateIndex();
+        index.addAll(Arrays.asList(
+                file("repo/root.cer", root.getEncoded()),
+                file("repo/root.crl", rootCrl.getEncoded()),
+                file("repo/child.cer", child.getEncoded()),
+                file("repo/child/child.crl", childCrl.getEncoded()),
+                file("repo/child/grandchild.cer", grandchild.getEncoded()),
+                file("repo/child/grandchild.roa", new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void shouldIndexCertificatesAndCrls() {
+        assertEquals(5, index.size());
+        assertEquals("repo/root.cer", index.findParent(child).getName());
+        assertEquals("repo/child.cer", index.findParent(grandchild).getName());
+        assertEquals("repo/root.crl", index.findCrl(child).getName());
+        assertEquals("repo/child/child.crl", index.findCrl(grandchild).getName());
+        assertEquals(Collections.singletonList("repo/child.cer"), index.findChildren(root.getSubjectKeyIdentifier()));
+        assertEquals(Collections.emptyList(), index.findChildren(grandchild.getSubjectKeyIdentifier()));
+    }
+
+    @Test
+    public void shouldValidateChainUsingIndex() {
+        X509ResourceCertificateBottomUpValidator validator = new X509ResourceCertificateBottomUpValidator(index, root);
+        validator.validate("repo/child/grandchild.cer", grandchild);
+
+        assertFalse(validator.getValidationResult().hasFailures());
+    }
+
+    @Test
+    public void shouldPreferObjectMatchingAiaWhenKeyIsReused() {
+        X509ResourceCertificate reissued = certificate(ROOT_NAME, ROOT_NAME, ROOT_KEY_PAIR, ROOT_KEY_PAIR, null)
+                .withSerial(BigInteger.TEN)
+                .withResources(IpResourceSet.parse("10.0.0.0/8, AS64496"))
+                .build();
+        assertTrue(index.add("aaa/other.cer", reissued.getEncoded()));
+
+        assertEquals("repo/root.cer", index.findParent(child).getName());
+    }
+
+    @Test
+    public void shouldSupportIncrementalUpdates() {
+        assertTrue(index.remove("repo/child.cer"));
+        assertNull(index.findParent(grandchild));
+        assertTrue(index.findChildren(root.getSubjectKeyIdentifier()).isEmpty());
+        assertFalse(index.remove("repo/child.cer"));
+
+        assertTrue(index.add("repo/child.cer", child.getEncoded()));
+        assertEquals("repo/child.cer", index.findParent(grandchild).getName());
+
+        assertFalse(index.add("repo/child.cer", new byte[]{0}));
+        assertNull(index.findParent(grandchild));
+        assertEquals(4, index.size());
+
+        assertFalse("CRL content under a certificate name", index.add("repo/child.cer", childCrl.getEncoded()));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void shouldNotLoseObjectsWhenAddingAndRemovingConcurrently() {
+        byte[] encoded = child.getEncoded();
+        for (int i = 0; i < 500; i++) {
+            ResourceCertificateIndex concurrent = new ResourceCertificateIndex();
+            concurrent.add("old.cer", encoded);
+            Arrays.<Runnable>asList(() -> concurrent.remove("old.cer"), () -> concurrent.add("new.cer", encoded))
+                    .parallelStream().forEach(Runnable::run);
+
+            assertEquals(Collections.singletonList("new.cer"), concurrent.findChildren(root.getSubjectKeyIdentifier()));
+        }
+    }
+
+    @Test
+    public void shouldIndexDirectory() throws IOException {
+        File repo = folder.newFolder("repo");
+        new File(repo, "child").mkdirs();
+        Files.write(new File(repo, "root.cer").toPath(), root.getEncoded());
+        Files.write(new File(repo, "child.cer").toPath(), child.getEncoded());
+        Files.write(new File(repo, "child/child.crl").toPath(), childCrl.getEncoded());
+        Files.write(new File(repo, "child/notes.txt").toPath(), new byte[]{1});
+
+        ResourceCertificateIndex fromDirectory = ResourceCertificateIndex.fromDirectory(folder.getRoot());
+
+        assertEquals(3, fromDirectory.size());
+        assertEquals("repo/child.cer", fromDirectory.findParent(grandchild).getName());
+        assertEquals("repo/child/child.crl", fromDirectory.findCrl(grandchild).getName());
+        assertNull(fromDirectory.findCrl(child));
+    }
+
+    private static X509ResourceCertificateBuilder certificate(X500Principal subject, X500Principal issuer, KeyPair subjectKeyPair, KeyPair issuerKeyPair, String crlUri) {
+        X509ResourceCertificateBuilder builder = new X509ResourceCertificateBuilder()
+                .withSubjectDN(subject)
+                .withIssuerDN(issuer)
+                .withSerial(BigInteger.ONE)
+                .withValidityPeriod(VALIDITY_PERIOD)
+                .withPublicKey(subjectKeyPair.getPublic())
+                .withSigningKeyPair(issuerKeyPair)
+                .withCa(true)
+                .withKeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign)
+                .withSubjectKeyIdentifier(true)
+                .withAuthorityKeyIdentifier(subjectKeyPair != issuerKeyPair);
+        if (crlUri != null) {
+            builder.withCrlDistributionPoints(URI.create(crlUri));
+        }
+        return builder;
+    }
+
+    private static X509Crl crl(X500Principal issuer, KeyPair keyPair) {
+        return new X509CrlBuilder()
+                .withIssuerDN(issuer)
+                .withThisUpdateTime(UTC.dateTime().minusMinutes(1))
+                .withNextUpdateTime(UTC.dateTime().plusDays(1))
+                .withNumber(BigInteger.ONE)
+                .withAuthorityKeyIdentifier(keyPair.getPublic())
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER)
+                .build(keyPair.getPrivate());
+    }
+
+    private static CertificateRepositoryObjectFile<?> file(String name, byte[] content) {
+        return new CertificateRepositoryObjectFile<X509ResourceCertificate>(X509ResourceCertificate.class, name, content);
+    }
+}
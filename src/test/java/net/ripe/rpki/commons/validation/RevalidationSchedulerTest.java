@@ -0,0 +1,160 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.crl.X509CrlBuilder;
+import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.util.UTC;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.DEFAULT_SIGNATURE_PROVIDER;
+import static org.junit.Assert.*;
+
+public class RevalidationSchedulerTest {
+
+    private static final X500Principal NAME = new X500Principal("CN=test");
+    private static final KeyPair KEY_PAIR = PregeneratedKeyPairFactory.getInstance().generate();
+    private static final URI A = URI.create("rsync://example.net/repo/a.cer");
+    private static final URI B = URI.create("rsync://example.net/repo/b.crl");
+    private static final URI C = URI.create("rsync://example.net/repo/c.roa");
+
+    private final DateTime now = UTC.dateTime().withMillisOfSecond(0);
+
+    @Test
+    public void shouldFindNextStateChangeOfCertificatesAndCrls() {
+        DateTime notBefore = now.plusHours(1);
+        DateTime notAfter = now.plusDays(2);
+
+        assertEquals(notBefore.plusMillis(1), RevalidationScheduler.nextStateChange(certificate(notBefore, notAfter), now));
+        assertEquals(notAfter.plusMillis(1), RevalidationScheduler.nextStateChange(certificate(now.minusDays(1), notAfter), now));
+        assertNull(RevalidationScheduler.nextStateChange(certificate(now.minusDays(2), now.minusDays(1)), now));
+        assertEquals(now.plusHours(8).plusMillis(1), RevalidationScheduler.nextStateChange(crl(now.plusHours(8)), now));
+    }
+
+    @Test
+    public void shouldPollDueObjectsInDeadlineOrder() {
+        RevalidationScheduler scheduler = new RevalidationScheduler();
+        scheduler.track(A, now.plusMinutes(3));
+        scheduler.track(B, now.plusMinutes(1));
+        scheduler.track(C, now.plusMinutes(2));
+        scheduler.track(C, now.plusMinutes(10));
+
+        assertEquals(3, scheduler.size());
+        assertEquals(now.plusMinutes(1).getMillis(), scheduler.getNextStateChange().getMillis());
+        assertEquals(Collections.<URI>emptySet(), scheduler.pollDue(now));
+        assertEquals(Arrays.asList(B, A), Arrays.asList(scheduler.pollDue(now.plusMinutes(5)).toArray()));
+        assertEquals(1, scheduler.size());
+
+        scheduler.untrack(C);
+        assertNull(scheduler.getNextStateChange());
+        assertEquals(Collections.<URI>emptySet(), scheduler.pollDue(now.plusDays(1)));
+    }
+
+    @Test
+    public void shouldKeepQueueBoundedWhenTrackingRepeatedly() {
+        RevalidationScheduler scheduler = new RevalidationScheduler();
+        for (int i = 0; i < 10000; i++) {
+            scheduler.track(A, now.plusDays(30));
+            scheduler.track(B, now.plusDays(30).plusMinutes(i));
+            scheduler.track(URI.create("rsync://example.net/repo/" + (i % 10) + ".roa"), now.plusDays(60).plusMinutes(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            scheduler.untrack(URI.create("rsync://example.net/repo/" + i + ".roa"));
+        }
+
+        assertEquals(7, scheduler.size());
+        assertTrue("queue size " + scheduler.getQueueSize(), scheduler.getQueueSize() <= 2 * scheduler.size() + 64);
+        assertEquals(now.plusDays(30).getMillis(), scheduler.getNextStateChange().getMillis());
+    }
+
+    @Test
+    public void shouldCallBackWhenStateChangeIsDue() throws InterruptedException {
+        RevalidationScheduler scheduler = new RevalidationScheduler();
+        scheduler.track(A, now.plusDays(1));
+        BlockingQueue<Set<URI>> revalidated = new ArrayBlockingQueue<Set<URI>>(10);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            scheduler.start(executor, revalidated::add);
+            scheduler.track(B, UTC.dateTime().plusMillis(50));
+
+            assertEquals(Collections.singleton(B), revalidated.poll(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.size());
+
+            scheduler.track(C, UTC.dateTime().minusMillis(1));
+            assertEquals(Collections.singleton(C), revalidated.poll(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    private X509ResourceCertificate certificate(DateTime notBefore, DateTime notAfter) {
+        return new X509ResourceCertificateBuilder()
+                .withSubjectDN(NAME)
+                .withIssuerDN(NAME)
+                .withSerial(BigInteger.ONE)
+                .withValidityPeriod(new ValidityPeriod(notBefore, notAfter))
+                .withPublicKey(KEY_PAIR.getPublic())
+                .withSigningKeyPair(KEY_PAIR)
+                .withCa(true)
+                .withResources(IpResourceSet.parse("10.0.0.0/8"))
+                .build();
+    }
+
+    private X509Crl crl(DateTime nextUpdate) {
+        return new X509CrlBuilder()
+                .withIssuerDN(NAME)
+                .withThisUpdateTime(now.minusMinutes(1))
+                .withNextUpdateTime(nextUpdate)
+                .withNumber(BigInteger.ONE)
+                .withAuthorityKeyIdentifier(KEY_PAIR.getPublic())
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER)
+                .build(KEY_PAIR.getPrivate());
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.commons.validation.roa.VrpCollector;
+import net.ripe.rpki.commons.validation.roa.VrpSet;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.DEFAULT_SIGNATURE_PROVIDER;
+import static org.junit.Assert.*;
+
+public class ValidationCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final URI TA = URI.create("rsync://host/ta.cer");
+    private static final URI CA = URI.create("rsync://host/repo/ca.cer");
+    private static final URI MFT = URI.create("rsync://host/repo/ca/ca.mft");
+    private static final URI CRL = URI.create("rsync://host/repo/ca/ca.crl");
+    private static final URI ROA = URI.create("rsync://host/repo/ca/roa.roa");
+    private static final URI OTHER = URI.create("rsync://host/repo/other.roa");
+    private static final DateTime NOW = new DateTime(2026, 1, 1, 0, 0, 0, 0);
+
+    private static final VrpSet VRPS = new VrpCollector().add(new Asn(65000), IpRange.parse("10.0.0.0/8"), 16, 1).build();
+
+    @Test
+    public void shouldWriteAndLoadCheckpoint() throws IOException {
+        File dir = folder.newFolder();
+        IpResourceSet resources = IpResourceSet.parse("10.0.0.0/8, AS65000");
+        X509ResourceCertificate certificate = caCertificate(resources);
+        writeCheckpoint(dir, new CertificateRepositoryObjectValidationContext(CA, certificate, resources, Arrays.asList("CN=TA", "CN=CA")));
+
+        ValidationCheckpoint checkpoint = ValidationCheckpoint.load(dir);
+
+        CertificateRepositoryObjectValidationContext context = checkpoint.getContexts().get(CA);
+        assertEquals(certificate, context.getCertificate());
+        assertEquals(resources, context.getResources());
+        assertEquals(Arrays.asList("CN=TA", "CN=CA"), context.getSubjectChain());
+        assertEquals(VRPS.toAllowedRoutes(), checkpoint.getVrps().toAllowedRoutes());
+        assertArrayEquals(hash(3), checkpoint.getHash(ROA));
+        assertEquals(new HashSet<URI>(Arrays.asList(TA, CA, MFT, CRL, ROA, OTHER)), checkpoint.getUris());
+
+        ValidationResult result = ValidationResult.withLocation("start");
+        checkpoint.addValidationResults(result);
+        assertTrue(result.hasFailureForLocation(new ValidationLocation(ROA)));
+        assertEquals(1, result.getWarnings(new ValidationLocation(CRL)).size());
+        assertEquals("a", result.getFailures(new ValidationLocation(ROA)).get(0).getParams()[0]);
+        assertEquals("mft.ok", result.getAllValidationChecksForLocation(new ValidationLocation(MFT)).get(0).getKey());
+        assertEquals(new HashSet<URI>(Arrays.asList(CRL, ROA)), checkpoint.getGraph().getDependents(MFT));
+    }
+
+    @Test
+    public void shouldFindObjectsToRevalidate() throws IOException {
+        File dir = folder.newFolder();
+        writeCheckpoint(dir, null);
+        ValidationCheckpoint checkpoint = ValidationCheckpoint.load(dir);
+
+        Map<URI, byte[]> current = currentHashes();
+        assertTrue(checkpoint.findRevalidationNeeded(current, NOW).isEmpty());
+
+        current.put(ROA, hash(9));
+        assertEquals(Collections.singleton(ROA), checkpoint.findRevalidationNeeded(current, NOW));
+
+        current = currentHashes();
+        current.put(MFT, hash(9));
+        assertEquals(new HashSet<URI>(Arrays.asList(MFT, CRL, ROA)), checkpoint.findRevalidationNeeded(current, NOW));
+
+        current = currentHashes();
+        current.remove(CA);
+        assertEquals(new HashSet<URI>(Arrays.asList(CA, MFT, CRL, ROA)), checkpoint.findRevalidationNeeded(current, NOW));
+
+        assertEquals(new HashSet<URI>(Arrays.asList(CRL, MFT, ROA)), checkpoint.findRevalidationNeeded(currentHashes(), NOW.plusDays(2)));
+    }
+
+    @Test
+    public void shouldKeepPreviousCheckpointWhenNotFinished() throws IOException {
+        File dir = folder.newFolder();
+        writeCheckpoint(dir, null);
+
+        try (ValidationCheckpointWriter writer = new ValidationCheckpointWriter(dir)) {
+            writer.addContext(new CertificateRepositoryObjectValidationContext(CA, caCertificate(IpResourceSet.parse("10.0.0.0/8")),
+                    IpResourceSet.parse("10.0.0.0/8"), Arrays.asList("CN=TA", "CN=CA")));
+            writer.flush();
+        }
+
+        ValidationCheckpoint checkpoint = ValidationCheckpoint.load(dir);
+        assertArrayEquals(hash(3), checkpoint.getHash(ROA));
+        assertTrue(checkpoint.getContexts().isEmpty());
+        assertFalse(new File(dir, ValidationCheckpointWriter.LOG_FILE + ".tmp").exists());
+    }
+
+    @Test(expected = ValidationCheckpointException.class)
+    public void shouldRejectCorruptedCheckpoint() throws IOException {
+        File dir = folder.newFolder();
+        writeCheckpoint(dir, null);
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, ValidationCheckpointWriter.LOG_FILE), "rw")) {
+            raf.seek(30);
+            raf.write(raf.read() ^ 0xff);
+        }
+
+        ValidationCheckpoint.load(dir);
+    }
+
+    private void writeCheckpoint(File dir, CertificateRepositoryObjectValidationContext context) {
+        ValidationDependencyGraph graph = new ValidationDependencyGraph();
+        graph.record(TA, content(0), null, null, null, Collections.<ValidationCheck>emptyList());
+        graph.record(CA, content(1), TA, null, null, Collections.<ValidationCheck>emptyList());
+        graph.record(MFT, content(2), CA, CRL, null, Collections.singletonList(new ValidationCheck(ValidationStatus.PASSED, "mft.ok")), NOW.plusDays(2));
+        graph.record(CRL, content(4), CA, null, MFT, Collections.singletonList(new ValidationCheck(ValidationStatus.WARNING, "crl.next.update")), NOW.plusDays(1));
+        graph.record(ROA, content(3), CA, CRL, MFT, Collections.singletonList(new ValidationCheck(ValidationStatus.ERROR, "roa.invalid", "a")));
+        graph.record(OTHER, content(5), TA, null, null, Collections.<ValidationCheck>emptyList());
+        try (ValidationCheckpointWriter writer = new ValidationCheckpointWriter(dir)) {
+            if (context != null) {
+                writer.addContext(context);
+            }
+            writer.finish(graph, VRPS);
+        }
+    }
+
+    private static X509ResourceCertificate caCertificate(IpResourceSet resources) {
+        KeyPair keyPair = PregeneratedKeyPairFactory.getInstance().generate();
+        return new X509ResourceCertificateBuilder()
+                .withSubjectDN(new X500Principal("CN=ca"))
+                .withIssuerDN(new X500Principal("CN=ca"))
+                .withSerial(BigInteger.ONE)
+                .withValidityPeriod(new ValidityPeriod(NOW.minusDays(1), NOW.plusYears(1)))
+                .withPublicKey(keyPair.getPublic())
+                .withSigningKeyPair(keyPair)
+                .withCa(true)
+                .withKeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign)
+                .withResources(resources)
+                .withSignatureProvider(DEFAULT_SIGNATURE_PROVIDER)
+                .build();
+    }
+
+    private static Map<URI, byte[]> currentHashes() {
+        Map<URI, byte[]> result = new HashMap<URI, byte[]>();
+        result.put(TA, hash(0));
+        result.put(CA, hash(1));
+        result.put(MFT, hash(2));
+        result.put(CRL, hash(4));
+        result.put(ROA, hash(3));
+        result.put(OTHER, hash(5));
+        return result;
+    }
+
+    private static byte[] content(int value) {
+        return new byte[]{(byte) value};
+    }
+
+    private static byte[] hash(int value) {
+        return ManifestCms.hashContents(content(value));
+    }
+}
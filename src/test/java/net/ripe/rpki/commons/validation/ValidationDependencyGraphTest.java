@@ -0,0 +1,169 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation;
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ValidationDependencyGraphTest {
+
+    private static final URI TA = URI.create("rsync://example.net/ta.cer");
+    private static final URI CA = URI.create("rsync://example.net/repo/ca.cer");
+    private static final URI TA_MFT = URI.create("rsync://example.net/repo/ta.mft");
+    private static final URI TA_CRL = URI.create("rsync://example.net/repo/ta.crl");
+    private static final URI CA_MFT = URI.create("rsync://example.net/repo/ca/ca.mft");
+    private static final URI CA_CRL = URI.create("rsync://example.net/repo/ca/ca.crl");
+    private static final URI ROA = URI.create("rsync://example.net/repo/ca/a.roa");
+    private static final URI OTHER_ROA = URI.create("rsync://example.net/repo/other.roa");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ValidationDependencyGraph graph;
+    private Map<URI, byte[]> files;
+
+    @Before
+    public void setUp() {
+        files = new HashMap<URI, byte[]>();
+        for (URI uri : Arrays.asList(TA, CA, TA_MFT, TA_CRL, CA_MFT, CA_CRL, ROA, OTHER_ROA)) {
+            files.put(uri, uri.toString().getBytes());
+        }
+        graph = new ValidationDependencyGraph();
+        record(TA, null, null, null);
+        record(TA_MFT, TA, TA_CRL, null);
+        record(TA_CRL, TA, null, TA_MFT);
+        record(CA, TA, TA_CRL, TA_MFT);
+        record(OTHER_ROA, TA, TA_CRL, TA_MFT);
+        record(CA_MFT, CA, CA_CRL, null);
+        record(CA_CRL, CA, null, CA_MFT);
+        graph.record(ROA, files.get(ROA), CA, CA_CRL, CA_MFT, Collections.singletonList(new ValidationCheck(ValidationStatus.ERROR, "roa.error", "p1", null)));
+    }
+
+    @Test
+    public void shouldFindTransitivelyAffectedObjects() {
+        assertEquals(new HashSet<URI>(Arrays.asList(ROA)), graph.findAffected(Collections.singleton(ROA)));
+        assertEquals(new HashSet<URI>(Arrays.asList(CA_CRL, CA_MFT, ROA)), graph.findAffected(Collections.singleton(CA_CRL)));
+        assertEquals(new HashSet<URI>(Arrays.asList(CA, CA_MFT, CA_CRL, ROA)), graph.findAffected(Collections.singleton(CA)));
+        assertEquals(8, graph.findAffected(Collections.singleton(TA)).size());
+    }
+
+    @Test
+    public void shouldFindChangedObjects() {
+        files.put(ROA, new byte[]{1});
+        files.remove(OTHER_ROA);
+        URI added = URI.create("rsync://example.net/repo/ca/b.roa");
+        files.put(added, new byte[]{2});
+
+        assertEquals(new HashSet<URI>(Arrays.asList(ROA, OTHER_ROA, added)), graph.findChanged(files));
+        assertEquals(Collections.singleton(CA), graph.findByHashes(Collections.singleton(ManifestCms.hashContents(CA.toString().getBytes()))));
+    }
+
+    @Test
+    public void shouldAddCachedResultsForLocationsNotValidated() {
+        ValidationResult result = ValidationResult.withLocation(CA_MFT);
+        result.pass("fresh.check");
+
+        graph.addCachedResults(result);
+
+        assertEquals(8, result.getValidatedLocations().size());
+        assertEquals(1, result.getAllValidationChecksForLocation(new ValidationLocation(CA_MFT)).size());
+        assertEquals("fresh.check", result.getAllValidationChecksForLocation(new ValidationLocation(CA_MFT)).get(0).getKey());
+        assertTrue(result.hasFailureForLocation(new ValidationLocation(ROA)));
+        assertFalse(graph.isValid(ROA));
+        assertTrue(graph.isValid(CA));
+    }
+
+    @Test
+    public void shouldUpdateDependenciesWhenObjectIsRecordedAgain() {
+        graph.record(ROA, files.get(ROA), TA, TA_CRL, TA_MFT, Collections.<ValidationCheck>emptyList());
+
+        assertFalse(graph.getDependents(CA).contains(ROA));
+        assertTrue(graph.getDependents(TA_MFT).contains(ROA));
+
+        graph.remove(ROA);
+        assertFalse(graph.getDependents(TA_MFT).contains(ROA));
+        assertEquals(7, graph.size());
+    }
+
+    @Test
+    public void shouldPersistGraph() {
+        File file = new File(folder.getRoot(), "graph.bin");
+        graph.writeTo(file);
+
+        ValidationDependencyGraph read = ValidationDependencyGraph.readFrom(file);
+
+        assertEquals(graph.size(), read.size());
+        assertEquals(graph.findAffected(Collections.singleton(CA)), read.findAffected(Collections.singleton(CA)));
+        assertEquals(Collections.<URI>emptySet(), read.findChanged(files));
+        assertEquals(graph.getChecks(ROA), read.getChecks(ROA));
+        assertArrayEquals(new String[]{"p1", null}, read.getChecks(ROA).get(0).getParams());
+        assertFalse(new File(folder.getRoot(), "graph.bin.tmp").exists());
+    }
+
+    @Test
+    public void shouldPersistChecksWithParametersLongerThan64KB() {
+        String resources = StringUtils.repeat("10.0.0.0/24, ", 10000);
+        graph.record(ROA, files.get(ROA), CA, CA_CRL, CA_MFT, Collections.singletonList(new ValidationCheck(ValidationStatus.ERROR, "roa.resources", resources)));
+        File file = new File(folder.getRoot(), "graph.bin");
+        graph.writeTo(file);
+
+        ValidationDependencyGraph read = ValidationDependencyGraph.readFrom(file);
+
+        assertArrayEquals(new String[]{resources}, read.getChecks(ROA).get(0).getParams());
+    }
+
+    @Test(expected = ValidationDependencyGraphException.class)
+    public void shouldRejectInvalidFile() throws IOException {
+        File file = new File(folder.getRoot(), "graph.bin");
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        ValidationDependencyGraph.readFrom(file);
+    }
+
+    private void record(URI uri, URI issuer, URI crl, URI manifest) {
+        graph.record(uri, files.get(uri), issuer, crl, manifest, Collections.singletonList(new ValidationCheck(ValidationStatus.PASSED, "check")));
+    }
+}
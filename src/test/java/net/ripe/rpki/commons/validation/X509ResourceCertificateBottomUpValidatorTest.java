@@ -39,6 +39,7 @@ import net.ripe.rpki.commons.crypto.util.PregeneratedKeyPairFactory;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
 import net.ripe.rpki.commons.util.UTC;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateChainCache;
 import net.ripe.rpki.commons.validation.objectvalidators.ResourceCertificateLocator;
 import net.ripe.rpki.commons.validation.objectvalidators.X509ResourceCertificateBottomUpValidator;
 import org.apache.commons.lang.Validate;
@@ -51,6 +52,7 @@ import java.math.BigInteger;
 import java.net.URI;
 import java.security.KeyPair;
 import java.security.cert.CRLException;
+import java.util.Collections;
 import java.util.EnumSet;
 
 import static net.ripe.rpki.commons.crypto.x509cert.X509CertificateBuilderHelper.*;
@@ -86,6 +88,7 @@ public class X509ResourceCertificateBottomUpValidatorTest {
 
     private X509Crl rootCrl;
     private X509Crl childCrl;
+    private int parentLookups;
 
     @Before
     public void setUp() {
@@ -233,7 +236,94 @@ public class X509ResourceCertificateBottomUpValidatorTest {
         assertTrue(ValidationString.CRL_SIGNATURE_VALID.equals(validationResult.getFailures(CHILD_VALIDATION_LOCATION).get(0).getKey()));
     }
 
+    @Test
+    public void shouldOnlyValidateLastHopWhenParentIsCached() {
+        grandchild = createSecondChildBuilder().build();
+        CertificateChainCache cache = new CertificateChainCache();
+
+        ValidationResult first = validateWithCache(cache, "grandchild", grandchild);
+        assertFalse(first.hasFailures());
+        assertEquals(2, parentLookups);
+        assertEquals(3, cache.size());
+
+        parentLookups = 0;
+        ValidationResult second = validateWithCache(cache, "grandchild", grandchild);
+        assertFalse(second.hasFailures());
+        assertEquals(2, parentLookups);
+        assertFalse(second.getAllValidationChecksForLocation(new ValidationLocation("grandchild")).isEmpty());
+        assertTrue(second.getAllValidationChecksForLocation(new ValidationLocation("child")).isEmpty());
+    }
+
+    @Test
+    public void shouldValidateFullChainWhenCachedParentChanged() {
+        grandchild = createSecondChildBuilder().build();
+        CertificateChainCache cache = new CertificateChainCache();
+        validateWithCache(cache, "grandchild", grandchild);
+
+        child = createChildBuilder().withSerial(FIRST_CHILD_SERIAL_NUMBER.add(BigInteger.TEN)).withValidityPeriod(EXPIRED_VALIDITY_PERIOD).build();
+        parentLookups = 0;
+        ValidationResult result = validateWithCache(cache, "grandchild", grandchild);
+
+        assertEquals(2, parentLookups);
+        assertTrue(result.hasFailureForLocation(new ValidationLocation("child")));
+    }
+
+    @Test
+    public void shouldValidateFullChainWhenCachedAncestorChanged() {
+        grandchild = createSecondChildBuilder().build();
+        CertificateChainCache cache = new CertificateChainCache();
+        validateWithCache(cache, "grandchild", grandchild);
+
+        root = getRootResourceCertificate(IpResourceSet.parse("10.0.0.0/8"));
+        parentLookups = 0;
+        ValidationResult result = validateWithCache(cache, "grandchild", grandchild);
+
+        assertEquals(3, parentLookups);
+        assertFalse(result.getAllValidationChecksForLocation(new ValidationLocation("child")).isEmpty());
+        assertTrue(result.hasFailureForLocation(new ValidationLocation("grandchild")));
+    }
+
+    @Test
+    public void shouldValidateFullChainWhenCachedParentRevokedByNewCrl() {
+        grandchild = createSecondChildBuilder().build();
+        CertificateChainCache cache = new CertificateChainCache();
+        validateWithCache(cache, "grandchild", grandchild);
+
+        rootCrl = getRootCRL().withNumber(BigInteger.valueOf(2)).addEntry(FIRST_CHILD_SERIAL_NUMBER, UTC.dateTime().minusMinutes(1)).build(ROOT_KEY_PAIR.getPrivate());
+        parentLookups = 0;
+        ValidationResult result = validateWithCache(cache, "grandchild", grandchild);
+
+        assertEquals(3, parentLookups);
+        assertTrue(result.hasFailureForLocation(new ValidationLocation("child")));
+    }
+
+    @Test
+    public void shouldNotCacheFailedCertificates() {
+        child = createChildBuilder().withValidityPeriod(EXPIRED_VALIDITY_PERIOD).build();
+        grandchild = createSecondChildBuilder().build();
+        CertificateChainCache cache = new CertificateChainCache();
+
+        validateWithCache(cache, "grandchild", grandchild);
+        parentLookups = 0;
+        ValidationResult result = validateWithCache(cache, "grandchild", grandchild);
+
+        assertEquals(1, cache.size());
+        assertEquals(2, parentLookups);
+        assertTrue(result.hasFailureForLocation(new ValidationLocation("child")));
+    }
+
+    private ValidationResult validateWithCache(CertificateChainCache cache, String location, X509ResourceCertificate certificate) {
+        X509ResourceCertificateBottomUpValidator validator = new X509ResourceCertificateBottomUpValidator(new ValidationOptions(),
+                ValidationResult.withLocation(location), new ResourceCertificateLocatorImpl(), Collections.singletonList(root), cache);
+        validator.validate(location, certificate);
+        return validator.getValidationResult();
+    }
+
     private X509ResourceCertificate getRootResourceCertificate() {
+        return getRootResourceCertificate(ROOT_RESOURCE_SET);
+    }
+
+    private X509ResourceCertificate getRootResourceCertificate(IpResourceSet resources) {
         X509ResourceCertificateBuilder builder = new X509ResourceCertificateBuilder();
 
         builder.withSubjectDN(ROOT_CERTIFICATE_NAME);
@@ -245,7 +335,7 @@ public class X509ResourceCertificateBottomUpValidatorTest {
         builder.withKeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign);
         builder.withAuthorityKeyIdentifier(true);
         builder.withSubjectKeyIdentifier(true);
-        builder.withResources(ROOT_RESOURCE_SET);
+        builder.withResources(resources);
         builder.withAuthorityKeyIdentifier(false);
         builder.withSigningKeyPair(ROOT_KEY_PAIR);
         return builder.build();
@@ -319,6 +409,7 @@ public class X509ResourceCertificateBottomUpValidatorTest {
         @Override
         public CertificateRepositoryObjectFile<X509ResourceCertificate> findParent(X509ResourceCertificate certificate) {
             Validate.isTrue(!certificate.isRoot());
+            parentLookups++;
             if (certificate.equals(grandchild)) {
                 return new CertificateRepositoryObjectFile<X509ResourceCertificate>(X509ResourceCertificate.class, "child", child.getEncoded());
             } else if (certificate.equals(child)) {
@@ -0,0 +1,154 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.Ipv4Address;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.roa.Roa;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VrpCollectorTest {
+
+    static Roa roa(final long asn, final RoaPrefix... prefixes) {
+        return new Roa() {
+            @Override
+            public Asn getAsn() {
+                return new Asn(asn);
+            }
+
+            @Override
+            public ValidityPeriod getValidityPeriod() {
+                return null;
+            }
+
+            @Override
+            public List<RoaPrefix> getPrefixes() {
+                return Arrays.asList(prefixes);
+            }
+        };
+    }
+
+    static RoaPrefix prefix(String prefix, Integer maximumLength) {
+        return new RoaPrefix(IpRange.parse(prefix), maximumLength);
+    }
+
+    @Test
+    public void shouldExtractSortedAllowedRoutes() {
+        VrpSet subject = new VrpCollector()
+                .add(roa(65001, prefix("10.1.0.0/16", 24), prefix("2001:db8::/32", null)))
+                .add(roa(65000, prefix("10.0.0.0/8", null)))
+                .build();
+
+        assertEquals(Arrays.asList(
+                new AllowedRoute(new Asn(65000), IpRange.parse("10.0.0.0/8"), 8),
+                new AllowedRoute(new Asn(65001), IpRange.parse("10.1.0.0/16"), 24),
+                new AllowedRoute(new Asn(65001), IpRange.parse("2001:db8::/32"), 32)), subject.toAllowedRoutes());
+        assertEquals(2, subject.getIpv4().size());
+        assertEquals(1, subject.getIpv6().size());
+    }
+
+    @Test
+    public void shouldDeduplicateUsingEffectiveMaximumLength() {
+        VrpSet subject = new VrpCollector()
+                .add(roa(65000, prefix("10.0.0.0/8", null), prefix("10.0.0.0/8", 8)))
+                .add(roa(65000, prefix("10.0.0.0/8", null)))
+                .add(roa(65000, prefix("10.0.0.0/8", 16)))
+                .build();
+
+        assertEquals(2, subject.size());
+        assertEquals(8, subject.getIpv4().getMaximumLength(0));
+        assertEquals(2, subject.getIpv4().getReferenceCount(0));
+        assertEquals(16, subject.getIpv4().getMaximumLength(1));
+        assertEquals(1, subject.getIpv4().getReferenceCount(1));
+    }
+
+    @Test
+    public void shouldDeduplicateLargeRoa() {
+        RoaPrefix[] prefixes = new RoaPrefix[3000];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = new RoaPrefix(IpRange.prefix(new Ipv4Address((long) (i % 1000) << 8), 24), null);
+        }
+        VrpSet subject = new VrpCollector()
+                .add(roa(65000, prefixes))
+                .add(roa(65000, prefix("0.0.1.0/24", null), prefix("2001:db8::/32", null), prefix("2001:db8::/32", 32)))
+                .build();
+
+        assertEquals(1000, subject.getIpv4().size());
+        assertEquals(1, subject.getIpv4().getReferenceCount(0));
+        assertEquals(2, subject.getIpv4().getReferenceCount(1));
+        assertEquals(1, subject.getIpv6().size());
+        assertEquals(1, subject.getIpv6().getReferenceCount(0));
+    }
+
+    @Test
+    public void shouldMergeSetsOfMultipleTrustAnchors() {
+        VrpSet ta1 = new VrpCollector().add(roa(65000, prefix("10.0.0.0/8", null), prefix("2001:db8::/32", 48))).build();
+        VrpSet ta2 = new VrpCollector().add(roa(65000, prefix("10.0.0.0/8", null))).build();
+        VrpSet ta3 = new VrpCollector().add(roa(4200000000L, prefix("192.168.0.0/16", null))).build();
+
+        VrpSet merged = VrpSet.mergeAll(Arrays.asList(ta1, ta2, ta3));
+
+        assertEquals(3, merged.size());
+        assertEquals(2, merged.getIpv4().getReferenceCount(0));
+        assertEquals(4200000000L, merged.getIpv4().getAsn(1));
+        assertTrue(merged.contains(new AllowedRoute(new Asn(65000), IpRange.parse("2001:db8::/32"), 48)));
+        assertFalse(merged.contains(new AllowedRoute(new Asn(65001), IpRange.parse("10.0.0.0/8"), 8)));
+    }
+
+    @Test
+    public void shouldSortLargeInput() {
+        VrpCollector collector = new VrpCollector();
+        for (int i = 1000; i > 0; i--) {
+            collector.add(new Asn(i % 7), IpRange.prefix(new Ipv4Address((long) i << 8), 24), 24, 1);
+            collector.add(new Asn(i % 7), IpRange.prefix(new Ipv4Address((long) i << 8), 24), 24, 1);
+        }
+        VrpTable table = collector.build().getIpv4();
+
+        assertEquals(1000, table.size());
+        for (int i = 1; i < table.size(); i++) {
+            assertTrue(table.compareEntries(i - 1, table, i) < 0);
+            assertEquals(2, table.getReferenceCount(i));
+        }
+    }
+
+    @Test
+    public void mergeOfEmptySetsShouldBeEmpty() {
+        assertTrue(VrpSet.mergeAll(Arrays.<VrpSet>asList()).isEmpty());
+        assertTrue(VrpSet.EMPTY.merge(VrpSet.EMPTY).isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.Ipv4Address;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static net.ripe.rpki.commons.validation.roa.VrpCollectorTest.prefix;
+import static net.ripe.rpki.commons.validation.roa.VrpCollectorTest.roa;
+import static org.junit.Assert.*;
+
+public class VrpSetDeltaTest {
+
+    private static final AllowedRoute ROUTE_1 = new AllowedRoute(new Asn(65000), IpRange.parse("10.0.0.0/8"), 8);
+    private static final AllowedRoute ROUTE_2 = new AllowedRoute(new Asn(65001), IpRange.parse("192.168.0.0/16"), 24);
+    private static final AllowedRoute ROUTE_3 = new AllowedRoute(new Asn(65002), IpRange.parse("2001:db8::/32"), 48);
+
+    private static VrpSet set(AllowedRoute... routes) {
+        VrpCollector collector = new VrpCollector();
+        for (AllowedRoute route : routes) {
+            collector.add(route);
+        }
+        return collector.build();
+    }
+
+    @Test
+    public void shouldComputeAddedAndRemoved() {
+        VrpSetDelta delta = VrpSetDelta.compute(1, set(ROUTE_1, ROUTE_2), 2, set(ROUTE_2, ROUTE_3));
+
+        assertEquals(1, delta.getFromSerial());
+        assertEquals(2, delta.getToSerial());
+        assertEquals(Collections.singletonList(ROUTE_3), delta.getAdded().toAllowedRoutes());
+        assertEquals(Collections.singletonList(ROUTE_1), delta.getRemoved().toAllowedRoutes());
+    }
+
+    @Test
+    public void shouldIgnoreReferenceCounts() {
+        VrpSet from = new VrpCollector().add(roa(65000, prefix("10.0.0.0/8", null))).build();
+        VrpSet to = new VrpCollector().add(roa(65000, prefix("10.0.0.0/8", null))).add(roa(65000, prefix("10.0.0.0/8", null))).build();
+
+        assertTrue(VrpSetDelta.compute(1, from, 2, to).isEmpty());
+    }
+
+    @Test
+    public void shouldComposeDeltas() {
+        VrpSet s0 = set(ROUTE_1);
+        VrpSet s1 = set(ROUTE_2);
+        VrpSet s2 = set(ROUTE_1, ROUTE_3);
+
+        VrpSetDelta composed = VrpSetDelta.compute(0, s0, 1, s1).compose(VrpSetDelta.compute(1, s1, 2, s2));
+
+        assertEquals(0, composed.getFromSerial());
+        assertEquals(2, composed.getToSerial());
+        assertEquals(Collections.singletonList(ROUTE_3), composed.getAdded().toAllowedRoutes());
+        assertTrue(composed.getRemoved().isEmpty());
+        assertEquals(s2.toAllowedRoutes(), composed.applyTo(s0).toAllowedRoutes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotComposeNonConsecutiveDeltas() {
+        VrpSetDelta.empty(1).compose(VrpSetDelta.empty(2));
+    }
+
+    @Test
+    public void shouldCompareSerialsWithWrapAround() {
+        assertTrue(VrpSetDelta.isSerialBefore(1, 2));
+        assertTrue(VrpSetDelta.isSerialBefore(-1, 0));
+        assertFalse(VrpSetDelta.isSerialBefore(0, -1));
+        assertFalse(VrpSetDelta.isSerialBefore(5, 5));
+    }
+
+    @Test
+    public void historyShouldStackDeltasSinceSerial() {
+        VrpSetHistory history = new VrpSetHistory(10, set(ROUTE_1), 2);
+
+        assertEquals(11, history.update(set(ROUTE_1, ROUTE_2)).getToSerial());
+        assertEquals(11, history.update(set(ROUTE_1, ROUTE_2)).getToSerial());
+        history.update(set(ROUTE_2, ROUTE_3));
+        history.update(set(ROUTE_3));
+
+        assertEquals(13, history.getSerial());
+        assertNull(history.getDeltaSince(10));
+        VrpSetDelta since11 = history.getDeltaSince(11);
+        assertEquals(Collections.singletonList(ROUTE_3), since11.getAdded().toAllowedRoutes());
+        assertEquals(Arrays.asList(ROUTE_1, ROUTE_2), since11.getRemoved().toAllowedRoutes());
+        assertTrue(history.getDeltaSince(13).isEmpty());
+        assertNull(history.getDeltaSince(42));
+    }
+
+    @Test
+    public void shouldHandleLargeSets() {
+        VrpCollector before = new VrpCollector(500000);
+        VrpCollector after = new VrpCollector(500000);
+        for (int i = 0; i < 500000; i++) {
+            IpRange prefix = IpRange.prefix(new Ipv4Address((long) i << 8), 24);
+            before.add(new Asn(i % 1000), prefix, 24, 1);
+            if (i % 10 != 0) {
+                after.add(new Asn(i % 1000), prefix, 24, 1);
+            } else {
+                after.add(new Asn(i % 1000 + 1), prefix, 24, 1);
+            }
+        }
+
+        VrpSetDelta delta = VrpSetDelta.compute(1, before.build(), 2, after.build());
+
+        assertEquals(50000, delta.getAdded().size());
+        assertEquals(50000, delta.getRemoved().size());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.commons.validation.roa;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static net.ripe.rpki.commons.validation.roa.VrpCollectorTest.prefix;
+import static net.ripe.rpki.commons.validation.roa.VrpCollectorTest.roa;
+import static org.junit.Assert.*;
+
+public class VrpSetFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final VrpSet VRPS = new VrpCollector()
+            .add(roa(65000, prefix("10.0.0.0/8", 16), prefix("2001:db8::/32", 48)))
+            .add(roa(65001, prefix("10.0.0.0/8", null), prefix("192.168.0.0/16", 24)))
+            .add(roa(65000, prefix("10.0.0.0/8", 16)))
+            .build();
+
+    @Test
+    public void shouldWriteAndMapVrpSet() throws IOException {
+        File file = new File(folder.getRoot(), "vrps.bin");
+        VrpSetFile.write(VRPS, file);
+
+        VrpSet mapped = VrpSetFile.map(file);
+
+        assertEquals(VRPS.toAllowedRoutes(), mapped.toAllowedRoutes());
+        assertEquals(2, mapped.getIpv4().getReferenceCount(1));
+        assertEquals(VrpSetFile.HEADER_SIZE + 3 * 16 + 28, file.length());
+        assertFalse(new File(folder.getRoot(), "vrps.bin.tmp").exists());
+    }
+
+    @Test
+    public void shouldValidateRoutesFromMappedFile() throws IOException {
+        File file = new File(folder.getRoot(), "vrps.bin");
+        VrpSetFile.write(VRPS, file);
+        VrpSet mapped = VrpSetFile.map(file);
+        RouteOriginValidationPolicy policy = new RouteOriginValidationPolicy();
+
+        assertEquals(RouteValidityState.VALID, policy.validateAnnouncedRoute(mapped, route(65000, "10.1.0.0/16")));
+        assertEquals(RouteValidityState.VALID, policy.validateAnnouncedRoute(mapped, route(65001, "10.0.0.0/8")));
+        assertEquals(RouteValidityState.INVALID_LENGTH, policy.validateAnnouncedRoute(mapped, route(65001, "10.1.0.0/16")));
+        assertEquals(RouteValidityState.INVALID_ASN, policy.validateAnnouncedRoute(mapped, route(65002, "10.1.0.0/16")));
+        assertEquals(RouteValidityState.UNKNOWN, policy.validateAnnouncedRoute(mapped, route(65000, "11.0.0.0/8")));
+        assertEquals(RouteValidityState.VALID, policy.validateAnnouncedRoute(mapped, route(65000, "2001:db8:1::/48")));
+        assertEquals(RouteValidityState.INVALID_LENGTH, policy.validateAnnouncedRoute(mapped, route(65000, "2001:db8:1:1::/64")));
+        assertEquals(RouteValidityState.UNKNOWN, policy.validateAnnouncedRoute(mapped, route(65000, "2001:db8::/31")));
+    }
+
+    @Test(expected = VrpSetFileException.class)
+    public void shouldRejectCorruptedData() throws IOException {
+        File file = new File(folder.getRoot(), "vrps.bin");
+        VrpSetFile.write(VRPS, file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(VrpSetFile.HEADER_SIZE + 3);
+            raf.write(0xff);
+        }
+
+        VrpSetFile.map(file);
+    }
+
+    @Test(expected = VrpSetFileException.class)
+    public void shouldRejectCorruptedHeader() throws IOException {
+        File file = new File(folder.getRoot(), "vrps.bin");
+        VrpSetFile.write(VRPS, file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(20);
+            raf.write(1);
+        }
+
+        VrpSetFile.map(file, false);
+    }
+
+    private static AnnouncedRoute route(long asn, String prefix) {
+        return new AnnouncedRoute(new Asn(asn), IpRange.parse(prefix));
+    }
+}